@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.latency;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and counters of the hot paths of the permission, role and Safety Center code.
+ *
+ * <p>Each {@link HotPath} has a fixed-bucket histogram of its latencies, counters of its calls,
+ * total and maximum latencies, and a ring buffer of its most recent latencies. Recording a latency
+ * doesn't allocate or lock, so it can be done on any thread and while holding any lock.
+ *
+ * <p>Latencies are recorded as follows:
+ *
+ * <pre>{@code
+ * long startNanos = LatencyStats.start();
+ * try {
+ *     ...
+ * } finally {
+ *     LatencyStats.record(HotPath.SOME_HOT_PATH, startNanos);
+ * }
+ * }</pre>
+ *
+ * <p>Setting {@link #ENABLED} to {@code false} turns these calls into constants that are inlined
+ * away.
+ *
+ * <p>This class is thread safe.
+ */
+public final class LatencyStats {
+
+    /** Whether latencies are recorded at all. */
+    public static final boolean ENABLED = true;
+
+    /** The dump in which the latencies of a {@link HotPath} are printed. */
+    public enum Dump {
+        /** {@code dumpsys role}. */
+        ROLE,
+        /** {@code dumpsys safety_center}. */
+        SAFETY_CENTER,
+        /** {@code dumpsys activity service com.android.permissioncontroller}. */
+        PERMISSION_CONTROLLER
+    }
+
+    /** The hot paths whose latencies are recorded. */
+    public enum HotPath {
+        /** Granting the default roles of a user, from the request to the controller's response. */
+        ROLE_GRANT_DEFAULT_ROLES(Dump.ROLE),
+        /** Reading the runtime permissions of a user from disk. */
+        RUNTIME_PERMISSIONS_READ(Dump.ROLE),
+        /** Writing the runtime permissions of a user to disk. */
+        RUNTIME_PERMISSIONS_WRITE(Dump.ROLE),
+        /** Assembling the {@code SafetyCenterData} of a package and profile group. */
+        SAFETY_CENTER_ASSEMBLE_DATA(Dump.SAFETY_CENTER),
+        /** Delivering an update to all the Safety Center listeners of a profile group. */
+        SAFETY_CENTER_DELIVER_TO_LISTENERS(Dump.SAFETY_CENTER),
+        /** Creating a value that isn't cached by a PermissionController {@code DataRepository}. */
+        DATA_REPOSITORY_LOAD(Dump.PERMISSION_CONTROLLER),
+        /** Getting a value that is cached by a PermissionController {@code DataRepository}. */
+        DATA_REPOSITORY_HIT(Dump.PERMISSION_CONTROLLER);
+
+        @NonNull private final Dump mDump;
+
+        HotPath(@NonNull Dump dump) {
+            mDump = dump;
+        }
+    }
+
+    /**
+     * The number of buckets of each histogram.
+     *
+     * <p>Bucket {@code 0} counts latencies under 1us, and bucket {@code i > 0} counts latencies in
+     * {@code [2^(i-1)us, 2^i us)}. The last bucket is unbounded, and counts latencies of about 4s
+     * and more.
+     */
+    @VisibleForTesting static final int BUCKET_COUNT = 24;
+
+    /** The number of most recent latencies kept for each {@link HotPath}, a power of two. */
+    @VisibleForTesting static final int RECENT_COUNT = 16;
+
+    private static final long NANOS_PER_MICRO = 1_000;
+
+    private static final Recorder[] sRecorders = createRecorders();
+
+    private LatencyStats() {}
+
+    /** Returns the start time to pass to {@link #record}. */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /** Records the latency of the given {@link HotPath}, from the given {@link #start} time. */
+    public static void record(@NonNull HotPath hotPath, long startNanos) {
+        if (!ENABLED) {
+            return;
+        }
+        recordNanos(hotPath, System.nanoTime() - startNanos);
+    }
+
+    /** Records the given latency of the given {@link HotPath}. */
+    @VisibleForTesting
+    static void recordNanos(@NonNull HotPath hotPath, long durationNanos) {
+        sRecorders[hotPath.ordinal()].record(Math.max(durationNanos, 0));
+    }
+
+    /** Returns the histogram bucket of the given latency. */
+    @VisibleForTesting
+    static int getBucket(long durationNanos) {
+        long durationMicros = durationNanos / NANOS_PER_MICRO;
+        return Math.min(64 - Long.numberOfLeadingZeros(durationMicros), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Returns the exclusive upper bound of the given histogram bucket in microseconds, or {@link
+     * Long#MAX_VALUE} for the last bucket.
+     */
+    @VisibleForTesting
+    static long getBucketUpperBoundMicros(int bucket) {
+        return bucket < BUCKET_COUNT - 1 ? 1L << bucket : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the upper bound in microseconds of the bucket holding the given percentile of the
+     * given histogram, or {@code 0} if it is empty.
+     */
+    @VisibleForTesting
+    static long getPercentileUpperBoundMicros(@NonNull long[] bucketCounts, int percentile) {
+        long count = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            count += bucketCounts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        // The rank of the percentile, rounded up so that the 100th percentile is the last one.
+        long rank = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+            if (seen >= rank) {
+                return getBucketUpperBoundMicros(i);
+            }
+        }
+        return getBucketUpperBoundMicros(bucketCounts.length - 1);
+    }
+
+    /** Returns a copy of the histogram of the given {@link HotPath}. */
+    @VisibleForTesting
+    @NonNull
+    static long[] getBucketCounts(@NonNull HotPath hotPath) {
+        return sRecorders[hotPath.ordinal()].getBucketCounts();
+    }
+
+    /** Returns the number of latencies recorded for the given {@link HotPath}. */
+    @VisibleForTesting
+    static long getCount(@NonNull HotPath hotPath) {
+        return sRecorders[hotPath.ordinal()].mCount.get();
+    }
+
+    /** Returns the most recent latencies of the given {@link HotPath}, most recent first. */
+    @VisibleForTesting
+    @NonNull
+    static long[] getRecentNanos(@NonNull HotPath hotPath) {
+        return sRecorders[hotPath.ordinal()].getRecentNanos();
+    }
+
+    /** Clears the latencies of all {@link HotPath}s. */
+    @VisibleForTesting
+    static void reset() {
+        for (int i = 0; i < sRecorders.length; i++) {
+            sRecorders[i].reset();
+        }
+    }
+
+    /** Dumps the latencies of the {@link HotPath}s of the given {@link Dump}. */
+    public static void dump(@NonNull PrintWriter fout, @NonNull Dump dump) {
+        if (!ENABLED) {
+            return;
+        }
+        HotPath[] hotPaths = HotPath.values();
+        int count = 0;
+        for (int i = 0; i < hotPaths.length; i++) {
+            if (hotPaths[i].mDump == dump) {
+                count++;
+            }
+        }
+        fout.println("LATENCIES (" + count + ")");
+        for (int i = 0; i < hotPaths.length; i++) {
+            HotPath hotPath = hotPaths[i];
+            if (hotPath.mDump == dump) {
+                fout.println("\t[" + hotPath + "] " + sRecorders[i]);
+            }
+        }
+        fout.println();
+    }
+
+    private static Recorder[] createRecorders() {
+        Recorder[] recorders = new Recorder[HotPath.values().length];
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder();
+        }
+        return recorders;
+    }
+
+    /** The latencies recorded for a {@link HotPath}. */
+    private static final class Recorder {
+        private final AtomicLongArray mBucketCounts = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+        private final AtomicLongArray mRecentNanos = new AtomicLongArray(RECENT_COUNT);
+
+        private void record(long durationNanos) {
+            mBucketCounts.incrementAndGet(getBucket(durationNanos));
+            long index = mCount.getAndIncrement();
+            mRecentNanos.set((int) (index & (RECENT_COUNT - 1)), durationNanos);
+            mTotalNanos.addAndGet(durationNanos);
+            long maxNanos = mMaxNanos.get();
+            while (durationNanos > maxNanos && !mMaxNanos.compareAndSet(maxNanos, durationNanos)) {
+                maxNanos = mMaxNanos.get();
+            }
+        }
+
+        private long[] getBucketCounts() {
+            long[] bucketCounts = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                bucketCounts[i] = mBucketCounts.get(i);
+            }
+            return bucketCounts;
+        }
+
+        private long[] getRecentNanos() {
+            long count = mCount.get();
+            long[] recentNanos = new long[(int) Math.min(count, RECENT_COUNT)];
+            for (int i = 0; i < recentNanos.length; i++) {
+                recentNanos[i] = mRecentNanos.get((int) ((count - 1 - i) & (RECENT_COUNT - 1)));
+            }
+            return recentNanos;
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBucketCounts.set(i, 0);
+            }
+            for (int i = 0; i < RECENT_COUNT; i++) {
+                mRecentNanos.set(i, 0);
+            }
+            mCount.set(0);
+            mTotalNanos.set(0);
+            mMaxNanos.set(0);
+        }
+
+        @Override
+        public String toString() {
+            long count = mCount.get();
+            long[] bucketCounts = getBucketCounts();
+            StringBuilder sb = new StringBuilder("Latencies{count=").append(count);
+            if (count > 0) {
+                sb.append(", meanUs=").append(mTotalNanos.get() / count / NANOS_PER_MICRO);
+                sb.append(", maxUs=").append(mMaxNanos.get() / NANOS_PER_MICRO);
+                appendPercentile(sb, bucketCounts, 50);
+                appendPercentile(sb, bucketCounts, 90);
+                appendPercentile(sb, bucketCounts, 99);
+                sb.append(", recentUs=[");
+                long[] recentNanos = getRecentNanos();
+                for (int i = 0; i < recentNanos.length; i++) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(recentNanos[i] / NANOS_PER_MICRO);
+                }
+                sb.append(']');
+            }
+            return sb.append('}').toString();
+        }
+
+        private static void appendPercentile(
+                StringBuilder sb, long[] bucketCounts, int percentile) {
+            sb.append(", p").append(percentile).append("Us");
+            long upperBoundMicros = getPercentileUpperBoundMicros(bucketCounts, percentile);
+            if (upperBoundMicros == Long.MAX_VALUE) {
+                sb.append(">=").append(getBucketUpperBoundMicros(BUCKET_COUNT - 2));
+            } else {
+                sb.append('<').append(upperBoundMicros);
+            }
+        }
+    }
+}
@@ -135,6 +135,10 @@ public abstract class RequiredComponent {
         return mPermission;
     }
 
+    public int getQueryFlags() {
+        return mQueryFlags;
+    }
+
     @NonNull
     public List<RequiredMetaData> getMetaData() {
         return mMetaData;
@@ -271,6 +271,18 @@ public class Role {
         return mBehavior;
     }
 
+    /**
+     * @see #mAllowBypassingQualification
+     */
+    public boolean isAllowBypassingQualification() {
+        return mAllowBypassingQualification;
+    }
+
+    @Nullable
+    public String getDefaultHoldersResourceName() {
+        return mDefaultHoldersResourceName;
+    }
+
     @StringRes
     public int getDescriptionResource() {
         return mDescriptionResource;
@@ -280,11 +292,26 @@ public class Role {
         return mExclusive;
     }
 
+    /**
+     * @see #mFallBackToDefaultHolder
+     */
+    public boolean isFallBackToDefaultHolder() {
+        return mFallBackToDefaultHolder;
+    }
+
     @StringRes
     public int getLabelResource() {
         return mLabelResource;
     }
 
+    public int getMaxSdkVersion() {
+        return mMaxSdkVersion;
+    }
+
+    public int getMinSdkVersion() {
+        return mMinSdkVersion;
+    }
+
     @StringRes
     public int getRequestDescriptionResource() {
         return mRequestDescriptionResource;
@@ -416,6 +443,10 @@ public class Role {
         return mStatic;
     }
 
+    public boolean isSystemOnly() {
+        return mSystemOnly;
+    }
+
     /**
      * Get the default holders of this role, which will be added when the role is added for the
      * first time.
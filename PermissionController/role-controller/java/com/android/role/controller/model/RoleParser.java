@@ -110,7 +110,7 @@ public class RoleParser {
     private static final String ATTRIBUTE_MAX_TARGET_SDK_VERSION = "maxTargetSdkVersion";
     private static final String ATTRIBUTE_MODE = "mode";
 
-    private static final String BEHAVIOR_PACKAGE_NAME = BrowserRoleBehavior.class.getPackage()
+    static final String BEHAVIOR_PACKAGE_NAME = BrowserRoleBehavior.class.getPackage()
             .getName();
 
     private static final String MODE_NAME_ALLOWED = "allowed";
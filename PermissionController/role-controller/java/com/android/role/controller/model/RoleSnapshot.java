@@ -0,0 +1,688 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.role.controller.model;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Precompiled binary form of the {@link Role} definitions parsed from {@code roles.xml}.
+ * <p>
+ * The snapshot is written after the first successful XML parse and keyed by a checksum of the
+ * compiled {@code roles.xml} resource and by the version of the package it was parsed by, so that
+ * subsequent process starts can deserialize the role model with a single file read instead of
+ * walking the XML again, while an update of the parser or of the model invalidates it even if
+ * {@code roles.xml} didn't change. Any mismatch or I/O error makes the caller fall back to
+ * {@link RoleParser}.
+ */
+public class RoleSnapshot {
+
+    private static final String LOG_TAG = RoleSnapshot.class.getSimpleName();
+
+    /**
+     * Function to open the raw bytes of the roles.xml resource from a context, used to compute the
+     * checksum the snapshot is validated against. Snapshots are disabled when this is {@code null}.
+     */
+    public static volatile Function<Context, InputStream> sOpenRawRolesXml;
+
+    private static final String FILE_NAME = "roles.snapshot";
+
+    private static final int MAGIC = 0x524f4c45;
+
+    /**
+     * The version of the binary format, to be bumped whenever the {@link Role} model or the layout
+     * below changes.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int COMPONENT_ACTIVITY = 0;
+    private static final int COMPONENT_PROVIDER = 1;
+    private static final int COMPONENT_RECEIVER = 2;
+    private static final int COMPONENT_SERVICE = 3;
+
+    private static final int META_DATA_VALUE_NULL = 0;
+    private static final int META_DATA_VALUE_BOOLEAN = 1;
+
+    private static final int NO_STRING = -1;
+
+    private RoleSnapshot() {}
+
+    /**
+     * Compute the key of the current {@code roles.xml} resource and package.
+     *
+     * @param context the {@code Context} used to read the resource and the package version
+     *
+     * @return the key, or {@code null} if it cannot be computed
+     */
+    @Nullable
+    public static Key computeKey(@NonNull Context context) {
+        Function<Context, InputStream> openRawRolesXml = sOpenRawRolesXml;
+        if (openRawRolesXml == null) {
+            return null;
+        }
+        PackageInfo packageInfo;
+        try {
+            packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(LOG_TAG, "Unable to get package info for " + context.getPackageName(), e);
+            return null;
+        }
+        try (InputStream inputStream = openRawRolesXml.apply(context)) {
+            CRC32 crc32 = new CRC32();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                crc32.update(buffer, 0, count);
+            }
+            return new Key(crc32.getValue(), packageInfo.getLongVersionCode(),
+                    packageInfo.lastUpdateTime);
+        } catch (IOException | RuntimeException e) {
+            Log.w(LOG_TAG, "Unable to compute roles.xml checksum", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the file the snapshot is stored in.
+     *
+     * @param context the {@code Context} used to locate the file
+     *
+     * @return the snapshot file
+     */
+    @NonNull
+    public static File getFile(@NonNull Context context) {
+        // Device protected storage so that the snapshot is usable before the user unlocks.
+        Context deviceProtectedContext = context.isDeviceProtectedStorage() ? context
+                : context.createDeviceProtectedStorageContext();
+        return new File(deviceProtectedContext.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Read the roles from a snapshot file.
+     *
+     * @param file the snapshot file
+     * @param key the key of the current {@code roles.xml} resource and package
+     *
+     * @return a map from role name to {@link Role} instances, or {@code null} if the snapshot is
+     *         missing, stale or corrupt
+     */
+    @Nullable
+    public static ArrayMap<String, Role> read(@NonNull File file, @NonNull Key key) {
+        byte[] bytes;
+        try {
+            bytes = new AtomicFile(file).readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read roles snapshot", e);
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return readRoles(in, key);
+        } catch (IOException | RuntimeException | ReflectiveOperationException e) {
+            Log.w(LOG_TAG, "Discarding invalid roles snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the roles to a snapshot file.
+     *
+     * @param file the snapshot file
+     * @param key the key of the {@code roles.xml} resource and package the roles were parsed from
+     * @param roles the roles to write
+     */
+    public static void write(@NonNull File file, @NonNull Key key,
+            @NonNull ArrayMap<String, Role> roles) {
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+            writeRoles(out, key, roles);
+            out.flush();
+            bytes = byteArrayOutputStream.toByteArray();
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Unable to serialize roles snapshot", e);
+            return;
+        }
+
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = atomicFile.startWrite();
+            outputStream.write(bytes);
+            atomicFile.finishWrite(outputStream);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write roles snapshot", e);
+            if (outputStream != null) {
+                atomicFile.failWrite(outputStream);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    @Nullable
+    static ArrayMap<String, Role> readRoles(@NonNull DataInputStream in, @NonNull Key key)
+            throws IOException, ReflectiveOperationException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                || in.readLong() != key.mChecksum || in.readLong() != key.mVersionCode
+                || in.readLong() != key.mLastUpdateTime) {
+            return null;
+        }
+
+        int stringCount = in.readInt();
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            strings[i] = in.readUTF();
+        }
+        StringTableReader stringTable = new StringTableReader(strings);
+
+        int roleCount = in.readInt();
+        ArrayMap<String, Role> roles = new ArrayMap<>(roleCount);
+        for (int i = 0; i < roleCount; i++) {
+            Role role = readRole(in, stringTable);
+            roles.put(role.getName(), role);
+        }
+        return roles;
+    }
+
+    @VisibleForTesting
+    static void writeRoles(@NonNull DataOutputStream out, @NonNull Key key,
+            @NonNull ArrayMap<String, Role> roles) throws IOException {
+        StringTableWriter stringTable = new StringTableWriter();
+        ByteArrayOutputStream bodyByteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyByteArrayOutputStream);
+        int roleCount = roles.size();
+        body.writeInt(roleCount);
+        for (int i = 0; i < roleCount; i++) {
+            writeRole(body, stringTable, roles.valueAt(i));
+        }
+        body.flush();
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(key.mChecksum);
+        out.writeLong(key.mVersionCode);
+        out.writeLong(key.mLastUpdateTime);
+        List<String> strings = stringTable.mStrings;
+        int stringCount = strings.size();
+        out.writeInt(stringCount);
+        for (int i = 0; i < stringCount; i++) {
+            out.writeUTF(strings.get(i));
+        }
+        bodyByteArrayOutputStream.writeTo(out);
+    }
+
+    @NonNull
+    private static Role readRole(@NonNull DataInputStream in, @NonNull StringTableReader strings)
+            throws IOException, ReflectiveOperationException {
+        String name = strings.readNonNull(in);
+        String behaviorClassSimpleName = strings.read(in);
+        RoleBehavior behavior = null;
+        if (behaviorClassSimpleName != null) {
+            behavior = (RoleBehavior) Class.forName(RoleParser.BEHAVIOR_PACKAGE_NAME + '.'
+                    + behaviorClassSimpleName).getDeclaredConstructor().newInstance();
+        }
+        String defaultHoldersResourceName = strings.read(in);
+        int descriptionResource = in.readInt();
+        int labelResource = in.readInt();
+        int maxSdkVersion = in.readInt();
+        int minSdkVersion = in.readInt();
+        int requestDescriptionResource = in.readInt();
+        int requestTitleResource = in.readInt();
+        int searchKeywordsResource = in.readInt();
+        int shortLabelResource = in.readInt();
+        int flags = in.readInt();
+        String uiBehaviorName = strings.read(in);
+
+        int requiredComponentCount = in.readInt();
+        List<RequiredComponent> requiredComponents = new ArrayList<>(requiredComponentCount);
+        for (int i = 0; i < requiredComponentCount; i++) {
+            requiredComponents.add(readRequiredComponent(in, strings));
+        }
+        List<Permission> permissions = readPermissions(in, strings);
+        List<Permission> appOpPermissions = readPermissions(in, strings);
+        int appOpCount = in.readInt();
+        List<AppOp> appOps = new ArrayList<>(appOpCount);
+        for (int i = 0; i < appOpCount; i++) {
+            String appOpName = strings.readNonNull(in);
+            Integer maxTargetSdkVersion = in.readBoolean() ? in.readInt() : null;
+            int mode = in.readInt();
+            appOps.add(new AppOp(appOpName, maxTargetSdkVersion, mode));
+        }
+        int preferredActivityCount = in.readInt();
+        List<PreferredActivity> preferredActivities = new ArrayList<>(preferredActivityCount);
+        for (int i = 0; i < preferredActivityCount; i++) {
+            RequiredActivity activity = (RequiredActivity) readRequiredComponent(in, strings);
+            int intentFilterDataCount = in.readInt();
+            List<IntentFilterData> intentFilterDatas = new ArrayList<>(intentFilterDataCount);
+            for (int j = 0; j < intentFilterDataCount; j++) {
+                intentFilterDatas.add(readIntentFilterData(in, strings));
+            }
+            preferredActivities.add(new PreferredActivity(activity, intentFilterDatas));
+        }
+
+        return new Role(name, (flags & RoleFlags.ALLOW_BYPASSING_QUALIFICATION) != 0, behavior,
+                defaultHoldersResourceName, descriptionResource,
+                (flags & RoleFlags.EXCLUSIVE) != 0,
+                (flags & RoleFlags.FALL_BACK_TO_DEFAULT_HOLDER) != 0, labelResource,
+                maxSdkVersion, minSdkVersion, (flags & RoleFlags.OVERRIDE_USER_WHEN_GRANTING) != 0,
+                requestDescriptionResource, requestTitleResource,
+                (flags & RoleFlags.REQUESTABLE) != 0, searchKeywordsResource, shortLabelResource,
+                (flags & RoleFlags.SHOW_NONE) != 0, (flags & RoleFlags.STATIC) != 0,
+                (flags & RoleFlags.SYSTEM_ONLY) != 0, (flags & RoleFlags.VISIBLE) != 0,
+                toList(requiredComponents), permissions, appOpPermissions, toList(appOps),
+                toList(preferredActivities), uiBehaviorName);
+    }
+
+    private static void writeRole(@NonNull DataOutputStream out,
+            @NonNull StringTableWriter strings, @NonNull Role role) throws IOException {
+        strings.write(out, role.getName());
+        RoleBehavior behavior = role.getBehavior();
+        String behaviorClassSimpleName = null;
+        if (behavior != null) {
+            Class<?> behaviorClass = behavior.getClass();
+            if (!behaviorClass.getName().equals(RoleParser.BEHAVIOR_PACKAGE_NAME + '.'
+                    + behaviorClass.getSimpleName())) {
+                throw new IllegalArgumentException("Unsupported behavior class: "
+                        + behaviorClass.getName());
+            }
+            behaviorClassSimpleName = behaviorClass.getSimpleName();
+        }
+        strings.write(out, behaviorClassSimpleName);
+        strings.write(out, role.getDefaultHoldersResourceName());
+        out.writeInt(role.getDescriptionResource());
+        out.writeInt(role.getLabelResource());
+        out.writeInt(role.getMaxSdkVersion());
+        out.writeInt(role.getMinSdkVersion());
+        out.writeInt(role.getRequestDescriptionResource());
+        out.writeInt(role.getRequestTitleResource());
+        out.writeInt(role.getSearchKeywordsResource());
+        out.writeInt(role.getShortLabelResource());
+        int flags = 0;
+        if (role.isAllowBypassingQualification()) {
+            flags |= RoleFlags.ALLOW_BYPASSING_QUALIFICATION;
+        }
+        if (role.isExclusive()) {
+            flags |= RoleFlags.EXCLUSIVE;
+        }
+        if (role.isFallBackToDefaultHolder()) {
+            flags |= RoleFlags.FALL_BACK_TO_DEFAULT_HOLDER;
+        }
+        if (role.shouldOverrideUserWhenGranting()) {
+            flags |= RoleFlags.OVERRIDE_USER_WHEN_GRANTING;
+        }
+        if (role.isRequestable()) {
+            flags |= RoleFlags.REQUESTABLE;
+        }
+        if (role.shouldShowNone()) {
+            flags |= RoleFlags.SHOW_NONE;
+        }
+        if (role.isStatic()) {
+            flags |= RoleFlags.STATIC;
+        }
+        if (role.isSystemOnly()) {
+            flags |= RoleFlags.SYSTEM_ONLY;
+        }
+        if (role.isVisible()) {
+            flags |= RoleFlags.VISIBLE;
+        }
+        out.writeInt(flags);
+        strings.write(out, role.getUiBehaviorName());
+
+        List<RequiredComponent> requiredComponents = role.getRequiredComponents();
+        int requiredComponentCount = requiredComponents.size();
+        out.writeInt(requiredComponentCount);
+        for (int i = 0; i < requiredComponentCount; i++) {
+            writeRequiredComponent(out, strings, requiredComponents.get(i));
+        }
+        writePermissions(out, strings, role.getPermissions());
+        writePermissions(out, strings, role.getAppOpPermissions());
+        List<AppOp> appOps = role.getAppOps();
+        int appOpCount = appOps.size();
+        out.writeInt(appOpCount);
+        for (int i = 0; i < appOpCount; i++) {
+            AppOp appOp = appOps.get(i);
+            strings.write(out, appOp.getName());
+            Integer maxTargetSdkVersion = appOp.getMaxTargetSdkVersion();
+            out.writeBoolean(maxTargetSdkVersion != null);
+            if (maxTargetSdkVersion != null) {
+                out.writeInt(maxTargetSdkVersion);
+            }
+            out.writeInt(appOp.getMode());
+        }
+        List<PreferredActivity> preferredActivities = role.getPreferredActivities();
+        int preferredActivityCount = preferredActivities.size();
+        out.writeInt(preferredActivityCount);
+        for (int i = 0; i < preferredActivityCount; i++) {
+            PreferredActivity preferredActivity = preferredActivities.get(i);
+            writeRequiredComponent(out, strings, preferredActivity.getActivity());
+            List<IntentFilterData> intentFilterDatas = preferredActivity.getIntentFilterDatas();
+            int intentFilterDataCount = intentFilterDatas.size();
+            out.writeInt(intentFilterDataCount);
+            for (int j = 0; j < intentFilterDataCount; j++) {
+                writeIntentFilterData(out, strings, intentFilterDatas.get(j));
+            }
+        }
+    }
+
+    @NonNull
+    private static RequiredComponent readRequiredComponent(@NonNull DataInputStream in,
+            @NonNull StringTableReader strings) throws IOException {
+        int componentType = in.readInt();
+        IntentFilterData intentFilterData = readIntentFilterData(in, strings);
+        int minTargetSdkVersion = in.readInt();
+        int flags = in.readInt();
+        String permission = strings.read(in);
+        int queryFlags = in.readInt();
+        int metaDataCount = in.readInt();
+        List<RequiredMetaData> metaData = new ArrayList<>(metaDataCount);
+        for (int i = 0; i < metaDataCount; i++) {
+            String metaDataName = strings.readNonNull(in);
+            Object value;
+            int valueType = in.readInt();
+            switch (valueType) {
+                case META_DATA_VALUE_NULL:
+                    value = null;
+                    break;
+                case META_DATA_VALUE_BOOLEAN:
+                    value = in.readBoolean();
+                    break;
+                default:
+                    throw new IOException("Unknown meta data value type: " + valueType);
+            }
+            boolean prohibited = in.readBoolean();
+            metaData.add(new RequiredMetaData(metaDataName, value, prohibited));
+        }
+        switch (componentType) {
+            case COMPONENT_ACTIVITY:
+                return new RequiredActivity(intentFilterData, minTargetSdkVersion, flags,
+                        permission, queryFlags, metaData);
+            case COMPONENT_PROVIDER:
+                return new RequiredContentProvider(intentFilterData, minTargetSdkVersion, flags,
+                        permission, queryFlags, metaData);
+            case COMPONENT_RECEIVER:
+                return new RequiredBroadcastReceiver(intentFilterData, minTargetSdkVersion, flags,
+                        permission, queryFlags, metaData);
+            case COMPONENT_SERVICE:
+                return new RequiredService(intentFilterData, minTargetSdkVersion, flags, permission,
+                        queryFlags, metaData);
+            default:
+                throw new IOException("Unknown required component type: " + componentType);
+        }
+    }
+
+    private static void writeRequiredComponent(@NonNull DataOutputStream out,
+            @NonNull StringTableWriter strings, @NonNull RequiredComponent requiredComponent)
+            throws IOException {
+        int componentType;
+        if (requiredComponent instanceof RequiredActivity) {
+            componentType = COMPONENT_ACTIVITY;
+        } else if (requiredComponent instanceof RequiredContentProvider) {
+            componentType = COMPONENT_PROVIDER;
+        } else if (requiredComponent instanceof RequiredBroadcastReceiver) {
+            componentType = COMPONENT_RECEIVER;
+        } else if (requiredComponent instanceof RequiredService) {
+            componentType = COMPONENT_SERVICE;
+        } else {
+            throw new IllegalArgumentException("Unknown required component: "
+                    + requiredComponent);
+        }
+        out.writeInt(componentType);
+        writeIntentFilterData(out, strings, requiredComponent.getIntentFilterData());
+        out.writeInt(requiredComponent.getMinTargetSdkVersion());
+        out.writeInt(requiredComponent.getFlags());
+        strings.write(out, requiredComponent.getPermission());
+        out.writeInt(requiredComponent.getQueryFlags());
+        List<RequiredMetaData> metaData = requiredComponent.getMetaData();
+        int metaDataCount = metaData.size();
+        out.writeInt(metaDataCount);
+        for (int i = 0; i < metaDataCount; i++) {
+            RequiredMetaData requiredMetaData = metaData.get(i);
+            strings.write(out, requiredMetaData.getName());
+            Object value = requiredMetaData.getValue();
+            if (value == null) {
+                out.writeInt(META_DATA_VALUE_NULL);
+            } else if (value instanceof Boolean) {
+                out.writeInt(META_DATA_VALUE_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else {
+                throw new IllegalArgumentException("Unsupported meta data value: " + value);
+            }
+            out.writeBoolean(requiredMetaData.isProhibited());
+        }
+    }
+
+    @NonNull
+    private static IntentFilterData readIntentFilterData(@NonNull DataInputStream in,
+            @NonNull StringTableReader strings) throws IOException {
+        String action = strings.readNonNull(in);
+        int categoryCount = in.readInt();
+        List<String> categories = new ArrayList<>(categoryCount);
+        for (int i = 0; i < categoryCount; i++) {
+            categories.add(strings.readNonNull(in));
+        }
+        String dataScheme = strings.read(in);
+        String dataType = strings.read(in);
+        return new IntentFilterData(action, categories, dataScheme, dataType);
+    }
+
+    private static void writeIntentFilterData(@NonNull DataOutputStream out,
+            @NonNull StringTableWriter strings, @NonNull IntentFilterData intentFilterData)
+            throws IOException {
+        strings.write(out, intentFilterData.getAction());
+        List<String> categories = intentFilterData.getCategories();
+        int categoryCount = categories.size();
+        out.writeInt(categoryCount);
+        for (int i = 0; i < categoryCount; i++) {
+            strings.write(out, categories.get(i));
+        }
+        strings.write(out, intentFilterData.getDataScheme());
+        strings.write(out, intentFilterData.getDataType());
+    }
+
+    @NonNull
+    private static List<Permission> readPermissions(@NonNull DataInputStream in,
+            @NonNull StringTableReader strings) throws IOException {
+        int permissionCount = in.readInt();
+        if (permissionCount == 0) {
+            return Collections.emptyList();
+        }
+        List<Permission> permissions = new ArrayList<>(permissionCount);
+        for (int i = 0; i < permissionCount; i++) {
+            String permissionName = strings.readNonNull(in);
+            int minSdkVersion = in.readInt();
+            permissions.add(new Permission(permissionName, minSdkVersion));
+        }
+        return permissions;
+    }
+
+    private static void writePermissions(@NonNull DataOutputStream out,
+            @NonNull StringTableWriter strings, @NonNull List<Permission> permissions)
+            throws IOException {
+        int permissionCount = permissions.size();
+        out.writeInt(permissionCount);
+        for (int i = 0; i < permissionCount; i++) {
+            Permission permission = permissions.get(i);
+            strings.write(out, permission.getName());
+            out.writeInt(permission.getMinSdkVersion());
+        }
+    }
+
+    @NonNull
+    private static <T> List<T> toList(@NonNull List<T> list) {
+        return list.isEmpty() ? Collections.emptyList() : list;
+    }
+
+    /**
+     * The key a snapshot is valid for: the checksum of the {@code roles.xml} resource, and the
+     * version of the package that parsed it, since the parser or the model may change in an update
+     * that doesn't change {@code roles.xml}.
+     */
+    public static final class Key {
+
+        private final long mChecksum;
+
+        private final long mVersionCode;
+
+        private final long mLastUpdateTime;
+
+        public Key(long checksum, long versionCode, long lastUpdateTime) {
+            mChecksum = checksum;
+            mVersionCode = versionCode;
+            mLastUpdateTime = lastUpdateTime;
+        }
+
+        public long getChecksum() {
+            return mChecksum;
+        }
+
+        public long getVersionCode() {
+            return mVersionCode;
+        }
+
+        public long getLastUpdateTime() {
+            return mLastUpdateTime;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (object == null || getClass() != object.getClass()) {
+                return false;
+            }
+            Key that = (Key) object;
+            return mChecksum == that.mChecksum && mVersionCode == that.mVersionCode
+                    && mLastUpdateTime == that.mLastUpdateTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mChecksum, mVersionCode, mLastUpdateTime);
+        }
+
+        @Override
+        public String toString() {
+            return "Key{"
+                    + "mChecksum=" + mChecksum
+                    + ", mVersionCode=" + mVersionCode
+                    + ", mLastUpdateTime=" + mLastUpdateTime
+                    + '}';
+        }
+    }
+
+    /**
+     * Boolean properties of a {@link Role}, packed into a single int.
+     */
+    private static final class RoleFlags {
+        static final int ALLOW_BYPASSING_QUALIFICATION = 1;
+        static final int EXCLUSIVE = 1 << 1;
+        static final int FALL_BACK_TO_DEFAULT_HOLDER = 1 << 2;
+        static final int OVERRIDE_USER_WHEN_GRANTING = 1 << 3;
+        static final int REQUESTABLE = 1 << 4;
+        static final int SHOW_NONE = 1 << 5;
+        static final int STATIC = 1 << 6;
+        static final int SYSTEM_ONLY = 1 << 7;
+        static final int VISIBLE = 1 << 8;
+
+        private RoleFlags() {}
+    }
+
+    /**
+     * Deduplicates the strings in the snapshot, since permission and action names are heavily
+     * repeated across roles.
+     */
+    private static final class StringTableWriter {
+
+        @NonNull
+        final List<String> mStrings = new ArrayList<>();
+
+        @NonNull
+        private final ArrayMap<String, Integer> mIndices = new ArrayMap<>();
+
+        void write(@NonNull DataOutputStream out, @Nullable String string) throws IOException {
+            if (string == null) {
+                out.writeInt(NO_STRING);
+                return;
+            }
+            Integer index = mIndices.get(string);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(string);
+                mIndices.put(string, index);
+            }
+            out.writeInt(index);
+        }
+    }
+
+    private static final class StringTableReader {
+
+        @NonNull
+        private final String[] mStrings;
+
+        StringTableReader(@NonNull String[] strings) {
+            mStrings = strings;
+        }
+
+        @Nullable
+        String read(@NonNull DataInputStream in) throws IOException {
+            int index = in.readInt();
+            if (index == NO_STRING) {
+                return null;
+            }
+            if (index < 0 || index >= mStrings.length) {
+                throw new IOException("Invalid string index: " + index);
+            }
+            return mStrings[index];
+        }
+
+        @NonNull
+        String readNonNull(@NonNull DataInputStream in) throws IOException {
+            String string = read(in);
+            if (string == null) {
+                throw new IOException("Unexpected null string");
+            }
+            return string;
+        }
+    }
+}
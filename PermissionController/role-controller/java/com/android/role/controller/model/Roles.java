@@ -22,6 +22,8 @@ import android.util.ArrayMap;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.File;
+
 /**
  * Provides access to all the {@link Role} definitions.
  */
@@ -37,6 +39,9 @@ public class Roles {
 
     /**
      * Get the roles defined in {@code roles.xml}.
+     * <p>
+     * The roles are read from a {@link RoleSnapshot} if one matching the current resource and
+     * package exists, otherwise they are parsed from the XML resource and a new snapshot is written.
      *
      * @param context the {@code Context} used to read the XML resource
      *
@@ -46,9 +51,27 @@ public class Roles {
     public static ArrayMap<String, Role> get(@NonNull Context context) {
         synchronized (sLock) {
             if (sRoles == null) {
-                sRoles = new RoleParser(context).parse();
+                sRoles = load(context);
             }
             return sRoles;
         }
     }
+
+    @NonNull
+    private static ArrayMap<String, Role> load(@NonNull Context context) {
+        RoleSnapshot.Key key = RoleSnapshot.computeKey(context);
+        if (key == null) {
+            return new RoleParser(context).parse();
+        }
+        File snapshotFile = RoleSnapshot.getFile(context);
+        ArrayMap<String, Role> roles = RoleSnapshot.read(snapshotFile, key);
+        if (roles != null) {
+            return roles;
+        }
+        roles = new RoleParser(context).parse();
+        if (!roles.isEmpty()) {
+            RoleSnapshot.write(snapshotFile, key, roles);
+        }
+        return roles;
+    }
 }
@@ -247,6 +247,13 @@ public class Constants {
      */
     public static final String DELAYED_RESTORE_PERMISSIONS_FILE = "delayed_restore_permissions.xml";
 
+    /**
+     * Name of file containing the packages that were restored since
+     * {@link #DELAYED_RESTORE_PERMISSIONS_FILE} was last written.
+     */
+    public static final String DELAYED_RESTORE_PERMISSIONS_JOURNAL_FILE =
+            "delayed_restore_permissions_journal";
+
     /**
      * Name of file containing the user denied status for requesting roles.
      */
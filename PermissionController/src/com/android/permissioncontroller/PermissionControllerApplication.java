@@ -28,6 +28,7 @@ import androidx.annotation.RequiresApi;
 
 import com.android.modules.utils.build.SdkLevel;
 import com.android.permissioncontroller.permission.utils.KotlinUtils;
+import com.android.permissioncontroller.permission.utils.PermissionDefinitionCache;
 import com.android.permissioncontroller.permission.utils.Utils;
 import com.android.permissioncontroller.privacysources.SafetyCenterAccessibilityListener;
 import com.android.permissioncontroller.role.model.RoleParserInitializer;
@@ -47,6 +48,7 @@ public final class PermissionControllerApplication extends Application {
         sInstance = this;
 
         PackageItemInfo.forceSafeLabels();
+        PermissionDefinitionCache.startListeningForChanges();
         RoleParserInitializer.initialize();
         updateSpecialAppAccessListActivityEnabledState();
         if (SdkLevel.isAtLeastT()) {
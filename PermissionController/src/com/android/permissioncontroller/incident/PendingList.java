@@ -23,24 +23,32 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.os.IncidentManager;
+import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
 
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
 import com.android.permissioncontroller.Constants;
 import com.android.permissioncontroller.R;
+import com.android.permissioncontroller.permission.utils.Utils;
 
 import java.text.Collator;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 
 /**
  * Represents the current list of pending records.
  */
-class PendingList {
+public class PendingList {
     private static final String TAG = "PermissionController.incident";
 
     /**
@@ -71,6 +79,31 @@ class PendingList {
     private static final SimpleDateFormat sDateFormatter =
             new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
 
+    /**
+     * Uri of each notification currently shown -> the {@link Rec} it was shown for, or
+     * {@code null} if it was shown before this process started and must be shown again.
+     */
+    @GuardedBy("this")
+    private final ArrayMap<String, Rec> mShownNotifications = new ArrayMap<>();
+
+    /**
+     * Whether {@link #mShownNotifications} was loaded from the shared preferences.
+     */
+    @GuardedBy("this")
+    private boolean mShownNotificationsLoaded;
+
+    /**
+     * Requesting package -> its user-visible label, for {@link #mLocale}.
+     */
+    @GuardedBy("this")
+    private final ArrayMap<String, AppLabel> mAppLabels = new ArrayMap<>();
+
+    /**
+     * The locale the notifications and labels were last resolved in.
+     */
+    @GuardedBy("this")
+    private Locale mLocale;
+
     /**
      * List of currently pending records.
      */
@@ -92,19 +125,56 @@ class PendingList {
          * The user-visible name of the entry.
          */
         public final String label;
+
+        /**
+         * Whether the notification shown for the given Rec also shows this one.
+         */
+        boolean isShownBy(Rec other) {
+            return other != null
+                    && report.getTimestamp() == other.report.getTimestamp()
+                    && label.equals(other.label);
+        }
+    }
+
+    /**
+     * The label of a requesting package, for an install of the package.
+     */
+    private static class AppLabel {
+        /**
+         * Constructor.
+         */
+        AppLabel(long lastUpdateTime, String label) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.label = label;
+        }
+
+        /**
+         * The last update time of the package the label was loaded for.
+         */
+        public final long lastUpdateTime;
+
+        /**
+         * The user-visible name of the package.
+         */
+        public final String label;
     }
 
     /**
      * Class to update the state.  Holds the Context, and other system services for
      * the duration of the update.
      */
-    private static class Updater {
+    private class Updater {
         private final Context mContext;
         private final int mFlags;
         private final NotificationManager mNm;
-        private final Formatting mFormatting;
+        private final PackageManager mPm;
         private Collator mCollator;
 
+        /**
+         * Requesting package -> its label, or null if it could not be found, for this update.
+         */
+        private final ArrayMap<String, String> mResolvedLabels = new ArrayMap<>();
+
         /**
          * Constructor.
          */
@@ -112,7 +182,7 @@ class PendingList {
             mContext = context;
             mFlags = flags;
             mNm = context.getSystemService(NotificationManager.class);
-            mFormatting = new Formatting(context);
+            mPm = context.getPackageManager();
             mCollator = Collator.getInstance(
                 context.getResources().getConfiguration().getLocales().get(0));
         }
@@ -125,26 +195,40 @@ class PendingList {
                     mContext.getSystemService(IncidentManager.class);
             final List<IncidentManager.PendingReport> reports = incidentManager.getPendingReports();
 
+            // Everything shown, and every label, was resolved for the locale at the time.
+            final Locale locale = mContext.getResources().getConfiguration().getLocales().get(0);
+            if (!locale.equals(mLocale)) {
+                mLocale = locale;
+                mAppLabels.clear();
+                for (int i = 0; i < mShownNotifications.size(); i++) {
+                    mShownNotifications.setValueAt(i, null);
+                }
+            }
+
             // Load whatever we previously displayed.  This may result in some spurious
             // cancel calls across reboots... but that's not an actual problem.
             final SharedPreferences prefs = mContext.getSharedPreferences(SHARED_PREFS_NAME,
                     Context.MODE_PRIVATE);
-            final Set<String> prevNotifications =
-                    prefs.getStringSet(SHARED_PREFS_KEY_NOTIFICATIONS, null);
-            final ArraySet<String> remainingNotifications = new ArraySet<String>();
-            if (prevNotifications != null) {
-                for (final String s: prevNotifications) {
-                    remainingNotifications.add(s);
+            if (!mShownNotificationsLoaded) {
+                final Set<String> prevNotifications =
+                        prefs.getStringSet(SHARED_PREFS_KEY_NOTIFICATIONS, null);
+                if (prevNotifications != null) {
+                    for (final String s: prevNotifications) {
+                        mShownNotifications.put(s, null);
+                    }
                 }
+                mShownNotificationsLoaded = true;
             }
-            final ArraySet<String> currentNotifications = new ArraySet<String>();
 
-            // Load everything we will need for display
-            final List<Rec> recs = new ArrayList();
+            // Load everything we will need for display, and find the first dialog by timestamp,
+            // then by label name (for a stable ordering, with the assumption that apps only post
+            // one at a time).
+            Rec firstDialog = null;
+            final ArrayMap<String, Rec> currentNotifications = new ArrayMap<>();
             final int recCount = reports.size();
             for (int i = 0; i < recCount; i++) {
                 final IncidentManager.PendingReport report = reports.get(i);
-                final String label = mFormatting.getAppLabel(report.getRequestingPackage());
+                final String label = getAppLabel(report.getRequestingPackage());
                 if (label == null) {
                     Log.w(TAG, "Application (or its label) could not be found. Summarily "
                             + " denying report: " + report.getRequestingPackage());
@@ -152,34 +236,33 @@ class PendingList {
                     continue;
                 }
 
-                recs.add(new Rec(report, label));
+                final Rec rec = new Rec(report, label);
+                currentNotifications.put(report.getUri().toString(), rec);
+                if ((report.getFlags() & IncidentManager.FLAG_CONFIRMATION_DIALOG) != 0) {
+                    if (firstDialog == null || compare(rec, firstDialog) < 0) {
+                        firstDialog = rec;
+                    }
+                }
             }
 
-            // Sort by timestamp, then by label name (for a stable ordering, with the assumption
-            // that apps only post one at a time).
-            recs.sort((a, b) -> {
-                long val = a.report.getTimestamp() - b.report.getTimestamp();
-                if (val == 0) {
-                    return mCollator.compare(a.label, b.label);
-                } else {
-                    return val < 0 ? -1 : 1;
-                }
-            });
+            // Labels of packages without pending reports won't be needed anymore.
+            mAppLabels.retainAll(mResolvedLabels.keySet());
 
             // Collect what we are going to do.
-            Rec firstDialog = null;
-            final List<Rec> notificationRecs = new ArrayList();
-            final int notificationCount = recs.size();
-            for (int i = 0; i < notificationCount; i++) {
-                final Rec rec = recs.get(i);
-                notificationRecs.add(rec);
-                final String uri = rec.report.getUri().toString();
-                remainingNotifications.remove(uri);
-                currentNotifications.add(uri);
-                if ((rec.report.getFlags() & IncidentManager.FLAG_CONFIRMATION_DIALOG) != 0) {
-                    if (firstDialog == null) {
-                        firstDialog = rec;
-                    }
+            final List<Rec> notificationRecs = new ArrayList<>();
+            final int currentCount = currentNotifications.size();
+            for (int i = 0; i < currentCount; i++) {
+                final Rec rec = currentNotifications.valueAt(i);
+                if (!rec.isShownBy(mShownNotifications.get(currentNotifications.keyAt(i)))) {
+                    notificationRecs.add(rec);
+                }
+            }
+            final List<String> remainingNotifications = new ArrayList<>();
+            final int shownCount = mShownNotifications.size();
+            for (int i = 0; i < shownCount; i++) {
+                final String uri = mShownNotifications.keyAt(i);
+                if (!currentNotifications.containsKey(uri)) {
+                    remainingNotifications.add(uri);
                 }
             }
 
@@ -192,19 +275,21 @@ class PendingList {
                 Log.d(TAG, "  }");
                 Log.d(TAG, "  canceling {");
                 for (int i = 0; i < remainingNotifications.size(); i++) {
-                    Log.d(TAG, "    [" + i + "] " + remainingNotifications.valueAt(i));
+                    Log.d(TAG, "    [" + i + "] " + remainingNotifications.get(i));
                 }
                 Log.d(TAG, "  }");
                 Log.d(TAG, "}");
             }
 
-            // Show the notifications
-            showNotifications(notificationRecs);
+            // Show the new or changed notifications
+            if (!notificationRecs.isEmpty()) {
+                showNotifications(notificationRecs);
+            }
 
             // Cancel any previously remaining notifications
             final int remainingCount = remainingNotifications.size();
             for (int i = 0; i < remainingCount; i++) {
-                mNm.cancel(remainingNotifications.valueAt(i), Constants.INCIDENT_NOTIFICATION_ID);
+                mNm.cancel(remainingNotifications.get(i), Constants.INCIDENT_NOTIFICATION_ID);
             }
 
             // The dialog
@@ -227,9 +312,56 @@ class PendingList {
             }
 
             // Save this list, so we know what we did for next time.
-            final SharedPreferences.Editor editor = prefs.edit();
-            editor.putStringSet(SHARED_PREFS_KEY_NOTIFICATIONS, currentNotifications);
-            editor.apply();
+            final boolean shownUrisChanged = !remainingNotifications.isEmpty()
+                    || currentCount != shownCount;
+            mShownNotifications.clear();
+            mShownNotifications.putAll(currentNotifications);
+            if (shownUrisChanged) {
+                final SharedPreferences.Editor editor = prefs.edit();
+                editor.putStringSet(SHARED_PREFS_KEY_NOTIFICATIONS,
+                        new ArraySet<>(currentNotifications.keySet()));
+                editor.apply();
+            }
+        }
+
+        /**
+         * Get the label of the requesting package, or null if it could not be found.  The
+         * package is looked up once per update, and its label is only loaded again if the
+         * package was updated.
+         */
+        private String getAppLabel(String pkg) {
+            final int index = mResolvedLabels.indexOfKey(pkg);
+            if (index >= 0) {
+                return mResolvedLabels.valueAt(index);
+            }
+
+            String label = null;
+            try {
+                final PackageInfo packageInfo = mPm.getPackageInfo(pkg, 0);
+                final AppLabel appLabel = mAppLabels.get(pkg);
+                if (appLabel != null && appLabel.lastUpdateTime == packageInfo.lastUpdateTime) {
+                    label = appLabel.label;
+                } else {
+                    label = Utils.getAppLabel(packageInfo.applicationInfo, mContext);
+                    mAppLabels.put(pkg, new AppLabel(packageInfo.lastUpdateTime, label));
+                }
+            } catch (PackageManager.NameNotFoundException ex) {
+                // Fall through and deny the report.
+            }
+            mResolvedLabels.put(pkg, label);
+            return label;
+        }
+
+        /**
+         * Compare the Recs by timestamp, then by label name.
+         */
+        private int compare(Rec a, Rec b) {
+            long val = a.report.getTimestamp() - b.report.getTimestamp();
+            if (val == 0) {
+                return mCollator.compare(a.label, b.label);
+            } else {
+                return val < 0 ? -1 : 1;
+            }
         }
 
         /**
@@ -327,13 +459,17 @@ class PendingList {
     /**
      * Constructor.
      */
-    private PendingList() {
+    @VisibleForTesting
+    public PendingList() {
     }
 
     /**
      * Update the notifications and dialog to reflect the current state of affairs.
+     *
+     * <p>Only the notifications for new or changed reports are posted, and only the ones for
+     * reports that are not pending anymore are canceled.
      */
-    public void updateState(Context context, int flags) {
+    public synchronized void updateState(Context context, int flags) {
         (new Updater(context, flags)).updateState();
     }
 }
@@ -21,6 +21,8 @@ import android.content.ComponentCallbacks2
 import android.content.res.Configuration
 import androidx.annotation.GuardedBy
 import androidx.annotation.MainThread
+import com.android.permission.latency.LatencyStats
+import com.android.permission.latency.LatencyStats.HotPath
 import com.android.permissioncontroller.PermissionControllerApplication
 import java.util.concurrent.TimeUnit
 
@@ -64,9 +66,19 @@ abstract class DataRepository<K, V : DataRepository.InactiveTimekeeper> : Compon
      * @return The cached or newly created Value for the given Key
      */
     operator fun get(key: K): V {
-        synchronized(lock) {
-            return data.getOrPut(key) { newValue(key) }
-        }
+        val startNanos = LatencyStats.start()
+        var hotPath = HotPath.DATA_REPOSITORY_HIT
+        val value =
+            synchronized(lock) {
+                data[key]
+                    ?: newValue(key).also {
+                        data[key] = it
+                        hotPath = HotPath.DATA_REPOSITORY_LOAD
+                    }
+            }
+        // Recorded outside of the lock, so that other threads don't wait on the clock read.
+        LatencyStats.record(hotPath, startNanos)
+        return value
     }
 
     /**
@@ -28,6 +28,7 @@ import com.android.permissioncontroller.permission.model.livedatatypes.LightAppP
 import com.android.permissioncontroller.permission.model.livedatatypes.LightPackageInfo
 import com.android.permissioncontroller.permission.model.livedatatypes.LightPermission
 import com.android.permissioncontroller.permission.utils.LocationUtils
+import com.android.permissioncontroller.permission.utils.PermissionDefinitionCache
 import com.android.permissioncontroller.permission.utils.Utils
 import com.android.permissioncontroller.permission.utils.Utils.OS_PKG
 
@@ -148,7 +149,7 @@ class LightAppPermGroupLiveData private constructor(
             val splitPerm = spi.splitPermission
 
             val pi = try {
-                app.packageManager.getPermissionInfo(splitPerm, 0)
+                PermissionDefinitionCache.getPermissionInfo(app.packageManager, splitPerm)
             } catch (e: PackageManager.NameNotFoundException) {
                 Log.w(LOG_TAG, "No such permission: $splitPerm", e)
                 continue
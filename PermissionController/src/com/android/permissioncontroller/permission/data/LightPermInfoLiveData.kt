@@ -22,6 +22,7 @@ import android.util.Log
 import com.android.permissioncontroller.PermissionControllerApplication
 import com.android.permissioncontroller.permission.utils.PermissionMapping.isRuntimePlatformPermission
 import com.android.permissioncontroller.permission.model.livedatatypes.LightPermInfo
+import com.android.permissioncontroller.permission.utils.PermissionDefinitionCache
 import com.android.permissioncontroller.permission.utils.Utils.OS_PKG
 import kotlinx.coroutines.Job
 
@@ -68,7 +69,8 @@ class LightPermInfoLiveData private constructor(
         }
 
         val newValue = try {
-            LightPermInfo(app.packageManager.getPermissionInfo(permissionName, 0))
+            LightPermInfo(
+                PermissionDefinitionCache.getPermissionInfo(app.packageManager, permissionName))
         } catch (e: PackageManager.NameNotFoundException) {
             Log.w(LOG_TAG, "Permission \"$permissionName\" not found")
             invalidateSingle(permissionName)
@@ -25,6 +25,7 @@ import com.android.modules.utils.build.SdkLevel
 import com.android.permissioncontroller.PermissionControllerApplication
 import com.android.permissioncontroller.permission.data.v34.LightInstallSourceInfoLiveData
 import com.android.permissioncontroller.permission.data.v34.SafetyLabelInfoLiveData
+import com.android.permissioncontroller.permission.utils.PermissionDefinitionCache
 import kotlinx.coroutines.Dispatchers.Main
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
@@ -144,6 +145,10 @@ object PackageBroadcastReceiver : BroadcastReceiver() {
     override fun onReceive(context: Context, intent: Intent) {
         val packageName = intent.data?.schemeSpecificPart ?: return
 
+        // Drop the cached permission definitions first, so that listeners reloading their data
+        // see the new definitions
+        PermissionDefinitionCache.onPackageChanged(packageName)
+
         for (callback in allCallbacks.toList()) {
             callback.onPackageUpdate(packageName)
         }
@@ -22,6 +22,7 @@ import android.content.pm.PermissionInfo
 import android.os.Build
 import android.os.UserHandle
 import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.permission.utils.PermissionDefinitionCache
 import com.android.permissioncontroller.permission.utils.PermissionMapping
 import kotlinx.coroutines.Job
 
@@ -61,7 +62,7 @@ class PackagePermissionsLiveData private constructor(
             var groupName = PermissionMapping.getGroupOfPlatformPermission(permName)
             if (groupName == null) {
                 val permInfo = try {
-                    app.packageManager.getPermissionInfo(permName, 0)
+                    PermissionDefinitionCache.getPermissionInfo(app.packageManager, permName)
                 } catch (e: PackageManager.NameNotFoundException) {
                     continue
                 }
@@ -24,10 +24,13 @@ import android.util.Log
 import com.android.permission.safetylabel.SafetyLabel
 import com.android.permissioncontroller.PermissionControllerApplication
 import com.android.permissioncontroller.permission.data.DataRepositoryForPackage
+import com.android.permissioncontroller.permission.data.LightPackageInfoLiveData
 import com.android.permissioncontroller.permission.data.PackageBroadcastReceiver
 import com.android.permissioncontroller.permission.data.SmartAsyncMediatorLiveData
 import com.android.permissioncontroller.permission.data.get
+import com.android.permissioncontroller.permission.model.livedatatypes.LightPackageInfo
 import com.android.permissioncontroller.permission.model.livedatatypes.v34.SafetyLabelInfo
+import com.android.permissioncontroller.permission.utils.v34.SafetyLabelUtils
 import kotlinx.coroutines.Job
 
 /**
@@ -47,9 +50,11 @@ private constructor(
     PackageBroadcastReceiver.PackageBroadcastListener {
 
     private val lightInstallSourceInfoLiveData = LightInstallSourceInfoLiveData[packageName, user]
+    private val lightPackageInfoLiveData = LightPackageInfoLiveData[packageName, user]
 
     init {
         addSource(lightInstallSourceInfoLiveData) { update() }
+        addSource(lightPackageInfoLiveData) { update() }
 
         update()
     }
@@ -78,7 +83,7 @@ private constructor(
             return
         }
 
-        if (lightInstallSourceInfoLiveData.isStale) {
+        if (lightInstallSourceInfoLiveData.isStale || lightPackageInfoLiveData.isStale) {
             return
         }
 
@@ -88,9 +93,15 @@ private constructor(
             return
         }
 
+        val lightPackageInfo = lightPackageInfoLiveData.value
+        if (lightPackageInfo == null) {
+            postValue(SafetyLabelInfo.UNAVAILABLE)
+            return
+        }
+
         val safetyLabelInfo: SafetyLabelInfo =
             try {
-                val safetyLabel: SafetyLabel? = getSafetyLabel(packageName, user)
+                val safetyLabel: SafetyLabel? = getSafetyLabel(lightPackageInfo, user)
                 if (safetyLabel != null) {
                     SafetyLabelInfo(safetyLabel, lightInstallSourceInfo)
                 } else {
@@ -104,9 +115,35 @@ private constructor(
         postValue(safetyLabelInfo)
     }
 
+    /**
+     * Only notifies observers if the install source or the content of the [SafetyLabel] changed, as
+     * updating the package parses its label again even if it is the same.
+     */
+    override fun valueNotEqual(valOne: SafetyLabelInfo?, valTwo: SafetyLabelInfo?): Boolean {
+        if (valOne === valTwo) {
+            return false
+        }
+        if (valOne == null || valTwo == null) {
+            return true
+        }
+        val installSourceBefore = valOne.installSourceInfo
+        val installSourceAfter = valTwo.installSourceInfo
+        if (installSourceBefore.initiatingPackageName != installSourceAfter.initiatingPackageName ||
+            installSourceBefore.supportsSafetyLabel != installSourceAfter.supportsSafetyLabel ||
+            installSourceBefore.isPreloadedApp != installSourceAfter.isPreloadedApp) {
+            return true
+        }
+        val before = valOne.compactSafetyLabel
+        val after = valTwo.compactSafetyLabel
+        if (before == null || after == null) {
+            return before != after
+        }
+        return !after.diff(before).isEmpty
+    }
+
     /** Returns the [SafetyLabel] for the given package and user. */
     @Throws(PackageManager.NameNotFoundException::class)
-    private fun getSafetyLabel(packageName: String, user: UserHandle): SafetyLabel? {
+    private fun getSafetyLabel(lightPackageInfo: LightPackageInfo, user: UserHandle): SafetyLabel? {
         val userContext =
             if (user == Process.myUserHandle()) {
                 app
@@ -114,8 +151,7 @@ private constructor(
                 app.createContextAsUser(user, /* flags= */ 0)
             }
 
-        return SafetyLabel.getSafetyLabelFromMetadata(
-            userContext.packageManager.getAppMetadata(packageName))
+        return SafetyLabelUtils.getSafetyLabel(userContext.packageManager, lightPackageInfo)
     }
 
     companion object :
@@ -58,6 +58,7 @@ import com.android.permissioncontroller.permission.service.LocationAccessCheck;
 import com.android.permissioncontroller.permission.utils.ArrayUtils;
 import com.android.permissioncontroller.permission.utils.KotlinUtils;
 import com.android.permissioncontroller.permission.utils.LocationUtils;
+import com.android.permissioncontroller.permission.utils.PermissionDefinitionCache;
 import com.android.permissioncontroller.permission.utils.PermissionMapping;
 import com.android.permissioncontroller.permission.utils.SoftRestrictedPermissionPolicy;
 import com.android.permissioncontroller.permission.utils.Utils;
@@ -173,7 +174,8 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
             String permissionName, boolean delayChanges) {
         PermissionInfo permissionInfo;
         try {
-            permissionInfo = context.getPackageManager().getPermissionInfo(permissionName, 0);
+            permissionInfo = PermissionDefinitionCache.getPermissionInfo(
+                    context.getPackageManager(), permissionName);
         } catch (PackageManager.NameNotFoundException e) {
             return null;
         }
@@ -189,7 +191,8 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
         PackageItemInfo groupInfo = permissionInfo;
         if (group != null) {
             try {
-                groupInfo = context.getPackageManager().getPermissionGroupInfo(group, 0);
+                groupInfo = PermissionDefinitionCache.getPermissionGroupInfo(
+                        context.getPackageManager(), group);
             } catch (PackageManager.NameNotFoundException e) {
                 /* ignore */
             }
@@ -307,7 +310,6 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
         ArrayMap<String, Permission> allPermissions = new ArrayMap<>();
         final int permissionCount = packageInfo.requestedPermissions == null ? 0
                 : packageInfo.requestedPermissions.length;
-        String packageName = packageInfo.packageName;
         for (int i = 0; i < permissionCount; i++) {
             String requestedPermission = packageInfo.requestedPermissions[i];
 
@@ -324,41 +326,13 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
                 continue;
             }
 
-            // Collect only runtime permissions.
-            if ((requestedPermissionInfo.protectionLevel & PermissionInfo.PROTECTION_MASK_BASE)
-                    != PermissionInfo.PROTECTION_DANGEROUS) {
-                continue;
-            }
-
-            // Don't allow toggling non-platform permission groups for legacy apps via app ops.
-            if (packageInfo.applicationInfo.targetSdkVersion <= Build.VERSION_CODES.LOLLIPOP_MR1
-                    && !PLATFORM_PACKAGE_NAME.equals(groupInfo.packageName)) {
+            Permission permission = createRequestedPermission(packageInfo, i,
+                    requestedPermissionInfo, groupInfo.packageName, packageManager,
+                    appOpsManager);
+            if (permission == null) {
                 continue;
             }
 
-            final boolean granted = (packageInfo.requestedPermissionsFlags[i]
-                    & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
-
-            final String appOp = PLATFORM_PACKAGE_NAME.equals(requestedPermissionInfo.packageName)
-                    || (isHealthPermissionUiEnabled() && HEALTH_PERMISSION_GROUP.equals(
-                    requestedPermissionInfo.group))
-                    ? AppOpsManager.permissionToOp(requestedPermissionInfo.name) : null;
-
-            final boolean appOpAllowed;
-            if (appOp == null) {
-                appOpAllowed = false;
-            } else {
-                int appOpsMode = appOpsManager.unsafeCheckOpRaw(appOp,
-                        packageInfo.applicationInfo.uid, packageName);
-                appOpAllowed = appOpsMode == MODE_ALLOWED || appOpsMode == MODE_FOREGROUND;
-            }
-
-            final int flags = packageManager.getPermissionFlags(
-                    requestedPermission, packageName, userHandle);
-
-            Permission permission = new Permission(requestedPermission, requestedPermissionInfo,
-                    granted, appOp, appOpAllowed, flags);
-
             if (requestedPermissionInfo.backgroundPermission != null) {
                 group.mHasPermissionWithBackgroundMode = true;
             }
@@ -371,39 +345,13 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
             return null;
         }
 
-        // Link up foreground and background permissions
-        for (int i = 0; i < allPermissions.size(); i++) {
-            Permission permission = allPermissions.valueAt(i);
-
-            if (permission.getBackgroundPermissionName() != null) {
-                Permission backgroundPermission = allPermissions.get(
-                        permission.getBackgroundPermissionName());
-
-                if (backgroundPermission != null) {
-                    backgroundPermission.addForegroundPermissions(permission);
-                    permission.setBackgroundPermission(backgroundPermission);
-
-                    // The background permissions isAppOpAllowed refers to the background state of
-                    // the foregound permission's appOp. Hence we can only set it once we know the
-                    // matching foreground permission.
-                    // @see #allowAppOp
-                    if (context.getSystemService(AppOpsManager.class).unsafeCheckOpRaw(
-                            permission.getAppOp(), packageInfo.applicationInfo.uid,
-                            packageInfo.packageName) == MODE_ALLOWED) {
-                        backgroundPermission.setAppOpAllowed(true);
-                    }
-                }
-            }
-        }
+        linkForegroundAndBackgroundPermissions(allPermissions, packageInfo, appOpsManager);
 
         // Add permissions found to this group
         for (int i = 0; i < numPermissions; i++) {
             Permission permission = allPermissions.valueAt(i);
 
-            if ((!permission.isHardRestricted()
-                    || exemptedRestrictedPermissions.contains(permission.getName()))
-                    && (!permission.isSoftRestricted()
-                    || SoftRestrictedPermissionPolicy.shouldShow(packageInfo, permission))) {
+            if (isPermissionIncluded(permission, packageInfo, exemptedRestrictedPermissions)) {
                 if (permission.isBackgroundPermission()) {
                     if (group.getBackgroundPermissions() == null) {
                         group.mBackgroundPermissions = new AppPermissionGroup(group.mContext,
@@ -430,6 +378,121 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
         return group;
     }
 
+    /**
+     * Create the {@link Permission} for a permission requested by a package, reading its current
+     * grant state, app op and flags.
+     *
+     * <p>This is shared with code that needs the permissions of a package in the same state as
+     * {@link AppPermissionGroup}s without creating them, e.g. the permission backup.
+     *
+     * @param packageInfo the package, loaded with {@link PackageManager#GET_PERMISSIONS}
+     * @param requestedIndex the index of the permission in the requested permissions of the package
+     * @param permissionInfo the definition of the requested permission
+     * @param groupDeclaringPackage the package declaring the group of the permission
+     * @param packageManager the package manager to read the flags with
+     * @param appOpsManager the app ops manager to read the app op with
+     *
+     * @return the permission, or {@code null} if it can't be part of an app permission group of
+     * the package
+     */
+    @Nullable
+    public static Permission createRequestedPermission(@NonNull PackageInfo packageInfo,
+            int requestedIndex, @NonNull PermissionInfo permissionInfo,
+            @NonNull String groupDeclaringPackage, @NonNull PackageManager packageManager,
+            @NonNull AppOpsManager appOpsManager) {
+        // Collect only runtime permissions.
+        if ((permissionInfo.protectionLevel & PermissionInfo.PROTECTION_MASK_BASE)
+                != PermissionInfo.PROTECTION_DANGEROUS) {
+            return null;
+        }
+
+        // Don't allow toggling non-platform permission groups for legacy apps via app ops.
+        if (packageInfo.applicationInfo.targetSdkVersion <= Build.VERSION_CODES.LOLLIPOP_MR1
+                && !PLATFORM_PACKAGE_NAME.equals(groupDeclaringPackage)) {
+            return null;
+        }
+
+        String permissionName = packageInfo.requestedPermissions[requestedIndex];
+        String packageName = packageInfo.packageName;
+        boolean granted = (packageInfo.requestedPermissionsFlags[requestedIndex]
+                & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
+
+        String appOp = PLATFORM_PACKAGE_NAME.equals(permissionInfo.packageName)
+                || (isHealthPermissionUiEnabled() && HEALTH_PERMISSION_GROUP.equals(
+                permissionInfo.group))
+                ? AppOpsManager.permissionToOp(permissionInfo.name) : null;
+
+        boolean appOpAllowed;
+        if (appOp == null) {
+            appOpAllowed = false;
+        } else {
+            int appOpsMode = appOpsManager.unsafeCheckOpRaw(appOp,
+                    packageInfo.applicationInfo.uid, packageName);
+            appOpAllowed = appOpsMode == MODE_ALLOWED || appOpsMode == MODE_FOREGROUND;
+        }
+
+        int flags = packageManager.getPermissionFlags(permissionName, packageName,
+                UserHandle.getUserHandleForUid(packageInfo.applicationInfo.uid));
+
+        return new Permission(permissionName, permissionInfo, granted, appOp, appOpAllowed,
+                flags);
+    }
+
+    /**
+     * Link up the foreground and background permissions of the same group of a package.
+     *
+     * @param permissions the permissions of the group, keyed by name
+     * @param packageInfo the package
+     * @param appOpsManager the app ops manager to read the app ops with
+     */
+    public static void linkForegroundAndBackgroundPermissions(
+            @NonNull ArrayMap<String, Permission> permissions, @NonNull PackageInfo packageInfo,
+            @NonNull AppOpsManager appOpsManager) {
+        int numPermissions = permissions.size();
+        for (int i = 0; i < numPermissions; i++) {
+            Permission permission = permissions.valueAt(i);
+
+            if (permission.getBackgroundPermissionName() != null) {
+                Permission backgroundPermission = permissions.get(
+                        permission.getBackgroundPermissionName());
+
+                if (backgroundPermission != null) {
+                    backgroundPermission.addForegroundPermissions(permission);
+                    permission.setBackgroundPermission(backgroundPermission);
+
+                    // The background permissions isAppOpAllowed refers to the background state of
+                    // the foregound permission's appOp. Hence we can only set it once we know the
+                    // matching foreground permission.
+                    // @see #allowAppOp
+                    if (permission.getAppOp() != null && appOpsManager.unsafeCheckOpRaw(
+                            permission.getAppOp(), packageInfo.applicationInfo.uid,
+                            packageInfo.packageName) == MODE_ALLOWED) {
+                        backgroundPermission.setAppOpAllowed(true);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether a permission requested by a package is part of its app permission groups, i.e.
+     * it isn't a restricted permission hidden for the package.
+     *
+     * @param permission the permission
+     * @param packageInfo the package
+     * @param exemptedRestrictedPermissions the restricted permissions exempted for the package, in
+     * all the {@link Utils#FLAGS_PERMISSION_WHITELIST_ALL whitelists}
+     *
+     * @return whether the permission is part of the app permission groups of the package
+     */
+    public static boolean isPermissionIncluded(@NonNull Permission permission,
+            @NonNull PackageInfo packageInfo, @NonNull Set<String> exemptedRestrictedPermissions) {
+        return (!permission.isHardRestricted()
+                || exemptedRestrictedPermissions.contains(permission.getName()))
+                && (!permission.isSoftRestricted()
+                || SoftRestrictedPermissionPolicy.shouldShow(packageInfo, permission));
+    }
+
     private static @StringRes int getRequest(PackageItemInfo group) {
         return Utils.getRequest(group.name);
     }
@@ -1530,8 +1593,11 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
      *                                     caller has to make sure to kill the app if needed.
      * @param revokeReason If any permissions are getting revoked, the reason for revoking them.
      * @param filterPermissions If provided, only persist state for the given permissions
+     *
+     * @return {@code true} iff the app needs to be killed because app ops changed, but was not
+     *         killed as {@code mayKillBecauseOfAppOpsChange} was {@code false}
      */
-    public void persistChanges(boolean mayKillBecauseOfAppOpsChange, String revokeReason,
+    public boolean persistChanges(boolean mayKillBecauseOfAppOpsChange, String revokeReason,
             Set<String> filterPermissions) {
         int uid = mPackageInfo.applicationInfo.uid;
 
@@ -1608,6 +1674,8 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
         if (mayKillBecauseOfAppOpsChange && shouldKillApp) {
             killApp(KILL_REASON_APP_OP_CHANGE);
         }
+        boolean needsKill = !mayKillBecauseOfAppOpsChange && shouldKillApp
+                && !shouldSkipKillForGroup();
 
         if (mTriggerLocationAccessCheckOnPersist) {
             new LocationAccessCheck(mContext, null).checkLocationAccessSoon();
@@ -1646,6 +1714,8 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
             mContext.getSystemService(PermissionManager.class)
                     .stopOneTimePermissionSession(packageName);
         }
+
+        return needsKill;
     }
 
     /**
@@ -1666,7 +1736,7 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
 
             PermissionInfo pi;
             try {
-                pi = mPackageManager.getPermissionInfo(splitPerm, 0);
+                pi = PermissionDefinitionCache.getPermissionInfo(mPackageManager, splitPerm);
             } catch (NameNotFoundException e) {
                 Log.w(LOG_TAG, "No such permission: " + splitPerm, e);
                 continue;
@@ -1687,7 +1757,7 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
                 }
 
                 try {
-                    pi = mPackageManager.getPermissionInfo(newPerm, 0);
+                    pi = PermissionDefinitionCache.getPermissionInfo(mPackageManager, newPerm);
                 } catch (NameNotFoundException e) {
                     Log.w(LOG_TAG, "No such permission: " + newPerm, e);
                     continue;
@@ -199,22 +199,28 @@ public final class AppPermissions {
      *                                     set to {@code false} the caller has to make sure to kill
      *                                     the app if needed.
      * @param filterPermissions If provided, only persist state for the given permissions
+     *
+     * @return {@code true} iff the app needs to be killed because app ops changed, but was not
+     *         killed as {@code mayKillBecauseOfAppOpsChange} was {@code false}
      */
-    public void persistChanges(boolean mayKillBecauseOfAppOpsChange,
+    public boolean persistChanges(boolean mayKillBecauseOfAppOpsChange,
             Set<String> filterPermissions) {
+        boolean needsKill = false;
         if (mDelayChanges) {
             int numGroups = mGroups.size();
 
             for (int i = 0; i < numGroups; i++) {
                 AppPermissionGroup group = mGroups.get(i);
-                group.persistChanges(mayKillBecauseOfAppOpsChange, null, filterPermissions);
+                needsKill |= group.persistChanges(mayKillBecauseOfAppOpsChange, null,
+                        filterPermissions);
 
                 AppPermissionGroup backgroundGroup = group.getBackgroundPermissions();
                 if (backgroundGroup != null) {
-                    backgroundGroup.persistChanges(mayKillBecauseOfAppOpsChange, null,
+                    needsKill |= backgroundGroup.persistChanges(mayKillBecauseOfAppOpsChange, null,
                             filterPermissions);
                 }
             }
         }
+        return needsKill;
     }
 }
@@ -38,6 +38,7 @@ import androidx.annotation.Nullable;
 import com.android.modules.utils.build.SdkLevel;
 import com.android.permissioncontroller.R;
 import com.android.permissioncontroller.permission.model.AppPermissionGroup;
+import com.android.permissioncontroller.permission.utils.PermissionDefinitionCache;
 import com.android.permissioncontroller.permission.utils.Utils;
 import com.android.permissioncontroller.permission.utils.v31.SubattributionUtils;
 
@@ -328,10 +329,11 @@ public class PermissionApps {
     private void loadGroupInfo() {
         PackageItemInfo info;
         try {
-            info = mPm.getPermissionGroupInfo(mGroupName, 0);
+            info = PermissionDefinitionCache.getPermissionGroupInfo(mPm, mGroupName);
         } catch (PackageManager.NameNotFoundException e) {
             try {
-                PermissionInfo permInfo = mPm.getPermissionInfo(mGroupName, 0);
+                PermissionInfo permInfo = PermissionDefinitionCache.getPermissionInfo(mPm,
+                        mGroupName);
                 if ((permInfo.protectionLevel & PermissionInfo.PROTECTION_MASK_BASE)
                         != PermissionInfo.PROTECTION_DANGEROUS) {
                     Log.w(LOG_TAG, mGroupName + " is not a runtime permission");
@@ -16,6 +16,7 @@
 
 package com.android.permissioncontroller.permission.model.livedatatypes.v34
 
+import com.android.permission.safetylabel.CompactSafetyLabel
 import com.android.permission.safetylabel.SafetyLabel
 import com.android.permissioncontroller.permission.model.livedatatypes.v34.LightInstallSourceInfo.Companion.INSTALL_SOURCE_UNAVAILABLE
 
@@ -29,6 +30,11 @@ class SafetyLabelInfo(
     val safetyLabel: SafetyLabel?,
     val installSourceInfo: LightInstallSourceInfo
     ) {
+    /** The [CompactSafetyLabel] of [safetyLabel], to compare labels cheaply */
+    val compactSafetyLabel: CompactSafetyLabel? by lazy {
+        safetyLabel?.let { CompactSafetyLabel.from(it) }
+    }
+
     companion object {
         /** Default definition of unavailable or no safety label found */
         val UNAVAILABLE = SafetyLabelInfo(null, INSTALL_SOURCE_UNAVAILABLE)
@@ -16,7 +16,6 @@
 
 package com.android.permissioncontroller.permission.service;
 
-import static android.content.Context.MODE_PRIVATE;
 import static android.content.pm.PackageManager.FLAG_PERMISSION_POLICY_FIXED;
 import static android.content.pm.PackageManager.FLAG_PERMISSION_SYSTEM_FIXED;
 import static android.content.pm.PackageManager.GET_PERMISSIONS;
@@ -24,6 +23,7 @@ import static android.content.pm.PackageManager.GET_SIGNING_CERTIFICATES;
 import static android.util.Xml.newSerializer;
 
 import static com.android.permissioncontroller.Constants.DELAYED_RESTORE_PERMISSIONS_FILE;
+import static com.android.permissioncontroller.Constants.DELAYED_RESTORE_PERMISSIONS_JOURNAL_FILE;
 
 import static org.xmlpull.v1.XmlPullParser.END_DOCUMENT;
 import static org.xmlpull.v1.XmlPullParser.END_TAG;
@@ -31,23 +31,30 @@ import static org.xmlpull.v1.XmlPullParser.START_TAG;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import android.app.AppOpsManager;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
 import android.content.pm.Signature;
 import android.content.pm.SigningInfo;
 import android.os.Build;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.permission.PermissionManager;
 import android.permission.PermissionManager.SplitPermissionInfo;
+import android.util.ArrayMap;
 import android.util.ArraySet;
+import android.util.AtomicFile;
 import android.util.Base64;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.Xml;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.os.BuildCompat;
 
 import com.android.permissioncontroller.Constants;
@@ -55,18 +62,26 @@ import com.android.permissioncontroller.permission.model.AppPermissionGroup;
 import com.android.permissioncontroller.permission.model.AppPermissions;
 import com.android.permissioncontroller.permission.model.Permission;
 import com.android.permissioncontroller.permission.utils.CollectionUtils;
+import com.android.permissioncontroller.permission.utils.PermissionMapping;
+import com.android.permissioncontroller.permission.utils.Utils;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -104,7 +119,15 @@ public class BackupHelper {
     /** Make sure only one user can change the delayed permissions at a time */
     private static final Object sLock = new Object();
 
+    /**
+     * User id -> packages that still need to be restored, dropped once their list is deleted from
+     * disk. Guarded by {@link #sLock}
+     */
+    private static final SparseArray<DelayedRestoreStore> sDelayedRestoreStores =
+            new SparseArray<>();
+
     private final Context mContext;
+    private final UserHandle mUser;
 
     /**
      * Create a new backup utils for a user.
@@ -113,6 +136,7 @@ public class BackupHelper {
      * @param user The user that is backed up / restored
      */
     public BackupHelper(@NonNull Context context, @NonNull UserHandle user) {
+        mUser = user;
         try {
             mContext = context.createPackageContextAsUser(context.getPackageName(), 0, user);
         } catch (PackageManager.NameNotFoundException doesNotHappen) {
@@ -321,6 +345,26 @@ public class BackupHelper {
      */
     private static void writePkgsAsXml(@NonNull XmlSerializer serializer,
             @NonNull ArrayList<BackupPackageState> pkgs) throws IOException {
+        startPkgsXml(serializer);
+
+        int numPkgs = pkgs.size();
+        for (int i = 0; i < numPkgs; i++) {
+            BackupPackageState packageState = pkgs.get(i);
+
+            if (packageState != null) {
+                packageState.writeAsXml(serializer);
+            }
+        }
+
+        endPkgsXml(serializer);
+    }
+
+    /**
+     * Write the start of a list of packages as XML, up to the first package.
+     *
+     * @param serializer The serializer to write to
+     */
+    private static void startPkgsXml(@NonNull XmlSerializer serializer) throws IOException {
         serializer.startDocument(null, true);
 
         serializer.startTag(null, TAG_PERMISSION_BACKUP);
@@ -335,16 +379,14 @@ public class BackupHelper {
         }
 
         serializer.startTag(null, TAG_ALL_GRANTS);
+    }
 
-        int numPkgs = pkgs.size();
-        for (int i = 0; i < numPkgs; i++) {
-            BackupPackageState packageState = pkgs.get(i);
-
-            if (packageState != null) {
-                packageState.writeAsXml(serializer);
-            }
-        }
-
+    /**
+     * Write the end of a list of packages as XML, after the last package.
+     *
+     * @param serializer The serializer to write to
+     */
+    private static void endPkgsXml(@NonNull XmlSerializer serializer) throws IOException {
         serializer.endTag(null, TAG_ALL_GRANTS);
         serializer.endTag(null, TAG_PERMISSION_BACKUP);
 
@@ -359,39 +401,124 @@ public class BackupHelper {
      */
     private void writeDelayedStorePkgsLocked(
             @NonNull ArrayList<BackupPackageState> packagesToRestoreLater) {
-        try (OutputStream delayedRestoreData = mContext.openFileOutput(
-                DELAYED_RESTORE_PERMISSIONS_FILE, MODE_PRIVATE)) {
-            XmlSerializer serializer = newSerializer();
-            serializer.setOutput(delayedRestoreData, UTF_8.name());
-
-            writePkgsAsXml(serializer, packagesToRestoreLater);
-            serializer.flush();
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Could not remember which packages still need to be restored", e);
+        DelayedRestoreStore store = new DelayedRestoreStore(
+                mContext.getFileStreamPath(DELAYED_RESTORE_PERMISSIONS_FILE),
+                mContext.getFileStreamPath(DELAYED_RESTORE_PERMISSIONS_JOURNAL_FILE));
+
+        int numPkgs = packagesToRestoreLater.size();
+        for (int i = 0; i < numPkgs; i++) {
+            BackupPackageState pkgState = packagesToRestoreLater.get(i);
+            store.mPkgStates.put(pkgState.mPackageName, pkgState);
+        }
+
+        store.compactLocked();
+        sDelayedRestoreStores.put(mUser.getIdentifier(), store);
+    }
+
+    /**
+     * Get the delayed restore state of the user, loading it from
+     * {@link Constants#DELAYED_RESTORE_PERMISSIONS_FILE} if this has not been done yet.
+     *
+     * @return The delayed restore state, or {@code null} if it could not be read
+     */
+    @Nullable
+    private DelayedRestoreStore getDelayedRestoreStoreLocked() {
+        dropStaleDelayedRestoreStoresLocked();
+
+        DelayedRestoreStore store = sDelayedRestoreStores.get(mUser.getIdentifier());
+        if (store != null) {
+            return store;
+        }
+
+        store = new DelayedRestoreStore(
+                mContext.getFileStreamPath(DELAYED_RESTORE_PERMISSIONS_FILE),
+                mContext.getFileStreamPath(DELAYED_RESTORE_PERMISSIONS_JOURNAL_FILE));
+
+        try (FileInputStream delayedRestoreData = store.mFile.openRead()) {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(delayedRestoreData, UTF_8.name());
+
+            ArrayList<BackupPackageState> pkgStates = parseFromXml(parser);
+            int numPkgStates = pkgStates.size();
+            for (int i = 0; i < numPkgStates; i++) {
+                BackupPackageState pkgState = pkgStates.get(i);
+                store.mPkgStates.put(pkgState.mPackageName, pkgState);
+            }
+        } catch (FileNotFoundException ignored) {
+            // Nothing was delayed
+        } catch (IOException | XmlPullParserException e) {
+            Log.e(LOG_TAG, "Could not parse delayed permissions", e);
+            return null;
+        }
+        store.readJournalLocked();
+
+        sDelayedRestoreStores.put(mUser.getIdentifier(), store);
+        return store;
+    }
+
+    /**
+     * Forget the loaded delayed restore state whose list of packages no longer exists on disk.
+     *
+     * <p>The list is always written while packages remain to be restored, so it is only missing
+     * once the data of the user was deleted, e.g. because the user was removed. A user created
+     * later with the same id then starts from its own (empty) state.
+     */
+    private static void dropStaleDelayedRestoreStoresLocked() {
+        for (int i = sDelayedRestoreStores.size() - 1; i >= 0; i--) {
+            if (!sDelayedRestoreStores.valueAt(i).mFile.getBaseFile().exists()) {
+                sDelayedRestoreStores.removeAt(i);
+            }
         }
     }
 
     /**
      * Write the state of all packages as XML.
      *
+     * <p>Packages are loaded, converted and written one at a time, so that only the state of a
+     * single package is held in memory at any point.
+     *
      * @param serializer The xml to write to
      */
     void writeState(@NonNull XmlSerializer serializer) throws IOException {
-        List<PackageInfo> pkgs = mContext.getPackageManager().getInstalledPackages(
-                GET_PERMISSIONS | GET_SIGNING_CERTIFICATES);
-        ArrayList<BackupPackageState> backupPkgs = new ArrayList<>();
+        long startMillis = SystemClock.elapsedRealtime();
+        Runtime runtime = Runtime.getRuntime();
+        long peakHeapBytes = runtime.totalMemory() - runtime.freeMemory();
+
+        PackageManager packageManager = mContext.getPackageManager();
+        List<PackageInfo> pkgs = packageManager.getInstalledPackages(0);
+        PermissionInfoCache permissionInfoCache = new PermissionInfoCache(packageManager);
+
+        startPkgsXml(serializer);
 
         int numPkgs = pkgs.size();
+        int numWrittenPkgs = 0;
         for (int i = 0; i < numPkgs; i++) {
-            BackupPackageState packageState = BackupPackageState.fromAppPermissions(mContext,
-                    pkgs.get(i));
+            String packageName = pkgs.get(i).packageName;
 
+            PackageInfo pkgInfo;
+            try {
+                pkgInfo = packageManager.getPackageInfo(packageName,
+                        GET_PERMISSIONS | GET_SIGNING_CERTIFICATES);
+            } catch (PackageManager.NameNotFoundException e) {
+                // Uninstalled since the list was loaded
+                continue;
+            }
+
+            BackupPackageState packageState = BackupPackageState.fromPackageInfo(mContext,
+                    pkgInfo, permissionInfoCache);
             if (packageState != null) {
-                backupPkgs.add(packageState);
+                packageState.writeAsXml(serializer);
+                numWrittenPkgs++;
             }
+
+            peakHeapBytes = Math.max(peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
         }
 
-        writePkgsAsXml(serializer, backupPkgs);
+        endPkgsXml(serializer);
+
+        Log.i(LOG_TAG, "Backed up " + numWrittenPkgs + " of " + numPkgs + " packages in "
+                + (SystemClock.elapsedRealtime() - startMillis) + "ms, peak heap "
+                + (peakHeapBytes / 1024) + "KB");
     }
 
     /**
@@ -401,47 +528,185 @@ public class BackupHelper {
      *
      * @return {@code true} if there is still delayed backup left
      */
-    boolean restoreDelayedState(@NonNull String packageName) {
+    @VisibleForTesting
+    public boolean restoreDelayedState(@NonNull String packageName) {
+        return restoreDelayedState(Collections.singletonList(packageName));
+    }
+
+    /**
+     * Restore delayed permission state for several packages (if delayed during
+     * {@link #restoreState}).
+     *
+     * <p>The restored packages are recorded with a single write, so this should be preferred over
+     * restoring the packages one by one when several packages were installed at once.
+     *
+     * @param packageNames The packages to be restored
+     *
+     * @return {@code true} if there is still delayed backup left
+     */
+    public boolean restoreDelayedState(@NonNull Collection<String> packageNames) {
         synchronized (sLock) {
-            ArrayList<BackupPackageState> packagesToRestoreLater;
+            DelayedRestoreStore store = getDelayedRestoreStoreLocked();
+            if (store == null) {
+                return false;
+            }
 
-            try (FileInputStream delayedRestoreData =
-                         mContext.openFileInput(DELAYED_RESTORE_PERMISSIONS_FILE)) {
-                XmlPullParser parser = Xml.newPullParser();
-                parser.setInput(delayedRestoreData, UTF_8.name());
+            ArrayList<String> restoredPackageNames = new ArrayList<>();
+            for (String packageName : packageNames) {
+                BackupPackageState pkgState = store.mPkgStates.get(packageName);
+                if (pkgState == null) {
+                    continue;
+                }
 
-                packagesToRestoreLater = parseFromXml(parser);
-            } catch (IOException | XmlPullParserException e) {
-                Log.e(LOG_TAG, "Could not parse delayed permissions", e);
-                return false;
+                PackageInfo pkgInfo;
+                try {
+                    pkgInfo = mContext.getPackageManager().getPackageInfo(
+                            packageName, GET_PERMISSIONS | GET_SIGNING_CERTIFICATES);
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.e(LOG_TAG, "Could not restore delayed permissions for " + packageName, e);
+                    continue;
+                }
+
+                if (checkCertificateDigestsMatch(pkgInfo, pkgState)) {
+                    pkgState.restore(mContext, pkgInfo);
+                    store.mPkgStates.remove(packageName);
+                    restoredPackageNames.add(packageName);
+                }
             }
 
-            PackageInfo pkgInfo = null;
-            try {
-                pkgInfo = mContext.getPackageManager().getPackageInfo(
-                        packageName, GET_PERMISSIONS | GET_SIGNING_CERTIFICATES);
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(LOG_TAG, "Could not restore delayed permissions for " + packageName, e);
+            if (!restoredPackageNames.isEmpty()) {
+                store.removeLocked(restoredPackageNames);
             }
 
-            if (pkgInfo != null) {
-                int numPkgs = packagesToRestoreLater.size();
-                for (int i = 0; i < numPkgs; i++) {
-                    BackupPackageState pkgState = packagesToRestoreLater.get(i);
+            if (store.mPkgStates.isEmpty()) {
+                // Nothing is left to restore, don't keep the empty state around
+                sDelayedRestoreStores.remove(mUser.getIdentifier());
+                return false;
+            }
+            return true;
+        }
+    }
 
-                    if (pkgState.mPackageName.equals(packageName) && checkCertificateDigestsMatch(
-                            pkgInfo, pkgState)) {
-                        pkgState.restore(mContext, pkgInfo);
-                        packagesToRestoreLater.remove(i);
+    /**
+     * The packages that still need to be restored, indexed by package name.
+     *
+     * <p>On disk, the state is stored as the list of packages in
+     * {@link Constants#DELAYED_RESTORE_PERMISSIONS_FILE}, plus a journal of the packages that have
+     * been restored since in {@link Constants#DELAYED_RESTORE_PERMISSIONS_JOURNAL_FILE}. Restoring
+     * a package hence only appends to the journal. The list is only rewritten once the journal
+     * has grown as large as the list itself, or once all packages have been restored.
+     */
+    private static class DelayedRestoreStore {
+        /** Minimum number of journal entries before the list is rewritten */
+        private static final int MIN_JOURNAL_ENTRIES_BEFORE_COMPACTION = 32;
 
-                        writeDelayedStorePkgsLocked(packagesToRestoreLater);
+        @NonNull
+        private final AtomicFile mFile;
+        @NonNull
+        private final File mJournalFile;
 
-                        break;
-                    }
+        /** Package name -> state of the package that still needs to be restored */
+        @NonNull
+        final ArrayMap<String, BackupPackageState> mPkgStates = new ArrayMap<>();
+
+        /** Number of packages in the journal */
+        private int mNumJournalEntries;
+
+        DelayedRestoreStore(@NonNull File file, @NonNull File journalFile) {
+            mFile = new AtomicFile(file);
+            mJournalFile = journalFile;
+        }
+
+        /**
+         * Remove the packages that are listed in the journal from the loaded state.
+         */
+        void readJournalLocked() {
+            if (!mJournalFile.exists()) {
+                return;
+            }
+
+            byte[] journal;
+            try (DataInputStream in = new DataInputStream(new FileInputStream(mJournalFile))) {
+                journal = new byte[(int) mJournalFile.length()];
+                in.readFully(journal);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not read delayed permissions journal", e);
+                return;
+            }
+
+            // An entry that was not completely written does not end with a line break and is
+            // ignored, the package is then simply restored again.
+            int entryStart = 0;
+            for (int i = 0; i < journal.length; i++) {
+                if (journal[i] == '\n') {
+                    mPkgStates.remove(new String(journal, entryStart, i - entryStart, UTF_8));
+                    mNumJournalEntries++;
+                    entryStart = i + 1;
                 }
             }
 
-            return packagesToRestoreLater.size() > 0;
+            // Drop the incomplete entry so that the next entry is not appended to it
+            if (entryStart < journal.length) {
+                try (RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw")) {
+                    file.setLength(entryStart);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Could not truncate delayed permissions journal", e);
+                    compactLocked();
+                }
+            }
+        }
+
+        /**
+         * Record that packages have been restored.
+         *
+         * @param packageNames The restored packages, already removed from {@link #mPkgStates}
+         */
+        void removeLocked(@NonNull List<String> packageNames) {
+            mNumJournalEntries += packageNames.size();
+            if (mPkgStates.isEmpty() || mNumJournalEntries >= Math.max(
+                    MIN_JOURNAL_ENTRIES_BEFORE_COMPACTION, mPkgStates.size())) {
+                compactLocked();
+                return;
+            }
+
+            StringBuilder entries = new StringBuilder();
+            int numPackageNames = packageNames.size();
+            for (int i = 0; i < numPackageNames; i++) {
+                entries.append(packageNames.get(i)).append('\n');
+            }
+
+            try (FileOutputStream out = new FileOutputStream(mJournalFile, true)) {
+                out.write(entries.toString().getBytes(UTF_8));
+                out.getFD().sync();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not remember which packages were restored", e);
+                compactLocked();
+            }
+        }
+
+        /**
+         * Rewrite the list of packages that still need to be restored and clear the journal.
+         */
+        void compactLocked() {
+            FileOutputStream out = null;
+            try {
+                out = mFile.startWrite();
+
+                XmlSerializer serializer = newSerializer();
+                serializer.setOutput(out, UTF_8.name());
+
+                writePkgsAsXml(serializer, new ArrayList<>(mPkgStates.values()));
+                serializer.flush();
+
+                mFile.finishWrite(out);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not remember which packages still need to be restored", e);
+                mFile.failWrite(out);
+                return;
+            }
+
+            mJournalFile.delete();
+            mNumJournalEntries = 0;
         }
     }
 
@@ -570,21 +835,21 @@ public class BackupHelper {
         }
 
         /**
-         * Get the states of all permissions of a group to back up.
+         * Get the states of permissions of a package to back up.
          *
-         * @param group The group of the permissions to back up
+         * @param pkgInfo The package the permissions belong to
+         * @param perms The permissions to back up
          *
-         * @return The state to back up. Empty list if no permissions in the group need to be backed
+         * @return The state to back up. Empty list if none of the permissions need to be backed
          * up
          */
         @NonNull
-        static ArrayList<BackupPermissionState> fromPermissionGroup(
-                @NonNull AppPermissionGroup group) {
+        static ArrayList<BackupPermissionState> fromPermissions(@NonNull PackageInfo pkgInfo,
+                @NonNull List<Permission> perms) {
             ArrayList<BackupPermissionState> permissionsToRestore = new ArrayList<>();
-            List<Permission> perms = group.getPermissions();
 
             boolean appSupportsRuntimePermissions =
-                    group.getApp().applicationInfo.targetSdkVersion >= Build.VERSION_CODES.M;
+                    pkgInfo.applicationInfo.targetSdkVersion >= Build.VERSION_CODES.M;
 
             int numPerms = perms.size();
             for (int i = 0; i < numPerms; i++) {
@@ -890,34 +1155,27 @@ public class BackupHelper {
         /**
          * Get the state of a package to back up.
          *
+         * <p>This reads the same permission state an {@link AppPermissions} of the package would
+         * expose, but without loading any of the UI related group information.
+         *
          * @param context A context to use
          * @param pkgInfo The package to back up.
+         * @param permissionInfoCache The permission definitions, shared between packages
          *
          * @return The state to back up or {@code null} if no permission of the package need to be
          * backed up.
          */
         @Nullable
-        static BackupPackageState fromAppPermissions(@NonNull Context context,
-                @NonNull PackageInfo pkgInfo) {
-            AppPermissions appPerms = new AppPermissions(context, pkgInfo, false, null);
-
-            ArrayList<BackupPermissionState> permissionsToRestore = new ArrayList<>();
-            List<AppPermissionGroup> groups = appPerms.getPermissionGroups();
-
-            int numGroups = groups.size();
-            for (int groupNum = 0; groupNum < numGroups; groupNum++) {
-                AppPermissionGroup group = groups.get(groupNum);
-
-                permissionsToRestore.addAll(BackupPermissionState.fromPermissionGroup(group));
-
-                // Background permissions are in a subgroup that is not part of
-                // {@link AppPermission#getPermissionGroups}. Hence add it explicitly here.
-                if (group.getBackgroundPermissions() != null) {
-                    permissionsToRestore.addAll(BackupPermissionState.fromPermissionGroup(
-                            group.getBackgroundPermissions()));
-                }
+        static BackupPackageState fromPackageInfo(@NonNull Context context,
+                @NonNull PackageInfo pkgInfo, @NonNull PermissionInfoCache permissionInfoCache) {
+            if (pkgInfo.requestedPermissions == null) {
+                return null;
             }
 
+            ArrayList<Permission> permsToBackUp =
+                    getPermissionsToBackUp(context, pkgInfo, permissionInfoCache);
+            ArrayList<BackupPermissionState> permissionsToRestore =
+                    BackupPermissionState.fromPermissions(pkgInfo, permsToBackUp);
             if (permissionsToRestore.size() == 0) {
                 return null;
             }
@@ -1095,4 +1353,158 @@ public class BackupHelper {
 
         return messageDigest.digest();
     }
+
+    /**
+     * Get the runtime permissions of a package that are part of its backup.
+     *
+     * <p>These are the same permissions, in the same state, as the ones of the
+     * {@link AppPermissionGroup}s of the package (including their background permissions), but
+     * read without loading any of the UI related group information.
+     *
+     * @param context A context to use
+     * @param pkgInfo The package, loaded with {@link PackageManager#GET_PERMISSIONS}
+     *
+     * @return The permissions to back up
+     */
+    @VisibleForTesting
+    @NonNull
+    public static List<Permission> getPermissionsToBackUp(@NonNull Context context,
+            @NonNull PackageInfo pkgInfo) {
+        if (pkgInfo.requestedPermissions == null) {
+            return Collections.emptyList();
+        }
+        return getPermissionsToBackUp(context, pkgInfo,
+                new PermissionInfoCache(context.getPackageManager()));
+    }
+
+    @NonNull
+    private static ArrayList<Permission> getPermissionsToBackUp(@NonNull Context context,
+            @NonNull PackageInfo pkgInfo, @NonNull PermissionInfoCache permissionInfoCache) {
+        PackageManager packageManager = context.getPackageManager();
+        AppOpsManager appOpsManager = context.getSystemService(AppOpsManager.class);
+
+        // Same as the permissions of the AppPermissionGroups of the package, keyed by group
+        ArrayMap<String, ArrayMap<String, Permission>> groups = new ArrayMap<>();
+        int numRequestedPerms = pkgInfo.requestedPermissions.length;
+        for (int i = 0; i < numRequestedPerms; i++) {
+            String permName = pkgInfo.requestedPermissions[i];
+            PermissionInfo permInfo = permissionInfoCache.getPermissionInfo(permName);
+            if (permInfo == null
+                    || (permInfo.flags & PermissionInfo.FLAG_INSTALLED) == 0
+                    || (permInfo.flags & PermissionInfo.FLAG_REMOVED) != 0) {
+                continue;
+            }
+
+            String groupName = PermissionMapping.getGroupOfPermission(permInfo);
+            String groupDeclaringPackage = groupName != null
+                    ? permissionInfoCache.getGroupDeclaringPackage(groupName) : null;
+            if (groupDeclaringPackage == null) {
+                // Permissions without a known group form their own group
+                groupName = permName;
+                groupDeclaringPackage = permInfo.packageName;
+            }
+
+            Permission perm = AppPermissionGroup.createRequestedPermission(pkgInfo, i, permInfo,
+                    groupDeclaringPackage, packageManager, appOpsManager);
+            if (perm == null) {
+                continue;
+            }
+
+            ArrayMap<String, Permission> groupPerms = groups.get(groupName);
+            if (groupPerms == null) {
+                groupPerms = new ArrayMap<>();
+                groups.put(groupName, groupPerms);
+            }
+            groupPerms.put(permName, perm);
+        }
+
+        Set<String> exemptedRestrictedPermissions = null;
+        ArrayList<Permission> permsToBackUp = new ArrayList<>();
+        int numGroups = groups.size();
+        for (int groupNum = 0; groupNum < numGroups; groupNum++) {
+            ArrayMap<String, Permission> groupPerms = groups.valueAt(groupNum);
+            AppPermissionGroup.linkForegroundAndBackgroundPermissions(groupPerms, pkgInfo,
+                    appOpsManager);
+
+            int numGroupPerms = groupPerms.size();
+            for (int i = 0; i < numGroupPerms; i++) {
+                Permission perm = groupPerms.valueAt(i);
+                if (perm.isHardRestricted() && exemptedRestrictedPermissions == null) {
+                    // Only read when needed, as most packages don't request any
+                    exemptedRestrictedPermissions =
+                            packageManager.getWhitelistedRestrictedPermissions(
+                                    pkgInfo.packageName, Utils.FLAGS_PERMISSION_WHITELIST_ALL);
+                }
+                if (AppPermissionGroup.isPermissionIncluded(perm, pkgInfo,
+                        exemptedRestrictedPermissions != null ? exemptedRestrictedPermissions
+                                : Collections.emptySet())) {
+                    permsToBackUp.add(perm);
+                }
+            }
+        }
+
+        return permsToBackUp;
+    }
+
+    /**
+     * Permission and permission group definitions loaded during a single backup, so that they are
+     * only read once instead of once per package requesting them.
+     */
+    private static class PermissionInfoCache {
+        @NonNull
+        private final PackageManager mPackageManager;
+        @NonNull
+        private final ArrayMap<String, PermissionInfo> mPermissionInfos = new ArrayMap<>();
+        @NonNull
+        private final ArrayMap<String, String> mGroupDeclaringPackages = new ArrayMap<>();
+
+        PermissionInfoCache(@NonNull PackageManager packageManager) {
+            mPackageManager = packageManager;
+        }
+
+        /**
+         * Get the definition of a permission.
+         *
+         * @param permissionName The name of the permission
+         *
+         * @return The definition, or {@code null} if the permission is not defined
+         */
+        @Nullable
+        PermissionInfo getPermissionInfo(@NonNull String permissionName) {
+            if (mPermissionInfos.containsKey(permissionName)) {
+                return mPermissionInfos.get(permissionName);
+            }
+            PermissionInfo permissionInfo;
+            try {
+                permissionInfo = mPackageManager.getPermissionInfo(permissionName, 0);
+            } catch (PackageManager.NameNotFoundException e) {
+                permissionInfo = null;
+            }
+            mPermissionInfos.put(permissionName, permissionInfo);
+            return permissionInfo;
+        }
+
+        /**
+         * Get the package declaring a permission group.
+         *
+         * @param groupName The name of the permission group
+         *
+         * @return The declaring package, or {@code null} if the group is not defined
+         */
+        @Nullable
+        String getGroupDeclaringPackage(@NonNull String groupName) {
+            if (mGroupDeclaringPackages.containsKey(groupName)) {
+                return mGroupDeclaringPackages.get(groupName);
+            }
+            String declaringPackage;
+            try {
+                declaringPackage = mPackageManager.getPermissionGroupInfo(groupName, 0)
+                        .packageName;
+            } catch (PackageManager.NameNotFoundException e) {
+                declaringPackage = null;
+            }
+            mGroupDeclaringPackages.put(groupName, declaringPackage);
+            return declaringPackage;
+        }
+    }
 }
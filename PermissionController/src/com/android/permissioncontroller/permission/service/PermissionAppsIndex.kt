@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.service
+
+import android.app.AppOpsManager
+import android.content.pm.PackageManager
+import com.android.permissioncontroller.permission.data.PackageBroadcastReceiver
+import com.android.permissioncontroller.permission.model.livedatatypes.AppPermGroupUiInfo
+import com.android.permissioncontroller.permission.model.livedatatypes.AppPermGroupUiInfo.PermGrantState
+
+/**
+ * An index of permission group -> packages requesting a permission of the group, with the bits
+ * needed to count apps for
+ * [android.permission.PermissionControllerManager.countPermissionApps].
+ *
+ * Entries are added as they are loaded, and dropped when the package changes, the permissions
+ * of its UID change or a [watched][watchAppOps] app op of the package changes, so that a count
+ * only needs to load the entries that are missing.
+ *
+ * An index is only used between [startListening] and [stopListening], which drops all entries.
+ */
+class PermissionAppsIndex {
+
+    private val lock = Any()
+
+    /** Group name -> package name -> [Entry], guarded by [lock] */
+    private val groupPackages = mutableMapOf<String, MutableMap<String, Entry>>()
+
+    private var isListening = false
+
+    /** Incremented whenever entries are dropped, guarded by [lock] */
+    private var generation = 0L
+
+    /** The app ops whose changes drop the entries of the package, guarded by [lock] */
+    private val watchedOpNames = mutableSetOf<String>()
+
+    private val packageListener =
+        object : PackageBroadcastReceiver.PackageBroadcastListener {
+            override fun onPackageUpdate(packageName: String) {
+                removePackage(packageName)
+            }
+        }
+
+    private val permissionListener =
+        PackageManager.OnPermissionsChangedListener { uid -> removeUid(uid) }
+
+    private val appOpListener =
+        AppOpsManager.OnOpChangedListener { _, packageName ->
+            if (packageName != null) {
+                removePackage(packageName)
+            }
+        }
+
+    /**
+     * An indexed package for a permission group.
+     *
+     * @param uid The UID of the package
+     * @param bits A combination of [FLAG_SHOULD_SHOW], [FLAG_SYSTEM] and [FLAG_GRANTED]
+     */
+    data class Entry(val uid: Int, val bits: Int) {
+        val shouldShow: Boolean
+            get() = bits and FLAG_SHOULD_SHOW != 0
+        val isSystem: Boolean
+            get() = bits and FLAG_SYSTEM != 0
+        val isGranted: Boolean
+            get() = bits and FLAG_GRANTED != 0
+
+        /**
+         * @return whether this entry counts the package for
+         * [android.permission.PermissionControllerManager.countPermissionApps]
+         */
+        fun counts(countSystem: Boolean, countOnlyGranted: Boolean): Boolean {
+            // The permission might not be granted, but some permissions of the group are
+            // granted. In this case the permission is granted silently when the app asks for it.
+            // Hence this is as-good-as-granted and we count it.
+            return shouldShow && (!isSystem || countSystem) && (isGranted || !countOnlyGranted)
+        }
+
+        companion object {
+            /** Creates an entry from the UI info of the group of the package. */
+            @JvmStatic
+            fun fromUiInfo(uid: Int, uiInfo: AppPermGroupUiInfo): Entry {
+                val granted =
+                    uiInfo.permGrantState != PermGrantState.PERMS_DENIED &&
+                        uiInfo.permGrantState != PermGrantState.PERMS_ASK
+                return Entry(
+                    uid,
+                    (if (uiInfo.shouldShow) FLAG_SHOULD_SHOW else 0) or
+                        (if (uiInfo.isSystem) FLAG_SYSTEM else 0) or
+                        (if (granted) FLAG_GRANTED else 0)
+                )
+            }
+        }
+    }
+
+    /**
+     * Starts listening for package and permission changes. Until this is called nothing is
+     * indexed.
+     *
+     * @param packageManager The package manager to listen to permission changes with
+     */
+    fun startListening(packageManager: PackageManager) {
+        synchronized(lock) {
+            if (isListening) {
+                return
+            }
+            isListening = true
+        }
+        PackageBroadcastReceiver.addAllCallback(packageListener)
+        packageManager.addOnPermissionsChangeListener(permissionListener)
+    }
+
+    /**
+     * Drops the entries of a package whenever one of the given app ops of the package changes.
+     * Must be called before loading entries that depend on these app ops.
+     *
+     * @param appOpsManager The app ops manager to watch the app ops with
+     * @param opNames The names of the app ops to watch
+     */
+    fun watchAppOps(appOpsManager: AppOpsManager, opNames: Collection<String>) {
+        val newOpNames =
+            synchronized(lock) {
+                if (!isListening) {
+                    return
+                }
+                opNames.filter { watchedOpNames.add(it) }
+            }
+        for (opName in newOpNames) {
+            try {
+                appOpsManager.startWatchingMode(opName, /* all packages */ null, appOpListener)
+            } catch (ignored: IllegalArgumentException) {
+                // Older builds may not support all requested app ops.
+            }
+        }
+    }
+
+    /**
+     * Stops listening for changes and drops all entries.
+     *
+     * @param packageManager The package manager passed to [startListening]
+     * @param appOpsManager The app ops manager passed to [watchAppOps]
+     */
+    fun stopListening(packageManager: PackageManager, appOpsManager: AppOpsManager) {
+        synchronized(lock) {
+            if (!isListening) {
+                return
+            }
+            isListening = false
+            generation++
+            groupPackages.clear()
+            watchedOpNames.clear()
+        }
+        PackageBroadcastReceiver.removeAllCallback(packageListener)
+        packageManager.removeOnPermissionsChangeListener(permissionListener)
+        appOpsManager.stopWatchingMode(appOpListener)
+    }
+
+    /** @return the entry of a package for a group, or `null` if it is not indexed */
+    fun get(groupName: String, packageName: String): Entry? =
+        synchronized(lock) { groupPackages[groupName]?.get(packageName) }
+
+    /**
+     * @return the current generation of the index, to be passed to [put] for entries loaded from
+     * now on
+     */
+    fun getGeneration(): Long = synchronized(lock) { generation }
+
+    /**
+     * Adds or replaces the entry of a package for a group.
+     *
+     * @param loadGeneration The [generation][getGeneration] from before the entry was loaded. If
+     * entries were dropped since, the entry might be stale and is not added.
+     */
+    fun put(groupName: String, packageName: String, entry: Entry, loadGeneration: Long) {
+        synchronized(lock) {
+            if (isListening && generation == loadGeneration) {
+                groupPackages.getOrPut(groupName) { mutableMapOf() }[packageName] = entry
+            }
+        }
+    }
+
+    /** Drops all entries of a package. */
+    fun removePackage(packageName: String) {
+        synchronized(lock) {
+            generation++
+            groupPackages.values.forEach { it.remove(packageName) }
+        }
+    }
+
+    /** Drops all entries of the packages of a UID. */
+    fun removeUid(uid: Int) {
+        synchronized(lock) {
+            generation++
+            groupPackages.values.forEach { packages ->
+                packages.values.removeAll { it.uid == uid }
+            }
+        }
+    }
+
+    companion object {
+        const val FLAG_SHOULD_SHOW = 1 shl 0
+        const val FLAG_SYSTEM = 1 shl 1
+        const val FLAG_GRANTED = 1 shl 2
+    }
+}
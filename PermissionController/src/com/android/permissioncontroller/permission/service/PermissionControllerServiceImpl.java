@@ -53,6 +53,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import com.android.permission.latency.LatencyStats;
 import com.android.permissioncontroller.PermissionControllerProto.PermissionControllerDumpProto;
 import com.android.permissioncontroller.PermissionControllerStatsLog;
 import com.android.permissioncontroller.permission.model.AppPermissionGroup;
@@ -138,6 +139,7 @@ public final class PermissionControllerServiceImpl extends PermissionControllerL
             }
         } else {
             writer.println(dump.toString());
+            LatencyStats.dump(writer, LatencyStats.Dump.PERMISSION_CONTROLLER);
             writer.flush();
         }
     }
@@ -191,89 +193,6 @@ public final class PermissionControllerServiceImpl extends PermissionControllerL
         }
     }
 
-    /**
-     * Given a set of permissions, find all permission groups of an app that can be revoked and that
-     * contain any of the permissions.
-     *
-     * @param permissions The permissions to revoke
-     * @param appPerms The {@link AppPermissions} for the app that is currently investigated
-     *
-     * @return The groups to revoke
-     */
-    private @NonNull ArrayList<AppPermissionGroup> getRevocableGroupsForPermissions(
-            @NonNull ArrayList<String> permissions, @NonNull AppPermissions appPerms) {
-        ArrayList<AppPermissionGroup> groupsToRevoke = new ArrayList<>();
-        int numGroups = appPerms.getPermissionGroups().size();
-        for (int groupNum = 0; groupNum < numGroups; groupNum++) {
-            AppPermissionGroup group = appPerms.getPermissionGroups().get(groupNum);
-
-            // Do not override fixed permissions
-            if (group.isPolicyFixed() || group.isSystemFixed()) {
-                continue;
-            }
-
-            int numPerms = permissions.size();
-            for (int permNum = 0; permNum < numPerms; permNum++) {
-                String reqPerm = permissions.get(permNum);
-
-                if (group.hasPermission(reqPerm)) {
-                    groupsToRevoke.add(group);
-
-                    // If fg permissions get revoked also revoke bg permissions as bg
-                    // permissions require fg permissions.
-                    AppPermissionGroup bgPerms = group.getBackgroundPermissions();
-                    if (bgPerms != null) {
-                        groupsToRevoke.add(bgPerms);
-                    }
-                } else {
-                    AppPermissionGroup bgPerms = group.getBackgroundPermissions();
-                    if (bgPerms != null && bgPerms.hasPermission(reqPerm)) {
-                        groupsToRevoke.add(bgPerms);
-                    }
-                }
-            }
-        }
-
-        return groupsToRevoke;
-    }
-
-    /**
-     * Revoke all permissions of some groups.
-     *
-     * @param groupsToRevoke The groups
-     *
-     * @return The permissions that were revoked
-     */
-    private @NonNull ArrayList<String> revokePermissionGroups(
-            @NonNull ArrayList<AppPermissionGroup> groupsToRevoke) {
-        ArrayList<String> revokedPerms = new ArrayList<>();
-
-        int numGroupsToRevoke = groupsToRevoke.size();
-        for (int groupsToRevokeNum = 0; groupsToRevokeNum < numGroupsToRevoke;
-                groupsToRevokeNum++) {
-            AppPermissionGroup group = groupsToRevoke.get(groupsToRevokeNum);
-            ArrayList<Permission> perms = group.getPermissions();
-
-            // Mark the permissions as reviewed as we don't want to use to accidentally grant
-            // the permission during review
-            group.unsetReviewRequired();
-
-            int numPerms = perms.size();
-            for (int permNum = 0; permNum < numPerms; permNum++) {
-                Permission perm = perms.get(permNum);
-
-                // Only count individual permissions that are actually revoked
-                if (perm.isGrantedIncludingAppOp()) {
-                    revokedPerms.add(perm.getName());
-                }
-            }
-
-            group.revokeRuntimePermissions(false);
-        }
-
-        return revokedPerms;
-    }
-
     @Override
     public void onRevokeRuntimePermissions(@NonNull Map<String, List<String>> request,
             boolean doDryRun, int reason, @NonNull String callerPackageName,
@@ -292,80 +211,27 @@ public final class PermissionControllerServiceImpl extends PermissionControllerL
             return Collections.emptyMap();
         }
 
-        PackageManager pm = getPackageManager();
-
         PackageInfo callerPkgInfo = getPkgInfo(callerPackageName);
         if (callerPkgInfo == null) {
             return Collections.emptyMap();
         }
         int callerTargetSdk = callerPkgInfo.applicationInfo.targetSdkVersion;
 
-        Map<String, List<String>> actuallyRevokedPerms = new ArrayMap<>();
-        ArrayList<AppPermissions> appsWithRevokedPerms = new ArrayList<>();
-
+        // In rare cases the caller does not know about the permissions that have been added due
+        // to splits. Hence add them now.
+        Map<String, List<String>> expandedRequest = new ArrayMap<>();
         for (Map.Entry<String, List<String>> appRequest : request.entrySet()) {
-            PackageInfo requestedPkgInfo = getPkgInfo(appRequest.getKey());
-            if (requestedPkgInfo == null) {
-                continue;
-            }
-
-            // Permissions are per UID. Hence permissions will be removed from all apps sharing an
-            // UID.
-            String[] pkgNames = pm.getPackagesForUid(requestedPkgInfo.applicationInfo.uid);
-            if (pkgNames == null) {
-                continue;
-            }
-
-            int numPkgNames = pkgNames.length;
-            for (int pkgNum = 0; pkgNum < numPkgNames; pkgNum++) {
-                String pkgName = pkgNames[pkgNum];
-
-                PackageInfo pkgInfo = getPkgInfo(pkgName);
-                if (pkgInfo == null) {
-                    continue;
-                }
-
-                // If the revocation is because of a market policy violation only the installer can
-                // revoke the permissions.
-                if (reason == REASON_INSTALLER_POLICY_VIOLATION
-                        && !callerPackageName.equals(pm.getInstallerPackageName(pkgName))) {
-                    Log.i(LOG_TAG, "Ignoring " + pkgName + " as it is not installed by "
-                            + callerPackageName);
-                    continue;
-                }
-
-                // In rare cases the caller does not know about the permissions that have been added
-                // due to splits. Hence add them now.
-                ArrayList<String> expandedPerms = addSplitPermissions(appRequest.getValue(),
-                        callerTargetSdk);
-
-                AppPermissions appPerms = new AppPermissions(this, pkgInfo, false, true, null);
-
-                // First find the groups that should be revoked and then revoke all permissions of
-                // these groups. This is needed as soon as a single permission in the group is
-                // granted, all other permissions get auto-granted on request.
-                ArrayList<AppPermissionGroup> groupsToRevoke = getRevocableGroupsForPermissions(
-                        expandedPerms, appPerms);
-                ArrayList<String> revokedPerms = revokePermissionGroups(groupsToRevoke);
-
-                // In racy conditions the group might not have had granted permissions anymore
-                if (!revokedPerms.isEmpty()) {
-                    actuallyRevokedPerms.put(pkgName, revokedPerms);
-                    appsWithRevokedPerms.add(appPerms);
-                }
-            }
+            expandedRequest.put(appRequest.getKey(), addSplitPermissions(appRequest.getValue(),
+                    callerTargetSdk));
         }
 
-        // Persist changes after we computed everything to remove
-        // This is necessary as we would otherwise only look at the first app of a shared UID.
+        RuntimePermissionsRevocation revocation = RuntimePermissionsRevocation.plan(this,
+                expandedRequest, reason, callerPackageName);
         if (!doDryRun) {
-            int numChangedApps = appsWithRevokedPerms.size();
-            for (int i = 0; i < numChangedApps; i++) {
-                appsWithRevokedPerms.get(i).persistChanges(true);
-            }
+            revocation.apply();
         }
 
-        return actuallyRevokedPerms;
+        return revocation.getRevokedPermissions();
     }
 
     @Override
@@ -16,6 +16,7 @@
 
 package com.android.permissioncontroller.permission.service
 
+import android.app.AppOpsManager
 import android.content.pm.PackageManager
 import android.os.Process
 import android.permission.PermissionControllerManager.COUNT_ONLY_WHEN_GRANTED
@@ -28,6 +29,8 @@ import androidx.lifecycle.Observer
 import androidx.lifecycle.map
 import com.android.permissioncontroller.DumpableLog
 import com.android.permissioncontroller.PermissionControllerProto.PermissionControllerDumpProto
+import com.android.permissioncontroller.permission.utils.AppIconCache
+import com.android.permissioncontroller.permission.utils.PermissionDefinitionCache
 import com.android.permissioncontroller.permission.utils.PermissionMapping
 import com.android.permissioncontroller.permission.data.AppPermGroupUiInfoLiveData
 import com.android.permissioncontroller.permission.data.HibernationSettingStateLiveData
@@ -37,7 +40,6 @@ import com.android.permissioncontroller.permission.data.UserPackageInfosLiveData
 import com.android.permissioncontroller.permission.data.get
 import com.android.permissioncontroller.permission.data.getUnusedPackages
 import com.android.permissioncontroller.permission.model.livedatatypes.AppPermGroupUiInfo
-import com.android.permissioncontroller.permission.model.livedatatypes.AppPermGroupUiInfo.PermGrantState
 import com.android.permissioncontroller.permission.model.livedatatypes.LightPackageInfo
 import com.android.permissioncontroller.permission.utils.Utils
 import kotlinx.coroutines.Dispatchers.IO
@@ -56,6 +58,11 @@ class PermissionControllerServiceModel(private val service: PermissionController
 
     private val observedLiveDatas = mutableListOf<LiveData<*>>()
 
+    /** Only used while the service is bound, dropped in [removeObservers] */
+    private val permissionAppsIndex = PermissionAppsIndex()
+
+    private val appOpsManager by lazy { service.getSystemService(AppOpsManager::class.java)!! }
+
     /**
      * *Must* be used instead of LiveData.observe, in order to allow the lifecycle state to
      * be set to "started" correctly. If the liveData was inactive, create a no op observer, which
@@ -106,9 +113,10 @@ class PermissionControllerServiceModel(private val service: PermissionController
     }
 
     /**
-     * Stop observing all currently observed liveDatas
+     * Stop observing all currently observed liveDatas, and drop the [PermissionAppsIndex]
      */
     fun removeObservers() {
+        permissionAppsIndex.stopListening(service.packageManager, appOpsManager)
         GlobalScope.launch(Main.immediate) {
             for (liveData in observedLiveDatas) {
                 liveData.removeObservers(service)
@@ -140,10 +148,12 @@ class PermissionControllerServiceModel(private val service: PermissionController
 
     /**
      * Called upon receiving a list of packages which we want to filter by a list of permissions
-     * and flags. Observes the AppPermGroupUiInfoLiveData for every app, and, upon receiving a
-     * non-stale update, adds it to the count if it matches the permission list and flags. Will
-     * only use the first non-stale update, so if an app is updated after this update, but before
-     * execution is complete, the changes will not be reflected until the method is called again.
+     * and flags. Uses the [PermissionAppsIndex] for the groups of the apps that are indexed, and
+     * observes the AppPermGroupUiInfoLiveData of the others. Upon receiving a non-stale update,
+     * the group is indexed and added to the count if it matches the permission list and flags.
+     * Will only use the first non-stale update, so if an app is updated after this update, but
+     * before execution is complete, the changes will not be reflected until the method is called
+     * again.
      *
      * @param permissionNames The list of permission names whose apps we want to count
      * @param flags Flags specifying if we want to count system apps, and count only granted apps
@@ -168,7 +178,7 @@ class PermissionControllerServiceModel(private val service: PermissionController
         val permToGroup = mutableMapOf<String, String?>()
         for (permName in permissionNames) {
             val permInfo = try {
-                service.packageManager.getPermissionInfo(permName, 0)
+                PermissionDefinitionCache.getPermissionInfo(service.packageManager, permName)
             } catch (e: PackageManager.NameNotFoundException) {
                 continue
             }
@@ -178,57 +188,77 @@ class PermissionControllerServiceModel(private val service: PermissionController
             }
         }
 
-        val uiLiveDatasPerPackage = mutableListOf<MutableSet<AppPermGroupUiInfoLiveData>>()
-        var numLiveDatas = 0
-        for ((packageName, _, requestedPermissions) in packageInfos) {
-            val packageUiLiveDatas = mutableSetOf<AppPermGroupUiInfoLiveData>()
-            for (permName in permToGroup.keys) {
-                if (requestedPermissions.contains(permName)) {
-                    packageUiLiveDatas.add(AppPermGroupUiInfoLiveData[packageName,
-                        permToGroup[permName]!!, Process.myUserHandle()])
+        // The grant state of a group also depends on the app ops of its permissions, so these
+        // are watched before any entry of the group is looked up or loaded
+        permissionAppsIndex.startListening(service.packageManager)
+        permissionAppsIndex.watchAppOps(appOpsManager, getOpNamesOfGroups(permToGroup.values))
+
+        // Package name -> entries of the requested groups, already indexed or still loading
+        val packageEntries = mutableMapOf<String, MutableList<PermissionAppsIndex.Entry>>()
+        val missingEntries = mutableListOf<Pair<LightPackageInfo, String>>()
+        for (packageInfo in packageInfos) {
+            val groupNames =
+                permToGroup.mapNotNullTo(mutableSetOf()) { (permName, groupName) ->
+                    groupName.takeIf { packageInfo.requestedPermissions.contains(permName) }
+                }
+            for (groupName in groupNames) {
+                val entry = permissionAppsIndex.get(groupName, packageInfo.packageName)
+                if (entry != null) {
+                    packageEntries.getOrPut(packageInfo.packageName) { mutableListOf() }.add(entry)
+                } else {
+                    missingEntries.add(packageInfo to groupName)
                 }
             }
-            if (packageUiLiveDatas.isNotEmpty()) {
-                uiLiveDatasPerPackage.add(packageUiLiveDatas)
-                numLiveDatas += packageUiLiveDatas.size
+        }
+
+        val countPackages = {
+            packageEntries.values.count { entries ->
+                entries.any { it.counts(countSystem, countOnlyGranted) }
             }
         }
 
-        if (numLiveDatas == 0) {
-            callback.accept(0)
+        if (missingEntries.isEmpty()) {
+            callback.accept(countPackages())
+            return
         }
 
-        var packagesWithPermission = 0
-        var numPermAppsChecked = 0
-
-        for (packageUiInfoLiveDatas in uiLiveDatasPerPackage) {
-            var packageAdded = false
-            // We don't need to check for new packages in between the updates of the ui info live
-            // datas, because this method is used primarily for UI, and there is inherent delay
-            // when calling this method, due to binder calls, so some staleness is acceptable
-            for (packageUiInfoLiveData in packageUiInfoLiveDatas) {
-                observeAndCheckForLifecycleState(packageUiInfoLiveData) { uiInfo ->
-                    numPermAppsChecked++
-
-                    if (uiInfo != null && uiInfo.shouldShow && (!uiInfo.isSystem || countSystem)) {
-                        val granted = uiInfo.permGrantState != PermGrantState.PERMS_DENIED &&
-                            uiInfo.permGrantState != PermGrantState.PERMS_ASK
-                        if (granted || !countOnlyGranted && !packageAdded) {
-                            // The permission might not be granted, but some permissions of the
-                            // group are granted. In this case the permission is granted silently
-                            // when the app asks for it.
-                            // Hence this is as-good-as-granted and we count it.
-                            packageAdded = true
-                            packagesWithPermission++
-                        }
-                    }
+        // We don't need to check for new packages in between the updates of the ui info live
+        // datas, because this method is used primarily for UI, and there is inherent delay when
+        // calling this method, due to binder calls, so some staleness is acceptable
+        val loadGeneration = permissionAppsIndex.getGeneration()
+        var numEntriesLoaded = 0
+        for ((packageInfo, groupName) in missingEntries) {
+            val packageName = packageInfo.packageName
+            val uiInfoLiveData =
+                AppPermGroupUiInfoLiveData[packageName, groupName, Process.myUserHandle()]
+            observeAndCheckForLifecycleState(uiInfoLiveData) { uiInfo ->
+                numEntriesLoaded++
 
-                    if (numPermAppsChecked == numLiveDatas) {
-                        callback.accept(packagesWithPermission)
-                    }
+                if (uiInfo != null) {
+                    val entry = PermissionAppsIndex.Entry.fromUiInfo(packageInfo.uid, uiInfo)
+                    permissionAppsIndex.put(groupName, packageName, entry, loadGeneration)
+                    packageEntries.getOrPut(packageName) { mutableListOf() }.add(entry)
                 }
+
+                if (numEntriesLoaded == missingEntries.size) {
+                    callback.accept(countPackages())
+                }
+            }
+        }
+    }
+
+    /** @return the names of the app ops of the permissions of the given groups */
+    private fun getOpNamesOfGroups(groupNames: Collection<String?>): Set<String> {
+        val opNames = mutableSetOf<String>()
+        for (groupName in groupNames.filterNotNull().toSet()) {
+            val permInfos = try {
+                PermissionDefinitionCache.queryPermissionsOfGroup(service.packageManager, groupName)
+            } catch (e: PackageManager.NameNotFoundException) {
+                continue
             }
+            permInfos.mapNotNullTo(opNames) { AppOpsManager.permissionToOp(it.name) }
         }
+        return opNames
     }
 
     /**
@@ -325,9 +355,9 @@ class PermissionControllerServiceModel(private val service: PermissionController
         return withTimeout(9000) {
             val dumpedLogs = GlobalScope.async(IO) { DumpableLog.get() }
 
-            PermissionControllerDumpProto.newBuilder()
-                    .addAllLogs(dumpedLogs.await())
-                    .build()
+            val dump = PermissionControllerDumpProto.newBuilder().addAllLogs(dumpedLogs.await())
+            AppIconCache.dumpIfCreated()?.let { dump.setIconCache(it) }
+            dump.build()
         }
     }
 }
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.service;
+
+import static android.content.pm.PackageManager.GET_PERMISSIONS;
+import static android.permission.PermissionControllerManager.REASON_INSTALLER_POLICY_VIOLATION;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+
+import com.android.permissioncontroller.permission.model.AppPermissionGroup;
+import com.android.permissioncontroller.permission.model.AppPermissions;
+import com.android.permissioncontroller.permission.model.Permission;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of runtime permission revocations requested via
+ * {@link android.permission.PermissionControllerManager#revokeRuntimePermissions}.
+ *
+ * <p>Permissions are per UID, hence the requests are grouped by UID first. The state of every
+ * package sharing a UID is then loaded once, and the full set of permissions to revoke is computed
+ * before anything is changed. This plan can be returned as is for a dry run, or {@link #apply()
+ * applied} UID by UID, killing each UID at most once.
+ */
+final class RuntimePermissionsRevocation {
+    private static final String LOG_TAG = RuntimePermissionsRevocation.class.getSimpleName();
+
+    private static final String KILL_REASON_APP_OP_CHANGE = "Permission related app op changed";
+
+    @NonNull
+    private final Context mContext;
+
+    /** UID -> apps of the UID that have permissions to revoke */
+    @NonNull
+    private final SparseArray<ArrayList<AppPermissions>> mAppsToPersist = new SparseArray<>();
+
+    /** Package name -> permissions of the package that are revoked */
+    @NonNull
+    private final ArrayMap<String, List<String>> mRevokedPermissions = new ArrayMap<>();
+
+    private RuntimePermissionsRevocation(@NonNull Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Compute which permissions to revoke for a request.
+     *
+     * @param context A context to use
+     * @param request Package name -> permissions to revoke, already expanded by split permissions
+     * @param reason The reason of the revocation
+     * @param callerPackageName The package requesting the revocation
+     *
+     * @return The revocation, not yet applied
+     */
+    @NonNull
+    static RuntimePermissionsRevocation plan(@NonNull Context context,
+            @NonNull Map<String, List<String>> request, int reason,
+            @NonNull String callerPackageName) {
+        long startMillis = SystemClock.elapsedRealtime();
+        PackageManager pm = context.getPackageManager();
+        RuntimePermissionsRevocation revocation = new RuntimePermissionsRevocation(context);
+
+        // UID -> permissions to revoke from all packages of the UID
+        SparseArray<ArraySet<String>> uidRequests = new SparseArray<>();
+        for (Map.Entry<String, List<String>> appRequest : request.entrySet()) {
+            int uid;
+            try {
+                uid = pm.getPackageUid(appRequest.getKey(), 0);
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.w(LOG_TAG, appRequest.getKey() + " not found", e);
+                continue;
+            }
+
+            ArraySet<String> uidPermissions = uidRequests.get(uid);
+            if (uidPermissions == null) {
+                uidPermissions = new ArraySet<>();
+                uidRequests.put(uid, uidPermissions);
+            }
+            uidPermissions.addAll(appRequest.getValue());
+        }
+
+        int numUids = uidRequests.size();
+        for (int uidNum = 0; uidNum < numUids; uidNum++) {
+            int uid = uidRequests.keyAt(uidNum);
+            ArrayList<String> permissions = new ArrayList<>(uidRequests.valueAt(uidNum));
+
+            String[] pkgNames = pm.getPackagesForUid(uid);
+            if (pkgNames == null) {
+                continue;
+            }
+
+            int numPkgNames = pkgNames.length;
+            for (int pkgNum = 0; pkgNum < numPkgNames; pkgNum++) {
+                String pkgName = pkgNames[pkgNum];
+
+                PackageInfo pkgInfo;
+                try {
+                    pkgInfo = pm.getPackageInfo(pkgName, GET_PERMISSIONS);
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.w(LOG_TAG, pkgName + " not found", e);
+                    continue;
+                }
+
+                // If the revocation is because of a market policy violation only the installer can
+                // revoke the permissions.
+                if (reason == REASON_INSTALLER_POLICY_VIOLATION
+                        && !callerPackageName.equals(pm.getInstallerPackageName(pkgName))) {
+                    Log.i(LOG_TAG, "Ignoring " + pkgName + " as it is not installed by "
+                            + callerPackageName);
+                    continue;
+                }
+
+                AppPermissions appPerms = new AppPermissions(context, pkgInfo, false, true, null);
+
+                // First find the groups that should be revoked and then revoke all permissions of
+                // these groups. This is needed as soon as a single permission in the group is
+                // granted, all other permissions get auto-granted on request.
+                ArrayList<AppPermissionGroup> groupsToRevoke = getRevocableGroupsForPermissions(
+                        permissions, appPerms);
+                ArrayList<String> revokedPerms = revokePermissionGroups(groupsToRevoke);
+
+                // In racy conditions the group might not have had granted permissions anymore
+                if (!revokedPerms.isEmpty()) {
+                    revocation.mRevokedPermissions.put(pkgName, revokedPerms);
+
+                    ArrayList<AppPermissions> uidApps = revocation.mAppsToPersist.get(uid);
+                    if (uidApps == null) {
+                        uidApps = new ArrayList<>();
+                        revocation.mAppsToPersist.put(uid, uidApps);
+                    }
+                    uidApps.add(appPerms);
+                }
+            }
+        }
+
+        Log.i(LOG_TAG, "Planned revocation for " + request.size() + " packages in " + numUids
+                + " UIDs in " + (SystemClock.elapsedRealtime() - startMillis) + "ms, "
+                + revocation.mRevokedPermissions.size() + " packages affected");
+
+        return revocation;
+    }
+
+    /**
+     * @return Package name -> permissions of the package that are revoked by this revocation
+     */
+    @NonNull
+    Map<String, List<String>> getRevokedPermissions() {
+        return mRevokedPermissions;
+    }
+
+    /**
+     * Persist the revocation. The permissions of all apps of a UID are persisted before the UID
+     * is killed, if needed.
+     */
+    void apply() {
+        long startMillis = SystemClock.elapsedRealtime();
+        ActivityManager activityManager = mContext.getSystemService(ActivityManager.class);
+
+        int numKilledUids = 0;
+        int numUids = mAppsToPersist.size();
+        for (int uidNum = 0; uidNum < numUids; uidNum++) {
+            ArrayList<AppPermissions> uidApps = mAppsToPersist.valueAt(uidNum);
+
+            // Persist changes after we computed everything to remove
+            // This is necessary as we would otherwise only look at the first app of a shared UID.
+            boolean needsKill = false;
+            int numApps = uidApps.size();
+            for (int appNum = 0; appNum < numApps; appNum++) {
+                needsKill |= uidApps.get(appNum).persistChanges(false, null);
+            }
+
+            if (needsKill) {
+                activityManager.killUid(mAppsToPersist.keyAt(uidNum), KILL_REASON_APP_OP_CHANGE);
+                numKilledUids++;
+            }
+        }
+
+        Log.i(LOG_TAG, "Revoked permissions of " + mRevokedPermissions.size() + " packages in "
+                + numUids + " UIDs in " + (SystemClock.elapsedRealtime() - startMillis) + "ms, "
+                + numKilledUids + " UIDs killed");
+    }
+
+    /**
+     * Given a set of permissions, find all permission groups of an app that can be revoked and that
+     * contain any of the permissions.
+     *
+     * @param permissions The permissions to revoke
+     * @param appPerms The {@link AppPermissions} for the app that is currently investigated
+     *
+     * @return The groups to revoke
+     */
+    private static @NonNull ArrayList<AppPermissionGroup> getRevocableGroupsForPermissions(
+            @NonNull ArrayList<String> permissions, @NonNull AppPermissions appPerms) {
+        ArrayList<AppPermissionGroup> groupsToRevoke = new ArrayList<>();
+        int numGroups = appPerms.getPermissionGroups().size();
+        for (int groupNum = 0; groupNum < numGroups; groupNum++) {
+            AppPermissionGroup group = appPerms.getPermissionGroups().get(groupNum);
+
+            // Do not override fixed permissions
+            if (group.isPolicyFixed() || group.isSystemFixed()) {
+                continue;
+            }
+
+            int numPerms = permissions.size();
+            for (int permNum = 0; permNum < numPerms; permNum++) {
+                String reqPerm = permissions.get(permNum);
+
+                if (group.hasPermission(reqPerm)) {
+                    groupsToRevoke.add(group);
+
+                    // If fg permissions get revoked also revoke bg permissions as bg
+                    // permissions require fg permissions.
+                    AppPermissionGroup bgPerms = group.getBackgroundPermissions();
+                    if (bgPerms != null) {
+                        groupsToRevoke.add(bgPerms);
+                    }
+                } else {
+                    AppPermissionGroup bgPerms = group.getBackgroundPermissions();
+                    if (bgPerms != null && bgPerms.hasPermission(reqPerm)) {
+                        groupsToRevoke.add(bgPerms);
+                    }
+                }
+            }
+        }
+
+        return groupsToRevoke;
+    }
+
+    /**
+     * Revoke all permissions of some groups.
+     *
+     * @param groupsToRevoke The groups
+     *
+     * @return The permissions that were revoked
+     */
+    private static @NonNull ArrayList<String> revokePermissionGroups(
+            @NonNull ArrayList<AppPermissionGroup> groupsToRevoke) {
+        ArrayList<String> revokedPerms = new ArrayList<>();
+
+        int numGroupsToRevoke = groupsToRevoke.size();
+        for (int groupsToRevokeNum = 0; groupsToRevokeNum < numGroupsToRevoke;
+                groupsToRevokeNum++) {
+            AppPermissionGroup group = groupsToRevoke.get(groupsToRevokeNum);
+            ArrayList<Permission> perms = group.getPermissions();
+
+            // Mark the permissions as reviewed as we don't want to use to accidentally grant
+            // the permission during review
+            group.unsetReviewRequired();
+
+            int numPerms = perms.size();
+            for (int permNum = 0; permNum < numPerms; permNum++) {
+                Permission perm = perms.get(permNum);
+
+                // Only count individual permissions that are actually revoked
+                if (perm.isGrantedIncludingAppOp()) {
+                    revokedPerms.add(perm.getName());
+                }
+            }
+
+            group.revokeRuntimePermissions(false);
+        }
+
+        return revokedPerms;
+    }
+}
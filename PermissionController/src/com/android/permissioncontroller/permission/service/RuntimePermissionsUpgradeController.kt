@@ -25,6 +25,7 @@ import android.content.pm.PackageManager.FLAG_PERMISSION_WHITELIST_UPGRADE
 import android.content.pm.PermissionInfo
 import android.os.Build
 import android.os.Process.myUserHandle
+import android.os.SystemClock
 import android.permission.PermissionManager
 import android.util.Log
 import com.android.modules.utils.build.SdkLevel
@@ -122,19 +123,14 @@ internal object RuntimePermissionsUpgradeController {
         context: Context,
         currentVersion: Int
     ): Int {
-        var sdkUpgradedFromP = false
-        var isNewUser = false
-
-        if (currentVersion <= -1) {
-            sdkUpgradedFromP = true
-        } else if (currentVersion == 0) {
-            isNewUser = true
-        }
-
-        val needBackgroundAppPermGroups = sdkUpgradedFromP && currentVersion <= 6
-        val needAccessMediaAppPermGroups = !isNewUser && currentVersion <= 7
-        val needGrantedExternalStorage = currentVersion <= 9 && SdkLevel.isAtLeastT()
         val isDeviceUpgrading = context.packageManager.isDeviceUpgrading
+        val plan = UpgradePlan.create(currentVersion, isDeviceUpgrading)
+        val needBackgroundAppPermGroups = plan.needBackgroundAppPermGroups
+        val needAccessMediaAppPermGroups = plan.needAccessMediaAppPermGroups
+        val needGrantedExternalStorage = plan.needGrantedExternalStorage
+        Log.i(LOG_TAG, "Upgrading from version $currentVersion with $plan")
+
+        val loadStartMillis = SystemClock.elapsedRealtime()
 
         // All data needed by this method.
         //
@@ -162,26 +158,21 @@ internal object RuntimePermissionsUpgradeController {
             private val permGroupProvidersDone = mutableSetOf<LightAppPermGroupLiveData>()
 
             init {
-                // First step: Load packages + perm infos
-                // TODO ntmyren: remove once b/154796729 is fixed
-                Log.i("RuntimePermissions", "observing UserPackageInfoLiveData for " +
-                    "${myUserHandle().identifier} in RuntimePermissionsUpgradeController")
-                addSource(pkgInfoProvider) { pkgInfos ->
-                    if (pkgInfos != null) {
-                        removeSource(pkgInfoProvider)
-
-                        // TODO ntmyren: remove once b/154796729 is fixed
-                        Log.i("RuntimePermissions", "observing " +
-                            "PreinstalledUserPackageInfoLiveData for ${myUserHandle().identifier}" +
-                            " in RuntimePermissionsUpgradeController")
-                        addSource(preinstalledPkgInfoProvider) { preinstalledPkgInfos ->
-                            if (preinstalledPkgInfos != null) {
-                                removeSource(preinstalledPkgInfoProvider)
-
-                                update()
-                            }
+                // First step: Load packages + perm infos. All packages are only needed if an
+                // upgrade step still has to run, the preinstalled ones are always needed.
+                if (plan.needPkgs) {
+                    // TODO ntmyren: remove once b/154796729 is fixed
+                    Log.i("RuntimePermissions", "observing UserPackageInfoLiveData for " +
+                        "${myUserHandle().identifier} in RuntimePermissionsUpgradeController")
+                    addSource(pkgInfoProvider) { pkgInfos ->
+                        if (pkgInfos != null) {
+                            removeSource(pkgInfoProvider)
+
+                            observePreinstalledPkgInfos()
                         }
                     }
+                } else {
+                    observePreinstalledPkgInfos()
                 }
 
                 for (platformRuntimePermission in getRuntimePlatformPermissionNames()) {
@@ -199,8 +190,23 @@ internal object RuntimePermissionsUpgradeController {
                 }
             }
 
+            private fun observePreinstalledPkgInfos() {
+                // TODO ntmyren: remove once b/154796729 is fixed
+                Log.i("RuntimePermissions", "observing " +
+                    "PreinstalledUserPackageInfoLiveData for ${myUserHandle().identifier}" +
+                    " in RuntimePermissionsUpgradeController")
+                addSource(preinstalledPkgInfoProvider) { preinstalledPkgInfos ->
+                    if (preinstalledPkgInfos != null) {
+                        removeSource(preinstalledPkgInfoProvider)
+
+                        update()
+                    }
+                }
+            }
+
             override fun onUpdate() {
-                if (permGroupProviders == null && pkgInfoProvider.value != null) {
+                if (permGroupProviders == null &&
+                        (!plan.needPkgs || pkgInfoProvider.value != null)) {
                     // Second step: Trigger load of app-perm-groups
 
                     permGroupProviders = mutableListOf()
@@ -313,14 +319,18 @@ internal object RuntimePermissionsUpgradeController {
                         restrictedPermissions.add(permInfo.name)
                     }
 
+                    val pkgs = if (plan.needPkgs) pkgInfoProvider.value!! else emptyList()
                     value = UpgradeData(preinstalledPkgInfoProvider.value!!, restrictedPermissions,
-                            pkgInfoProvider.value!!, bgGroups, storageGroups)
+                            pkgs, bgGroups, storageGroups)
                 }
             }
         }
 
         // Trigger loading of data and wait until data is loaded
         val upgradeData = upgradeDataProvider.getInitializedValue(forceUpdate = true)
+        val planStartMillis = SystemClock.elapsedRealtime()
+        Log.i(LOG_TAG, "Loaded ${upgradeData.preinstalledPkgs.size} preinstalled and " +
+                "${upgradeData.pkgs.size} packages in ${planStartMillis - loadStartMillis}ms")
 
         // Only exempt permissions that are in the OTA. Apps that are updated via OTAs are never
         // installed. Hence their permission are never exempted. This code replaces that by
@@ -336,14 +346,30 @@ internal object RuntimePermissionsUpgradeController {
                 upgradeData.bgGroups, upgradeData.storageGroups,
                 isDeviceUpgrading)
 
+        val exemptions = preinstalledAppExemptions union upgradeExemptions
+        val applyStartMillis = SystemClock.elapsedRealtime()
+        Log.i(LOG_TAG, "Planned ${exemptions.size} exemptions and ${grants.size} grants in " +
+                "${applyStartMillis - planStartMillis}ms")
+        if (exemptions.isEmpty() && grants.isEmpty()) {
+            return newVersion
+        }
+
         // Do not run in parallel. Measurements have shown that this is slower than sequential
-        for (exemption in (preinstalledAppExemptions union upgradeExemptions)) {
-            exemption.applyToPlatform(context)
+        var appliedExemptionCount = 0
+        val exemptionsByPkg = exemptions.groupBy { it.pkgName }
+        for ((pkgName, pkgExemptions) in exemptionsByPkg) {
+            appliedExemptionCount += RestrictionExemption.applyToPlatform(context, pkgName,
+                    pkgExemptions)
         }
+        val grantStartMillis = SystemClock.elapsedRealtime()
+        Log.i(LOG_TAG, "Applied $appliedExemptionCount of ${exemptions.size} exemptions for " +
+                "${exemptionsByPkg.size} packages in ${grantStartMillis - applyStartMillis}ms")
 
-        for (grant in grants) {
+        for (grant in grants.groupBy { it.pkgName }.values.flatten()) {
             grant.applyToPlatform(context)
         }
+        Log.i(LOG_TAG, "Applied ${grants.size} grants in " +
+                "${SystemClock.elapsedRealtime() - grantStartMillis}ms")
 
         return newVersion
     }
@@ -541,6 +567,40 @@ internal object RuntimePermissionsUpgradeController {
         return Triple(currentVersion, exemptions, grants)
     }
 
+    /**
+     * The data {@link #onUpgradeLocked} needs to load, precomputed from the version the database
+     * is upgraded from so that only the data of the steps that still have to run is loaded.
+     */
+    private data class UpgradePlan(
+        /** Whether all packages are needed, rather than only the preinstalled ones */
+        val needPkgs: Boolean,
+        /** Whether the location groups are needed to expand them to background location */
+        val needBackgroundAppPermGroups: Boolean,
+        /** Whether the storage groups are needed to expand them to access media location */
+        val needAccessMediaAppPermGroups: Boolean,
+        /** Whether the storage groups are needed to migrate them to read media */
+        val needGrantedExternalStorage: Boolean
+    ) {
+        companion object {
+            fun create(currentVersion: Int, isDeviceUpgrading: Boolean): UpgradePlan {
+                val sdkUpgradedFromP = currentVersion <= -1
+                val isNewUser = currentVersion == 0
+
+                val needBackgroundAppPermGroups = sdkUpgradedFromP && currentVersion <= 6
+                val needAccessMediaAppPermGroups = !isNewUser && currentVersion <= 7
+                // The migration to read media only grants anything on a device upgrade for an
+                // existing user
+                val needGrantedExternalStorage = currentVersion <= 9 && SdkLevel.isAtLeastT() &&
+                        !isNewUser && isDeviceUpgrading
+                // Steps up to 7 exempt or grant permissions of all packages
+                val needPkgs = currentVersion <= 7 || needGrantedExternalStorage
+
+                return UpgradePlan(needPkgs, needBackgroundAppPermGroups,
+                        needAccessMediaAppPermGroups, needGrantedExternalStorage)
+            }
+        }
+    }
+
     /**
      * All data needed by {@link #onUpgradeLocked}
      */
@@ -549,7 +609,7 @@ internal object RuntimePermissionsUpgradeController {
         val preinstalledPkgs: List<LightPackageInfo>,
         /** Restricted permissions */
         val restrictedPermissions: Set<String>,
-        /** Currently installed packages */
+        /** Currently installed packages, empty if not needed by the {@link UpgradePlan} */
         val pkgs: List<LightPackageInfo>,
         /**
          * Background Location groups that need to be inspected by
@@ -573,13 +633,37 @@ internal object RuntimePermissionsUpgradeController {
         /** Name of permissions to exempt */
         val flags: Int = FLAG_PERMISSION_WHITELIST_UPGRADE
     ) {
-        /**
-         * Exempt the permission by updating the platform state.
-         *
-         * @param context context to use when calling the platform
-         */
-        fun applyToPlatform(context: Context) {
-            context.packageManager.addWhitelistedRestrictedPermission(pkgName, permission, flags)
+        companion object {
+            /**
+             * Exempt the permissions of a package by updating the platform state, skipping the
+             * ones that are already exempt.
+             *
+             * @param context context to use when calling the platform
+             * @param pkgName the package to exempt the permissions of
+             * @param exemptions the exemptions of the package
+             *
+             * @return the number of exemptions that were applied
+             */
+            fun applyToPlatform(
+                context: Context,
+                pkgName: String,
+                exemptions: List<RestrictionExemption>
+            ): Int {
+                var appliedCount = 0
+                for ((flags, flagsExemptions) in exemptions.groupBy { it.flags }) {
+                    val alreadyExempt =
+                        context.packageManager.getWhitelistedRestrictedPermissions(pkgName, flags)
+                    for (exemption in flagsExemptions) {
+                        if (exemption.permission in alreadyExempt) {
+                            continue
+                        }
+                        context.packageManager.addWhitelistedRestrictedPermission(pkgName,
+                                exemption.permission, flags)
+                        appliedCount++
+                    }
+                }
+                return appliedCount
+            }
         }
     }
 
@@ -594,6 +678,10 @@ internal object RuntimePermissionsUpgradeController {
         /** Which of th permissions in the group should be granted */
         private val permissions: List<String> = group.permissions.keys.toList()
     ) {
+        /** Name of the package to grant the permissions to */
+        val pkgName: String
+            get() = group.packageName
+
         /**
          * Grant the permission by updating the platform state.
          *
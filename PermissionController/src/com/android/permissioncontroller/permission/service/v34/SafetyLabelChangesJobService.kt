@@ -33,7 +33,6 @@ import android.content.Intent.ACTION_BOOT_COMPLETED
 import android.content.pm.PackageManager
 import android.os.Build
 import android.os.Bundle
-import android.os.PersistableBundle
 import android.os.Process
 import android.os.UserHandle
 import android.os.UserManager
@@ -66,6 +65,7 @@ import com.android.permissioncontroller.permission.model.livedatatypes.AppPermGr
 import com.android.permissioncontroller.permission.model.v34.AppDataSharingUpdate
 import com.android.permissioncontroller.permission.utils.KotlinUtils
 import com.android.permissioncontroller.permission.utils.Utils.getSystemServiceSafe
+import com.android.permissioncontroller.permission.utils.v34.SafetyLabelUtils
 import com.android.permissioncontroller.safetylabel.AppsSafetyLabelHistory
 import com.android.permissioncontroller.safetylabel.AppsSafetyLabelHistory.AppInfo
 import com.android.permissioncontroller.safetylabel.AppsSafetyLabelHistory.SafetyLabel as SafetyLabelForPersistence
@@ -347,19 +347,16 @@ class SafetyLabelChangesJobService : JobService() {
             } else {
                 context.createContextAsUser(user, 0)
             }
-        val appMetadataBundle: PersistableBundle =
+        val lightPackageInfo =
+            LightPackageInfoLiveData[packageKey].getInitializedValue() ?: return null
+        val appMetadataSafetyLabel: AppMetadataSafetyLabel =
             try {
-                userContext.packageManager.getAppMetadata(packageName)
+                SafetyLabelUtils.getSafetyLabel(userContext.packageManager, lightPackageInfo)
             } catch (e: PackageManager.NameNotFoundException) {
                 Log.w(LOG_TAG, "Package $packageName not found while retrieving app metadata")
                 return null
-            }
-        val appMetadataSafetyLabel: AppMetadataSafetyLabel =
-            AppMetadataSafetyLabel.getSafetyLabelFromMetadata(appMetadataBundle) ?: return null
-        val lastUpdateTime =
-            Instant.ofEpochMilli(
-                LightPackageInfoLiveData[packageKey].getInitializedValue()?.lastUpdateTime ?: 0
-            )
+            } ?: return null
+        val lastUpdateTime = Instant.ofEpochMilli(lightPackageInfo.lastUpdateTime)
 
         val safetyLabelForPersistence: SafetyLabelForPersistence =
             AppsSafetyLabelHistory.SafetyLabel.extractLocationSharingSafetyLabel(
@@ -75,6 +75,7 @@ import com.android.permissioncontroller.R;
 import com.android.permissioncontroller.permission.ui.auto.GrantPermissionsAutoViewHandler;
 import com.android.permissioncontroller.permission.ui.model.GrantPermissionsViewModel;
 import com.android.permissioncontroller.permission.ui.model.GrantPermissionsViewModel.RequestInfo;
+import com.android.permissioncontroller.permission.ui.model.GrantPermissionsPrefetcher;
 import com.android.permissioncontroller.permission.ui.model.GrantPermissionsViewModelFactory;
 import com.android.permissioncontroller.permission.ui.wear.GrantPermissionsWearViewHandler;
 import com.android.permissioncontroller.permission.utils.KotlinUtils;
@@ -157,6 +158,7 @@ public class GrantPermissionsActivity extends SettingsActivity
     private List<RequestInfo> mRequestInfos = new ArrayList<>();
     private GrantPermissionsViewHandler mViewHandler;
     private GrantPermissionsViewModel mViewModel;
+    private GrantPermissionsPrefetcher mPrefetcher;
     /**
      * A list of other GrantPermissionActivities for the same package which passed their list of
      * permissions to this one. They need to be informed when this activity finishes.
@@ -280,6 +282,8 @@ public class GrantPermissionsActivity extends SettingsActivity
         GrantPermissionsViewModelFactory factory = new GrantPermissionsViewModelFactory(
                 getApplication(), mTargetPackage, mRequestedPermissions, mSessionId, icicle);
         if (!mDelegated) {
+            mPrefetcher = new GrantPermissionsPrefetcher(mTargetPackage, mRequestedPermissions);
+            mPrefetcher.start(this);
             mViewModel = factory.create(GrantPermissionsViewModel.class);
             mViewModel.getRequestInfosLiveData().observe(this, this::onRequestInfoLoad);
         }
@@ -386,7 +390,11 @@ public class GrantPermissionsActivity extends SettingsActivity
     private void onRequestInfoLoad(List<RequestInfo> requests) {
         if (!mViewModel.getRequestInfosLiveData().isInitialized() || isResultSet() || mDelegated) {
             return;
-        } else if (requests == null) {
+        }
+        if (mPrefetcher != null) {
+            mPrefetcher.onRequestInfosLoaded();
+        }
+        if (requests == null) {
             finishAfterTransition();
             return;
         } else if (requests.isEmpty()) {
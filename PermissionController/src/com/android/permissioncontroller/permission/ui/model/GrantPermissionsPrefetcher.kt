@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.ui.model
+
+import android.os.Process
+import android.os.SystemClock
+import android.os.Trace
+import android.os.UserHandle
+import android.util.Log
+import androidx.annotation.MainThread
+import androidx.annotation.VisibleForTesting
+import androidx.lifecycle.LifecycleOwner
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.Observer
+import com.android.modules.utils.build.SdkLevel
+import com.android.permissioncontroller.permission.data.LightAppPermGroupLiveData
+import com.android.permissioncontroller.permission.data.LightPackageInfoLiveData
+import com.android.permissioncontroller.permission.data.PackagePermissionsLiveData
+import com.android.permissioncontroller.permission.data.SmartUpdateMediatorLiveData
+import com.android.permissioncontroller.permission.data.v34.SafetyLabelInfoLiveData
+import com.android.permissioncontroller.permission.utils.PermissionMapping
+
+/**
+ * Starts loading all the data a [GrantPermissionsViewModel] needs for a request as soon as the
+ * request is known, instead of as a chain of LiveDatas that each start loading only once the
+ * previous one has a value.
+ *
+ * The LiveDatas are shared through their repositories, so the view model picks up the same
+ * instances, already loaded or in flight. The time each stage takes to load is traced, and the
+ * prefetcher stops observing the LiveDatas once the view model has loaded the request.
+ *
+ * @param packageName The package the permissions are being requested for
+ * @param requestedPermissions The permissions being requested
+ * @param user The user of the package
+ */
+class GrantPermissionsPrefetcher
+@JvmOverloads
+constructor(
+    private val packageName: String,
+    private val requestedPermissions: List<String>,
+    private val user: UserHandle = Process.myUserHandle()
+) {
+    private val startMillis = SystemClock.elapsedRealtime()
+    private val stageLatenciesMillis = linkedMapOf<String, Long>()
+    private val pendingStages = mutableSetOf<String>()
+    private val removeObservers = mutableListOf<() -> Unit>()
+    private var requestInfosLoaded = false
+
+    /**
+     * Observes all the data for the request until [onRequestInfosLoaded] is called or [owner] is
+     * destroyed, and thus starts loading it concurrently.
+     */
+    @MainThread
+    fun start(owner: LifecycleOwner) {
+        val requestedGroups =
+            requestedPermissions.mapNotNull { PermissionMapping.getGroupOfPlatformPermission(it) }
+                .toSet()
+
+        val stages = linkedMapOf<String, LiveData<*>>()
+        stages[STAGE_PACKAGE_INFO] = LightPackageInfoLiveData[packageName, user]
+        stages[STAGE_PACKAGE_PERMISSIONS] = PackagePermissionsLiveData[packageName, user]
+        if (
+            SdkLevel.isAtLeastU() &&
+                requestedGroups.any { PermissionMapping.isSafetyLabelAwarePermissionGroup(it) }
+        ) {
+            stages[STAGE_SAFETY_LABEL] = SafetyLabelInfoLiveData[packageName, user]
+        }
+        // Custom permissions can only be mapped to their group once the package permissions are
+        // loaded, so only platform permission groups are prefetched.
+        for (groupName in requestedGroups) {
+            stages[STAGE_APP_PERM_GROUP_PREFIX + groupName] =
+                LightAppPermGroupLiveData[packageName, groupName, user]
+        }
+        start(owner, stages)
+    }
+
+    /** Observes the given [LiveData]s, keyed by the name of their stage. */
+    @VisibleForTesting
+    @MainThread
+    fun start(owner: LifecycleOwner, stages: Map<String, LiveData<*>>) {
+        for ((stage, liveData) in stages) {
+            prefetch(owner, stage, liveData)
+        }
+    }
+
+    /**
+     * Records that the view model produced its first request infos, and stops observing the
+     * prefetched data, which is now observed by the view model itself.
+     */
+    @MainThread
+    fun onRequestInfosLoaded() {
+        if (requestInfosLoaded) {
+            return
+        }
+        requestInfosLoaded = true
+        stageLatenciesMillis[STAGE_REQUEST_INFOS] = SystemClock.elapsedRealtime() - startMillis
+        Log.v(LOG_TAG, "Loaded request for $packageName: $stageLatenciesMillis")
+        stop()
+    }
+
+    @MainThread
+    private fun stop() {
+        removeObservers.forEach { it() }
+        removeObservers.clear()
+        for (stage in pendingStages) {
+            Trace.endAsyncSection(TRACE_PREFIX + stage, stage.hashCode())
+        }
+        pendingStages.clear()
+    }
+
+    private fun <T> prefetch(owner: LifecycleOwner, stage: String, liveData: LiveData<T>) {
+        val cookie = stage.hashCode()
+        pendingStages.add(stage)
+        Trace.beginAsyncSection(TRACE_PREFIX + stage, cookie)
+        val observer =
+            Observer<T> {
+                val isStale = liveData is SmartUpdateMediatorLiveData<*> && liveData.isStale
+                if (stage in pendingStages && !isStale) {
+                    pendingStages.remove(stage)
+                    stageLatenciesMillis[stage] = SystemClock.elapsedRealtime() - startMillis
+                    Trace.endAsyncSection(TRACE_PREFIX + stage, cookie)
+                }
+            }
+        liveData.observe(owner, observer)
+        removeObservers.add { liveData.removeObserver(observer) }
+    }
+
+    companion object {
+        private val LOG_TAG = GrantPermissionsPrefetcher::class.java.simpleName
+
+        private const val TRACE_PREFIX = "GrantPermissions:"
+
+        const val STAGE_PACKAGE_INFO = "packageInfo"
+        const val STAGE_PACKAGE_PERMISSIONS = "packagePermissions"
+        const val STAGE_SAFETY_LABEL = "safetyLabel"
+        const val STAGE_APP_PERM_GROUP_PREFIX = "appPermGroup:"
+        const val STAGE_REQUEST_INFOS = "requestInfos"
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.utils;
+
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseLongArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.launcher3.icons.BaseIconFactory;
+import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.icons.IconFactory;
+import com.android.launcher3.icons.R;
+import com.android.launcher3.icons.cache.BaseIconCache;
+import com.android.permissioncontroller.PermissionControllerProto.AppIconCacheDumpProto;
+import com.android.permissioncontroller.permission.data.PackageBroadcastReceiver;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory and disk cache for the badged icons and labels of applications shown in the
+ * PermissionController UI.
+ *
+ * <p>Entries are kept in memory for the lifetime of the process and dropped when the package is
+ * changed, and persisted in an {@link BaseIconCache.IconDB} keyed by package, user, version and
+ * system state so that they survive process restarts.
+ *
+ * <p>The database is only accessed on the background thread of the cache, so that writes and
+ * deletes are applied in the order they are requested. Lookups on the main thread never wait for
+ * it, and load the icon directly on a memory miss instead.
+ *
+ * <p>Icons and labels are loaded separately, so that a lookup only loads what it returns.
+ */
+public final class AppIconCache extends BaseIconCache
+        implements PackageBroadcastReceiver.PackageBroadcastListener {
+
+    private static final String LOG_TAG = AppIconCache.class.getSimpleName();
+
+    private static final String DB_FILE_NAME = "permission_app_icons.db";
+
+    private static final int MEMORY_CACHE_SIZE = 200;
+
+    private static final String[] COLUMNS = new String[] {
+            IconDB.COLUMN_ICON_COLOR, IconDB.COLUMN_LABEL, IconDB.COLUMN_ICON };
+
+    private static final String SELECTION = IconDB.COLUMN_COMPONENT + " = ? AND "
+            + IconDB.COLUMN_USER + " = ? AND " + IconDB.COLUMN_VERSION + " = ? AND "
+            + IconDB.COLUMN_LAST_UPDATED + " = ? AND " + IconDB.COLUMN_SYSTEM_STATE + " = ?";
+
+    private static final Object sLock = new Object();
+
+    @Nullable
+    private static AppIconCache sInstance;
+
+    @NonNull
+    private final LruCache<String, Entry> mMemoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+
+    @NonNull
+    private final SparseLongArray mUserSerials = new SparseLongArray(2);
+
+    @NonNull
+    private final UserManager mUserManager;
+
+    @NonNull
+    private final AtomicLong mMemoryHits = new AtomicLong();
+
+    @NonNull
+    private final AtomicLong mDiskHits = new AtomicLong();
+
+    @NonNull
+    private final AtomicLong mMisses = new AtomicLong();
+
+    private AppIconCache(@NonNull Context context, @NonNull HandlerThread bgThread) {
+        super(context, DB_FILE_NAME, bgThread.getLooper(),
+                context.getResources().getConfiguration().densityDpi,
+                context.getResources().getDimensionPixelSize(R.dimen.default_icon_bitmap_size),
+                false);
+        mUserManager = context.getSystemService(UserManager.class);
+    }
+
+    /**
+     * Get the process-wide instance of the cache.
+     *
+     * @param context a {@code Context} in the PermissionController process
+     *
+     * @return the cache
+     */
+    @NonNull
+    public static AppIconCache getInstance(@NonNull Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                HandlerThread bgThread = new HandlerThread(LOG_TAG);
+                bgThread.start();
+                sInstance = new AppIconCache(context.getApplicationContext(), bgThread);
+                PackageBroadcastReceiver.INSTANCE.addAllCallback(sInstance);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Get the badged icon of an application.
+     *
+     * @param context the {@code Context} whose resources are used to create the drawable
+     * @param appInfo the {@link ApplicationInfo} of the application
+     *
+     * @return the badged icon of the application
+     */
+    @NonNull
+    public Drawable getBadgedIcon(@NonNull Context context, @NonNull ApplicationInfo appInfo) {
+        UserHandle user = UserHandle.getUserHandleForUid(appInfo.uid);
+        Entry entry = getEntry(appInfo.packageName, user, appInfo, true, false);
+        return new BitmapDrawable(context.getResources(), entry.mBitmapInfo.icon);
+    }
+
+    /**
+     * Get the badged icon of a package.
+     *
+     * @param context the {@code Context} whose resources are used to create the drawable
+     * @param packageName the name of the package
+     * @param user the user of the package
+     *
+     * @return the badged icon of the package, or {@code null} if the package does not exist
+     */
+    @Nullable
+    public Drawable getBadgedIcon(@NonNull Context context, @NonNull String packageName,
+            @NonNull UserHandle user) {
+        Entry entry = getEntry(packageName, user, null, true, false);
+        if (entry == null) {
+            return null;
+        }
+        return new BitmapDrawable(context.getResources(), entry.mBitmapInfo.icon);
+    }
+
+    /**
+     * Get the full label of a package.
+     *
+     * @param packageName the name of the package
+     * @param user the user of the package
+     *
+     * @return the label of the package, or {@code null} if the package does not exist
+     *
+     * @see Utils#getFullAppLabel(ApplicationInfo, Context)
+     */
+    @Nullable
+    public String getLabel(@NonNull String packageName, @NonNull UserHandle user) {
+        Entry entry = getEntry(packageName, user, null, false, true);
+        return entry != null ? entry.mLabel : null;
+    }
+
+    /**
+     * Get the cache entry of a package, holding at least the icon and/or the label as requested.
+     *
+     * <p>When the caller already has the {@link ApplicationInfo} of the package, a memory miss
+     * loads what is missing from it directly, without querying the package manager for the
+     * version that keys the database.
+     */
+    @Nullable
+    private Entry getEntry(@NonNull String packageName, @NonNull UserHandle user,
+            @Nullable ApplicationInfo appInfo, boolean needsIcon, boolean needsLabel) {
+        String systemState = getIconSystemState(packageName);
+        String key = getKey(packageName, user, systemState);
+        Entry entry = mMemoryCache.get(key);
+        if (entry != null && entry.has(needsIcon, needsLabel)) {
+            mMemoryHits.incrementAndGet();
+            return entry;
+        }
+
+        if (appInfo != null) {
+            mMisses.incrementAndGet();
+            entry = loadEntry(appInfo, entry, needsIcon, needsLabel);
+            mMemoryCache.put(key, entry);
+            return entry;
+        }
+
+        PackageInfo packageInfo;
+        try {
+            packageInfo = Utils.getUserContext(mContext, user).getPackageManager().getPackageInfo(
+                    packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+        appInfo = packageInfo.applicationInfo;
+        if (appInfo == null) {
+            return null;
+        }
+
+        Entry dbEntry = readEntryFromDbOnWorker(packageName, user, packageInfo, systemState);
+        if (dbEntry != null) {
+            entry = dbEntry.mergeWith(entry);
+        }
+        if (entry != null && entry.has(needsIcon, needsLabel)) {
+            mDiskHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+            entry = loadEntry(appInfo, entry, needsIcon, needsLabel);
+            Entry newEntry = entry;
+            mWorkerHandler.post(
+                    () -> writeEntryToDb(packageName, user, packageInfo, systemState, newEntry));
+        }
+        mMemoryCache.put(key, entry);
+        return entry;
+    }
+
+    @NonNull
+    private Entry loadEntry(@NonNull ApplicationInfo appInfo, @Nullable Entry knownEntry,
+            boolean needsIcon, boolean needsLabel) {
+        BitmapInfo bitmapInfo = knownEntry != null ? knownEntry.mBitmapInfo : null;
+        if (bitmapInfo == null && needsIcon) {
+            bitmapInfo = loadIcon(appInfo);
+        }
+        String label = knownEntry != null ? knownEntry.mLabel : null;
+        if (label == null && needsLabel) {
+            label = Utils.getFullAppLabel(appInfo, mContext);
+        }
+        return new Entry(bitmapInfo, label);
+    }
+
+    @Nullable
+    private Entry readEntryFromDbOnWorker(@NonNull String packageName, @NonNull UserHandle user,
+            @NonNull PackageInfo packageInfo, @NonNull String systemState) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            return null;
+        }
+        if (mWorkerHandler.getLooper().isCurrentThread()) {
+            return readEntryFromDb(packageName, user, packageInfo, systemState);
+        }
+        FutureTask<Entry> readTask = new FutureTask<>(
+                () -> readEntryFromDb(packageName, user, packageInfo, systemState));
+        mWorkerHandler.post(readTask);
+        try {
+            return readTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(LOG_TAG, "Unable to read icon cache entry for " + packageName, e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private Entry readEntryFromDb(@NonNull String packageName,
+            @NonNull UserHandle user, @NonNull PackageInfo packageInfo,
+            @NonNull String systemState) {
+        try (Cursor cursor = mIconDb.query(COLUMNS, SELECTION, new String[] {
+                getComponentName(packageName).flattenToString(),
+                Long.toString(getSerialNumberForUser(user)),
+                Long.toString(packageInfo.getLongVersionCode()),
+                Long.toString(packageInfo.lastUpdateTime), systemState })) {
+            if (!cursor.moveToNext()) {
+                return null;
+            }
+            String label = cursor.getString(1);
+            byte[] icon = cursor.getBlob(2);
+            BitmapInfo bitmapInfo = icon != null ? BitmapInfo.fromByteArray(icon,
+                    cursor.getInt(0), user, this, mContext) : null;
+            if (bitmapInfo != null && bitmapInfo.isNullOrLowRes()) {
+                bitmapInfo = null;
+            }
+            if (label == null && bitmapInfo == null) {
+                return null;
+            }
+            return new Entry(bitmapInfo, label);
+        } catch (SQLiteException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Unable to read icon cache entry for " + packageName, e);
+            return null;
+        }
+    }
+
+    private void writeEntryToDb(@NonNull String packageName,
+            @NonNull UserHandle user, @NonNull PackageInfo packageInfo,
+            @NonNull String systemState, @NonNull Entry entry) {
+        byte[] icon = entry.mBitmapInfo != null ? entry.mBitmapInfo.toByteArray() : null;
+        if (icon == null && entry.mLabel == null) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(IconDB.COLUMN_COMPONENT, getComponentName(packageName).flattenToString());
+        values.put(IconDB.COLUMN_USER, getSerialNumberForUser(user));
+        values.put(IconDB.COLUMN_LAST_UPDATED, packageInfo.lastUpdateTime);
+        values.put(IconDB.COLUMN_VERSION, packageInfo.getLongVersionCode());
+        values.put(IconDB.COLUMN_ICON, icon);
+        values.put(IconDB.COLUMN_ICON_COLOR, icon != null ? entry.mBitmapInfo.color : 0);
+        values.put(IconDB.COLUMN_LABEL, entry.mLabel);
+        values.put(IconDB.COLUMN_SYSTEM_STATE, systemState);
+        try {
+            mIconDb.insertOrReplace(values);
+        } catch (SQLiteException e) {
+            Log.w(LOG_TAG, "Unable to write icon cache entry for " + packageName, e);
+        }
+    }
+
+    @NonNull
+    private BitmapInfo loadIcon(@NonNull ApplicationInfo appInfo) {
+        UserHandle user = UserHandle.getUserHandleForUid(appInfo.uid);
+        try (BaseIconFactory iconFactory = getIconFactory()) {
+            return iconFactory.createBadgedIconBitmap(
+                    appInfo.loadUnbadgedIcon(mPackageManager), user, false);
+        }
+    }
+
+    @Override
+    public void onPackageUpdate(@NonNull String packageName) {
+        String keyPrefix = packageName + '/';
+        for (String key : mMemoryCache.snapshot().keySet()) {
+            if (key.startsWith(keyPrefix)) {
+                mMemoryCache.remove(key);
+            }
+        }
+        // Stale rows for the old version are never read again, but drop them so that the database
+        // doesn't grow with every update. This is posted before any write of the new version, so
+        // it can't delete it.
+        mWorkerHandler.post(() -> {
+            try {
+                mIconDb.delete(IconDB.COLUMN_COMPONENT + " = ?",
+                        new String[] { getComponentName(packageName).flattenToString() });
+            } catch (SQLiteException e) {
+                Log.w(LOG_TAG, "Unable to delete icon cache entries for " + packageName, e);
+            }
+        });
+    }
+
+    /**
+     * Clear the memory cache, but not the database.
+     */
+    @VisibleForTesting
+    public void clearMemoryCache() {
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * Dump the hit rate of the process-wide cache, without creating it.
+     *
+     * @return the dump proto, or {@code null} if the cache was never created in this process
+     */
+    @Nullable
+    public static AppIconCacheDumpProto dumpIfCreated() {
+        AppIconCache instance;
+        synchronized (sLock) {
+            instance = sInstance;
+        }
+        return instance != null ? instance.dump() : null;
+    }
+
+    /**
+     * Dump the hit rate of this cache.
+     *
+     * @return the dump proto
+     */
+    @NonNull
+    public AppIconCacheDumpProto dump() {
+        return AppIconCacheDumpProto.newBuilder()
+                .setMemoryHits(mMemoryHits.get())
+                .setDiskHits(mDiskHits.get())
+                .setMisses(mMisses.get())
+                .setMemoryCacheSize(mMemoryCache.size())
+                .build();
+    }
+
+    @Override
+    protected String getIconSystemState(String packageName) {
+        return mContext.getResources().getConfiguration().getLocales().toLanguageTags() + ","
+                + mContext.getResources().getConfiguration().densityDpi + ","
+                + Build.VERSION.SDK_INT;
+    }
+
+    @Override
+    protected long getSerialNumberForUser(UserHandle user) {
+        // User serial numbers are never reused, so they can be cached for the process lifetime.
+        synchronized (mUserSerials) {
+            int index = mUserSerials.indexOfKey(user.getIdentifier());
+            if (index >= 0) {
+                return mUserSerials.valueAt(index);
+            }
+            long serial = mUserManager.getSerialNumberForUser(user);
+            mUserSerials.put(user.getIdentifier(), serial);
+            return serial;
+        }
+    }
+
+    @Override
+    protected boolean isInstantApp(ApplicationInfo info) {
+        return info.isInstantApp();
+    }
+
+    @Override
+    public BaseIconFactory getIconFactory() {
+        return IconFactory.obtain(mContext);
+    }
+
+    @NonNull
+    private static String getKey(@NonNull String packageName, @NonNull UserHandle user,
+            @NonNull String systemState) {
+        return packageName + '/' + user.getIdentifier() + '/' + systemState;
+    }
+
+    @NonNull
+    private static ComponentName getComponentName(@NonNull String packageName) {
+        return new ComponentName(packageName, packageName + EMPTY_CLASS_NAME);
+    }
+
+    private static final class Entry {
+
+        @Nullable
+        final BitmapInfo mBitmapInfo;
+
+        @Nullable
+        final String mLabel;
+
+        Entry(@Nullable BitmapInfo bitmapInfo, @Nullable String label) {
+            mBitmapInfo = bitmapInfo;
+            mLabel = label;
+        }
+
+        boolean has(boolean icon, boolean label) {
+            return (!icon || mBitmapInfo != null) && (!label || mLabel != null);
+        }
+
+        @NonNull
+        Entry mergeWith(@Nullable Entry other) {
+            if (other == null) {
+                return this;
+            }
+            return new Entry(mBitmapInfo != null ? mBitmapInfo : other.mBitmapInfo,
+                    mLabel != null ? mLabel : other.mLabel);
+        }
+    }
+}
@@ -532,13 +532,7 @@ object KotlinUtils {
         packageName: String,
         user: UserHandle
     ): Drawable? {
-        return try {
-            val userContext = Utils.getUserContext(app, user)
-            val appInfo = userContext.packageManager.getApplicationInfo(packageName, 0)
-            Utils.getBadgedIcon(app, appInfo)
-        } catch (e: PackageManager.NameNotFoundException) {
-            null
-        }
+        return AppIconCache.getInstance(app).getBadgedIcon(app, packageName, user)
     }
 
     /**
@@ -551,13 +545,7 @@ object KotlinUtils {
      * @return The package's label
      */
     fun getPackageLabel(app: Application, packageName: String, user: UserHandle): String {
-        return try {
-            val userContext = Utils.getUserContext(app, user)
-            val appInfo = userContext.packageManager.getApplicationInfo(packageName, 0)
-            Utils.getFullAppLabel(appInfo, app)
-        } catch (e: PackageManager.NameNotFoundException) {
-            packageName
-        }
+        return AppIconCache.getInstance(app).getLabel(packageName, user) ?: packageName
     }
 
     fun convertToBitmap(pkgIcon: Drawable): Bitmap {
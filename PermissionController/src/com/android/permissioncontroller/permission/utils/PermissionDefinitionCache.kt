@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.utils
+
+import android.Manifest
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.NameNotFoundException
+import android.content.pm.PermissionGroupInfo
+import android.content.pm.PermissionInfo
+import android.util.Log
+import com.android.permissioncontroller.permission.data.PackageBroadcastReceiver
+
+/**
+ * Process-wide cache of permission and permission group definitions.
+ *
+ * Permission definitions are the same for all users and only change when the package defining
+ * them is added, removed or replaced, so they are cached until then. Lookups that failed are not
+ * cached: the package change broadcast is delivered asynchronously, so a definition added by a
+ * package that was just installed must be found even before the cache hears about it. The cache is
+ * invalidated by [PackageBroadcastReceiver] before it notifies its listeners, so that listeners
+ * reloading their data on a package change never see the old definitions.
+ *
+ * Looking up a platform permission loads the definitions of all platform permissions at once.
+ * Definitions are mutable, so every lookup returns a copy of the cached definition.
+ *
+ * The cache is only used once [startListeningForChanges] has been called; before that all
+ * lookups go to the [PackageManager].
+ */
+object PermissionDefinitionCache {
+    private val LOG_TAG = PermissionDefinitionCache::class.java.simpleName
+
+    /** How many times a definition is loaded again if the cache is invalidated meanwhile */
+    private const val MAX_LOAD_ATTEMPTS = 3
+
+    private val lock = Any()
+
+    /** Permission name -> definition */
+    private val permissionInfos = mutableMapOf<String, PermissionInfo>()
+
+    /** Group name -> definition */
+    private val groupInfos = mutableMapOf<String, PermissionGroupInfo>()
+
+    /** Group name -> definitions of the permissions in the group */
+    private val groupPermissionInfos = mutableMapOf<String, List<PermissionInfo>>()
+
+    /** Incremented on every invalidation, so that in-flight loads don't add stale entries */
+    private var generation = 0L
+
+    private var isListening = false
+
+    /** Whether the definitions of all platform permissions have been loaded */
+    private var arePlatformPermissionsLoaded = false
+
+    private var hitCount = 0L
+    private var missCount = 0L
+
+    /**
+     * Keeps [PackageBroadcastReceiver] registered while the cache is used. The cache itself is
+     * invalidated by the receiver before any listener is notified, see [onPackageChanged].
+     */
+    private val packageChangeListener =
+        object : PackageBroadcastReceiver.PackageBroadcastListener {
+            override fun onPackageUpdate(packageName: String) {}
+        }
+
+    /** Starts using the cache, and listens for package changes of all users to invalidate it. */
+    @JvmStatic
+    fun startListeningForChanges() {
+        synchronized(lock) {
+            if (isListening) {
+                return
+            }
+            isListening = true
+        }
+        PackageBroadcastReceiver.addAllCallback(packageChangeListener)
+    }
+
+    /** Stops using the cache and drops all cached definitions. */
+    @JvmStatic
+    fun stopListeningForChanges() {
+        synchronized(lock) {
+            if (!isListening) {
+                return
+            }
+            isListening = false
+        }
+        PackageBroadcastReceiver.removeAllCallback(packageChangeListener)
+        clear()
+    }
+
+    /** Same as [PackageManager.getPermissionInfo] with no flags, but cached. */
+    @JvmStatic
+    @Throws(NameNotFoundException::class)
+    fun getPermissionInfo(pm: PackageManager, permissionName: String): PermissionInfo {
+        var cached = synchronized(lock) { lookUpLocked(permissionInfos, permissionName) }
+        if (
+            cached == null &&
+                PermissionMapping.getGroupOfPlatformPermission(permissionName) != null &&
+                loadPlatformPermissions(pm)
+        ) {
+            cached = synchronized(lock) { lookUpLocked(permissionInfos, permissionName) }
+        }
+        if (cached != null) {
+            return PermissionInfo(cached)
+        }
+
+        return load(permissionInfos, permissionName) { pm.getPermissionInfo(permissionName, 0) }
+            ?.let { PermissionInfo(it) }
+            ?: throw NameNotFoundException(permissionName)
+    }
+
+    /** Same as [PackageManager.getPermissionGroupInfo] with no flags, but cached. */
+    @JvmStatic
+    @Throws(NameNotFoundException::class)
+    fun getPermissionGroupInfo(pm: PackageManager, groupName: String): PermissionGroupInfo {
+        val cached = synchronized(lock) { lookUpLocked(groupInfos, groupName) }
+        if (cached != null) {
+            return PermissionGroupInfo(cached)
+        }
+
+        return load(groupInfos, groupName) { pm.getPermissionGroupInfo(groupName, 0) }
+            ?.let { PermissionGroupInfo(it) }
+            ?: throw NameNotFoundException(groupName)
+    }
+
+    /**
+     * Get the definitions of all permissions of a group, i.e. the permissions returned by
+     * [PackageManager.queryPermissionsByGroup] plus the platform permissions mapped to the group.
+     *
+     * @param pm The package manager to load the definitions with
+     * @param groupName The name of the group
+     *
+     * @return A new list with copies of the definitions of the permissions of the group
+     */
+    @JvmStatic
+    @Throws(NameNotFoundException::class)
+    fun queryPermissionsOfGroup(
+        pm: PackageManager,
+        groupName: String
+    ): MutableList<PermissionInfo> {
+        val cached = synchronized(lock) { lookUpLocked(groupPermissionInfos, groupName) }
+        if (cached != null) {
+            return cached.mapTo(mutableListOf()) { PermissionInfo(it) }
+        }
+
+        return load(groupPermissionInfos, groupName) {
+                pm.queryPermissionsByGroup(groupName, 0).apply {
+                    addAll(PermissionMapping.getPlatformPermissionsOfGroup(pm, groupName))
+                }
+            }
+            ?.mapTo(mutableListOf()) { PermissionInfo(it) }
+            ?: throw NameNotFoundException(groupName)
+    }
+
+    /**
+     * Loads the definitions of all platform permissions with a single call. The platform
+     * permissions are not assigned to groups in their definitions, hence they are all returned
+     * for [Manifest.permission_group.UNDEFINED].
+     *
+     * @return whether the definitions were loaded by this call
+     */
+    private fun loadPlatformPermissions(pm: PackageManager): Boolean {
+        val loadGeneration =
+            synchronized(lock) {
+                if (!isListening || arePlatformPermissionsLoaded) {
+                    return false
+                }
+                missCount++
+                generation
+            }
+        val platformPermissions =
+            try {
+                pm.queryPermissionsByGroup(Manifest.permission_group.UNDEFINED, 0)
+            } catch (e: NameNotFoundException) {
+                Log.w(LOG_TAG, "Could not load platform permissions", e)
+                return false
+            }
+        synchronized(lock) {
+            if (generation != loadGeneration) {
+                return false
+            }
+            for (permissionInfo in platformPermissions) {
+                permissionInfos.putIfAbsent(permissionInfo.name, permissionInfo)
+            }
+            arePlatformPermissionsLoaded = true
+        }
+        return true
+    }
+
+    /**
+     * Drops the definitions that might have changed with a package. Called by
+     * [PackageBroadcastReceiver] before it notifies its listeners.
+     *
+     * @param packageName The package that was added, removed or replaced
+     */
+    @JvmStatic
+    fun onPackageChanged(packageName: String) {
+        synchronized(lock) {
+            generation++
+            if (packageName == Utils.OS_PKG) {
+                arePlatformPermissionsLoaded = false
+            }
+            permissionInfos.values.removeAll { it.packageName == packageName }
+            groupInfos.values.removeAll { it.packageName == packageName }
+            // Any package can add permissions to a group
+            groupPermissionInfos.clear()
+        }
+    }
+
+    /** Drops all cached definitions. */
+    @JvmStatic
+    fun clear() {
+        synchronized(lock) {
+            generation++
+            arePlatformPermissionsLoaded = false
+            permissionInfos.clear()
+            groupInfos.clear()
+            groupPermissionInfos.clear()
+        }
+    }
+
+    /** @return the number of lookups that were answered from the cache */
+    @JvmStatic
+    fun getHitCount(): Long = synchronized(lock) { hitCount }
+
+    /** @return the number of lookups that had to be loaded from the [PackageManager] */
+    @JvmStatic
+    fun getMissCount(): Long = synchronized(lock) { missCount }
+
+    /**
+     * Looks up a cached entry.
+     *
+     * @return the cached definition, or `null` if there is no entry
+     */
+    private fun <T : Any> lookUpLocked(map: Map<String, T>, name: String): T? {
+        if (!isListening) {
+            return null
+        }
+        val value = map[name] ?: return null
+        hitCount++
+        return value
+    }
+
+    /**
+     * Loads a definition and caches it if it exists. If the cache was invalidated while the
+     * definition was being loaded, the loaded definition might already be outdated, so it is
+     * discarded and loaded again.
+     */
+    private inline fun <T : Any> load(
+        map: MutableMap<String, T>,
+        name: String,
+        loader: () -> T
+    ): T? {
+        var attempt = 0
+        while (true) {
+            val loadGeneration =
+                synchronized(lock) {
+                    missCount++
+                    generation
+                }
+            val value =
+                try {
+                    loader()
+                } catch (e: NameNotFoundException) {
+                    Log.v(LOG_TAG, "$name is not defined")
+                    null
+                }
+            synchronized(lock) {
+                if (generation == loadGeneration) {
+                    if (isListening && value != null) {
+                        map[name] = value
+                    }
+                    return value
+                }
+            }
+            if (++attempt >= MAX_LOAD_ATTEMPTS) {
+                // Definitions keep changing, return the latest one without caching it
+                return value
+            }
+        }
+    }
+}
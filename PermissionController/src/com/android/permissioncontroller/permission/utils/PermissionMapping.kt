@@ -254,7 +254,7 @@ object PermissionMapping {
         val permInfos = mutableListOf<PermissionInfo>()
         for (permName in PLATFORM_PERMISSION_GROUPS[group] ?: emptyList()) {
             val permInfo: PermissionInfo = try {
-                    pm.getPermissionInfo(permName, 0)
+                    PermissionDefinitionCache.getPermissionInfo(pm, permName)
             } catch (e: PackageManager.NameNotFoundException) {
                 throw IllegalStateException("$permName not defined by platform", e)
             }
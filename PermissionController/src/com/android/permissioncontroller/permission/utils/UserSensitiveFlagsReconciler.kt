@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.utils
+
+import android.content.pm.PackageManager
+import android.os.UserHandle
+import android.util.Log
+import com.android.permissioncontroller.permission.model.livedatatypes.LightPackageInfo
+import com.android.permissioncontroller.permission.model.livedatatypes.UidSensitivityState
+import com.android.permissioncontroller.permission.utils.Utils.FLAGS_ALWAYS_USER_SENSITIVE
+
+/**
+ * Reconciles the [FLAGS_ALWAYS_USER_SENSITIVE] flags of packages with the state computed by
+ * [com.android.permissioncontroller.permission.data.UserSensitivityLiveData].
+ *
+ * The flags last read or written for each package are remembered, keyed by the install and update
+ * time of the package, so that a later incremental pass only needs to read the flags of packages
+ * that changed since. A full pass always reads the flags again, as they can also change without
+ * the package being updated. The difference between the current and the expected flags is computed
+ * for all the packages first, and only the entries that differ are then updated.
+ */
+class UserSensitiveFlagsReconciler {
+
+    /**
+     * The result of a reconciliation.
+     *
+     * @param checkedCount The number of permission entries that were compared
+     * @param fetchedCount The number of permission entries whose flags were read from the platform
+     * @param updatedCount The number of permission entries whose flags were updated
+     */
+    data class Result(val checkedCount: Int, val fetchedCount: Int, val updatedCount: Int)
+
+    private data class PackageKey(val userId: Int, val packageName: String)
+
+    private class PackageFlags(
+        val firstInstallTime: Long,
+        val lastUpdateTime: Long,
+        val flags: MutableMap<String, Int>,
+        var writeSequence: Long = 0
+    )
+
+    private data class FlagUpdate(
+        val key: PackageKey,
+        val uid: Int,
+        val permissionName: String,
+        val flags: Int
+    )
+
+    private val lock = Any()
+
+    /** The flags known to be set on the platform, guarded by [lock] */
+    private val knownFlags = mutableMapOf<PackageKey, PackageFlags>()
+
+    /** The number of times [knownFlags] were written to, guarded by [lock] */
+    private var writeSequence = 0L
+
+    /**
+     * Updates the flags of all the packages of the given uids that differ from their expected
+     * state.
+     *
+     * @param packageManager The package manager of [user]
+     * @param user The user of the uids
+     * @param uidsUserSensitivity A map <uid, expected state>
+     * @param useKnownFlags Whether flags remembered from a previous reconciliation can be used
+     * instead of reading them from the platform for packages that weren't updated since. This
+     * should only be `true` for incremental passes, e.g. when the platform requests an update of
+     * a single uid after a package change.
+     *
+     * @return the counts of checked, read and updated entries
+     */
+    fun reconcile(
+        packageManager: PackageManager,
+        user: UserHandle,
+        uidsUserSensitivity: Map<Int, UidSensitivityState>,
+        useKnownFlags: Boolean
+    ): Result {
+        var checkedCount = 0
+        var fetchedCount = 0
+        val updates = mutableListOf<FlagUpdate>()
+        val newKnownFlags = mutableMapOf<PackageKey, PackageFlags>()
+        val startSequence = synchronized(lock) { writeSequence }
+
+        for ((uid, uidState) in uidsUserSensitivity) {
+            for (pkg in uidState.packages) {
+                val key = PackageKey(user.identifier, pkg.packageName)
+                val packageKnownFlags = if (useKnownFlags) getKnownFlags(key, pkg) else null
+                val packageFlags = mutableMapOf<String, Int>()
+
+                for (perm in pkg.requestedPermissions) {
+                    val flags = uidState.permStates[perm] ?: continue
+                    checkedCount++
+
+                    var oldFlags = packageKnownFlags?.get(perm)
+                    if (oldFlags == null) {
+                        oldFlags = fetchFlags(packageManager, user, uid, pkg.packageName, perm)
+                            ?: continue
+                        fetchedCount++
+                    }
+                    if (flags != oldFlags) {
+                        updates.add(FlagUpdate(key, uid, perm, flags))
+                    }
+                    packageFlags[perm] = flags
+                }
+
+                newKnownFlags[key] =
+                    PackageFlags(pkg.firstInstallTime, pkg.lastUpdateTime, packageFlags)
+            }
+        }
+
+        var updatedCount = 0
+        for (update in updates) {
+            if (applyUpdate(packageManager, user, update)) {
+                updatedCount++
+            } else {
+                // The state of this entry is unknown, read it again next time.
+                newKnownFlags[update.key]?.flags?.remove(update.permissionName)
+            }
+        }
+
+        rememberFlags(newKnownFlags, startSequence)
+
+        return Result(checkedCount, fetchedCount, updatedCount)
+    }
+
+    /** Forgets all the remembered flags, so that the next reconciliation reads them again. */
+    fun clear() {
+        synchronized(lock) { knownFlags.clear() }
+    }
+
+    /**
+     * Remembers the flags read or written by a reconciliation that started at [startSequence].
+     *
+     * If another reconciliation remembered flags for the same package in the meantime, it is not
+     * known which of the two saw the latest platform state, so the package is forgotten instead.
+     */
+    private fun rememberFlags(
+        newKnownFlags: Map<PackageKey, PackageFlags>,
+        startSequence: Long
+    ) {
+        synchronized(lock) {
+            writeSequence++
+            for ((key, packageFlags) in newKnownFlags) {
+                val previousFlags = knownFlags[key]
+                if (previousFlags != null && previousFlags.writeSequence > startSequence) {
+                    knownFlags.remove(key)
+                } else {
+                    packageFlags.writeSequence = writeSequence
+                    knownFlags[key] = packageFlags
+                }
+            }
+        }
+    }
+
+    private fun getKnownFlags(key: PackageKey, pkg: LightPackageInfo): Map<String, Int>? {
+        synchronized(lock) {
+            val packageFlags = knownFlags[key] ?: return null
+            if (
+                packageFlags.firstInstallTime != pkg.firstInstallTime ||
+                    packageFlags.lastUpdateTime != pkg.lastUpdateTime
+            ) {
+                return null
+            }
+            return packageFlags.flags.toMap()
+        }
+    }
+
+    private fun fetchFlags(
+        packageManager: PackageManager,
+        user: UserHandle,
+        uid: Int,
+        packageName: String,
+        permissionName: String
+    ): Int? {
+        return try {
+            packageManager.getPermissionFlags(permissionName, packageName, user) and
+                FLAGS_ALWAYS_USER_SENSITIVE
+        } catch (e: IllegalArgumentException) {
+            logUnexpectedException(e, uid, packageName, permissionName)
+            null
+        }
+    }
+
+    private fun applyUpdate(
+        packageManager: PackageManager,
+        user: UserHandle,
+        update: FlagUpdate
+    ): Boolean {
+        return try {
+            packageManager.updatePermissionFlags(
+                update.permissionName,
+                update.key.packageName,
+                FLAGS_ALWAYS_USER_SENSITIVE,
+                update.flags,
+                user
+            )
+            true
+        } catch (e: IllegalArgumentException) {
+            logUnexpectedException(e, update.uid, update.key.packageName, update.permissionName)
+            false
+        }
+    }
+
+    private fun logUnexpectedException(
+        e: IllegalArgumentException,
+        uid: Int,
+        packageName: String,
+        permissionName: String
+    ) {
+        if (e.message?.startsWith("Unknown permission: ") == false) {
+            Log.e(
+                LOG_TAG,
+                "Unexpected exception while updating flags for $packageName (uid $uid) " +
+                    "permission $permissionName",
+                e
+            )
+        } else {
+            // Unknown permission - ignore
+        }
+    }
+
+    companion object {
+        private val LOG_TAG = UserSensitiveFlagsReconciler::class.java.simpleName
+    }
+}
@@ -19,12 +19,12 @@
 package com.android.permissioncontroller.permission.utils
 
 import android.content.pm.PackageManager
+import android.os.SystemClock
 import android.os.UserHandle
 import android.util.Log
 import com.android.permissioncontroller.PermissionControllerApplication
 import com.android.permissioncontroller.permission.data.UserSensitivityLiveData
 import com.android.permissioncontroller.permission.model.livedatatypes.UidSensitivityState
-import com.android.permissioncontroller.permission.utils.Utils.FLAGS_ALWAYS_USER_SENSITIVE
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
 import java.lang.IllegalStateException
@@ -49,41 +49,28 @@ fun updateUserSensitiveForUser(user: UserHandle, callback: Runnable) {
             throw IllegalStateException(
                 "All uids sensitivity liveData should not be null if initialized")
         }
-        updateUserSensitiveForUidsInternal(uidUserSensitivity, user, callback)
+        // Flags can change without a package update, so a full pass always reads them again.
+        updateUserSensitiveForUidsInternal(uidUserSensitivity, user, callback,
+            useKnownFlags = false)
     }
 }
 
+private val reconciler = UserSensitiveFlagsReconciler()
+
 private fun updateUserSensitiveForUidsInternal(
     uidsUserSensitivity: Map<Int, UidSensitivityState>,
     user: UserHandle,
-    callback: Runnable?
+    callback: Runnable?,
+    useKnownFlags: Boolean
 ) {
     val userContext = Utils.getUserContext(PermissionControllerApplication.get(), user)
     val pm = userContext.packageManager
 
-    for ((uid, uidState) in uidsUserSensitivity) {
-            for (pkg in uidState.packages) {
-                for (perm in pkg.requestedPermissions) {
-                    var flags = uidState.permStates[perm] ?: continue
-
-                    try {
-                        val oldFlags = pm.getPermissionFlags(perm, pkg.packageName, user) and
-                            FLAGS_ALWAYS_USER_SENSITIVE
-                        if (flags != oldFlags) {
-                            pm.updatePermissionFlags(perm, pkg.packageName,
-                                FLAGS_ALWAYS_USER_SENSITIVE, flags, user)
-                        }
-                    } catch (e: IllegalArgumentException) {
-                        if (e.message?.startsWith("Unknown permission: ") == false) {
-                            Log.e(LOG_TAG, "Unexpected exception while updating flags for " +
-                                "${pkg.packageName} (uid $uid) permission $perm", e)
-                        } else {
-                            // Unknown permission - ignore
-                        }
-                    }
-                }
-            }
-        }
+    val startMillis = SystemClock.elapsedRealtime()
+    val result = reconciler.reconcile(pm, user, uidsUserSensitivity, useKnownFlags)
+    Log.i(LOG_TAG, "Checked ${result.checkedCount} permissions of ${uidsUserSensitivity.size} " +
+        "uids, read ${result.fetchedCount} and updated ${result.updatedCount} in " +
+        "${SystemClock.elapsedRealtime() - startMillis}ms")
     callback?.run()
 }
 
@@ -98,8 +85,10 @@ fun updateUserSensitiveForUid(uid: Int, callback: Runnable? = null) {
     GlobalScope.launch(IPC) {
         val uidSensitivityState = UserSensitivityLiveData[uid].getInitializedValue()
         if (uidSensitivityState != null) {
+            // The platform requests an update of a single uid after its packages changed, which
+            // invalidates the remembered flags of these packages.
             updateUserSensitiveForUidsInternal(uidSensitivityState,
-                UserHandle.getUserHandleForUid(uid), callback)
+                UserHandle.getUserHandleForUid(uid), callback, useKnownFlags = true)
         } else {
             Log.e(LOG_TAG, "No packages associated with uid $uid, not updating flags")
             callback?.run()
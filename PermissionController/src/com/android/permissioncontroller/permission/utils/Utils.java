@@ -69,8 +69,6 @@ import android.content.pm.PermissionInfo;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.content.res.Resources.Theme;
-import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.hardware.SensorPrivacyManager;
 import android.os.Binder;
@@ -99,7 +97,6 @@ import androidx.annotation.StringRes;
 import androidx.core.text.BidiFormatter;
 import androidx.core.util.Preconditions;
 
-import com.android.launcher3.icons.IconFactory;
 import com.android.modules.utils.build.SdkLevel;
 import com.android.permissioncontroller.Constants;
 import com.android.permissioncontroller.DeviceUtils;
@@ -430,8 +427,8 @@ public final class Utils {
     public static @NonNull List<PermissionInfo> getPermissionInfosForGroup(
             @NonNull PackageManager pm, @NonNull String group)
             throws PackageManager.NameNotFoundException {
-        List<PermissionInfo> permissions = pm.queryPermissionsByGroup(group, 0);
-        permissions.addAll(PermissionMapping.getPlatformPermissionsOfGroup(pm, group));
+        List<PermissionInfo> permissions =
+                PermissionDefinitionCache.queryPermissionsOfGroup(pm, group);
 
         /*
          * If the undefined group is requested, the package manager will return all platform
@@ -466,8 +463,8 @@ public final class Utils {
     public static @NonNull List<PermissionInfo> getInstalledRuntimePermissionInfosForGroup(
             @NonNull PackageManager pm, @NonNull String group)
             throws PackageManager.NameNotFoundException {
-        List<PermissionInfo> permissions = pm.queryPermissionsByGroup(group, 0);
-        permissions.addAll(PermissionMapping.getPlatformPermissionsOfGroup(pm, group));
+        List<PermissionInfo> permissions =
+                PermissionDefinitionCache.queryPermissionsOfGroup(pm, group);
 
         List<PermissionInfo> installedRuntime = new ArrayList<>();
         for (PermissionInfo permissionInfo: permissions) {
@@ -509,12 +506,14 @@ public final class Utils {
     public static @Nullable PackageItemInfo getGroupInfo(@NonNull String groupName,
             @NonNull Context context) {
         try {
-            return context.getPackageManager().getPermissionGroupInfo(groupName, 0);
+            return PermissionDefinitionCache.getPermissionGroupInfo(context.getPackageManager(),
+                    groupName);
         } catch (NameNotFoundException e) {
             /* ignore */
         }
         try {
-            return context.getPackageManager().getPermissionInfo(groupName, 0);
+            return PermissionDefinitionCache.getPermissionInfo(context.getPackageManager(),
+                    groupName);
         } catch (NameNotFoundException e) {
             /* ignore */
         }
@@ -538,8 +537,8 @@ public final class Utils {
             /* ignore */
         }
         try {
-            PermissionInfo permissionInfo = context.getPackageManager()
-                    .getPermissionInfo(groupName, 0);
+            PermissionInfo permissionInfo = PermissionDefinitionCache.getPermissionInfo(
+                    context.getPackageManager(), groupName);
             List<PermissionInfo> permissions = new ArrayList<>();
             permissions.add(permissionInfo);
             return permissions;
@@ -861,12 +860,7 @@ public final class Utils {
      */
     public static @NonNull Drawable getBadgedIcon(@NonNull Context context,
             @NonNull ApplicationInfo appInfo) {
-        UserHandle user = UserHandle.getUserHandleForUid(appInfo.uid);
-        try (IconFactory iconFactory = IconFactory.obtain(context)) {
-            Bitmap iconBmp = iconFactory.createBadgedIconBitmap(
-                    appInfo.loadUnbadgedIcon(context.getPackageManager()), user, false).icon;
-            return new BitmapDrawable(context.getResources(), iconBmp);
-        }
+        return AppIconCache.getInstance(context).getBadgedIcon(context, appInfo);
     }
 
     /**
@@ -16,13 +16,52 @@
 
 package com.android.permissioncontroller.permission.utils.v34
 
+import android.content.pm.PackageManager
+import android.os.Build
+import androidx.annotation.RequiresApi
 import com.android.permission.safetylabel.DataCategory
 import com.android.permission.safetylabel.DataType
 import com.android.permission.safetylabel.DataTypeConstants
 import com.android.permission.safetylabel.SafetyLabel
+import com.android.permission.safetylabel.SafetyLabelCache
+import com.android.permissioncontroller.permission.model.livedatatypes.LightPackageInfo
 import com.android.permissioncontroller.permission.utils.PermissionMapping
 
 object SafetyLabelUtils {
+    /**
+     * The maximum number of parsed safety labels kept in memory. This covers the packages
+     * requesting a location permission on most devices.
+     */
+    private const val SAFETY_LABEL_CACHE_MAX_SIZE = 256
+
+    /**
+     * Safety labels parsed from app metadata, shared by the grant dialog, the app permission
+     * screens, the safety label changes job and the safety label history.
+     */
+    @JvmStatic val safetyLabelCache = SafetyLabelCache(SAFETY_LABEL_CACHE_MAX_SIZE)
+
+    /**
+     * Returns the [SafetyLabel] of a package, parsing its app metadata only if the same version of
+     * the package wasn't parsed already.
+     *
+     * @param packageManager The package manager of the user the package is installed for
+     * @param packageInfo The package, as already known by the caller
+     * @return The [SafetyLabel], or `null` if the package doesn't have a valid one
+     * @throws PackageManager.NameNotFoundException if the package isn't installed
+     */
+    @JvmStatic
+    @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+    @Throws(PackageManager.NameNotFoundException::class)
+    fun getSafetyLabel(
+        packageManager: PackageManager,
+        packageInfo: LightPackageInfo
+    ): SafetyLabel? {
+        val packageName = packageInfo.packageName
+        return safetyLabelCache.getSafetyLabel(packageName, packageInfo.lastUpdateTime) {
+            packageManager.getAppMetadata(packageName)
+        }
+    }
+
     /*
      * Get the sharing purposes for a SafetyLabel related to a specific permission group.
      */
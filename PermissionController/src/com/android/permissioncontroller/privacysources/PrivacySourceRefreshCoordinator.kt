@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.privacysources
+
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * Runs the refresh of a set of [PrivacySource]s concurrently, bounding each of them by a deadline.
+ *
+ * Each source pushes its own data to Safety Center as soon as it is done, so a fast source is never
+ * held back by a slow one. The refresh finishes as soon as every source has either returned or
+ * reached its deadline, so that a slow source can't hold the broadcast that started the refresh.
+ * Sources still running at their deadline are reported as timed out but are never interrupted: a
+ * source may be in the middle of writing its data, so it is left to run to completion on its own,
+ * and its late outcome is logged.
+ */
+class PrivacySourceRefreshCoordinator(
+    private val dispatcher: CoroutineDispatcher,
+    private val sourceDeadlineMillis: Long = SOURCE_REFRESH_DEADLINE_MILLIS,
+    private val clock: () -> Long = SystemClock::elapsedRealtime
+) {
+
+    /** The outcome of refreshing a single privacy source. */
+    enum class Outcome {
+        COMPLETED,
+        FAILED,
+        TIMED_OUT
+    }
+
+    /** The result of refreshing a single privacy source. */
+    data class SourceResult(val sourceId: String, val outcome: Outcome, val latencyMillis: Long)
+
+    /**
+     * Refreshes the given sources concurrently.
+     *
+     * @param sources the sources to refresh, keyed by source id
+     * @param refreshSource the refresh operation to run for each source
+     * @param onFinished called with the result of every source once each of them has either
+     * returned or reached its deadline
+     * @return the [Job] running the refresh, which doesn't include the sources that timed out
+     */
+    fun refresh(
+        sources: Map<String, PrivacySource>,
+        refreshSource: suspend (PrivacySource) -> Unit,
+        onFinished: (List<SourceResult>) -> Unit = {}
+    ): Job {
+        val scope = CoroutineScope(SupervisorJob() + dispatcher)
+        return scope.launch {
+            val startMillis = clock()
+            // The refreshes are started in the outer scope rather than as children of the deadline
+            // below, so that hitting the deadline stops waiting for a source without cancelling or
+            // interrupting it.
+            val refreshes =
+                sources.mapValues { (_, source) -> scope.async { refreshSource(source) } }
+            val results =
+                refreshes
+                    .map { (sourceId, refresh) ->
+                        async { awaitWithDeadline(sourceId, refresh, startMillis) }
+                    }
+                    .awaitAll()
+            logResults(results)
+            onFinished(results)
+        }
+    }
+
+    private suspend fun awaitWithDeadline(
+        sourceId: String,
+        refresh: Deferred<Unit>,
+        startMillis: Long
+    ): SourceResult {
+        val outcome =
+            try {
+                withTimeoutOrNull(sourceDeadlineMillis) {
+                    refresh.await()
+                    Outcome.COMPLETED
+                }
+                    ?: Outcome.TIMED_OUT.also { logLateOutcome(sourceId, refresh, startMillis) }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "Failed to refresh privacy source $sourceId", e)
+                Outcome.FAILED
+            }
+        return SourceResult(sourceId, outcome, clock() - startMillis)
+    }
+
+    private fun logLateOutcome(sourceId: String, refresh: Deferred<Unit>, startMillis: Long) {
+        refresh.invokeOnCompletion { cause ->
+            val latencyMillis = clock() - startMillis
+            if (cause == null) {
+                Log.i(LOG_TAG, "Privacy source $sourceId refresh completed in ${latencyMillis}ms")
+            } else {
+                Log.e(LOG_TAG, "Failed to refresh privacy source $sourceId", cause)
+            }
+        }
+    }
+
+    private fun logResults(results: List<SourceResult>) {
+        for (result in results) {
+            if (result.outcome == Outcome.TIMED_OUT) {
+                Log.w(
+                    LOG_TAG,
+                    "Privacy source ${result.sourceId} did not refresh within " +
+                        "${sourceDeadlineMillis}ms, letting it finish in the background"
+                )
+            } else {
+                Log.v(
+                    LOG_TAG,
+                    "Privacy source ${result.sourceId} refresh ${result.outcome} in " +
+                        "${result.latencyMillis}ms"
+                )
+            }
+        }
+    }
+
+    companion object {
+        private val LOG_TAG = PrivacySourceRefreshCoordinator::class.java.simpleName
+
+        /**
+         * The deadline for a single source to refresh, kept below both the shortest Safety Center
+         * refresh timeout (15 seconds, for page open) and the broadcast receiver timeout.
+         */
+        const val SOURCE_REFRESH_DEADLINE_MILLIS = 9_000L
+    }
+}
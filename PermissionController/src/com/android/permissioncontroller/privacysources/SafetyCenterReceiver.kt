@@ -69,6 +69,8 @@ class SafetyCenterReceiver(
     private val dispatcher: CoroutineDispatcher = Default
 ) : BroadcastReceiver() {
 
+    private val refreshCoordinator = PrivacySourceRefreshCoordinator(dispatcher)
+
     enum class RefreshEvent {
         UNKNOWN,
         EVENT_DEVICE_REBOOTED,
@@ -172,14 +174,27 @@ class SafetyCenterReceiver(
         mapOfSourceIdsToSources: Map<String, PrivacySource>,
         sourceIdsToRefresh: List<String>
     ) {
-        for (sourceId in sourceIdsToRefresh) {
-            CoroutineScope(dispatcher).launch {
-                val privacySource = mapOfSourceIdsToSources[sourceId] ?: return@launch
+        val sourcesToRefresh =
+            sourceIdsToRefresh
+                .mapNotNull { sourceId ->
+                    mapOfSourceIdsToSources[sourceId]?.let { source -> sourceId to source }
+                }
+                .toMap()
+        if (sourcesToRefresh.isEmpty()) {
+            return
+        }
+        // Keep the broadcast pending until every source has either pushed its data or reached its
+        // deadline. Slower sources finish in the background.
+        val pendingResult: PendingResult? = goAsync()
+        refreshCoordinator.refresh(
+            sourcesToRefresh,
+            refreshSource = { privacySource ->
                 if (privacySource.shouldProcessRequest(context)) {
                     privacySource.rescanAndPushSafetyCenterData(context, intent, refreshEvent)
                 }
-            }
-        }
+            },
+            onFinished = { pendingResult?.finish() }
+        )
     }
 
     private fun PrivacySource.shouldProcessRequest(context: Context): Boolean {
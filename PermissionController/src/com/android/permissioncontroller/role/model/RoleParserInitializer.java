@@ -18,6 +18,7 @@ package com.android.permissioncontroller.role.model;
 
 import com.android.permissioncontroller.R;
 import com.android.role.controller.model.RoleParser;
+import com.android.role.controller.model.RoleSnapshot;
 
 /**
  * Initialize the function to retrieve the roles.xml resource from a context within
@@ -31,5 +32,7 @@ public class RoleParserInitializer {
      */
     public static void initialize() {
         RoleParser.sGetRolesXml = context -> context.getResources().getXml(R.xml.roles);
+        RoleSnapshot.sOpenRawRolesXml = context -> context.getResources().openRawResource(
+                R.xml.roles);
     }
 }
@@ -36,6 +36,7 @@ import com.android.permissioncontroller.permission.model.livedatatypes.LightPack
 import com.android.permissioncontroller.permission.utils.KotlinUtils
 import com.android.permissioncontroller.permission.utils.PermissionMapping
 import com.android.permissioncontroller.permission.utils.Utils
+import com.android.permissioncontroller.permission.utils.v34.SafetyLabelUtils
 import com.android.permissioncontroller.safetylabel.AppsSafetyLabelHistory.SafetyLabel as SafetyLabelForPersistence
 import java.time.Instant
 import kotlinx.coroutines.Dispatchers
@@ -137,19 +138,13 @@ class SafetyLabelChangedBroadcastReceiver : BroadcastReceiver() {
             } else {
                 context.createContextAsUser(user, 0)
             }
-        val appMetadataBundle =
+        val safetyLabel: AppMetadataSafetyLabel =
             try {
-                userContext.packageManager.getAppMetadata(packageName)
+                SafetyLabelUtils.getSafetyLabel(userContext.packageManager, lightPackageInfo)
             } catch (e: PackageManager.NameNotFoundException) {
                 Log.w(TAG, "Package $packageName not found while retrieving app metadata")
                 return
-            }
-
-        if (DEBUG) {
-            Log.i(TAG, "appMetadataBundle $appMetadataBundle")
-        }
-        val safetyLabel: AppMetadataSafetyLabel =
-            AppMetadataSafetyLabel.getSafetyLabelFromMetadata(appMetadataBundle) ?: return
+            } ?: return
 
         val receivedAtMs: Long = lightPackageInfo.lastUpdateTime
 
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.tests.mocking.incident
+
+import android.app.NotificationManager
+import android.content.Context
+import android.content.ContextWrapper
+import android.net.Uri
+import android.os.IncidentManager
+import android.os.IncidentManager.PendingReport
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.permissioncontroller.Constants.INCIDENT_NOTIFICATION_ID
+import com.android.permissioncontroller.incident.PendingList
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mock
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.reset
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.verifyNoMoreInteractions
+import org.mockito.Mockito.`when` as whenever
+import org.mockito.MockitoAnnotations
+
+/** Tests for [PendingList]. */
+@RunWith(AndroidJUnit4::class)
+class PendingListTest {
+    @Mock private lateinit var incidentManager: IncidentManager
+    @Mock private lateinit var notificationManager: NotificationManager
+
+    private lateinit var context: Context
+    private lateinit var pendingList: PendingList
+
+    @Before
+    fun setUp() {
+        MockitoAnnotations.initMocks(this)
+        val applicationContext: Context = ApplicationProvider.getApplicationContext()
+        applicationContext.deleteSharedPreferences(SHARED_PREFS_NAME)
+        context =
+            object : ContextWrapper(applicationContext) {
+                override fun getSystemService(name: String): Any? =
+                    when (name) {
+                        Context.INCIDENT_SERVICE -> incidentManager
+                        Context.NOTIFICATION_SERVICE -> notificationManager
+                        else -> super.getSystemService(name)
+                    }
+            }
+        pendingList = PendingList()
+    }
+
+    @After
+    fun tearDown() {
+        context.deleteSharedPreferences(SHARED_PREFS_NAME)
+    }
+
+    @Test
+    fun updateState_manyPendingReports_notifiesEachReport() {
+        setPendingReports(createPendingReports(REPORT_COUNT))
+
+        pendingList.updateState(context, PendingList.FLAG_FROM_NOTIFICATION)
+
+        verify(notificationManager, times(REPORT_COUNT))
+            .notify(anyString(), eq(INCIDENT_NOTIFICATION_ID), any())
+        verify(notificationManager, never()).cancel(anyString(), eq(INCIDENT_NOTIFICATION_ID))
+    }
+
+    @Test
+    fun updateState_noChange_doesNotCallNotificationManager() {
+        val reports = createPendingReports(REPORT_COUNT)
+        setPendingReports(reports)
+        pendingList.updateState(context, PendingList.FLAG_FROM_NOTIFICATION)
+        reset(notificationManager)
+
+        setPendingReports(reports.toList())
+        pendingList.updateState(context, PendingList.FLAG_FROM_NOTIFICATION)
+
+        verifyNoMoreInteractions(notificationManager)
+    }
+
+    @Test
+    fun updateState_reportAdded_onlyNotifiesAddedReport() {
+        val reports = createPendingReports(REPORT_COUNT)
+        setPendingReports(reports)
+        pendingList.updateState(context, PendingList.FLAG_FROM_NOTIFICATION)
+        reset(notificationManager)
+
+        val addedReport = createPendingReport(REPORT_COUNT)
+        setPendingReports(reports + addedReport)
+        pendingList.updateState(context, PendingList.FLAG_FROM_NOTIFICATION)
+
+        verify(notificationManager)
+            .notify(eq(addedReport.uri.toString()), eq(INCIDENT_NOTIFICATION_ID), any())
+        verify(notificationManager, never()).cancel(anyString(), eq(INCIDENT_NOTIFICATION_ID))
+        verify(notificationManager, times(1))
+            .notify(anyString(), eq(INCIDENT_NOTIFICATION_ID), any())
+    }
+
+    @Test
+    fun updateState_reportRemoved_onlyCancelsRemovedReport() {
+        val reports = createPendingReports(REPORT_COUNT)
+        setPendingReports(reports)
+        pendingList.updateState(context, PendingList.FLAG_FROM_NOTIFICATION)
+        reset(notificationManager)
+
+        val removedReport = reports.first()
+        setPendingReports(reports.drop(1))
+        pendingList.updateState(context, PendingList.FLAG_FROM_NOTIFICATION)
+
+        verify(notificationManager)
+            .cancel(eq(removedReport.uri.toString()), eq(INCIDENT_NOTIFICATION_ID))
+        verifyNoMoreInteractions(notificationManager)
+    }
+
+    @Test
+    fun updateState_newInstance_notifiesPreviouslyShownReportsAgain() {
+        val reports = createPendingReports(REPORT_COUNT)
+        setPendingReports(reports)
+        pendingList.updateState(context, PendingList.FLAG_FROM_NOTIFICATION)
+        reset(notificationManager)
+
+        setPendingReports(reports.drop(1))
+        PendingList().updateState(context, PendingList.FLAG_FROM_NOTIFICATION)
+
+        verify(notificationManager, times(REPORT_COUNT - 1))
+            .notify(anyString(), eq(INCIDENT_NOTIFICATION_ID), any())
+        verify(notificationManager)
+            .cancel(eq(reports.first().uri.toString()), eq(INCIDENT_NOTIFICATION_ID))
+    }
+
+    @Test
+    fun updateState_unknownPackage_deniesReport() {
+        val report = createPendingReport(0, UNKNOWN_PACKAGE_NAME)
+        setPendingReports(listOf(report))
+
+        pendingList.updateState(context, PendingList.FLAG_FROM_NOTIFICATION)
+
+        verify(incidentManager).denyReport(report.uri)
+        verify(notificationManager, never())
+            .notify(anyString(), eq(INCIDENT_NOTIFICATION_ID), any())
+    }
+
+    private fun setPendingReports(reports: List<PendingReport>) {
+        whenever(incidentManager.pendingReports).thenReturn(reports)
+    }
+
+    private fun createPendingReports(count: Int): List<PendingReport> =
+        (0 until count).map { createPendingReport(it) }
+
+    private fun createPendingReport(
+        id: Int,
+        packageName: String = context.packageName
+    ): PendingReport {
+        val report = mock(PendingReport::class.java)
+        whenever(report.uri).thenReturn(Uri.parse("content://$AUTHORITY/pending?id=$id"))
+        whenever(report.requestingPackage).thenReturn(packageName)
+        whenever(report.timestamp).thenReturn(TIMESTAMP + id)
+        whenever(report.flags).thenReturn(0)
+        return report
+    }
+
+    companion object {
+        private const val SHARED_PREFS_NAME = "com.android.packageinstaller.incident.PendingList"
+        private const val AUTHORITY = "android.os.IncidentManager"
+        private const val UNKNOWN_PACKAGE_NAME = "com.android.permissioncontroller.unknown"
+        private const val REPORT_COUNT = 300
+        private const val TIMESTAMP = 1_000_000L
+    }
+}
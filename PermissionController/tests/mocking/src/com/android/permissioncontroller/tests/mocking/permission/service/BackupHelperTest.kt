@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.tests.mocking.permission.service
+
+import android.content.pm.PackageManager.GET_PERMISSIONS
+import android.content.pm.PackageManager.GET_SIGNING_CERTIFICATES
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.permissioncontroller.permission.model.AppPermissionGroup
+import com.android.permissioncontroller.permission.model.AppPermissions
+import com.android.permissioncontroller.permission.model.Permission
+import com.android.permissioncontroller.permission.service.BackupHelper
+import com.google.common.truth.Truth.assertWithMessage
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Unit tests for [BackupHelper].
+ *
+ * The backup reads the permission state of packages directly instead of through
+ * [AppPermissionGroup], so these tests check that both agree on every package of the device.
+ */
+@RunWith(AndroidJUnit4::class)
+class BackupHelperTest {
+
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+    private val context = instrumentation.targetContext
+
+    @Before
+    fun adoptShellPermissions() {
+        // Reading the permission flags and app ops of other packages needs privileged permissions.
+        instrumentation.uiAutomation.adoptShellPermissionIdentity()
+    }
+
+    @After
+    fun dropShellPermissions() {
+        instrumentation.uiAutomation.dropShellPermissionIdentity()
+    }
+
+    @Test
+    fun getPermissionsToBackUp_allPackages_matchesAppPermissionGroups() {
+        val packageInfos =
+            context.packageManager.getInstalledPackages(GET_PERMISSIONS or GET_SIGNING_CERTIFICATES)
+
+        for (packageInfo in packageInfos) {
+            val expected =
+                AppPermissions(context, packageInfo, false, null)
+                    .permissionGroups
+                    .flatMap { group ->
+                        group.permissions + (group.backgroundPermissions?.permissions ?: listOf())
+                    }
+                    .map { it.toStateString() }
+            val actual =
+                BackupHelper.getPermissionsToBackUp(context, packageInfo).map {
+                    it.toStateString()
+                }
+
+            assertWithMessage("Permissions to back up of ${packageInfo.packageName}")
+                .that(actual)
+                .containsExactlyElementsIn(expected)
+        }
+    }
+
+    private fun Permission.toStateString(): String =
+        "$name granted=$isGranted flags=$flags appOp=$appOp appOpAllowed=$isAppOpAllowed " +
+            "background=${backgroundPermission?.name} " +
+            "foreground=${foregroundPermissions?.map { it.name }?.sorted()}"
+}
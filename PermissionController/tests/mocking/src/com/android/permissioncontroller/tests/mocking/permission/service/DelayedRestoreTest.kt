@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.tests.mocking.permission.service
+
+import android.os.Process
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.permissioncontroller.Constants.DELAYED_RESTORE_PERMISSIONS_FILE
+import com.android.permissioncontroller.Constants.DELAYED_RESTORE_PERMISSIONS_JOURNAL_FILE
+import com.android.permissioncontroller.permission.service.BackupHelper
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Unit tests for the delayed restore state of [BackupHelper].
+ *
+ * The packages that still need to be restored are listed in [DELAYED_RESTORE_PERMISSIONS_FILE],
+ * and the packages restored since the list was written are appended, one per line, to
+ * [DELAYED_RESTORE_PERMISSIONS_JOURNAL_FILE]. This test's own package is the only one that is
+ * installed, so it is the only one that can be restored.
+ */
+@RunWith(AndroidJUnit4::class)
+class DelayedRestoreTest {
+
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+    private val context = instrumentation.targetContext
+    private val user = Process.myUserHandle()
+    private val packageName = context.packageName
+    private val listFile = context.getFileStreamPath(DELAYED_RESTORE_PERMISSIONS_FILE)
+    private val journalFile = context.getFileStreamPath(DELAYED_RESTORE_PERMISSIONS_JOURNAL_FILE)
+
+    private lateinit var backupHelper: BackupHelper
+
+    @Before
+    fun setUp() {
+        // Restoring a package reads and updates its permission state.
+        instrumentation.uiAutomation.adoptShellPermissionIdentity()
+        listFile.delete()
+        journalFile.delete()
+        backupHelper = BackupHelper(context, user)
+        // Drop any state left loaded by a previous test, now that its list is deleted
+        backupHelper.restoreDelayedState(emptyList())
+    }
+
+    @After
+    fun tearDown() {
+        listFile.delete()
+        journalFile.delete()
+        instrumentation.uiAutomation.dropShellPermissionIdentity()
+    }
+
+    @Test
+    fun restoreDelayedState_appendsPackageToJournal() {
+        writeList(listOf(packageName) + fakePackages(40))
+        val listBefore = listFile.readBytes()
+
+        assertThat(backupHelper.restoreDelayedState(packageName)).isTrue()
+
+        assertThat(journalFile.readText()).isEqualTo("$packageName\n")
+        assertThat(listFile.readBytes()).isEqualTo(listBefore)
+    }
+
+    @Test
+    fun restoreDelayedState_severalPackages_appendsRestoredPackagesToJournal() {
+        writeList(listOf(packageName) + fakePackages(40))
+
+        assertThat(backupHelper.restoreDelayedState(listOf(packageName, "not.delayed.package")))
+            .isTrue()
+
+        assertThat(journalFile.readText()).isEqualTo("$packageName\n")
+    }
+
+    @Test
+    fun restoreDelayedState_notDelayed_doesNotWriteJournal() {
+        writeList(fakePackages(2))
+
+        assertThat(backupHelper.restoreDelayedState(packageName)).isTrue()
+
+        assertThat(journalFile.exists()).isFalse()
+    }
+
+    @Test
+    fun restoreDelayedState_journalWithIncompleteEntry_dropsIncompleteEntry() {
+        writeList(listOf(packageName) + fakePackages(40))
+        journalFile.writeText("fake.package0\nfake.pack")
+
+        assertThat(backupHelper.restoreDelayedState(packageName)).isTrue()
+
+        assertThat(journalFile.readText()).isEqualTo("fake.package0\n$packageName\n")
+    }
+
+    @Test
+    fun restoreDelayedState_journalAsLargeAsThreshold_compactsList() {
+        val fakePackages = fakePackages(40)
+        writeList(listOf(packageName) + fakePackages)
+        journalFile.writeText(fakePackages.take(31).joinToString("") { "$it\n" })
+
+        assertThat(backupHelper.restoreDelayedState(packageName)).isTrue()
+
+        assertThat(journalFile.exists()).isFalse()
+        assertThat(readList()).containsExactlyElementsIn(fakePackages.drop(31))
+    }
+
+    @Test
+    fun restoreDelayedState_journalAsLargeAsRemainingList_compactsList() {
+        val fakePackages = fakePackages(80)
+        writeList(listOf(packageName) + fakePackages)
+        journalFile.writeText(fakePackages.take(40).joinToString("") { "$it\n" })
+
+        assertThat(backupHelper.restoreDelayedState(packageName)).isTrue()
+
+        assertThat(journalFile.exists()).isFalse()
+        assertThat(readList()).containsExactlyElementsIn(fakePackages.drop(40))
+    }
+
+    @Test
+    fun restoreDelayedState_journalSmallerThanRemainingList_doesNotCompactList() {
+        val fakePackages = fakePackages(80)
+        writeList(listOf(packageName) + fakePackages)
+        journalFile.writeText(fakePackages.take(31).joinToString("") { "$it\n" })
+        val listBefore = listFile.readBytes()
+
+        assertThat(backupHelper.restoreDelayedState(packageName)).isTrue()
+
+        assertThat(journalFile.readLines()).hasSize(32)
+        assertThat(listFile.readBytes()).isEqualTo(listBefore)
+    }
+
+    @Test
+    fun restoreDelayedState_lastPackage_clearsList() {
+        writeList(listOf(packageName))
+
+        assertThat(backupHelper.restoreDelayedState(packageName)).isFalse()
+
+        assertThat(journalFile.exists()).isFalse()
+        assertThat(readList()).isEmpty()
+    }
+
+    @Test
+    fun restoreDelayedState_listDeleted_dropsLoadedState() {
+        writeList(listOf(packageName) + fakePackages(1))
+        assertThat(backupHelper.restoreDelayedState("fake.package0")).isTrue()
+
+        // The data of a user is deleted when it is removed
+        listFile.delete()
+
+        assertThat(BackupHelper(context, user).restoreDelayedState(packageName)).isFalse()
+    }
+
+    private fun fakePackages(count: Int): List<String> = (0 until count).map { "fake.package$it" }
+
+    /**
+     * Writes the list of delayed packages. Only packages with some permission state are written
+     * back when the list is compacted, so the fake packages are given one.
+     */
+    private fun writeList(packageNames: List<String>) {
+        listFile.writeText(
+            "<?xml version='1.0' encoding='utf-8' standalone='yes' ?>" +
+                "<perm-grant-backup version=\"33\"><rt-grants>" +
+                packageNames.joinToString("") {
+                    if (it == packageName) {
+                        "<grant pkg=\"$it\" />"
+                    } else {
+                        "<grant pkg=\"$it\"><perm name=\"$FAKE_PERMISSION\" g=\"true\" /></grant>"
+                    }
+                } +
+                "</rt-grants></perm-grant-backup>"
+        )
+    }
+
+    private fun readList(): List<String> =
+        PACKAGE_NAME_REGEX.findAll(listFile.readText()).map { it.groupValues[1] }.toList()
+
+    companion object {
+        private const val FAKE_PERMISSION = "android.permission.CAMERA"
+        private val PACKAGE_NAME_REGEX = Regex("<grant pkg=\"([^\"]+)\"")
+    }
+}
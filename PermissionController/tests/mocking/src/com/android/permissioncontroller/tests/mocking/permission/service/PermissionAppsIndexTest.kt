@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.tests.mocking.permission.service
+
+import android.app.AppOpsManager
+import android.app.AppOpsManager.OPSTR_CAMERA
+import android.content.pm.PackageManager
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.permission.model.livedatatypes.AppPermGroupUiInfo
+import com.android.permissioncontroller.permission.model.livedatatypes.AppPermGroupUiInfo.PermGrantState
+import com.android.permissioncontroller.permission.service.PermissionAppsIndex
+import com.android.permissioncontroller.permission.service.PermissionAppsIndex.Entry
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.`when` as whenever
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness
+
+/** Unit tests for [PermissionAppsIndex] */
+@RunWith(AndroidJUnit4::class)
+class PermissionAppsIndexTest {
+
+    private val packageManager = mock(PackageManager::class.java)
+    private val appOpsManager = mock(AppOpsManager::class.java)
+    private val application = mock(PermissionControllerApplication::class.java)
+    private val index = PermissionAppsIndex()
+
+    private lateinit var mockitoSession: MockitoSession
+
+    @Before
+    fun setUp() {
+        // The index listens to PackageBroadcastReceiver, which registers with the application.
+        mockitoSession =
+            ExtendedMockito.mockitoSession()
+                .mockStatic(PermissionControllerApplication::class.java)
+                .strictness(Strictness.LENIENT)
+                .startMocking()
+        whenever(PermissionControllerApplication.get()).thenReturn(application)
+        whenever(application.applicationContext).thenReturn(application)
+    }
+
+    @After
+    fun tearDown() {
+        index.stopListening(packageManager, appOpsManager)
+        mockitoSession.finishMocking()
+    }
+
+    @Test
+    fun fromUiInfo_askState_isNotGranted() {
+        val entry = Entry.fromUiInfo(UID, uiInfo(PermGrantState.PERMS_ASK))
+
+        assertThat(entry.shouldShow).isTrue()
+        assertThat(entry.isSystem).isFalse()
+        assertThat(entry.isGranted).isFalse()
+    }
+
+    @Test
+    fun fromUiInfo_foregroundOnlyState_isGranted() {
+        val entry =
+            Entry.fromUiInfo(UID, uiInfo(PermGrantState.PERMS_ALLOWED_FOREGROUND_ONLY))
+
+        assertThat(entry.isGranted).isTrue()
+    }
+
+    @Test
+    fun counts_deniedEntry_onlyCountedIfNotOnlyGranted() {
+        val entry = Entry.fromUiInfo(UID, uiInfo(PermGrantState.PERMS_DENIED))
+
+        assertThat(entry.counts(countSystem = false, countOnlyGranted = false)).isTrue()
+        assertThat(entry.counts(countSystem = false, countOnlyGranted = true)).isFalse()
+    }
+
+    @Test
+    fun counts_systemEntry_onlyCountedIfCountingSystem() {
+        val entry =
+            Entry.fromUiInfo(UID, uiInfo(PermGrantState.PERMS_ALLOWED, isSystem = true))
+
+        assertThat(entry.counts(countSystem = true, countOnlyGranted = true)).isTrue()
+        assertThat(entry.counts(countSystem = false, countOnlyGranted = true)).isFalse()
+    }
+
+    @Test
+    fun counts_hiddenEntry_isNeverCounted() {
+        val entry =
+            Entry.fromUiInfo(UID, uiInfo(PermGrantState.PERMS_ALLOWED, shouldShow = false))
+
+        assertThat(entry.counts(countSystem = true, countOnlyGranted = false)).isFalse()
+    }
+
+    @Test
+    fun put_notListening_isNotIndexed() {
+        index.put(GROUP_NAME, PACKAGE_NAME, Entry(UID, 0), index.getGeneration())
+
+        assertThat(index.get(GROUP_NAME, PACKAGE_NAME)).isNull()
+    }
+
+    @Test
+    fun removeUidAndPackage_incrementGeneration() {
+        val loadGeneration = index.getGeneration()
+
+        index.removeUid(UID)
+        index.removePackage(PACKAGE_NAME)
+
+        assertThat(index.getGeneration()).isEqualTo(loadGeneration + 2)
+    }
+
+    @Test
+    fun appOpChanged_dropsEntriesOfPackage() {
+        index.startListening(packageManager)
+        index.watchAppOps(appOpsManager, listOf(OPSTR_CAMERA))
+        index.put(GROUP_NAME, PACKAGE_NAME, Entry(UID, 0), index.getGeneration())
+        index.put(GROUP_NAME, OTHER_PACKAGE_NAME, Entry(OTHER_UID, 0), index.getGeneration())
+        val listener = ArgumentCaptor.forClass(AppOpsManager.OnOpChangedListener::class.java)
+        verify(appOpsManager).startWatchingMode(eq(OPSTR_CAMERA), eq(null), listener.capture())
+
+        listener.value.onOpChanged(OPSTR_CAMERA, PACKAGE_NAME)
+
+        assertThat(index.get(GROUP_NAME, PACKAGE_NAME)).isNull()
+        assertThat(index.get(GROUP_NAME, OTHER_PACKAGE_NAME)).isEqualTo(Entry(OTHER_UID, 0))
+    }
+
+    @Test
+    fun watchAppOps_calledTwice_watchesOpOnce() {
+        index.startListening(packageManager)
+
+        index.watchAppOps(appOpsManager, listOf(OPSTR_CAMERA))
+        index.watchAppOps(appOpsManager, listOf(OPSTR_CAMERA))
+
+        verify(appOpsManager, times(1)).startWatchingMode(eq(OPSTR_CAMERA), eq(null), any())
+    }
+
+    @Test
+    fun watchAppOps_notListening_doesNotWatch() {
+        index.watchAppOps(appOpsManager, listOf(OPSTR_CAMERA))
+
+        verify(appOpsManager, never()).startWatchingMode(anyString(), any(), any())
+    }
+
+    @Test
+    fun stopListening_dropsEntriesAndStopsWatching() {
+        index.startListening(packageManager)
+        index.watchAppOps(appOpsManager, listOf(OPSTR_CAMERA))
+        index.put(GROUP_NAME, PACKAGE_NAME, Entry(UID, 0), index.getGeneration())
+
+        index.stopListening(packageManager, appOpsManager)
+        index.startListening(packageManager)
+
+        assertThat(index.get(GROUP_NAME, PACKAGE_NAME)).isNull()
+        verify(appOpsManager).stopWatchingMode(any())
+        verify(packageManager).removeOnPermissionsChangeListener(any())
+    }
+
+    private fun uiInfo(
+        permGrantState: PermGrantState,
+        shouldShow: Boolean = true,
+        isSystem: Boolean = false
+    ): AppPermGroupUiInfo = AppPermGroupUiInfo(shouldShow, permGrantState, isSystem, false)
+
+    companion object {
+        private const val PACKAGE_NAME = "test.package"
+        private const val GROUP_NAME = "android.permission-group.CAMERA"
+        private const val UID = 10001
+        private const val OTHER_PACKAGE_NAME = "other.test.package"
+        private const val OTHER_UID = 10002
+    }
+}
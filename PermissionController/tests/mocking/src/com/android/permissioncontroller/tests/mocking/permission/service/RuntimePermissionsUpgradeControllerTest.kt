@@ -289,6 +289,23 @@ class RuntimePermissionsUpgradeControllerTest {
         verifyWhitelisted(TEST_PKG_NAME, SEND_SMS)
     }
 
+    @Test
+    fun alreadyWhitelistedPermissionsOfPreinstalledPackagesDoNotGetWhiteListedAgain() {
+        setInitialDatabaseVersion(LATEST_VERSION)
+
+        setPackages(
+            PreinstalledPackage(TEST_PKG_NAME,
+                Permission(SEND_SMS)
+            )
+        )
+        whenever(packageManager.getWhitelistedRestrictedPermissions(TEST_PKG_NAME,
+                FLAG_PERMISSION_WHITELIST_UPGRADE)).thenReturn(setOf(SEND_SMS))
+
+        upgradeIfNeeded()
+
+        verifyNotWhitelisted(TEST_PKG_NAME, SEND_SMS)
+    }
+
     @Test
     fun nonRestrictedPermissionsOfPreinstalledPackagesDoNotGetWhiteListed() {
         setInitialDatabaseVersion(LATEST_VERSION)
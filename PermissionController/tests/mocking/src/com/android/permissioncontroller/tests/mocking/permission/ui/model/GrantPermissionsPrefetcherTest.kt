@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.tests.mocking.permission.ui.model
+
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.LifecycleOwner
+import androidx.lifecycle.LifecycleRegistry
+import androidx.lifecycle.MutableLiveData
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.permissioncontroller.permission.ui.model.GrantPermissionsPrefetcher
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.`when` as whenever
+
+/** Unit tests for [GrantPermissionsPrefetcher] */
+@RunWith(AndroidJUnit4::class)
+class GrantPermissionsPrefetcherTest {
+
+    private val packageInfoLiveData = MutableLiveData<String>()
+    private val appPermGroupLiveData = MutableLiveData<String>()
+    private val stages =
+        mapOf(
+            GrantPermissionsPrefetcher.STAGE_PACKAGE_INFO to packageInfoLiveData,
+            GrantPermissionsPrefetcher.STAGE_APP_PERM_GROUP_PREFIX + GROUP to appPermGroupLiveData
+        )
+
+    private val lifecycleOwner = mock(LifecycleOwner::class.java)
+    private lateinit var lifecycleRegistry: LifecycleRegistry
+    private val prefetcher = GrantPermissionsPrefetcher(PACKAGE_NAME, listOf(PERMISSION))
+
+    @Before
+    fun setUp() {
+        runOnMainSync {
+            lifecycleRegistry =
+                LifecycleRegistry(lifecycleOwner).apply { currentState = Lifecycle.State.RESUMED }
+        }
+        whenever(lifecycleOwner.lifecycle).thenReturn(lifecycleRegistry)
+    }
+
+    @Test
+    fun start_observesAllStages() {
+        runOnMainSync { prefetcher.start(lifecycleOwner, stages) }
+
+        assertThat(packageInfoLiveData.hasObservers()).isTrue()
+        assertThat(appPermGroupLiveData.hasObservers()).isTrue()
+    }
+
+    @Test
+    fun onRequestInfosLoaded_removesObservers() {
+        runOnMainSync {
+            prefetcher.start(lifecycleOwner, stages)
+            packageInfoLiveData.value = "packageInfo"
+
+            prefetcher.onRequestInfosLoaded()
+        }
+
+        assertThat(packageInfoLiveData.hasObservers()).isFalse()
+        assertThat(appPermGroupLiveData.hasObservers()).isFalse()
+    }
+
+    @Test
+    fun onRequestInfosLoaded_calledTwice_doesNotThrow() {
+        runOnMainSync {
+            prefetcher.start(lifecycleOwner, stages)
+
+            prefetcher.onRequestInfosLoaded()
+            prefetcher.onRequestInfosLoaded()
+        }
+
+        assertThat(packageInfoLiveData.hasObservers()).isFalse()
+    }
+
+    @Test
+    fun ownerDestroyed_removesObservers() {
+        runOnMainSync {
+            prefetcher.start(lifecycleOwner, stages)
+
+            lifecycleRegistry.currentState = Lifecycle.State.DESTROYED
+        }
+
+        assertThat(packageInfoLiveData.hasObservers()).isFalse()
+        assertThat(appPermGroupLiveData.hasObservers()).isFalse()
+    }
+
+    private fun runOnMainSync(block: () -> Unit) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(block)
+    }
+
+    companion object {
+        private const val PACKAGE_NAME = "test.package"
+        private const val PERMISSION = "android.permission.CAMERA"
+        private const val GROUP = "android.permission-group.CAMERA"
+    }
+}
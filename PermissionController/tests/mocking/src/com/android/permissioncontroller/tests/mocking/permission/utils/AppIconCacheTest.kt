@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.tests.mocking.permission.utils
+
+import android.content.Context
+import android.os.Process
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.permissioncontroller.PermissionControllerProto.AppIconCacheDumpProto
+import com.android.permissioncontroller.permission.utils.AppIconCache
+import com.android.permissioncontroller.permission.utils.Utils
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/** Unit tests for [AppIconCache] */
+@RunWith(AndroidJUnit4::class)
+class AppIconCacheTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val packageName = context.packageName
+    private val user = Process.myUserHandle()
+    private lateinit var appIconCache: AppIconCache
+
+    @Before
+    fun setUp() {
+        appIconCache = AppIconCache.getInstance(context)
+        // Start from a state where neither the memory cache nor the database has this package.
+        appIconCache.onPackageUpdate(packageName)
+    }
+
+    @Test
+    fun getLabel_returnsFullAppLabel() {
+        val label = appIconCache.getLabel(packageName, user)
+
+        assertThat(label).isEqualTo(Utils.getFullAppLabel(context.applicationInfo, context))
+    }
+
+    @Test
+    fun getLabel_calledTwice_hitsMemory() {
+        val dump = appIconCache.dump()
+
+        appIconCache.getLabel(packageName, user)
+        appIconCache.getLabel(packageName, user)
+
+        val delta = appIconCache.dump().minus(dump)
+        assertThat(delta.misses).isEqualTo(1)
+        assertThat(delta.memoryHits).isEqualTo(1)
+    }
+
+    @Test
+    fun getLabel_afterMemoryCleared_hitsDisk() {
+        appIconCache.getLabel(packageName, user)
+        appIconCache.clearMemoryCache()
+        val dump = appIconCache.dump()
+
+        val label = appIconCache.getLabel(packageName, user)
+
+        assertThat(label).isEqualTo(Utils.getFullAppLabel(context.applicationInfo, context))
+        assertThat(appIconCache.dump().minus(dump).diskHits).isEqualTo(1)
+    }
+
+    @Test
+    fun getLabel_afterPackageUpdate_writeIsNotDeletedByUpdate() {
+        appIconCache.getLabel(packageName, user)
+
+        // The delete of this update is ordered before the write of the following lookup.
+        appIconCache.onPackageUpdate(packageName)
+        appIconCache.getLabel(packageName, user)
+        appIconCache.clearMemoryCache()
+        val dump = appIconCache.dump()
+        appIconCache.getLabel(packageName, user)
+
+        assertThat(appIconCache.dump().minus(dump).diskHits).isEqualTo(1)
+    }
+
+    @Test
+    fun getLabel_onMainThread_doesNotReadDisk() {
+        appIconCache.getLabel(packageName, user)
+        appIconCache.clearMemoryCache()
+        val dump = appIconCache.dump()
+
+        var label: String? = null
+        InstrumentationRegistry.getInstrumentation().runOnMainSync {
+            label = appIconCache.getLabel(packageName, user)
+        }
+
+        assertThat(label).isEqualTo(Utils.getFullAppLabel(context.applicationInfo, context))
+        val delta = appIconCache.dump().minus(dump)
+        assertThat(delta.diskHits).isEqualTo(0)
+        assertThat(delta.misses).isEqualTo(1)
+    }
+
+    @Test
+    fun getLabel_afterGetBadgedIcon_loadsLabelSeparately() {
+        appIconCache.getBadgedIcon(context, packageName, user)
+        val dump = appIconCache.dump()
+
+        val label = appIconCache.getLabel(packageName, user)
+
+        assertThat(label).isEqualTo(Utils.getFullAppLabel(context.applicationInfo, context))
+        val delta = appIconCache.dump().minus(dump)
+        assertThat(delta.memoryHits).isEqualTo(0)
+        assertThat(delta.misses).isEqualTo(1)
+    }
+
+    @Test
+    fun getBadgedIcon_withApplicationInfo_doesNotReadDisk() {
+        appIconCache.getBadgedIcon(context, packageName, user)
+        appIconCache.clearMemoryCache()
+        val dump = appIconCache.dump()
+
+        val icon = appIconCache.getBadgedIcon(context, context.applicationInfo)
+
+        assertThat(icon).isNotNull()
+        val delta = appIconCache.dump().minus(dump)
+        assertThat(delta.diskHits).isEqualTo(0)
+        assertThat(delta.misses).isEqualTo(1)
+    }
+
+    private fun AppIconCacheDumpProto.minus(other: AppIconCacheDumpProto): AppIconCacheDumpProto =
+        AppIconCacheDumpProto.newBuilder()
+            .setMemoryHits(memoryHits - other.memoryHits)
+            .setDiskHits(diskHits - other.diskHits)
+            .setMisses(misses - other.misses)
+            .build()
+}
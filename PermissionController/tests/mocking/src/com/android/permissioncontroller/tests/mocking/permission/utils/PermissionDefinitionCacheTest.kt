@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.tests.mocking.permission.utils
+
+import android.Manifest
+import android.Manifest.permission.CAMERA
+import android.content.Intent
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.NameNotFoundException
+import android.content.pm.PermissionGroupInfo
+import android.content.pm.PermissionInfo
+import android.net.Uri
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.permission.data.PackageBroadcastReceiver
+import com.android.permissioncontroller.permission.utils.PermissionDefinitionCache
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Assert.assertThrows
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.`when` as whenever
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness
+
+/** Unit tests for [PermissionDefinitionCache] */
+@RunWith(AndroidJUnit4::class)
+class PermissionDefinitionCacheTest {
+
+    private val packageManager = mock(PackageManager::class.java)
+    private val application = mock(PermissionControllerApplication::class.java)
+
+    private lateinit var mockitoSession: MockitoSession
+
+    @Before
+    fun setUp() {
+        mockitoSession =
+            ExtendedMockito.mockitoSession()
+                .mockStatic(PermissionControllerApplication::class.java)
+                .strictness(Strictness.LENIENT)
+                .startMocking()
+        whenever(PermissionControllerApplication.get()).thenReturn(application)
+        whenever(application.applicationContext).thenReturn(application)
+        PermissionDefinitionCache.startListeningForChanges()
+    }
+
+    @After
+    fun tearDown() {
+        PermissionDefinitionCache.stopListeningForChanges()
+        mockitoSession.finishMocking()
+    }
+
+    @Test
+    fun getPermissionInfo_calledTwice_loadsOnce() {
+        whenever(packageManager.getPermissionInfo(CUSTOM_PERMISSION, 0))
+            .thenReturn(permissionInfo(CUSTOM_PERMISSION, PACKAGE_NAME))
+        val hitCount = PermissionDefinitionCache.getHitCount()
+
+        PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+        val permissionInfo =
+            PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+
+        assertThat(permissionInfo.packageName).isEqualTo(PACKAGE_NAME)
+        assertThat(PermissionDefinitionCache.getHitCount()).isEqualTo(hitCount + 1)
+        verify(packageManager, times(1)).getPermissionInfo(CUSTOM_PERMISSION, 0)
+    }
+
+    @Test
+    fun getPermissionInfo_undefinedPermission_isNotCached() {
+        whenever(packageManager.getPermissionInfo(CUSTOM_PERMISSION, 0))
+            .thenThrow(NameNotFoundException(CUSTOM_PERMISSION))
+            .thenReturn(permissionInfo(CUSTOM_PERMISSION, PACKAGE_NAME))
+
+        assertThrows(NameNotFoundException::class.java) {
+            PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+        }
+        // Defined by a package installed since, before its broadcast is received
+        val permissionInfo =
+            PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+
+        assertThat(permissionInfo.packageName).isEqualTo(PACKAGE_NAME)
+        verify(packageManager, times(2)).getPermissionInfo(CUSTOM_PERMISSION, 0)
+    }
+
+    @Test
+    fun getPermissionInfo_platformPermission_loadsAllPlatformPermissions() {
+        whenever(packageManager.queryPermissionsByGroup(Manifest.permission_group.UNDEFINED, 0))
+            .thenReturn(mutableListOf(permissionInfo(CAMERA, PLATFORM_PACKAGE_NAME)))
+
+        val permissionInfo = PermissionDefinitionCache.getPermissionInfo(packageManager, CAMERA)
+
+        assertThat(permissionInfo.name).isEqualTo(CAMERA)
+        verify(packageManager, never()).getPermissionInfo(anyString(), anyInt())
+    }
+
+    @Test
+    fun onPackageChanged_dropsDefinitionsOfPackage() {
+        whenever(packageManager.getPermissionInfo(CUSTOM_PERMISSION, 0))
+            .thenReturn(permissionInfo(CUSTOM_PERMISSION, PACKAGE_NAME))
+        whenever(packageManager.getPermissionGroupInfo(CUSTOM_GROUP, 0))
+            .thenReturn(PermissionGroupInfo().apply {
+                name = CUSTOM_GROUP
+                packageName = OTHER_PACKAGE_NAME
+            })
+        PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+        PermissionDefinitionCache.getPermissionGroupInfo(packageManager, CUSTOM_GROUP)
+
+        PermissionDefinitionCache.onPackageChanged(PACKAGE_NAME)
+        PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+        PermissionDefinitionCache.getPermissionGroupInfo(packageManager, CUSTOM_GROUP)
+
+        verify(packageManager, times(2)).getPermissionInfo(CUSTOM_PERMISSION, 0)
+        verify(packageManager, times(1)).getPermissionGroupInfo(CUSTOM_GROUP, 0)
+    }
+
+    @Test
+    fun packageBroadcast_dropsDefinitionsOfPackage() {
+        whenever(packageManager.getPermissionInfo(CUSTOM_PERMISSION, 0))
+            .thenReturn(permissionInfo(CUSTOM_PERMISSION, PACKAGE_NAME))
+        PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+
+        PackageBroadcastReceiver.onReceive(
+            application,
+            Intent(Intent.ACTION_PACKAGE_REPLACED, Uri.fromParts("package", PACKAGE_NAME, null))
+        )
+        PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+
+        verify(packageManager, times(2)).getPermissionInfo(CUSTOM_PERMISSION, 0)
+    }
+
+    @Test
+    fun getPermissionInfo_invalidatedWhileLoading_discardsLoadedDefinition() {
+        val oldPermissionInfo = permissionInfo(CUSTOM_PERMISSION, PACKAGE_NAME)
+        val newPermissionInfo =
+            permissionInfo(CUSTOM_PERMISSION, PACKAGE_NAME).apply { protectionLevel = 1 }
+        whenever(packageManager.getPermissionInfo(CUSTOM_PERMISSION, 0))
+            .thenAnswer {
+                PermissionDefinitionCache.onPackageChanged(PACKAGE_NAME)
+                oldPermissionInfo
+            }
+            .thenReturn(newPermissionInfo)
+
+        val permissionInfo =
+            PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+        val cachedPermissionInfo =
+            PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+
+        assertThat(permissionInfo.protectionLevel).isEqualTo(1)
+        assertThat(cachedPermissionInfo.protectionLevel).isEqualTo(1)
+        verify(packageManager, times(2)).getPermissionInfo(CUSTOM_PERMISSION, 0)
+    }
+
+    @Test
+    fun getPermissionInfo_returnsCopy() {
+        whenever(packageManager.getPermissionInfo(CUSTOM_PERMISSION, 0))
+            .thenReturn(permissionInfo(CUSTOM_PERMISSION, PACKAGE_NAME))
+
+        PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION).flags =
+            PermissionInfo.FLAG_REMOVED
+        val permissionInfo =
+            PermissionDefinitionCache.getPermissionInfo(packageManager, CUSTOM_PERMISSION)
+
+        assertThat(permissionInfo.flags).isEqualTo(0)
+        verify(packageManager, times(1)).getPermissionInfo(CUSTOM_PERMISSION, 0)
+    }
+
+    @Test
+    fun getPermissionGroupInfo_returnsCopy() {
+        whenever(packageManager.getPermissionGroupInfo(CUSTOM_GROUP, 0))
+            .thenReturn(PermissionGroupInfo().apply {
+                name = CUSTOM_GROUP
+                packageName = PACKAGE_NAME
+            })
+
+        PermissionDefinitionCache.getPermissionGroupInfo(packageManager, CUSTOM_GROUP).priority =
+            100
+        val groupInfo =
+            PermissionDefinitionCache.getPermissionGroupInfo(packageManager, CUSTOM_GROUP)
+
+        assertThat(groupInfo.priority).isEqualTo(0)
+        verify(packageManager, times(1)).getPermissionGroupInfo(CUSTOM_GROUP, 0)
+    }
+
+    @Test
+    fun queryPermissionsOfGroup_returnsCopy() {
+        whenever(packageManager.queryPermissionsByGroup(CUSTOM_GROUP, 0))
+            .thenReturn(mutableListOf(permissionInfo(CUSTOM_PERMISSION, PACKAGE_NAME)))
+
+        PermissionDefinitionCache.queryPermissionsOfGroup(packageManager, CUSTOM_GROUP).clear()
+        val permissions =
+            PermissionDefinitionCache.queryPermissionsOfGroup(packageManager, CUSTOM_GROUP)
+
+        assertThat(permissions.map { it.name }).containsExactly(CUSTOM_PERMISSION)
+        verify(packageManager, times(1)).queryPermissionsByGroup(CUSTOM_GROUP, 0)
+    }
+
+    private fun permissionInfo(name: String, packageName: String): PermissionInfo =
+        PermissionInfo().apply {
+            this.name = name
+            this.packageName = packageName
+        }
+
+    companion object {
+        private const val PACKAGE_NAME = "test.package"
+        private const val OTHER_PACKAGE_NAME = "other.package"
+        private const val PLATFORM_PACKAGE_NAME = "android"
+        private const val CUSTOM_PERMISSION = "test.package.permission.CUSTOM"
+        private const val CUSTOM_GROUP = "test.package.permission-group.CUSTOM"
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.tests.mocking.permission.utils
+
+import android.Manifest.permission.CAMERA
+import android.Manifest.permission.RECORD_AUDIO
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.FLAG_PERMISSION_USER_SENSITIVE_WHEN_GRANTED
+import android.os.UserHandle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.permissioncontroller.permission.model.livedatatypes.LightPackageInfo
+import com.android.permissioncontroller.permission.model.livedatatypes.UidSensitivityState
+import com.android.permissioncontroller.permission.utils.UserSensitiveFlagsReconciler
+import com.android.permissioncontroller.permission.utils.Utils.FLAGS_ALWAYS_USER_SENSITIVE
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.`when` as whenever
+
+/** Unit tests for [UserSensitiveFlagsReconciler] */
+@RunWith(AndroidJUnit4::class)
+class UserSensitiveFlagsReconcilerTest {
+
+    private val packageManager = mock(PackageManager::class.java)
+    private val user = UserHandle.of(0)
+    private val reconciler = UserSensitiveFlagsReconciler()
+
+    @Test
+    fun reconcile_onlyUpdatesDifferingEntries() {
+        setPlatformFlags(FLAGS_ALWAYS_USER_SENSITIVE)
+
+        val result =
+            reconciler.reconcile(
+                packageManager,
+                user,
+                uidStates(CAMERA to FLAGS_ALWAYS_USER_SENSITIVE, RECORD_AUDIO to 0),
+                useKnownFlags = true
+            )
+
+        assertThat(result)
+            .isEqualTo(
+                UserSensitiveFlagsReconciler.Result(
+                    checkedCount = 2,
+                    fetchedCount = 2,
+                    updatedCount = 1
+                )
+            )
+        verify(packageManager, never())
+            .updatePermissionFlags(eq(CAMERA), anyString(), anyInt(), anyInt(), any())
+        verify(packageManager)
+            .updatePermissionFlags(RECORD_AUDIO, PACKAGE_NAME, FLAGS_ALWAYS_USER_SENSITIVE, 0, user)
+    }
+
+    @Test
+    fun reconcile_withKnownFlags_doesNotReadUnchangedPackageAgain() {
+        setPlatformFlags(FLAGS_ALWAYS_USER_SENSITIVE)
+        val uidStates = uidStates(CAMERA to FLAG_PERMISSION_USER_SENSITIVE_WHEN_GRANTED)
+        reconciler.reconcile(packageManager, user, uidStates, useKnownFlags = true)
+
+        val result = reconciler.reconcile(packageManager, user, uidStates, useKnownFlags = true)
+
+        assertThat(result.checkedCount).isEqualTo(1)
+        assertThat(result.fetchedCount).isEqualTo(0)
+        assertThat(result.updatedCount).isEqualTo(0)
+        verify(packageManager, times(1)).getPermissionFlags(CAMERA, PACKAGE_NAME, user)
+    }
+
+    @Test
+    fun reconcile_withoutKnownFlags_readsFlagsAgain() {
+        setPlatformFlags(FLAGS_ALWAYS_USER_SENSITIVE)
+        val uidStates = uidStates(CAMERA to FLAGS_ALWAYS_USER_SENSITIVE)
+        reconciler.reconcile(packageManager, user, uidStates, useKnownFlags = true)
+
+        val result = reconciler.reconcile(packageManager, user, uidStates, useKnownFlags = false)
+
+        assertThat(result.fetchedCount).isEqualTo(1)
+        verify(packageManager, times(2)).getPermissionFlags(CAMERA, PACKAGE_NAME, user)
+    }
+
+    @Test
+    fun reconcile_updatedPackage_readsFlagsAgain() {
+        setPlatformFlags(FLAGS_ALWAYS_USER_SENSITIVE)
+        reconciler.reconcile(
+            packageManager,
+            user,
+            uidStates(CAMERA to FLAGS_ALWAYS_USER_SENSITIVE),
+            useKnownFlags = true
+        )
+
+        val result =
+            reconciler.reconcile(
+                packageManager,
+                user,
+                uidStates(CAMERA to FLAGS_ALWAYS_USER_SENSITIVE, lastUpdateTime = 2),
+                useKnownFlags = true
+            )
+
+        assertThat(result.fetchedCount).isEqualTo(1)
+    }
+
+    @Test
+    fun reconcile_concurrentReconciliations_forgetPackage() {
+        val uidStates = uidStates(CAMERA to FLAGS_ALWAYS_USER_SENSITIVE)
+        var nested = false
+        whenever(packageManager.getPermissionFlags(anyString(), anyString(), any())).thenAnswer {
+            if (!nested) {
+                nested = true
+                reconciler.reconcile(packageManager, user, uidStates, useKnownFlags = false)
+            }
+            FLAGS_ALWAYS_USER_SENSITIVE
+        }
+        reconciler.reconcile(packageManager, user, uidStates, useKnownFlags = false)
+
+        val result = reconciler.reconcile(packageManager, user, uidStates, useKnownFlags = true)
+
+        assertThat(result.fetchedCount).isEqualTo(1)
+    }
+
+    @Test
+    fun reconcile_unknownPermission_isSkipped() {
+        whenever(packageManager.getPermissionFlags(anyString(), anyString(), any()))
+            .thenThrow(IllegalArgumentException("Unknown permission: $CAMERA"))
+
+        val result =
+            reconciler.reconcile(
+                packageManager,
+                user,
+                uidStates(CAMERA to 0),
+                useKnownFlags = true
+            )
+
+        assertThat(result.checkedCount).isEqualTo(1)
+        assertThat(result.fetchedCount).isEqualTo(0)
+        assertThat(result.updatedCount).isEqualTo(0)
+    }
+
+    private fun setPlatformFlags(flags: Int) {
+        whenever(packageManager.getPermissionFlags(anyString(), anyString(), any()))
+            .thenReturn(flags)
+    }
+
+    private fun uidStates(
+        vararg permStates: Pair<String, Int>,
+        lastUpdateTime: Long = 1
+    ): Map<Int, UidSensitivityState> {
+        val pkg =
+            LightPackageInfo(
+                PACKAGE_NAME,
+                emptyList(),
+                permStates.map { it.first },
+                permStates.map { 0 },
+                UID,
+                targetSdkVersion = 33,
+                isInstantApp = false,
+                enabled = true,
+                appFlags = 0,
+                firstInstallTime = 1,
+                lastUpdateTime = lastUpdateTime,
+                areAttributionsUserVisible = false,
+                attributionTagsToLabels = emptyMap()
+            )
+        return mapOf(UID to UidSensitivityState(mutableSetOf(pkg), permStates.toMap(HashMap())))
+    }
+
+    companion object {
+        private const val PACKAGE_NAME = "test.package"
+        private const val UID = 10001
+    }
+}
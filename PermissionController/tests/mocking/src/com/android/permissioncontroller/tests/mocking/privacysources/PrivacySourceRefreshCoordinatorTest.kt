@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.tests.mocking.privacysources
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.permissioncontroller.privacysources.PrivacySource
+import com.android.permissioncontroller.privacysources.PrivacySourceRefreshCoordinator
+import com.android.permissioncontroller.privacysources.PrivacySourceRefreshCoordinator.Outcome
+import com.android.permissioncontroller.privacysources.PrivacySourceRefreshCoordinator.SourceResult
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+
+/** Unit tests for [PrivacySourceRefreshCoordinator], run in virtual time. */
+@OptIn(ExperimentalCoroutinesApi::class)
+@RunWith(AndroidJUnit4::class)
+class PrivacySourceRefreshCoordinatorTest {
+
+    private val fastSource = mock(PrivacySource::class.java)
+    private val slowSource = mock(PrivacySource::class.java)
+    private val failingSource = mock(PrivacySource::class.java)
+
+    private val testScope = TestScope()
+
+    private val coordinator =
+        PrivacySourceRefreshCoordinator(
+            StandardTestDispatcher(testScope.testScheduler),
+            sourceDeadlineMillis = DEADLINE_MILLIS,
+            clock = { testScope.testScheduler.currentTime }
+        )
+
+    @Test
+    fun refresh_allSourcesComplete_reportsCompleted() =
+        testScope.runTest {
+            val refreshed = mutableListOf<PrivacySource>()
+
+            val results = refreshAndCollect(mapOf(FAST to fastSource)) { refreshed.add(it) }
+
+            assertThat(refreshed).containsExactly(fastSource)
+            assertThat(results.map { it.sourceId to it.outcome })
+                .containsExactly(FAST to Outcome.COMPLETED)
+        }
+
+    @Test
+    fun refresh_slowSource_timesOutAtDeadlineWithoutDelayingOthers() =
+        testScope.runTest {
+            val results =
+                refreshAndCollect(mapOf(FAST to fastSource, SLOW to slowSource)) { source ->
+                    delay(if (source === slowSource) DEADLINE_MILLIS * 2 else FAST_MILLIS)
+                }
+
+            assertThat(results.first { it.sourceId == FAST })
+                .isEqualTo(SourceResult(FAST, Outcome.COMPLETED, FAST_MILLIS))
+            assertThat(results.first { it.sourceId == SLOW })
+                .isEqualTo(SourceResult(SLOW, Outcome.TIMED_OUT, DEADLINE_MILLIS))
+        }
+
+    @Test
+    fun refresh_slowSource_finishesAtDeadlineAndLetsSourceCompleteLater() =
+        testScope.runTest {
+            var slowSourceCancelled = false
+            var slowSourceWritten = false
+            var finishedAtMillis = -1L
+            var slowSourceWrittenWhenFinished = false
+
+            coordinator
+                .refresh(
+                    mapOf(SLOW to slowSource),
+                    refreshSource = {
+                        try {
+                            delay(DEADLINE_MILLIS * 2)
+                        } catch (e: CancellationException) {
+                            slowSourceCancelled = true
+                            throw e
+                        }
+                        slowSourceWritten = true
+                    },
+                    onFinished = {
+                        finishedAtMillis = currentTime
+                        slowSourceWrittenWhenFinished = slowSourceWritten
+                    }
+                )
+                .join()
+            advanceUntilIdle()
+
+            assertThat(finishedAtMillis).isEqualTo(DEADLINE_MILLIS)
+            assertThat(slowSourceWrittenWhenFinished).isFalse()
+            assertThat(slowSourceCancelled).isFalse()
+            assertThat(slowSourceWritten).isTrue()
+        }
+
+    @Test
+    fun refresh_failingSource_doesNotAffectOthers() =
+        testScope.runTest {
+            val results =
+                refreshAndCollect(mapOf(FAST to fastSource, FAILING to failingSource)) { source ->
+                    if (source === failingSource) {
+                        throw IllegalStateException("Refresh failed")
+                    }
+                }
+
+            assertThat(results.map { it.sourceId to it.outcome })
+                .containsExactly(FAST to Outcome.COMPLETED, FAILING to Outcome.FAILED)
+        }
+
+    private suspend fun refreshAndCollect(
+        sources: Map<String, PrivacySource>,
+        refreshSource: suspend (PrivacySource) -> Unit
+    ): List<SourceResult> {
+        var results: List<SourceResult> = emptyList()
+        coordinator.refresh(sources, refreshSource) { results = it }.join()
+        return results
+    }
+
+    companion object {
+        private const val DEADLINE_MILLIS = 9_000L
+        private const val FAST_MILLIS = 100L
+        private const val FAST = "fast"
+        private const val SLOW = "slow"
+        private const val FAILING = "failing"
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.tests.mocking.role.model
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.permissioncontroller.role.model.RoleParserInitializer
+import com.android.role.controller.model.Role
+import com.android.role.controller.model.RoleParser
+import com.android.role.controller.model.RoleSnapshot
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.After
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class RoleSnapshotTest {
+    companion object {
+        @BeforeClass
+        @JvmStatic
+        fun setupBeforeClass() {
+            RoleParserInitializer.initialize()
+        }
+
+        private const val CHECKSUM = 1L
+        private val KEY = RoleSnapshot.Key(CHECKSUM, 1, 1)
+    }
+
+    private val targetContext = InstrumentationRegistry.getInstrumentation().getTargetContext()
+
+    private val snapshotFile = File(targetContext.cacheDir, "roles.snapshot.test")
+
+    @After
+    fun deleteSnapshotFile() {
+        snapshotFile.delete()
+    }
+
+    @Test
+    fun readSnapshot_sameKey_matchesParsedRoles() {
+        val key = RoleSnapshot.computeKey(targetContext)!!
+        val parsedRoles = RoleParser(targetContext).parse()
+
+        RoleSnapshot.write(snapshotFile, key, parsedRoles)
+        val snapshotRoles = RoleSnapshot.read(snapshotFile, key)!!
+
+        assertThat(snapshotRoles.keys).containsExactlyElementsIn(parsedRoles.keys)
+        for (roleName in parsedRoles.keys) {
+            assertRoleEquals(snapshotRoles[roleName]!!, parsedRoles[roleName]!!)
+        }
+    }
+
+    @Test
+    fun computeKey_matchesPackageVersion() {
+        val packageInfo =
+            targetContext.packageManager.getPackageInfo(targetContext.packageName, 0)
+
+        val key = RoleSnapshot.computeKey(targetContext)!!
+
+        assertThat(key.versionCode).isEqualTo(packageInfo.longVersionCode)
+        assertThat(key.lastUpdateTime).isEqualTo(packageInfo.lastUpdateTime)
+    }
+
+    @Test
+    fun readSnapshot_differentChecksum_returnsNull() {
+        RoleSnapshot.write(snapshotFile, KEY, RoleParser(targetContext).parse())
+
+        assertThat(RoleSnapshot.read(snapshotFile, RoleSnapshot.Key(CHECKSUM + 1, 1, 1)))
+            .isNull()
+    }
+
+    @Test
+    fun readSnapshot_differentVersionCode_returnsNull() {
+        RoleSnapshot.write(snapshotFile, KEY, RoleParser(targetContext).parse())
+
+        assertThat(RoleSnapshot.read(snapshotFile, RoleSnapshot.Key(CHECKSUM, 2, 1))).isNull()
+    }
+
+    @Test
+    fun readSnapshot_differentLastUpdateTime_returnsNull() {
+        RoleSnapshot.write(snapshotFile, KEY, RoleParser(targetContext).parse())
+
+        assertThat(RoleSnapshot.read(snapshotFile, RoleSnapshot.Key(CHECKSUM, 1, 2))).isNull()
+    }
+
+    @Test
+    fun readSnapshot_corruptFile_returnsNull() {
+        snapshotFile.writeBytes(byteArrayOf(1, 2, 3))
+
+        assertThat(RoleSnapshot.read(snapshotFile, KEY)).isNull()
+    }
+
+    @Test
+    fun readSnapshot_missingFile_returnsNull() {
+        assertThat(RoleSnapshot.read(snapshotFile, KEY)).isNull()
+    }
+
+    private fun assertRoleEquals(actual: Role, expected: Role) {
+        assertThat(actual.name).isEqualTo(expected.name)
+        assertThat(actual.behavior?.javaClass).isEqualTo(expected.behavior?.javaClass)
+        assertThat(actual.isAllowBypassingQualification)
+            .isEqualTo(expected.isAllowBypassingQualification)
+        assertThat(actual.defaultHoldersResourceName)
+            .isEqualTo(expected.defaultHoldersResourceName)
+        assertThat(actual.descriptionResource).isEqualTo(expected.descriptionResource)
+        assertThat(actual.isExclusive).isEqualTo(expected.isExclusive)
+        assertThat(actual.isFallBackToDefaultHolder).isEqualTo(expected.isFallBackToDefaultHolder)
+        assertThat(actual.labelResource).isEqualTo(expected.labelResource)
+        assertThat(actual.maxSdkVersion).isEqualTo(expected.maxSdkVersion)
+        assertThat(actual.minSdkVersion).isEqualTo(expected.minSdkVersion)
+        assertThat(actual.shouldOverrideUserWhenGranting())
+            .isEqualTo(expected.shouldOverrideUserWhenGranting())
+        assertThat(actual.requestDescriptionResource)
+            .isEqualTo(expected.requestDescriptionResource)
+        assertThat(actual.requestTitleResource).isEqualTo(expected.requestTitleResource)
+        assertThat(actual.isRequestable).isEqualTo(expected.isRequestable)
+        assertThat(actual.searchKeywordsResource).isEqualTo(expected.searchKeywordsResource)
+        assertThat(actual.shortLabelResource).isEqualTo(expected.shortLabelResource)
+        assertThat(actual.shouldShowNone()).isEqualTo(expected.shouldShowNone())
+        assertThat(actual.isStatic).isEqualTo(expected.isStatic)
+        assertThat(actual.isSystemOnly).isEqualTo(expected.isSystemOnly)
+        assertThat(actual.isVisible).isEqualTo(expected.isVisible)
+        assertThat(actual.requiredComponents).isEqualTo(expected.requiredComponents)
+        assertThat(actual.permissions).isEqualTo(expected.permissions)
+        assertThat(actual.appOpPermissions).isEqualTo(expected.appOpPermissions)
+        assertThat(actual.appOps).isEqualTo(expected.appOps)
+        assertThat(actual.preferredActivities).isEqualTo(expected.preferredActivities)
+        assertThat(actual.uiBehaviorName).isEqualTo(expected.uiBehaviorName)
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.config;
+
+import static android.os.Build.VERSION_CODES.TIRAMISU;
+import static android.safetycenter.config.SafetySource.PROFILE_PRIMARY;
+import static android.safetycenter.config.SafetySource.SAFETY_SOURCE_TYPE_DYNAMIC;
+import static android.safetycenter.config.SafetySource.SAFETY_SOURCE_TYPE_ISSUE_ONLY;
+import static android.safetycenter.config.SafetySource.SAFETY_SOURCE_TYPE_STATIC;
+
+import static org.xmlpull.v1.XmlPullParser.END_DOCUMENT;
+import static org.xmlpull.v1.XmlPullParser.END_TAG;
+import static org.xmlpull.v1.XmlPullParser.FEATURE_PROCESS_NAMESPACES;
+import static org.xmlpull.v1.XmlPullParser.START_DOCUMENT;
+import static org.xmlpull.v1.XmlPullParser.START_TAG;
+import static org.xmlpull.v1.XmlPullParser.TEXT;
+
+import static java.util.Objects.requireNonNull;
+
+import android.annotation.Nullable;
+import android.safetycenter.config.SafetyCenterConfig;
+import android.safetycenter.config.SafetySource;
+import android.safetycenter.config.SafetySourcesGroup;
+
+import androidx.annotation.RequiresApi;
+
+import com.android.modules.utils.build.SdkLevel;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Writes and reads snapshots of a {@link SafetyCenterConfig}, so that a config that was already
+ * parsed and validated by {@link SafetyCenterConfigParser} can be loaded again without resolving
+ * the resources referenced by its XML resource.
+ *
+ * <p>Snapshots are written as XML with one attribute per value of the {@link SafetySourcesGroup}s
+ * and {@link SafetySource}s, and carry a format version. Reading a snapshot builds the config
+ * again, so it goes through the same validation as the parser.
+ *
+ * <p>A snapshot is only valid for the XML resource and the version key it was written with. The
+ * version key must change whenever the resources referenced by the config may change, e.g. by
+ * including the version of the module.
+ */
+@RequiresApi(TIRAMISU)
+public final class SafetyCenterConfigSnapshot {
+
+    private static final String TAG_SNAPSHOT = "safety_center_config_snapshot";
+    private static final String TAG_GROUP = "safety_sources_group";
+    private static final String TAG_SOURCE = "safety_source";
+    private static final String TAG_PACKAGE_CERTIFICATE_HASH = "package_certificate_hash";
+
+    private static final String ATTRIBUTE_VERSION = "version";
+    private static final String ATTRIBUTE_CHECKSUM = "checksum";
+    private static final String ATTRIBUTE_VERSION_KEY = "version_key";
+    private static final String ATTRIBUTE_TYPE = "type";
+    private static final String ATTRIBUTE_ID = "id";
+    private static final String ATTRIBUTE_PACKAGE_NAME = "package_name";
+    private static final String ATTRIBUTE_TITLE = "title";
+    private static final String ATTRIBUTE_TITLE_FOR_WORK = "title_for_work";
+    private static final String ATTRIBUTE_SUMMARY = "summary";
+    private static final String ATTRIBUTE_STATELESS_ICON_TYPE = "stateless_icon_type";
+    private static final String ATTRIBUTE_INTENT_ACTION = "intent_action";
+    private static final String ATTRIBUTE_PROFILE = "profile";
+    private static final String ATTRIBUTE_INITIAL_DISPLAY_STATE = "initial_display_state";
+    private static final String ATTRIBUTE_MAX_SEVERITY_LEVEL = "max_severity_level";
+    private static final String ATTRIBUTE_SEARCH_TERMS = "search_terms";
+    private static final String ATTRIBUTE_LOGGING_ALLOWED = "logging_allowed";
+    private static final String ATTRIBUTE_REFRESH_ON_PAGE_OPEN_ALLOWED =
+            "refresh_on_page_open_allowed";
+    private static final String ATTRIBUTE_NOTIFICATIONS_ALLOWED = "notifications_allowed";
+    private static final String ATTRIBUTE_DEDUPLICATION_GROUP = "deduplication_group";
+    private static final String ATTRIBUTE_VALUE = "value";
+
+    private static final int CURRENT_VERSION = 1;
+
+    private SafetyCenterConfigSnapshot() {}
+
+    /** Returns the checksum of the given raw XML resource, to key snapshots with. */
+    public static long checksum(byte[] xmlResource) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(xmlResource, 0, xmlResource.length);
+        return crc32.getValue();
+    }
+
+    /**
+     * Returns a snapshot of the given {@link SafetyCenterConfig}.
+     *
+     * @param safetyCenterConfig a config returned by {@link SafetyCenterConfigParser}
+     * @param checksum the {@link #checksum} of the XML resource the config was parsed from
+     * @param versionKey the version of the code writing and reading the snapshot
+     */
+    public static byte[] write(
+            SafetyCenterConfig safetyCenterConfig, long checksum, String versionKey) {
+        requireNonNull(safetyCenterConfig);
+        requireNonNull(versionKey);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            XmlSerializer serializer = XmlPullParserFactory.newInstance().newSerializer();
+            serializer.setOutput(outputStream, StandardCharsets.UTF_8.name());
+            serializer.startDocument(null, true);
+            serializeSnapshot(serializer, safetyCenterConfig, checksum, versionKey);
+            serializer.endDocument();
+        } catch (IOException | XmlPullParserException e) {
+            throw new IllegalStateException("Cannot write SafetyCenterConfig snapshot", e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Reads the {@link SafetyCenterConfig} of the given snapshot.
+     *
+     * <p>Returns {@code null} if the snapshot was written for a different XML resource, version
+     * key or format version, or if it is corrupted; in which case the XML resource must be parsed
+     * again.
+     *
+     * @param snapshot a snapshot returned by {@link #write}
+     * @param checksum the {@link #checksum} of the current XML resource
+     * @param versionKey the version of the code reading the snapshot
+     */
+    @Nullable
+    public static SafetyCenterConfig read(byte[] snapshot, long checksum, String versionKey) {
+        requireNonNull(snapshot);
+        requireNonNull(versionKey);
+        try {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setFeature(FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(new ByteArrayInputStream(snapshot), StandardCharsets.UTF_8.name());
+            return parseSnapshot(parser, checksum, versionKey);
+        } catch (IOException | XmlPullParserException | ParseException | RuntimeException e) {
+            // The builders throw an IllegalStateException for invalid values.
+            return null;
+        }
+    }
+
+    private static void serializeSnapshot(
+            XmlSerializer serializer,
+            SafetyCenterConfig safetyCenterConfig,
+            long checksum,
+            String versionKey)
+            throws IOException {
+        serializer.startTag(null, TAG_SNAPSHOT);
+        serializer.attribute(null, ATTRIBUTE_VERSION, Integer.toString(CURRENT_VERSION));
+        serializer.attribute(null, ATTRIBUTE_CHECKSUM, Long.toString(checksum));
+        serializer.attribute(null, ATTRIBUTE_VERSION_KEY, versionKey);
+        List<SafetySourcesGroup> safetySourcesGroups = safetyCenterConfig.getSafetySourcesGroups();
+        for (int i = 0; i < safetySourcesGroups.size(); i++) {
+            serializeGroup(serializer, safetySourcesGroups.get(i));
+        }
+        serializer.endTag(null, TAG_SNAPSHOT);
+    }
+
+    private static void serializeGroup(
+            XmlSerializer serializer, SafetySourcesGroup safetySourcesGroup) throws IOException {
+        serializer.startTag(null, TAG_GROUP);
+        serializeInt(serializer, ATTRIBUTE_TYPE, safetySourcesGroup.getType());
+        serializer.attribute(null, ATTRIBUTE_ID, safetySourcesGroup.getId());
+        serializeInt(serializer, ATTRIBUTE_TITLE, safetySourcesGroup.getTitleResId());
+        serializeInt(serializer, ATTRIBUTE_SUMMARY, safetySourcesGroup.getSummaryResId());
+        serializeInt(
+                serializer,
+                ATTRIBUTE_STATELESS_ICON_TYPE,
+                safetySourcesGroup.getStatelessIconType());
+        List<SafetySource> safetySources = safetySourcesGroup.getSafetySources();
+        for (int i = 0; i < safetySources.size(); i++) {
+            serializeSource(serializer, safetySources.get(i));
+        }
+        serializer.endTag(null, TAG_GROUP);
+    }
+
+    private static void serializeSource(XmlSerializer serializer, SafetySource safetySource)
+            throws IOException {
+        int type = safetySource.getType();
+        boolean isStatic = type == SAFETY_SOURCE_TYPE_STATIC;
+        boolean isIssueOnly = type == SAFETY_SOURCE_TYPE_ISSUE_ONLY;
+        serializer.startTag(null, TAG_SOURCE);
+        serializeInt(serializer, ATTRIBUTE_TYPE, type);
+        serializer.attribute(null, ATTRIBUTE_ID, safetySource.getId());
+        serializeInt(serializer, ATTRIBUTE_PROFILE, safetySource.getProfile());
+        if (SdkLevel.isAtLeastU()) {
+            serializeString(
+                    serializer, ATTRIBUTE_PACKAGE_NAME, safetySource.getOptionalPackageName());
+        } else if (!isStatic) {
+            serializeString(serializer, ATTRIBUTE_PACKAGE_NAME, safetySource.getPackageName());
+        }
+        if (!isIssueOnly) {
+            serializeInt(serializer, ATTRIBUTE_TITLE, safetySource.getTitleResId());
+            if (safetySource.getProfile() != PROFILE_PRIMARY) {
+                serializeInt(
+                        serializer, ATTRIBUTE_TITLE_FOR_WORK, safetySource.getTitleForWorkResId());
+            }
+            serializeInt(serializer, ATTRIBUTE_SUMMARY, safetySource.getSummaryResId());
+            serializeString(serializer, ATTRIBUTE_INTENT_ACTION, safetySource.getIntentAction());
+            serializeInt(serializer, ATTRIBUTE_SEARCH_TERMS, safetySource.getSearchTermsResId());
+        }
+        if (type == SAFETY_SOURCE_TYPE_DYNAMIC) {
+            serializeInt(
+                    serializer,
+                    ATTRIBUTE_INITIAL_DISPLAY_STATE,
+                    safetySource.getInitialDisplayState());
+        }
+        if (!isStatic) {
+            serializeInt(
+                    serializer, ATTRIBUTE_MAX_SEVERITY_LEVEL, safetySource.getMaxSeverityLevel());
+            serializeBoolean(
+                    serializer, ATTRIBUTE_LOGGING_ALLOWED, safetySource.isLoggingAllowed());
+            serializeBoolean(
+                    serializer,
+                    ATTRIBUTE_REFRESH_ON_PAGE_OPEN_ALLOWED,
+                    safetySource.isRefreshOnPageOpenAllowed());
+        }
+        if (SdkLevel.isAtLeastU() && !isStatic) {
+            serializeBoolean(
+                    serializer,
+                    ATTRIBUTE_NOTIFICATIONS_ALLOWED,
+                    safetySource.areNotificationsAllowed());
+            serializeString(
+                    serializer,
+                    ATTRIBUTE_DEDUPLICATION_GROUP,
+                    safetySource.getDeduplicationGroup());
+            for (String packageCertificateHash : safetySource.getPackageCertificateHashes()) {
+                serializer.startTag(null, TAG_PACKAGE_CERTIFICATE_HASH);
+                serializer.attribute(null, ATTRIBUTE_VALUE, packageCertificateHash);
+                serializer.endTag(null, TAG_PACKAGE_CERTIFICATE_HASH);
+            }
+        }
+        serializer.endTag(null, TAG_SOURCE);
+    }
+
+    private static void serializeInt(XmlSerializer serializer, String name, int value)
+            throws IOException {
+        serializer.attribute(null, name, Integer.toString(value));
+    }
+
+    private static void serializeBoolean(XmlSerializer serializer, String name, boolean value)
+            throws IOException {
+        serializer.attribute(null, name, Boolean.toString(value));
+    }
+
+    private static void serializeString(
+            XmlSerializer serializer, String name, @Nullable String value) throws IOException {
+        if (value != null) {
+            serializer.attribute(null, name, value);
+        }
+    }
+
+    @Nullable
+    private static SafetyCenterConfig parseSnapshot(
+            XmlPullParser parser, long checksum, String versionKey)
+            throws IOException, ParseException, XmlPullParserException {
+        if (parser.getEventType() != START_DOCUMENT) {
+            throw new ParseException("Unexpected parser state");
+        }
+        parser.nextTag();
+        validateElementStart(parser, TAG_SNAPSHOT);
+        String version = parser.getAttributeValue(null, ATTRIBUTE_VERSION);
+        if (!Integer.toString(CURRENT_VERSION).equals(version)
+                || !Long.toString(checksum).equals(
+                        parser.getAttributeValue(null, ATTRIBUTE_CHECKSUM))
+                || !versionKey.equals(parser.getAttributeValue(null, ATTRIBUTE_VERSION_KEY))) {
+            return null;
+        }
+        SafetyCenterConfig.Builder builder = new SafetyCenterConfig.Builder();
+        parser.nextTag();
+        while (parser.getEventType() == START_TAG && parser.getName().equals(TAG_GROUP)) {
+            builder.addSafetySourcesGroup(parseGroup(parser));
+        }
+        validateElementEnd(parser, TAG_SNAPSHOT);
+        parser.next();
+        while (parser.getEventType() == TEXT && parser.isWhitespace()) {
+            parser.next();
+        }
+        if (parser.getEventType() != END_DOCUMENT) {
+            throw new ParseException("Unexpected extra root element");
+        }
+        return builder.build();
+    }
+
+    private static SafetySourcesGroup parseGroup(XmlPullParser parser)
+            throws IOException, ParseException, XmlPullParserException {
+        SafetySourcesGroup.Builder builder = new SafetySourcesGroup.Builder();
+        for (int i = 0; i < parser.getAttributeCount(); i++) {
+            String name = parser.getAttributeName(i);
+            String value = parser.getAttributeValue(i);
+            switch (name) {
+                case ATTRIBUTE_TYPE:
+                    if (SdkLevel.isAtLeastU()) {
+                        builder.setType(parseInt(value, name));
+                    }
+                    break;
+                case ATTRIBUTE_ID:
+                    builder.setId(value);
+                    break;
+                case ATTRIBUTE_TITLE:
+                    builder.setTitleResId(parseInt(value, name));
+                    break;
+                case ATTRIBUTE_SUMMARY:
+                    builder.setSummaryResId(parseInt(value, name));
+                    break;
+                case ATTRIBUTE_STATELESS_ICON_TYPE:
+                    builder.setStatelessIconType(parseInt(value, name));
+                    break;
+                default:
+                    throw attributeUnexpected(name);
+            }
+        }
+        parser.nextTag();
+        while (parser.getEventType() == START_TAG && parser.getName().equals(TAG_SOURCE)) {
+            builder.addSafetySource(parseSource(parser));
+        }
+        validateElementEnd(parser, TAG_GROUP);
+        parser.nextTag();
+        return builder.build();
+    }
+
+    private static SafetySource parseSource(XmlPullParser parser)
+            throws IOException, ParseException, XmlPullParserException {
+        String type = parser.getAttributeValue(null, ATTRIBUTE_TYPE);
+        if (type == null) {
+            throw new ParseException("Element " + TAG_SOURCE + " has no " + ATTRIBUTE_TYPE);
+        }
+        SafetySource.Builder builder = new SafetySource.Builder(parseInt(type, ATTRIBUTE_TYPE));
+        for (int i = 0; i < parser.getAttributeCount(); i++) {
+            String name = parser.getAttributeName(i);
+            String value = parser.getAttributeValue(i);
+            switch (name) {
+                case ATTRIBUTE_TYPE:
+                    break;
+                case ATTRIBUTE_ID:
+                    builder.setId(value);
+                    break;
+                case ATTRIBUTE_PACKAGE_NAME:
+                    builder.setPackageName(value);
+                    break;
+                case ATTRIBUTE_TITLE:
+                    builder.setTitleResId(parseInt(value, name));
+                    break;
+                case ATTRIBUTE_TITLE_FOR_WORK:
+                    builder.setTitleForWorkResId(parseInt(value, name));
+                    break;
+                case ATTRIBUTE_SUMMARY:
+                    builder.setSummaryResId(parseInt(value, name));
+                    break;
+                case ATTRIBUTE_INTENT_ACTION:
+                    builder.setIntentAction(value);
+                    break;
+                case ATTRIBUTE_PROFILE:
+                    builder.setProfile(parseInt(value, name));
+                    break;
+                case ATTRIBUTE_INITIAL_DISPLAY_STATE:
+                    builder.setInitialDisplayState(parseInt(value, name));
+                    break;
+                case ATTRIBUTE_MAX_SEVERITY_LEVEL:
+                    builder.setMaxSeverityLevel(parseInt(value, name));
+                    break;
+                case ATTRIBUTE_SEARCH_TERMS:
+                    builder.setSearchTermsResId(parseInt(value, name));
+                    break;
+                case ATTRIBUTE_LOGGING_ALLOWED:
+                    builder.setLoggingAllowed(parseBoolean(value, name));
+                    break;
+                case ATTRIBUTE_REFRESH_ON_PAGE_OPEN_ALLOWED:
+                    builder.setRefreshOnPageOpenAllowed(parseBoolean(value, name));
+                    break;
+                case ATTRIBUTE_NOTIFICATIONS_ALLOWED:
+                    requireAtLeastU(name);
+                    builder.setNotificationsAllowed(parseBoolean(value, name));
+                    break;
+                case ATTRIBUTE_DEDUPLICATION_GROUP:
+                    requireAtLeastU(name);
+                    builder.setDeduplicationGroup(value);
+                    break;
+                default:
+                    throw attributeUnexpected(name);
+            }
+        }
+        parser.nextTag();
+        while (parser.getEventType() == START_TAG
+                && parser.getName().equals(TAG_PACKAGE_CERTIFICATE_HASH)) {
+            requireAtLeastU(TAG_PACKAGE_CERTIFICATE_HASH);
+            builder.addPackageCertificateHash(
+                    requireAttribute(parser, TAG_PACKAGE_CERTIFICATE_HASH, ATTRIBUTE_VALUE));
+            parser.nextTag();
+            validateElementEnd(parser, TAG_PACKAGE_CERTIFICATE_HASH);
+            parser.nextTag();
+        }
+        validateElementEnd(parser, TAG_SOURCE);
+        parser.nextTag();
+        return builder.build();
+    }
+
+    private static void validateElementStart(XmlPullParser parser, String name)
+            throws ParseException, XmlPullParserException {
+        if (parser.getEventType() != START_TAG || !parser.getName().equals(name)) {
+            throw new ParseException(String.format("Element %s missing", name));
+        }
+    }
+
+    private static void validateElementEnd(XmlPullParser parser, String name)
+            throws ParseException, XmlPullParserException {
+        if (parser.getEventType() != END_TAG || !parser.getName().equals(name)) {
+            throw new ParseException(String.format("Element %s not closed", name));
+        }
+    }
+
+    private static String requireAttribute(XmlPullParser parser, String element, String name)
+            throws ParseException {
+        String value = parser.getAttributeValue(null, name);
+        if (value == null) {
+            throw new ParseException("Element " + element + " has no " + name);
+        }
+        return value;
+    }
+
+    private static void requireAtLeastU(String name) throws ParseException {
+        if (!SdkLevel.isAtLeastU()) {
+            throw new ParseException("Unexpected " + name + " before U");
+        }
+    }
+
+    private static int parseInt(String value, String name) throws ParseException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ParseException("Attribute " + name + " invalid", e);
+        }
+    }
+
+    private static boolean parseBoolean(String value, String name) throws ParseException {
+        if (value.equals("true")) {
+            return true;
+        }
+        if (value.equals("false")) {
+            return false;
+        }
+        throw new ParseException("Attribute " + name + " invalid");
+    }
+
+    private static ParseException attributeUnexpected(String name) {
+        return new ParseException("Unexpected attribute " + name);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.config
+
+import android.content.Context
+import android.safetycenter.config.SafetyCenterConfig
+import androidx.test.core.app.ApplicationProvider.getApplicationContext
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.safetycenter.config.tests.R
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class SafetyCenterConfigSnapshotTest {
+    private val context: Context = getApplicationContext()
+
+    @Test
+    fun read_allValidConfigs_matchesParser() {
+        var validConfigCount = 0
+        for (field in R.raw::class.java.fields) {
+            val xmlResource = readRawResource(field.getInt(null))
+            val expected =
+                try {
+                    SafetyCenterConfigParser.parseXmlResource(
+                        xmlResource.inputStream(),
+                        context.resources
+                    )
+                } catch (e: ParseException) {
+                    continue
+                }
+            val checksum = SafetyCenterConfigSnapshot.checksum(xmlResource)
+
+            val snapshot = SafetyCenterConfigSnapshot.write(expected, checksum, VERSION_KEY)
+            val actual = SafetyCenterConfigSnapshot.read(snapshot, checksum, VERSION_KEY)
+
+            assertThat(actual).isEqualTo(expected)
+            validConfigCount++
+        }
+        assertThat(validConfigCount).isGreaterThan(0)
+    }
+
+    @Test
+    fun read_differentChecksum_returnsNull() {
+        val snapshot = SafetyCenterConfigSnapshot.write(validConfig(), CHECKSUM, VERSION_KEY)
+
+        val actual = SafetyCenterConfigSnapshot.read(snapshot, CHECKSUM + 1, VERSION_KEY)
+
+        assertThat(actual).isNull()
+    }
+
+    @Test
+    fun read_differentVersionKey_returnsNull() {
+        val snapshot = SafetyCenterConfigSnapshot.write(validConfig(), CHECKSUM, VERSION_KEY)
+
+        val actual = SafetyCenterConfigSnapshot.read(snapshot, CHECKSUM, "other")
+
+        assertThat(actual).isNull()
+    }
+
+    @Test
+    fun read_differentFormatVersion_returnsNull() {
+        val snapshot = SafetyCenterConfigSnapshot.write(validConfig(), CHECKSUM, VERSION_KEY)
+        val otherVersionSnapshot =
+            String(snapshot, Charsets.UTF_8)
+                .replaceFirst("version=\"1\"", "version=\"2\"")
+                .toByteArray(Charsets.UTF_8)
+
+        val actual = SafetyCenterConfigSnapshot.read(otherVersionSnapshot, CHECKSUM, VERSION_KEY)
+
+        assertThat(actual).isNull()
+    }
+
+    @Test
+    fun read_corruptedSnapshot_returnsNull() {
+        val snapshot = SafetyCenterConfigSnapshot.write(validConfig(), CHECKSUM, VERSION_KEY)
+        val lastIndex = snapshot.size - 1
+        snapshot[lastIndex] = snapshot[lastIndex].inc()
+
+        val actual = SafetyCenterConfigSnapshot.read(snapshot, CHECKSUM, VERSION_KEY)
+
+        assertThat(actual).isNull()
+    }
+
+    @Test
+    fun read_truncatedSnapshot_returnsNull() {
+        val snapshot = SafetyCenterConfigSnapshot.write(validConfig(), CHECKSUM, VERSION_KEY)
+
+        val actual =
+            SafetyCenterConfigSnapshot.read(
+                snapshot.copyOf(snapshot.size / 2),
+                CHECKSUM,
+                VERSION_KEY
+            )
+
+        assertThat(actual).isNull()
+    }
+
+    @Test
+    fun checksum_differentResources_areDifferent() {
+        val validChecksum =
+            SafetyCenterConfigSnapshot.checksum(readRawResource(R.raw.config_valid))
+        val otherChecksum =
+            SafetyCenterConfigSnapshot.checksum(
+                readRawResource(R.raw.config_static_safety_source_with_logging)
+            )
+
+        assertThat(validChecksum).isNotEqualTo(otherChecksum)
+    }
+
+    private fun validConfig(): SafetyCenterConfig =
+        SafetyCenterConfigParser.parseXmlResource(
+            context.resources.openRawResource(R.raw.config_valid),
+            context.resources
+        )
+
+    private fun readRawResource(resourceId: Int): ByteArray =
+        context.resources.openRawResource(resourceId).use { it.readBytes() }
+
+    companion object {
+        private const val CHECKSUM = 42L
+        private const val VERSION_KEY = "version"
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.safetylabel
+
+import android.os.PersistableBundle
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.permission.safetylabel.SafetyLabelTestPersistableBundles.createMetadataPersistableBundle
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Benchmarks of reading the safety labels of [PACKAGE_COUNT] packages, as done when the safety
+ * label changes job or the app permission screens go through every package requesting location.
+ */
+@RunWith(AndroidJUnit4::class)
+class SafetyLabelCacheBenchmark {
+  @get:Rule val benchmarkRule = BenchmarkRule()
+
+  private val metadataBundles: List<PersistableBundle> =
+      List(PACKAGE_COUNT) { createMetadataPersistableBundle() }
+
+  @Test
+  fun parseSafetyLabels_uncached() {
+    benchmarkRule.measureRepeated {
+      for (i in 0 until PACKAGE_COUNT) {
+        SafetyLabel.getSafetyLabelFromMetadata(metadataBundles[i])
+      }
+    }
+  }
+
+  @Test
+  fun getSafetyLabels_cached() {
+    val cache = SafetyLabelCache(PACKAGE_COUNT)
+    getSafetyLabels(cache)
+
+    benchmarkRule.measureRepeated { getSafetyLabels(cache) }
+  }
+
+  @Test
+  fun getSafetyLabels_emptyCache() {
+    benchmarkRule.measureRepeated {
+      val cache = runWithTimingDisabled { SafetyLabelCache(PACKAGE_COUNT) }
+      getSafetyLabels(cache)
+    }
+  }
+
+  private fun getSafetyLabels(cache: SafetyLabelCache) {
+    for (i in 0 until PACKAGE_COUNT) {
+      cache.getSafetyLabel(
+          "$PACKAGE_NAME_PREFIX$i",
+          LAST_UPDATE_TIME,
+          SafetyLabelCache.MetadataLoader<RuntimeException> { metadataBundles[i] })
+    }
+  }
+
+  companion object {
+    private const val PACKAGE_COUNT = 500
+    private const val PACKAGE_NAME_PREFIX = "com.android.benchmark.package"
+    private const val LAST_UPDATE_TIME = 1L
+  }
+}
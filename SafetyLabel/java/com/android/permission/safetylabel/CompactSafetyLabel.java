@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.safetylabel;
+
+import static com.android.permission.safetylabel.DataLabelConstants.DATA_USAGE_COLLECTED;
+import static com.android.permission.safetylabel.DataLabelConstants.DATA_USAGE_SHARED;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.permission.safetylabel.DataCategoryConstants.Category;
+import com.android.permission.safetylabel.DataLabelConstants.DataUsage;
+import com.android.permission.safetylabel.DataPurposeConstants.Purpose;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable and compact representation of a {@link SafetyLabel}, where the types of each data usage
+ * are stored as bitsets, and the purposes of each type as a bitmask of {@link Purpose}s.
+ *
+ * <p>Every valid (category, type) pair is assigned a fixed slot, so that two labels can be compared
+ * or {@link #diff diffed} with a few bitwise operations.
+ */
+public final class CompactSafetyLabel {
+    private static final int USAGE_COLLECTED = 0;
+    private static final int USAGE_SHARED = 1;
+    private static final int USAGE_COUNT = 2;
+
+    /** Valid categories, in the order of their bit in category bitmasks */
+    private static final List<String> CATEGORIES;
+    /** Category -> bitmask of the slots of its types */
+    private static final Map<String, Long> CATEGORY_SLOTS = new HashMap<>();
+    /** Category -> type -> slot */
+    private static final Map<String, Map<String, Integer>> TYPE_SLOTS = new HashMap<>();
+    private static final int SLOT_COUNT;
+
+    static {
+        List<String> categories = new ArrayList<>(DataCategoryConstants.getValidDataCategories());
+        Collections.sort(categories);
+        CATEGORIES = Collections.unmodifiableList(categories);
+
+        int slot = 0;
+        for (int i = 0; i < CATEGORIES.size(); i++) {
+            String category = CATEGORIES.get(i);
+            List<String> types =
+                    new ArrayList<>(DataTypeConstants.getValidDataTypesForCategory(category));
+            Collections.sort(types);
+            Map<String, Integer> typeSlots = new HashMap<>();
+            long categorySlots = 0;
+            for (int j = 0; j < types.size(); j++) {
+                typeSlots.put(types.get(j), slot);
+                categorySlots |= 1L << slot;
+                slot++;
+            }
+            TYPE_SLOTS.put(category, typeSlots);
+            CATEGORY_SLOTS.put(category, categorySlots);
+        }
+        if (slot > Long.SIZE) {
+            throw new IllegalStateException("Too many data types for a compact safety label");
+        }
+        SLOT_COUNT = slot;
+    }
+
+    /** Usage -> bitset of the slots of the types present */
+    private final long[] mTypes;
+    /** Usage -> slot -> bitmask of the purposes of the type */
+    private final byte[][] mPurposes;
+    /** Bitset of the collected types for which {@link DataType#getIsCollectionOptional} is set */
+    private final long mCollectionOptionalSet;
+    /** Bitset of the collected types for which {@link DataType#getIsCollectionOptional} is true */
+    private final long mCollectionOptional;
+    /** Bitset of the collected types for which {@link DataType#getEphemeral} is set */
+    private final long mEphemeralSet;
+    /** Bitset of the collected types for which {@link DataType#getEphemeral} is true */
+    private final long mEphemeral;
+
+    private CompactSafetyLabel(
+            long[] types,
+            byte[][] purposes,
+            long collectionOptionalSet,
+            long collectionOptional,
+            long ephemeralSet,
+            long ephemeral) {
+        mTypes = types;
+        mPurposes = purposes;
+        mCollectionOptionalSet = collectionOptionalSet;
+        mCollectionOptional = collectionOptional;
+        mEphemeralSet = ephemeralSet;
+        mEphemeral = ephemeral;
+    }
+
+    /** Returns the {@link CompactSafetyLabel} of the given {@link SafetyLabel} */
+    @NonNull
+    public static CompactSafetyLabel from(@NonNull SafetyLabel safetyLabel) {
+        long[] types = new long[USAGE_COUNT];
+        byte[][] purposes = new byte[USAGE_COUNT][SLOT_COUNT];
+        DataLabel dataLabel = safetyLabel.getDataLabel();
+        types[USAGE_SHARED] = addTypes(dataLabel.getDataShared(), purposes[USAGE_SHARED]);
+        types[USAGE_COLLECTED] = addTypes(dataLabel.getDataCollected(), purposes[USAGE_COLLECTED]);
+
+        long collectionOptionalSet = 0;
+        long collectionOptional = 0;
+        long ephemeralSet = 0;
+        long ephemeral = 0;
+        for (Map.Entry<String, DataCategory> category : dataLabel.getDataCollected().entrySet()) {
+            for (Map.Entry<String, DataType> type :
+                    category.getValue().getDataTypes().entrySet()) {
+                long slotBit = 1L << getSlot(category.getKey(), type.getKey());
+                Boolean isCollectionOptional = type.getValue().getIsCollectionOptional();
+                if (isCollectionOptional != null) {
+                    collectionOptionalSet |= slotBit;
+                    if (isCollectionOptional) {
+                        collectionOptional |= slotBit;
+                    }
+                }
+                Boolean isEphemeral = type.getValue().getEphemeral();
+                if (isEphemeral != null) {
+                    ephemeralSet |= slotBit;
+                    if (isEphemeral) {
+                        ephemeral |= slotBit;
+                    }
+                }
+            }
+        }
+
+        return new CompactSafetyLabel(
+                types,
+                purposes,
+                collectionOptionalSet,
+                collectionOptional,
+                ephemeralSet,
+                ephemeral);
+    }
+
+    private static long addTypes(Map<String, DataCategory> categories, byte[] purposes) {
+        long types = 0;
+        for (Map.Entry<String, DataCategory> category : categories.entrySet()) {
+            for (Map.Entry<String, DataType> type :
+                    category.getValue().getDataTypes().entrySet()) {
+                int slot = getSlot(category.getKey(), type.getKey());
+                types |= 1L << slot;
+                for (int purpose : type.getValue().getPurposeSet()) {
+                    purposes[slot] |= (byte) (1 << purpose);
+                }
+            }
+        }
+        return types;
+    }
+
+    private static int getSlot(String category, String type) {
+        // Parsed labels only contain valid categories and types
+        return TYPE_SLOTS.get(category).get(type);
+    }
+
+    private static int getUsageIndex(@DataUsage String dataUsage) {
+        if (DATA_USAGE_COLLECTED.equals(dataUsage)) {
+            return USAGE_COLLECTED;
+        } else if (DATA_USAGE_SHARED.equals(dataUsage)) {
+            return USAGE_SHARED;
+        }
+        throw new IllegalArgumentException("Invalid data usage: " + dataUsage);
+    }
+
+    private static long getCategorySlots(@Category String category) {
+        Long categorySlots = CATEGORY_SLOTS.get(category);
+        return categorySlots != null ? categorySlots : 0;
+    }
+
+    @Nullable
+    private static Integer findSlot(@Category String category, String type) {
+        Map<String, Integer> typeSlots = TYPE_SLOTS.get(category);
+        return typeSlots != null ? typeSlots.get(type) : null;
+    }
+
+    /** Returns whether any type of the given category is used for the given data usage */
+    public boolean hasCategory(@DataUsage @NonNull String dataUsage, @Category String category) {
+        return (mTypes[getUsageIndex(dataUsage)] & getCategorySlots(category)) != 0;
+    }
+
+    /** Returns whether the given type of the given category is used for the given data usage */
+    public boolean hasType(
+            @DataUsage @NonNull String dataUsage, @Category String category, String type) {
+        Integer slot = findSlot(category, type);
+        return slot != null && (mTypes[getUsageIndex(dataUsage)] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Returns whether any type of the given category is used for the given data usage with the
+     * given purpose
+     */
+    public boolean containsPurpose(
+            @DataUsage @NonNull String dataUsage, @Category String category, @Purpose int purpose) {
+        return (getCategoryPurposes(dataUsage, category) & (1 << purpose)) != 0;
+    }
+
+    /**
+     * Returns the bitmask of the purposes of all the types of the given category used for the given
+     * data usage, where each {@link Purpose} is represented by the bit {@code 1 << purpose}
+     */
+    public int getCategoryPurposes(
+            @DataUsage @NonNull String dataUsage, @Category String category) {
+        int usage = getUsageIndex(dataUsage);
+        long slots = mTypes[usage] & getCategorySlots(category);
+        int purposes = 0;
+        while (slots != 0) {
+            int slot = Long.numberOfTrailingZeros(slots);
+            purposes |= mPurposes[usage][slot] & 0xFF;
+            slots &= slots - 1;
+        }
+        return purposes;
+    }
+
+    /** Returns the {@link Diff} from the given {@code before} label to this label */
+    @NonNull
+    public Diff diff(@NonNull CompactSafetyLabel before) {
+        long[] changed = new long[USAGE_COUNT];
+        for (int usage = 0; usage < USAGE_COUNT; usage++) {
+            long common = mTypes[usage] & before.mTypes[usage];
+            long slots = common;
+            while (slots != 0) {
+                int slot = Long.numberOfTrailingZeros(slots);
+                if (mPurposes[usage][slot] != before.mPurposes[usage][slot]) {
+                    changed[usage] |= 1L << slot;
+                }
+                slots &= slots - 1;
+            }
+            if (usage == USAGE_COLLECTED) {
+                changed[usage] |=
+                        common
+                                & ((mCollectionOptionalSet ^ before.mCollectionOptionalSet)
+                                        | (mCollectionOptional ^ before.mCollectionOptional)
+                                        | (mEphemeralSet ^ before.mEphemeralSet)
+                                        | (mEphemeral ^ before.mEphemeral));
+            }
+        }
+        return new Diff(before.mTypes, mTypes, changed);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompactSafetyLabel)) return false;
+        CompactSafetyLabel that = (CompactSafetyLabel) o;
+        return mCollectionOptionalSet == that.mCollectionOptionalSet
+                && mCollectionOptional == that.mCollectionOptional
+                && mEphemeralSet == that.mEphemeralSet
+                && mEphemeral == that.mEphemeral
+                && Arrays.equals(mTypes, that.mTypes)
+                && Arrays.deepEquals(mPurposes, that.mPurposes);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(mTypes);
+        result = 31 * result + Arrays.deepHashCode(mPurposes);
+        result = 31 * result + Long.hashCode(mCollectionOptionalSet);
+        result = 31 * result + Long.hashCode(mCollectionOptional);
+        result = 31 * result + Long.hashCode(mEphemeralSet);
+        result = 31 * result + Long.hashCode(mEphemeral);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactSafetyLabel{"
+                + "mCollected="
+                + Long.toHexString(mTypes[USAGE_COLLECTED])
+                + ", mShared="
+                + Long.toHexString(mTypes[USAGE_SHARED])
+                + '}';
+    }
+
+    /**
+     * The difference between two {@link CompactSafetyLabel}s, by data usage.
+     *
+     * <p>A category is added or removed if none of its types were used before or are used after. A
+     * category is changed if it is used both before and after, but some of its types, or their
+     * purposes or properties, changed.
+     */
+    public static final class Diff {
+        private final long[] mTypesBefore;
+        private final long[] mTypesAfter;
+        /** Usage -> bitset of the types used before and after, with different purposes or flags */
+        private final long[] mChangedTypes;
+
+        private Diff(long[] typesBefore, long[] typesAfter, long[] changedTypes) {
+            mTypesBefore = typesBefore;
+            mTypesAfter = typesAfter;
+            mChangedTypes = changedTypes;
+        }
+
+        /** Returns whether both labels are the same */
+        public boolean isEmpty() {
+            for (int usage = 0; usage < USAGE_COUNT; usage++) {
+                if (mTypesBefore[usage] != mTypesAfter[usage] || mChangedTypes[usage] != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Returns the categories that are used for the given data usage only after */
+        @NonNull
+        public Set<String> getAddedCategories(@DataUsage @NonNull String dataUsage) {
+            int usage = getUsageIndex(dataUsage);
+            Set<String> categories = new LinkedHashSet<>();
+            for (int i = 0; i < CATEGORIES.size(); i++) {
+                String category = CATEGORIES.get(i);
+                long categorySlots = getCategorySlots(category);
+                if ((mTypesBefore[usage] & categorySlots) == 0
+                        && (mTypesAfter[usage] & categorySlots) != 0) {
+                    categories.add(category);
+                }
+            }
+            return categories;
+        }
+
+        /** Returns the categories that are used for the given data usage only before */
+        @NonNull
+        public Set<String> getRemovedCategories(@DataUsage @NonNull String dataUsage) {
+            int usage = getUsageIndex(dataUsage);
+            Set<String> categories = new LinkedHashSet<>();
+            for (int i = 0; i < CATEGORIES.size(); i++) {
+                String category = CATEGORIES.get(i);
+                long categorySlots = getCategorySlots(category);
+                if ((mTypesBefore[usage] & categorySlots) != 0
+                        && (mTypesAfter[usage] & categorySlots) == 0) {
+                    categories.add(category);
+                }
+            }
+            return categories;
+        }
+
+        /**
+         * Returns the categories that are used for the given data usage both before and after, but
+         * with different types, purposes or properties
+         */
+        @NonNull
+        public Set<String> getChangedCategories(@DataUsage @NonNull String dataUsage) {
+            int usage = getUsageIndex(dataUsage);
+            long changedTypes = (mTypesBefore[usage] ^ mTypesAfter[usage]) | mChangedTypes[usage];
+            Set<String> categories = new LinkedHashSet<>();
+            for (int i = 0; i < CATEGORIES.size(); i++) {
+                String category = CATEGORIES.get(i);
+                long categorySlots = getCategorySlots(category);
+                if ((mTypesBefore[usage] & categorySlots) != 0
+                        && (mTypesAfter[usage] & categorySlots) != 0
+                        && (changedTypes & categorySlots) != 0) {
+                    categories.add(category);
+                }
+            }
+            return categories;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.safetylabel;
+
+import android.os.PersistableBundle;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Objects;
+
+/**
+ * A bounded cache of the {@link SafetyLabel}s parsed from the metadata of packages.
+ *
+ * <p>The metadata of a package can only change when the package is installed or updated, which
+ * always changes its last update time. Labels are thus keyed by package name and last update time,
+ * which callers usually already know from a {@code PackageInfo}. Packages without a valid label are
+ * cached too.
+ *
+ * <p>This class is thread safe.
+ */
+public final class SafetyLabelCache {
+
+    /**
+     * Loads the metadata {@link PersistableBundle} of a package, if it is not cached.
+     *
+     * @param <E> the exception thrown if the metadata can't be loaded
+     */
+    public interface MetadataLoader<E extends Exception> {
+        /** Returns the metadata of the package */
+        @Nullable
+        PersistableBundle load() throws E;
+    }
+
+    private final LruCache<Key, Entry> mEntries;
+
+    public SafetyLabelCache(int maxSize) {
+        mEntries = new LruCache<>(maxSize);
+    }
+
+    /**
+     * Returns the {@link SafetyLabel} of the given package, or {@code null} if it doesn't have a
+     * valid one.
+     *
+     * @param packageName the name of the package
+     * @param lastUpdateTime the last update time of the package
+     * @param metadataLoader loads the metadata of the package if it isn't cached
+     */
+    @Nullable
+    public <E extends Exception> SafetyLabel getSafetyLabel(
+            @NonNull String packageName,
+            long lastUpdateTime,
+            @NonNull MetadataLoader<E> metadataLoader)
+            throws E {
+        Key key = new Key(packageName, lastUpdateTime);
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            return entry.mSafetyLabel;
+        }
+        // Labels may be loaded concurrently for the same key, in which case the last one is kept.
+        entry = new Entry(SafetyLabel.getSafetyLabelFromMetadata(metadataLoader.load()));
+        mEntries.put(key, entry);
+        return entry.mSafetyLabel;
+    }
+
+    /** Drops all the cached labels. */
+    public void clear() {
+        mEntries.evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return "SafetyLabelCache{" + mEntries + '}';
+    }
+
+    private static final class Key {
+        @NonNull private final String mPackageName;
+        private final long mLastUpdateTime;
+
+        private Key(@NonNull String packageName, long lastUpdateTime) {
+            mPackageName = packageName;
+            mLastUpdateTime = lastUpdateTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return mLastUpdateTime == that.mLastUpdateTime
+                    && mPackageName.equals(that.mPackageName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mPackageName, mLastUpdateTime);
+        }
+    }
+
+    private static final class Entry {
+        @Nullable private final SafetyLabel mSafetyLabel;
+
+        private Entry(@Nullable SafetyLabel safetyLabel) {
+            mSafetyLabel = safetyLabel;
+        }
+    }
+}
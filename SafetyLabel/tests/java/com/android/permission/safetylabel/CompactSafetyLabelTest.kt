@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.safetylabel
+
+import android.os.PersistableBundle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.permission.safetylabel.DataCategoryConstants.CATEGORY_CONTACTS
+import com.android.permission.safetylabel.DataCategoryConstants.CATEGORY_FINANCIAL
+import com.android.permission.safetylabel.DataCategoryConstants.CATEGORY_LOCATION
+import com.android.permission.safetylabel.DataLabelConstants.DATA_USAGE_COLLECTED
+import com.android.permission.safetylabel.DataLabelConstants.DATA_USAGE_SHARED
+import com.android.permission.safetylabel.DataPurposeConstants.PURPOSE_ADVERTISING
+import com.android.permission.safetylabel.DataPurposeConstants.PURPOSE_ANALYTICS
+import com.android.permission.safetylabel.DataType.KEY_EPHEMERAL
+import com.android.permission.safetylabel.DataType.KEY_IS_COLLECTION_OPTIONAL
+import com.android.permission.safetylabel.DataType.KEY_PURPOSES
+import com.android.permission.safetylabel.DataTypeConstants.CONTACTS_CONTACTS
+import com.android.permission.safetylabel.DataTypeConstants.FINANCIAL_CARD_BANK_ACCOUNT
+import com.android.permission.safetylabel.DataTypeConstants.LOCATION_APPROX_LOCATION
+import com.android.permission.safetylabel.DataTypeConstants.LOCATION_PRECISE_LOCATION
+import com.android.permission.safetylabel.SafetyLabel.KEY_SAFETY_LABEL
+import com.android.permission.safetylabel.SafetyLabel.KEY_VERSION
+import com.android.permission.safetylabel.SafetyLabelTestPersistableBundles.createMetadataPersistableBundle
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/** Tests for [CompactSafetyLabel]. */
+@RunWith(AndroidJUnit4::class)
+class CompactSafetyLabelTest {
+    @Test
+    fun from_validLabel_matchesParsedLabel() {
+        val safetyLabel =
+            SafetyLabel.getSafetyLabelFromMetadata(createMetadataPersistableBundle())!!
+
+        val compactSafetyLabel = CompactSafetyLabel.from(safetyLabel)
+
+        val dataLabel = safetyLabel.dataLabel
+        for ((dataUsage, categories) in
+            mapOf(
+                DATA_USAGE_SHARED to dataLabel.dataShared,
+                DATA_USAGE_COLLECTED to dataLabel.dataCollected)) {
+            for (category in DataCategoryConstants.VALID_CATEGORIES) {
+                val dataTypes = categories[category]?.dataTypes ?: emptyMap()
+                assertThat(compactSafetyLabel.hasCategory(dataUsage, category))
+                    .isEqualTo(dataTypes.isNotEmpty())
+                var expectedPurposes = 0
+                for ((type, dataType) in dataTypes) {
+                    assertThat(compactSafetyLabel.hasType(dataUsage, category, type)).isTrue()
+                    for (purpose in dataType.purposeSet) {
+                        expectedPurposes = expectedPurposes or (1 shl purpose)
+                    }
+                }
+                assertThat(compactSafetyLabel.getCategoryPurposes(dataUsage, category))
+                    .isEqualTo(expectedPurposes)
+            }
+        }
+    }
+
+    @Test
+    fun diff_sameLabel_isEmpty() {
+        val before = CompactSafetyLabel.from(parse(shared = LOCATION_FOR_ANALYTICS))
+        val after = CompactSafetyLabel.from(parse(shared = LOCATION_FOR_ANALYTICS))
+
+        val diff = after.diff(before)
+
+        assertThat(diff.isEmpty).isTrue()
+        assertThat(after).isEqualTo(before)
+    }
+
+    @Test
+    fun diff_categoryAdded_returnsAddedCategory() {
+        val before = CompactSafetyLabel.from(parse(shared = LOCATION_FOR_ANALYTICS))
+        val after =
+            CompactSafetyLabel.from(
+                parse(
+                    shared =
+                        LOCATION_FOR_ANALYTICS +
+                            (CATEGORY_FINANCIAL to
+                                mapOf(
+                                    FINANCIAL_CARD_BANK_ACCOUNT to
+                                        intArrayOf(PURPOSE_ANALYTICS)))))
+
+        val diff = after.diff(before)
+
+        assertThat(diff.isEmpty).isFalse()
+        assertThat(diff.getAddedCategories(DATA_USAGE_SHARED)).containsExactly(CATEGORY_FINANCIAL)
+        assertThat(diff.getRemovedCategories(DATA_USAGE_SHARED)).isEmpty()
+        assertThat(diff.getChangedCategories(DATA_USAGE_SHARED)).isEmpty()
+    }
+
+    @Test
+    fun diff_categoryReplaced_returnsAddedAndRemovedCategories() {
+        val before = CompactSafetyLabel.from(parse(shared = LOCATION_FOR_ANALYTICS))
+        val after =
+            CompactSafetyLabel.from(
+                parse(
+                    shared =
+                        mapOf(
+                            CATEGORY_CONTACTS to
+                                mapOf(CONTACTS_CONTACTS to intArrayOf(PURPOSE_ANALYTICS)))))
+
+        val diff = after.diff(before)
+
+        assertThat(diff.getAddedCategories(DATA_USAGE_SHARED)).containsExactly(CATEGORY_CONTACTS)
+        assertThat(diff.getRemovedCategories(DATA_USAGE_SHARED)).containsExactly(CATEGORY_LOCATION)
+        assertThat(diff.getChangedCategories(DATA_USAGE_SHARED)).isEmpty()
+    }
+
+    @Test
+    fun diff_typeChanged_returnsChangedCategory() {
+        val before = CompactSafetyLabel.from(parse(shared = LOCATION_FOR_ANALYTICS))
+        val after =
+            CompactSafetyLabel.from(
+                parse(
+                    shared =
+                        mapOf(
+                            CATEGORY_LOCATION to
+                                mapOf(LOCATION_PRECISE_LOCATION to intArrayOf(PURPOSE_ANALYTICS)))))
+
+        val diff = after.diff(before)
+
+        assertThat(diff.getAddedCategories(DATA_USAGE_SHARED)).isEmpty()
+        assertThat(diff.getRemovedCategories(DATA_USAGE_SHARED)).isEmpty()
+        assertThat(diff.getChangedCategories(DATA_USAGE_SHARED)).containsExactly(CATEGORY_LOCATION)
+    }
+
+    @Test
+    fun diff_purposeChanged_returnsChangedCategory() {
+        val before = CompactSafetyLabel.from(parse(shared = LOCATION_FOR_ANALYTICS))
+        val after =
+            CompactSafetyLabel.from(
+                parse(
+                    shared =
+                        mapOf(
+                            CATEGORY_LOCATION to
+                                mapOf(
+                                    LOCATION_APPROX_LOCATION to
+                                        intArrayOf(PURPOSE_ADVERTISING)))))
+
+        val diff = after.diff(before)
+
+        assertThat(diff.isEmpty).isFalse()
+        assertThat(diff.getChangedCategories(DATA_USAGE_SHARED)).containsExactly(CATEGORY_LOCATION)
+    }
+
+    @Test
+    fun diff_ephemeralChanged_returnsChangedCategory() {
+        val before =
+            CompactSafetyLabel.from(parse(collected = LOCATION_FOR_ANALYTICS, ephemeral = false))
+        val after =
+            CompactSafetyLabel.from(parse(collected = LOCATION_FOR_ANALYTICS, ephemeral = true))
+
+        val diff = after.diff(before)
+
+        assertThat(diff.isEmpty).isFalse()
+        assertThat(diff.getChangedCategories(DATA_USAGE_COLLECTED))
+            .containsExactly(CATEGORY_LOCATION)
+        assertThat(diff.getChangedCategories(DATA_USAGE_SHARED)).isEmpty()
+    }
+
+    companion object {
+        private val LOCATION_FOR_ANALYTICS =
+            mapOf(
+                CATEGORY_LOCATION to
+                    mapOf(LOCATION_APPROX_LOCATION to intArrayOf(PURPOSE_ANALYTICS)))
+
+        /** Parses a safety label with the given category -> type -> purposes maps. */
+        private fun parse(
+            shared: Map<String, Map<String, IntArray>> = emptyMap(),
+            collected: Map<String, Map<String, IntArray>> = emptyMap(),
+            ephemeral: Boolean = true
+        ): SafetyLabel {
+            val dataLabel =
+                PersistableBundle().apply {
+                    putPersistableBundle(DATA_USAGE_SHARED, createCategoryMap(shared, ephemeral))
+                    putPersistableBundle(
+                        DATA_USAGE_COLLECTED, createCategoryMap(collected, ephemeral))
+                }
+            val safetyLabel =
+                PersistableBundle().apply {
+                    putLong(KEY_VERSION, 1L)
+                    putPersistableBundle(DataLabel.KEY_DATA_LABEL, dataLabel)
+                }
+            val metadata =
+                PersistableBundle().apply {
+                    putLong(KEY_VERSION, 1L)
+                    putPersistableBundle(KEY_SAFETY_LABEL, safetyLabel)
+                }
+            return SafetyLabel.getSafetyLabelFromMetadata(metadata)!!
+        }
+
+        private fun createCategoryMap(
+            categories: Map<String, Map<String, IntArray>>,
+            ephemeral: Boolean
+        ): PersistableBundle =
+            PersistableBundle().apply {
+                for ((category, types) in categories) {
+                    val typeMap = PersistableBundle()
+                    for ((type, purposes) in types) {
+                        typeMap.putPersistableBundle(
+                            type,
+                            PersistableBundle().apply {
+                                putIntArray(KEY_PURPOSES, purposes)
+                                putBoolean(KEY_IS_COLLECTION_OPTIONAL, true)
+                                putBoolean(KEY_EPHEMERAL, ephemeral)
+                            })
+                    }
+                    putPersistableBundle(category, typeMap)
+                }
+            }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.safetylabel
+
+import android.os.PersistableBundle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.permission.safetylabel.SafetyLabelTestPersistableBundles.createMetadataPersistableBundle
+import com.android.permission.safetylabel.SafetyLabelTestPersistableBundles.createNonVersionedEmptyMetadataPersistableBundle
+import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/** Tests for [SafetyLabelCache]. */
+@RunWith(AndroidJUnit4::class)
+class SafetyLabelCacheTest {
+  private val cache = SafetyLabelCache(MAX_SIZE)
+  private var loadCount = 0
+
+  @Test
+  fun getSafetyLabel_validMetadata_matchesParsedLabel() {
+    val safetyLabel = cache.getSafetyLabel(PACKAGE_NAME, 1, loader())
+
+    assertThat(safetyLabel).isNotNull()
+    assertThat(safetyLabel!!.dataLabel.dataShared.keys)
+        .containsExactlyElementsIn(
+            SafetyLabel.getSafetyLabelFromMetadata(createMetadataPersistableBundle())!!
+                .dataLabel
+                .dataShared
+                .keys)
+  }
+
+  @Test
+  fun getSafetyLabel_sameLastUpdateTime_loadsMetadataOnce() {
+    val first = cache.getSafetyLabel(PACKAGE_NAME, 1, loader())
+    val second = cache.getSafetyLabel(PACKAGE_NAME, 1, loader())
+
+    assertThat(second).isSameInstanceAs(first)
+    assertThat(loadCount).isEqualTo(1)
+  }
+
+  @Test
+  fun getSafetyLabel_differentLastUpdateTime_loadsMetadataAgain() {
+    cache.getSafetyLabel(PACKAGE_NAME, 1, loader())
+    cache.getSafetyLabel(PACKAGE_NAME, 2, loader())
+
+    assertThat(loadCount).isEqualTo(2)
+  }
+
+  @Test
+  fun getSafetyLabel_invalidMetadata_cachesNullLabel() {
+    val first =
+        cache.getSafetyLabel(
+            PACKAGE_NAME, 1, loader(createNonVersionedEmptyMetadataPersistableBundle()))
+    val second =
+        cache.getSafetyLabel(
+            PACKAGE_NAME, 1, loader(createNonVersionedEmptyMetadataPersistableBundle()))
+
+    assertThat(first).isNull()
+    assertThat(second).isNull()
+    assertThat(loadCount).isEqualTo(1)
+  }
+
+  @Test
+  fun getSafetyLabel_loaderThrows_doesNotCache() {
+    assertThrows(IllegalStateException::class.java) {
+      cache.getSafetyLabel(
+          PACKAGE_NAME,
+          1,
+          SafetyLabelCache.MetadataLoader<IllegalStateException> { throw IllegalStateException() })
+    }
+
+    val safetyLabel = cache.getSafetyLabel(PACKAGE_NAME, 1, loader())
+
+    assertThat(safetyLabel).isNotNull()
+    assertThat(loadCount).isEqualTo(1)
+  }
+
+  @Test
+  fun getSafetyLabel_moreThanMaxSize_evictsLeastRecentlyUsed() {
+    for (i in 0..MAX_SIZE) {
+      cache.getSafetyLabel("$PACKAGE_NAME$i", 1, loader())
+    }
+
+    cache.getSafetyLabel("${PACKAGE_NAME}0", 1, loader())
+
+    assertThat(loadCount).isEqualTo(MAX_SIZE + 2)
+  }
+
+  @Test
+  fun clear_loadsMetadataAgain() {
+    cache.getSafetyLabel(PACKAGE_NAME, 1, loader())
+
+    cache.clear()
+    cache.getSafetyLabel(PACKAGE_NAME, 1, loader())
+
+    assertThat(loadCount).isEqualTo(2)
+  }
+
+  private fun loader(
+    metadata: PersistableBundle = createMetadataPersistableBundle()
+  ): SafetyLabelCache.MetadataLoader<RuntimeException> =
+      SafetyLabelCache.MetadataLoader {
+        loadCount++
+        metadata
+      }
+
+  companion object {
+    private const val PACKAGE_NAME = "com.android.test"
+    private const val MAX_SIZE = 4
+  }
+}
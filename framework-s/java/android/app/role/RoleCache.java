@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app.role;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.annotation.UserIdInt;
+import android.os.Build;
+import android.os.IpcDataCache;
+import android.os.RemoteException;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Per-process cache for role holder queries in {@link RoleManager}.
+ * <p>
+ * All the caches share a single system-wide invalidation key, which is bumped by the role service
+ * whenever the holders of any role change, so that a query is served locally until the next
+ * change and then fetched again from the service.
+ * <p>
+ * Only queries whose result depends solely on the key are cached; queries that the service answers
+ * differently depending on the caller, e.g. {@link RoleManager#getSmsRoleHolder(int)} and
+ * {@link RoleManager#getBrowserRoleHolder(int)}, always go to the service.
+ *
+ * @hide
+ */
+@RequiresApi(Build.VERSION_CODES.TIRAMISU)
+final class RoleCache {
+
+    private static final String CACHE_API = "getRoleHolders";
+
+    private static final int MAX_CACHE_ENTRIES = 64;
+
+    @NonNull
+    private final IpcDataCache<Key, Boolean> mIsRoleHeldCache;
+
+    @NonNull
+    private final IpcDataCache<Key, List<String>> mRoleHoldersCache;
+
+    @NonNull
+    private final IpcDataCache<Key, List<String>> mDefaultApplicationCache;
+
+    RoleCache(@NonNull IRoleManager service) {
+        mIsRoleHeldCache = createCache("isRoleHeld", key -> service.isRoleHeld(key.mRoleName,
+                key.mPackageName));
+        mRoleHoldersCache = createCache("getRoleHoldersAsUser", key -> Collections.unmodifiableList(
+                service.getRoleHoldersAsUser(key.mRoleName, key.mUserId)));
+        mDefaultApplicationCache = createCache("getDefaultApplicationAsUser",
+                key -> toList(service.getDefaultApplicationAsUser(key.mRoleName, key.mUserId)));
+    }
+
+    /**
+     * @see RoleManager#isRoleHeld(String)
+     */
+    boolean isRoleHeld(@NonNull String roleName, @NonNull String packageName,
+            @UserIdInt int userId) {
+        return mIsRoleHeldCache.query(new Key(roleName, packageName, userId));
+    }
+
+    /**
+     * @see RoleManager#getRoleHoldersAsUser(String, android.os.UserHandle)
+     */
+    @NonNull
+    List<String> getRoleHoldersAsUser(@NonNull String roleName, @UserIdInt int userId) {
+        return mRoleHoldersCache.query(new Key(roleName, null, userId));
+    }
+
+    /**
+     * @see RoleManager#getDefaultApplication(String)
+     */
+    @Nullable
+    String getDefaultApplicationAsUser(@NonNull String roleName, @UserIdInt int userId) {
+        return fromList(mDefaultApplicationCache.query(new Key(roleName, null, userId)));
+    }
+
+    /**
+     * Invalidate the role holder caches in all processes.
+     */
+    static void invalidate() {
+        IpcDataCache.invalidateCache(IpcDataCache.MODULE_SYSTEM, CACHE_API);
+    }
+
+    @NonNull
+    private static <R> IpcDataCache<Key, R> createCache(@NonNull String cacheName,
+            @NonNull RemoteQuery<R> remoteQuery) {
+        return new IpcDataCache<>(MAX_CACHE_ENTRIES, IpcDataCache.MODULE_SYSTEM, CACHE_API,
+                cacheName, new IpcDataCache.QueryHandler<Key, R>() {
+                    @Override
+                    public R apply(@NonNull Key key) {
+                        try {
+                            return remoteQuery.query(key);
+                        } catch (RemoteException e) {
+                            throw e.rethrowFromSystemServer();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * {@link IpcDataCache} doesn't cache {@code null} results, so nullable package names are
+     * cached as an empty or singleton list instead.
+     */
+    @NonNull
+    private static List<String> toList(@Nullable String packageName) {
+        return packageName != null ? Collections.singletonList(packageName)
+                : Collections.emptyList();
+    }
+
+    @Nullable
+    private static String fromList(@NonNull List<String> packageNames) {
+        return !packageNames.isEmpty() ? packageNames.get(0) : null;
+    }
+
+    private interface RemoteQuery<R> {
+
+        R query(@NonNull Key key) throws RemoteException;
+    }
+
+    private static final class Key {
+
+        @NonNull
+        private final String mRoleName;
+
+        @Nullable
+        private final String mPackageName;
+
+        @UserIdInt
+        private final int mUserId;
+
+        Key(@NonNull String roleName, @Nullable String packageName, @UserIdInt int userId) {
+            mRoleName = roleName;
+            mPackageName = packageName;
+            mUserId = userId;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return mUserId == other.mUserId && mRoleName.equals(other.mRoleName)
+                    && Objects.equals(mPackageName, other.mPackageName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mRoleName, mPackageName, mUserId);
+        }
+    }
+}
@@ -42,7 +42,9 @@ import androidx.annotation.RequiresApi;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.util.Preconditions;
+import com.android.modules.utils.build.SdkLevel;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Executor;
@@ -242,6 +244,12 @@ public final class RoleManager {
     private RoleControllerManager mRoleControllerManager;
     private final Object mRoleControllerManagerLock = new Object();
 
+    @GuardedBy("sRoleCacheLock")
+    @Nullable
+    private static RoleCache sRoleCache;
+    @NonNull
+    private static final Object sRoleCacheLock = new Object();
+
     /**
      * Create a new instance of this class.
      *
@@ -302,6 +310,11 @@ public final class RoleManager {
      */
     public boolean isRoleHeld(@NonNull String roleName) {
         Preconditions.checkStringNotEmpty(roleName, "roleName cannot be null or empty");
+        RoleCache roleCache = getRoleCache();
+        if (roleCache != null) {
+            return roleCache.isRoleHeld(roleName, mContext.getPackageName(),
+                    Process.myUserHandle().getIdentifier());
+        }
         try {
             return mService.isRoleHeld(roleName, mContext.getPackageName());
         } catch (RemoteException e) {
@@ -354,6 +367,10 @@ public final class RoleManager {
     public List<String> getRoleHoldersAsUser(@NonNull String roleName, @NonNull UserHandle user) {
         Preconditions.checkStringNotEmpty(roleName, "roleName cannot be null or empty");
         Objects.requireNonNull(user, "user cannot be null");
+        RoleCache roleCache = getRoleCache();
+        if (roleCache != null) {
+            return new ArrayList<>(roleCache.getRoleHoldersAsUser(roleName, user.getIdentifier()));
+        }
         try {
             return mService.getRoleHoldersAsUser(roleName, user.getIdentifier());
         } catch (RemoteException e) {
@@ -495,6 +512,11 @@ public final class RoleManager {
     @SystemApi
     public String getDefaultApplication(@NonNull String roleName) {
         Preconditions.checkStringNotEmpty(roleName, "roleName cannot be null or empty");
+        RoleCache roleCache = getRoleCache();
+        if (roleCache != null) {
+            return roleCache.getDefaultApplicationAsUser(roleName,
+                    mContext.getUser().getIdentifier());
+        }
         try {
             return mService.getDefaultApplicationAsUser(
                     roleName, mContext.getUser().getIdentifier());
@@ -917,6 +939,33 @@ public final class RoleManager {
                 callback);
     }
 
+    /**
+     * Invalidate the cached role holders in all processes. This should be called by the role
+     * service whenever the holders of a role have changed.
+     *
+     * @hide
+     */
+    public static void invalidateRoleHoldersCache() {
+        if (SdkLevel.isAtLeastT()) {
+            RoleCache.invalidate();
+        }
+    }
+
+    @Nullable
+    private RoleCache getRoleCache() {
+        // The system server calls in on behalf of many different callers, whose permissions are
+        // checked by the service on each query, so it must not share cached results among them.
+        if (!SdkLevel.isAtLeastT() || Process.myUid() == Process.SYSTEM_UID) {
+            return null;
+        }
+        synchronized (sRoleCacheLock) {
+            if (sRoleCache == null) {
+                sRoleCache = new RoleCache(mService);
+            }
+            return sRoleCache;
+        }
+    }
+
     @NonNull
     private RoleControllerManager getRoleControllerManager() {
         synchronized (mRoleControllerManagerLock) {
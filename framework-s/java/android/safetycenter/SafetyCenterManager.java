@@ -37,6 +37,8 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.IpcDataCache;
+import android.os.Process;
 import android.os.RemoteException;
 import android.safetycenter.config.SafetyCenterConfig;
 import android.util.ArrayMap;
@@ -310,6 +312,16 @@ public final class SafetyCenterManager {
         default void onError(@NonNull SafetyCenterErrorDetails errorDetails) {}
     }
 
+    private static final String CONFIG_CACHE_API = "getSafetyCenterConfig";
+
+    private static final Integer CONFIG_CACHE_KEY = 0;
+
+    private static final Object sConfigCacheLock = new Object();
+
+    @GuardedBy("sConfigCacheLock")
+    @Nullable
+    private static IpcDataCache<Integer, SafetyCenterConfig> sConfigCache;
+
     private final Object mListenersLock = new Object();
 
     @GuardedBy("mListenersLock")
@@ -488,6 +500,10 @@ public final class SafetyCenterManager {
     @RequiresPermission(MANAGE_SAFETY_CENTER)
     @Nullable
     public SafetyCenterConfig getSafetyCenterConfig() {
+        IpcDataCache<Integer, SafetyCenterConfig> configCache = getConfigCache();
+        if (configCache != null) {
+            return configCache.query(CONFIG_CACHE_KEY);
+        }
         try {
             return mService.getSafetyCenterConfig();
         } catch (RemoteException e) {
@@ -657,6 +673,54 @@ public final class SafetyCenterManager {
         }
     }
 
+    /**
+     * Invalidates the {@link SafetyCenterConfig} cached in all processes. This must be called by
+     * the service whenever the config it returns may have changed.
+     *
+     * @hide
+     */
+    public static void invalidateSafetyCenterConfigCache() {
+        IpcDataCache.invalidateCache(IpcDataCache.MODULE_SYSTEM, CONFIG_CACHE_API);
+    }
+
+    /**
+     * Returns the cache for {@link #getSafetyCenterConfig()}, or {@code null} if it must not be
+     * used in this process.
+     *
+     * <p>The cache is only filled by calls that passed the {@code MANAGE_SAFETY_CENTER} check in
+     * the service, and all callers in an app process share the same UID. The system server queries
+     * on behalf of other callers, so it always goes to the service instead.
+     */
+    @Nullable
+    private IpcDataCache<Integer, SafetyCenterConfig> getConfigCache() {
+        if (Process.myUid() == Process.SYSTEM_UID) {
+            return null;
+        }
+        synchronized (sConfigCacheLock) {
+            if (sConfigCache == null) {
+                ISafetyCenterManager service = mService;
+                sConfigCache =
+                        new IpcDataCache<>(
+                                1,
+                                IpcDataCache.MODULE_SYSTEM,
+                                CONFIG_CACHE_API,
+                                CONFIG_CACHE_API,
+                                new IpcDataCache.QueryHandler<Integer, SafetyCenterConfig>() {
+                                    @Override
+                                    @Nullable
+                                    public SafetyCenterConfig apply(@NonNull Integer unused) {
+                                        try {
+                                            return service.getSafetyCenterConfig();
+                                        } catch (RemoteException e) {
+                                            throw e.rethrowFromSystemServer();
+                                        }
+                                    }
+                                });
+            }
+            return sConfigCache;
+        }
+    }
+
     private static final class ListenerDelegate extends IOnSafetyCenterDataChangedListener.Stub {
         @NonNull private final Executor mExecutor;
         @NonNull private final OnSafetyCenterDataChangedListener mOriginalListener;
@@ -29,6 +29,8 @@ import android.util.Xml;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.build.SdkLevel;
+import com.android.permission.latency.LatencyStats;
+import com.android.permission.latency.LatencyStats.HotPath;
 import com.android.server.security.FileIntegrity;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -96,6 +98,16 @@ public class RuntimePermissionsPersistenceImpl implements RuntimePermissionsPers
     @Nullable
     @Override
     public RuntimePermissionsState readForUser(@NonNull UserHandle user) {
+        long startNanos = LatencyStats.start();
+        try {
+            return readFromFile(user);
+        } finally {
+            LatencyStats.record(HotPath.RUNTIME_PERMISSIONS_READ, startNanos);
+        }
+    }
+
+    @Nullable
+    private RuntimePermissionsState readFromFile(@NonNull UserHandle user) {
         File file = getFile(user);
         try (FileInputStream inputStream = new AtomicFile(file).openRead()) {
             XmlPullParser parser = Xml.newPullParser();
@@ -214,6 +226,16 @@ public class RuntimePermissionsPersistenceImpl implements RuntimePermissionsPers
     @Override
     public void writeForUser(@NonNull RuntimePermissionsState runtimePermissions,
             @NonNull UserHandle user) {
+        long startNanos = LatencyStats.start();
+        try {
+            writeToFile(runtimePermissions, user);
+        } finally {
+            LatencyStats.record(HotPath.RUNTIME_PERMISSIONS_WRITE, startNanos);
+        }
+    }
+
+    private void writeToFile(@NonNull RuntimePermissionsState runtimePermissions,
+            @NonNull UserHandle user) {
         File reserveFile = getReserveCopyFile(user);
         reserveFile.delete();
 
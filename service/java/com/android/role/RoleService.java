@@ -56,6 +56,8 @@ import com.android.internal.infra.AndroidFuture;
 import com.android.internal.util.Preconditions;
 import com.android.internal.util.dump.DualDumpOutputStream;
 import com.android.permission.compat.UserHandleCompat;
+import com.android.permission.latency.LatencyStats;
+import com.android.permission.latency.LatencyStats.HotPath;
 import com.android.permission.util.ArrayUtils;
 import com.android.permission.util.CollectionUtils;
 import com.android.permission.util.ForegroundThread;
@@ -200,6 +202,9 @@ public class RoleService extends SystemService implements RoleUserState.Callback
                     // Package is being upgraded - we're about to get ACTION_PACKAGE_ADDED
                     return;
                 }
+                // Package visibility affects the result of getSmsRoleHolder(), so cached results
+                // need to be refreshed even if the role holders don't change.
+                RoleManager.invalidateRoleHoldersCache();
                 maybeGrantDefaultRolesAsync(userId);
             }
         }, intentFilter, null, null);
@@ -251,8 +256,10 @@ public class RoleService extends SystemService implements RoleUserState.Callback
         // Some package state has changed, so grant default roles again.
         Log.i(LOG_TAG, "Granting default roles...");
         AndroidFuture<Void> future = new AndroidFuture<>();
+        long startNanos = LatencyStats.start();
         getOrCreateController(userId).grantDefaultRoles(ForegroundThread.getExecutor(),
                 successful -> {
+                    LatencyStats.record(HotPath.ROLE_GRANT_DEFAULT_ROLES, startNanos);
                     if (successful) {
                         userState.setPackagesHash(newPackagesHash);
                         future.complete(null);
@@ -799,6 +806,11 @@ public class RoleService extends SystemService implements RoleUserState.Callback
             }
 
             dumpOutputStream.flush();
+
+            if (!dumpAsProto) {
+                fout.println();
+                LatencyStats.dump(fout, LatencyStats.Dump.ROLE);
+            }
         }
 
         private boolean checkDumpPermission(@NonNull String serviceName,
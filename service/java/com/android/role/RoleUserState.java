@@ -21,6 +21,7 @@ import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.annotation.UserIdInt;
 import android.annotation.WorkerThread;
+import android.app.role.RoleManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.UserHandle;
@@ -274,6 +275,7 @@ class RoleUserState {
 
             if (changed) {
                 scheduleWriteFileLocked();
+                RoleManager.invalidateRoleHoldersCache();
             }
         }
     }
@@ -300,6 +302,7 @@ class RoleUserState {
             changed = roleHolders.add(packageName);
             if (changed) {
                 scheduleWriteFileLocked();
+                RoleManager.invalidateRoleHoldersCache();
             }
         }
 
@@ -332,6 +335,7 @@ class RoleUserState {
             changed = roleHolders.remove(packageName);
             if (changed) {
                 scheduleWriteFileLocked();
+                RoleManager.invalidateRoleHoldersCache();
             }
         }
 
@@ -410,6 +414,7 @@ class RoleUserState {
                 ArraySet<String> roleHolders = new ArraySet<>(entry.getValue());
                 mRoles.put(roleName, roleHolders);
             }
+            RoleManager.invalidateRoleHoldersCache();
 
             if (roleState == null) {
                 scheduleWriteFileLocked();
@@ -497,6 +502,7 @@ class RoleUserState {
             mWriteHandler.removeCallbacksAndMessages(null);
             mPersistence.deleteForUser(UserHandle.of(mUserId));
             mDestroyed = true;
+            RoleManager.invalidateRoleHoldersCache();
         }
     }
 
@@ -31,6 +31,7 @@ import static android.safetycenter.SafetyCenterManager.REFRESH_REASON_PAGE_OPEN;
 import static android.safetycenter.SafetyCenterManager.REFRESH_REASON_SAFETY_CENTER_ENABLED;
 
 import static java.util.Collections.unmodifiableList;
+import static java.util.Objects.requireNonNull;
 
 import android.annotation.Nullable;
 import android.annotation.SuppressLint;
@@ -54,10 +55,12 @@ import com.android.permission.util.PackageUtils;
 import com.android.safetycenter.SafetyCenterConfigReader.Broadcast;
 import com.android.safetycenter.data.SafetyCenterDataManager;
 
+import java.io.PrintWriter;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -76,22 +79,44 @@ final class SafetyCenterBroadcastDispatcher {
     private final SafetyCenterConfigReader mSafetyCenterConfigReader;
     private final SafetyCenterRefreshTracker mSafetyCenterRefreshTracker;
     private final SafetyCenterDataManager mSafetyCenterDataManager;
+    private final UserProfileGroupCache mUserProfileGroupCache;
+
+    /**
+     * The package names, actions and user ids that a broadcast was found to resolve for. Entries
+     * are dropped when the package or the users change.
+     *
+     * <p>Only broadcasts that resolve are cached, so that a receiver that becomes available is
+     * picked up by the next broadcast even if the package change wasn't dispatched yet.
+     */
+    private final ArraySet<ReceiverKey> mResolvedReceivers = new ArraySet<>();
+
+    private long mReceiverResolutionHitCount = 0;
+    private long mReceiverResolutionMissCount = 0;
 
     SafetyCenterBroadcastDispatcher(
             Context context,
             SafetyCenterConfigReader safetyCenterConfigReader,
             SafetyCenterRefreshTracker safetyCenterRefreshTracker,
-            SafetyCenterDataManager safetyCenterDataManager) {
+            SafetyCenterDataManager safetyCenterDataManager,
+            UserProfileGroupCache userProfileGroupCache) {
         mContext = context;
         mSafetyCenterConfigReader = safetyCenterConfigReader;
         mSafetyCenterRefreshTracker = safetyCenterRefreshTracker;
         mSafetyCenterDataManager = safetyCenterDataManager;
+        mUserProfileGroupCache = userProfileGroupCache;
     }
 
     /**
      * Triggers a refresh of safety sources by sending them broadcasts with action {@link
      * SafetyCenterManager#ACTION_REFRESH_SAFETY_SOURCES}, and returns the associated broadcast id.
      *
+     * <p>Broadcasts are built, filtered and sent for all the users of the given {@link
+     * UserProfileGroup} in a single pass.
+     *
+     * <p>If the request can be merged into the refresh in progress for the given {@link
+     * UserProfileGroup}, broadcasts are only sent to the sources that this refresh hasn't sent a
+     * broadcast to already, using its broadcast id.
+     *
      * <p>Returns {@code null} if no broadcast was sent.
      *
      * @param safetySourceIds list of IDs to specify the safety sources to be refreshed or a {@code
@@ -103,77 +128,106 @@ final class SafetyCenterBroadcastDispatcher {
             UserProfileGroup userProfileGroup,
             @Nullable List<String> safetySourceIds) {
         List<Broadcast> broadcasts = mSafetyCenterConfigReader.getBroadcasts();
-        BroadcastOptions broadcastOptions = createBroadcastOptions();
-
-        String broadcastId =
-                mSafetyCenterRefreshTracker.reportRefreshInProgress(
-                        refreshReason, userProfileGroup);
-        boolean hasSentAtLeastOneBroadcast = false;
+        Set<String> deniedSourceIds = getRefreshDeniedSourceIds(refreshReason);
+        Set<String> requiredSourceIds =
+                safetySourceIds == null ? null : new ArraySet<>(safetySourceIds);
+        Set<String> pageOpenOverrideSourceIds = getPageOpenOverrideSourceIds(refreshReason);
+        int requestType = RefreshReasons.toRefreshRequestType(refreshReason);
+        String mergeableBroadcastId =
+                mSafetyCenterRefreshTracker.getMergeableRefreshId(refreshReason, userProfileGroup);
+        int savedBroadcastCount = 0;
+        int savedSourceRefreshCount = 0;
+        String broadcastId = null;
+        BroadcastOptions broadcastOptions = null;
 
         for (int i = 0; i < broadcasts.size(); i++) {
             Broadcast broadcast = broadcasts.get(i);
+            String packageName = broadcast.getPackageName();
+            SparseArray<List<String>> userIdsToSourceIds =
+                    getUserIdsToSourceIds(
+                            broadcast, userProfileGroup, refreshReason, pageOpenOverrideSourceIds);
 
-            hasSentAtLeastOneBroadcast |=
-                    sendRefreshSafetySourcesBroadcast(
-                            broadcast,
-                            broadcastOptions,
-                            refreshReason,
-                            userProfileGroup,
-                            broadcastId,
-                            safetySourceIds);
+            for (int j = 0; j < userIdsToSourceIds.size(); j++) {
+                int userId = userIdsToSourceIds.keyAt(j);
+                List<String> sourceIds =
+                        filterSourceIds(
+                                userIdsToSourceIds.valueAt(j), deniedSourceIds, requiredSourceIds);
+
+                if (sourceIds.isEmpty()) {
+                    continue;
+                }
+
+                if (mergeableBroadcastId != null) {
+                    List<String> remainingSourceIds =
+                            removeRequestedSourceIds(sourceIds, mergeableBroadcastId, userId);
+                    savedSourceRefreshCount += sourceIds.size() - remainingSourceIds.size();
+                    if (remainingSourceIds.isEmpty()) {
+                        savedBroadcastCount++;
+                        continue;
+                    }
+                    sourceIds = remainingSourceIds;
+                }
+
+                Intent intent = createRefreshIntent(requestType, packageName, sourceIds);
+                UserHandle userHandle = UserHandle.of(userId);
+                if (!doesBroadcastResolveOrLog(intent, userHandle)) {
+                    continue;
+                }
+
+                if (broadcastId == null) {
+                    broadcastId =
+                            startOrMergeRefresh(
+                                    refreshReason, userProfileGroup, mergeableBroadcastId);
+                    broadcastOptions = createBroadcastOptions();
+                }
+                intent.putExtra(EXTRA_REFRESH_SAFETY_SOURCES_BROADCAST_ID, broadcastId);
+                sendBroadcast(intent, userHandle, SEND_SAFETY_CENTER_UPDATE, broadcastOptions);
+                mSafetyCenterRefreshTracker.reportSourceRefreshesInFlight(
+                        broadcastId, sourceIds, userId);
+            }
         }
 
-        if (!hasSentAtLeastOneBroadcast) {
-            mSafetyCenterRefreshTracker.clearRefresh(broadcastId);
-            return null;
+        if (mergeableBroadcastId != null) {
+            mSafetyCenterRefreshTracker.reportRefreshesSaved(
+                    savedBroadcastCount, savedSourceRefreshCount);
         }
-
         return broadcastId;
     }
 
-    private boolean sendRefreshSafetySourcesBroadcast(
-            Broadcast broadcast,
-            BroadcastOptions broadcastOptions,
+    /**
+     * Merges the refresh request into the refresh with the given {@code mergeableBroadcastId} if
+     * not {@code null}, or starts a new refresh otherwise, and returns the broadcast id to use.
+     */
+    private String startOrMergeRefresh(
             @RefreshReason int refreshReason,
             UserProfileGroup userProfileGroup,
-            String broadcastId,
-            @Nullable List<String> requiredSourceIds) {
-        boolean hasSentAtLeastOneBroadcast = false;
-        int requestType = RefreshReasons.toRefreshRequestType(refreshReason);
-        String packageName = broadcast.getPackageName();
-        Set<String> deniedSourceIds = getRefreshDeniedSourceIds(refreshReason);
-        SparseArray<List<String>> userIdsToSourceIds =
-                getUserIdsToSourceIds(broadcast, userProfileGroup, refreshReason);
-
-        for (int i = 0; i < userIdsToSourceIds.size(); i++) {
-            int userId = userIdsToSourceIds.keyAt(i);
-            List<String> sourceIds = userIdsToSourceIds.valueAt(i);
-
-            if (!deniedSourceIds.isEmpty()) {
-                sourceIds = new ArrayList<>(sourceIds);
-                sourceIds.removeAll(deniedSourceIds);
-            }
-
-            if (requiredSourceIds != null) {
-                sourceIds = new ArrayList<>(sourceIds);
-                sourceIds.retainAll(requiredSourceIds);
-            }
-
-            if (sourceIds.isEmpty()) {
-                continue;
-            }
+            @Nullable String mergeableBroadcastId) {
+        if (mergeableBroadcastId == null) {
+            return mSafetyCenterRefreshTracker.reportRefreshInProgress(
+                    refreshReason, userProfileGroup);
+        }
+        mSafetyCenterRefreshTracker.mergeIntoRefreshInProgress(
+                mergeableBroadcastId, refreshReason);
+        return mergeableBroadcastId;
+    }
 
-            Intent intent = createRefreshIntent(requestType, packageName, sourceIds, broadcastId);
-            boolean broadcastWasSent =
-                    sendBroadcastIfResolves(intent, UserHandle.of(userId), broadcastOptions);
-            if (broadcastWasSent) {
-                mSafetyCenterRefreshTracker.reportSourceRefreshesInFlight(
-                        broadcastId, sourceIds, userId);
+    /**
+     * Returns the given {@code sourceIds} for the given {@code userId} without the ones that the
+     * refresh with the given {@code broadcastId} already sent a broadcast to.
+     *
+     * <p>The given list is returned as is if there is nothing to remove.
+     */
+    private List<String> removeRequestedSourceIds(
+            List<String> sourceIds, String broadcastId, @UserIdInt int userId) {
+        List<String> remainingSourceIds = new ArrayList<>(sourceIds.size());
+        for (int i = 0; i < sourceIds.size(); i++) {
+            String sourceId = sourceIds.get(i);
+            if (!mSafetyCenterRefreshTracker.isSourceRefreshRequested(
+                    broadcastId, SafetySourceKey.of(sourceId, userId))) {
+                remainingSourceIds.add(sourceId);
             }
-            hasSentAtLeastOneBroadcast |= broadcastWasSent;
         }
-
-        return hasSentAtLeastOneBroadcast;
+        return remainingSourceIds.size() == sourceIds.size() ? sourceIds : remainingSourceIds;
     }
 
     /**
@@ -188,8 +242,7 @@ final class SafetyCenterBroadcastDispatcher {
     void sendEnabledChanged() {
         List<Broadcast> broadcasts = mSafetyCenterConfigReader.getBroadcasts();
         BroadcastOptions broadcastOptions = createBroadcastOptions();
-        List<UserProfileGroup> userProfileGroups =
-                UserProfileGroup.getAllUserProfileGroups(mContext);
+        List<UserProfileGroup> userProfileGroups = mUserProfileGroupCache.getAllUserProfileGroups();
 
         for (int i = 0; i < broadcasts.size(); i++) {
             Broadcast broadcast = broadcasts.get(i);
@@ -214,7 +267,8 @@ final class SafetyCenterBroadcastDispatcher {
         for (int i = 0; i < userProfileGroups.size(); i++) {
             UserProfileGroup userProfileGroup = userProfileGroups.get(i);
             SparseArray<List<String>> userIdsToSourceIds =
-                    getUserIdsToSourceIds(broadcast, userProfileGroup, refreshReason);
+                    getUserIdsToSourceIds(
+                            broadcast, userProfileGroup, refreshReason, Collections.emptySet());
 
             for (int j = 0; j < userIdsToSourceIds.size(); j++) {
                 int userId = userIdsToSourceIds.keyAt(j);
@@ -224,8 +278,14 @@ final class SafetyCenterBroadcastDispatcher {
         }
     }
 
-    private boolean sendBroadcastIfResolves(
+    private void sendBroadcastIfResolves(
             Intent intent, UserHandle userHandle, @Nullable BroadcastOptions broadcastOptions) {
+        if (doesBroadcastResolveOrLog(intent, userHandle)) {
+            sendBroadcast(intent, userHandle, SEND_SAFETY_CENTER_UPDATE, broadcastOptions);
+        }
+    }
+
+    private boolean doesBroadcastResolveOrLog(Intent intent, UserHandle userHandle) {
         if (!doesBroadcastResolve(intent, userHandle)) {
             Log.w(
                     TAG,
@@ -241,7 +301,6 @@ final class SafetyCenterBroadcastDispatcher {
                         + intent.getPackage()
                         + " and user "
                         + userHandle);
-        sendBroadcast(intent, userHandle, SEND_SAFETY_CENTER_UPDATE, broadcastOptions);
         return true;
     }
 
@@ -266,9 +325,62 @@ final class SafetyCenterBroadcastDispatcher {
     }
 
     private boolean doesBroadcastResolve(Intent broadcastIntent, UserHandle userHandle) {
-        return !PackageUtils.queryUnfilteredBroadcastReceiversAsUser(
-                        broadcastIntent, 0, userHandle.getIdentifier(), mContext)
-                .isEmpty();
+        ReceiverKey receiverKey =
+                new ReceiverKey(
+                        requireNonNull(broadcastIntent.getPackage()),
+                        requireNonNull(broadcastIntent.getAction()),
+                        userHandle.getIdentifier());
+        if (mResolvedReceivers.contains(receiverKey)) {
+            mReceiverResolutionHitCount++;
+            return true;
+        }
+        mReceiverResolutionMissCount++;
+        boolean resolves =
+                !PackageUtils.queryUnfilteredBroadcastReceiversAsUser(
+                                broadcastIntent, 0, userHandle.getIdentifier(), mContext)
+                        .isEmpty();
+        if (resolves) {
+            mResolvedReceivers.add(receiverKey);
+        }
+        return resolves;
+    }
+
+    /**
+     * Drops the resolved receivers of the given {@code packageName}, as they may have been added,
+     * removed, enabled or disabled.
+     */
+    void onPackageChanged(String packageName) {
+        // Loop in reverse index order to be able to remove entries while iterating.
+        for (int i = mResolvedReceivers.size() - 1; i >= 0; i--) {
+            if (mResolvedReceivers.valueAt(i).mPackageName.equals(packageName)) {
+                mResolvedReceivers.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Drops all resolved receivers, as users changed or got unlocked, which changes the receivers
+     * that can be resolved.
+     */
+    void clearReceiverResolutions() {
+        mResolvedReceivers.clear();
+    }
+
+    /** Dumps state for debugging purposes. */
+    void dump(PrintWriter fout) {
+        int count = mResolvedReceivers.size();
+        fout.println(
+                "RESOLVED RECEIVERS ("
+                        + count
+                        + ", hits="
+                        + mReceiverResolutionHitCount
+                        + ", misses="
+                        + mReceiverResolutionMissCount
+                        + ")");
+        for (int i = 0; i < count; i++) {
+            fout.println("\t[" + i + "] " + mResolvedReceivers.valueAt(i));
+        }
+        fout.println();
     }
 
     private static Intent createExplicitEnabledChangedIntent(String packageName) {
@@ -279,16 +391,19 @@ final class SafetyCenterBroadcastDispatcher {
         return createBroadcastIntent(ACTION_SAFETY_CENTER_ENABLED_CHANGED);
     }
 
+    /**
+     * Returns a refresh {@link Intent} without the {@link
+     * SafetyCenterManager#EXTRA_REFRESH_SAFETY_SOURCES_BROADCAST_ID}, which must be added before
+     * it is sent.
+     */
     private static Intent createRefreshIntent(
             @RefreshRequestType int requestType,
             String packageName,
-            List<String> sourceIdsToRefresh,
-            String broadcastId) {
+            List<String> sourceIdsToRefresh) {
         String[] sourceIdsArray = sourceIdsToRefresh.toArray(new String[0]);
         return createBroadcastIntent(ACTION_REFRESH_SAFETY_SOURCES)
                 .putExtra(EXTRA_REFRESH_SAFETY_SOURCES_REQUEST_TYPE, requestType)
                 .putExtra(EXTRA_REFRESH_SAFETY_SOURCE_IDS, sourceIdsArray)
-                .putExtra(EXTRA_REFRESH_SAFETY_SOURCES_BROADCAST_ID, broadcastId)
                 .setPackage(packageName);
     }
 
@@ -324,6 +439,43 @@ final class SafetyCenterBroadcastDispatcher {
         }
     }
 
+    /**
+     * Returns the source IDs for which refreshing on page open is allowed by the
+     * safety_center_override_refresh_on_page_open_sources flag, if the given reason is {@link
+     * SafetyCenterManager#REFRESH_REASON_PAGE_OPEN}.
+     */
+    private static Set<String> getPageOpenOverrideSourceIds(@RefreshReason int refreshReason) {
+        if (refreshReason == REFRESH_REASON_PAGE_OPEN) {
+            return SafetyCenterFlags.getOverrideRefreshOnPageOpenSourceIds();
+        } else {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Returns the given {@code sourceIds} without the denied ones, and only with the required ones
+     * if any are specified.
+     *
+     * <p>The given list is returned as is if there is nothing to filter.
+     */
+    private static List<String> filterSourceIds(
+            List<String> sourceIds,
+            Set<String> deniedSourceIds,
+            @Nullable Set<String> requiredSourceIds) {
+        if (deniedSourceIds.isEmpty() && requiredSourceIds == null) {
+            return sourceIds;
+        }
+        List<String> filteredSourceIds = new ArrayList<>(sourceIds.size());
+        for (int i = 0; i < sourceIds.size(); i++) {
+            String sourceId = sourceIds.get(i);
+            if (!deniedSourceIds.contains(sourceId)
+                    && (requiredSourceIds == null || requiredSourceIds.contains(sourceId))) {
+                filteredSourceIds.add(sourceId);
+            }
+        }
+        return filteredSourceIds;
+    }
+
     /**
      * Returns a flattened mapping from user IDs to lists of source IDs for those users. The map is
      * in the form of a {@link SparseArray} where the int keys are user IDs and the values are the
@@ -337,7 +489,8 @@ final class SafetyCenterBroadcastDispatcher {
     private SparseArray<List<String>> getUserIdsToSourceIds(
             Broadcast broadcast,
             UserProfileGroup userProfileGroup,
-            @RefreshReason int refreshReason) {
+            @RefreshReason int refreshReason,
+            Set<String> pageOpenOverrideSourceIds) {
         int[] managedProfileIds = userProfileGroup.getManagedRunningProfilesUserIds();
         SparseArray<List<String>> result = new SparseArray<>(managedProfileIds.length + 1);
         List<String> profileParentSources =
@@ -345,6 +498,7 @@ final class SafetyCenterBroadcastDispatcher {
                         refreshReason,
                         broadcast.getSourceIdsForProfileParent(),
                         broadcast.getSourceIdsForProfileParentOnPageOpen(),
+                        pageOpenOverrideSourceIds,
                         userProfileGroup.getProfileParentUserId());
 
         if (!profileParentSources.isEmpty()) {
@@ -357,6 +511,7 @@ final class SafetyCenterBroadcastDispatcher {
                             refreshReason,
                             broadcast.getSourceIdsForManagedProfiles(),
                             broadcast.getSourceIdsForManagedProfilesOnPageOpen(),
+                            pageOpenOverrideSourceIds,
                             managedProfileIds[i]);
 
             if (!managedProfileSources.isEmpty()) {
@@ -372,13 +527,14 @@ final class SafetyCenterBroadcastDispatcher {
      *
      * <p>For {@link SafetyCenterManager#REFRESH_REASON_PAGE_OPEN}, returns a copy of {@code
      * allSourceIds} filtered to contain only sources that have refreshOnPageOpenAllowed in the XML
-     * config, or are in the safety_center_override_refresh_on_page_open_sources flag, or don't have
-     * any {@link SafetySourceData} provided.
+     * config, or are in the given {@code flagAllowListedSourceIds}, or don't have any {@link
+     * SafetySourceData} provided.
      */
     private List<String> getSourceIdsForRefreshReason(
             @RefreshReason int refreshReason,
             List<String> allSourceIds,
             List<String> pageOpenSourceIds,
+            Set<String> flagAllowListedSourceIds,
             @UserIdInt int userId) {
         if (refreshReason != REFRESH_REASON_PAGE_OPEN) {
             return allSourceIds;
@@ -386,9 +542,6 @@ final class SafetyCenterBroadcastDispatcher {
 
         List<String> sourceIds = new ArrayList<>();
 
-        ArraySet<String> flagAllowListedSourceIds =
-                SafetyCenterFlags.getOverrideRefreshOnPageOpenSourceIds();
-
         for (int i = 0; i < allSourceIds.size(); i++) {
             String sourceId = allSourceIds.get(i);
             if (pageOpenSourceIds.contains(sourceId)
@@ -402,4 +555,45 @@ final class SafetyCenterBroadcastDispatcher {
 
         return unmodifiableList(sourceIds);
     }
+
+    /** The package name, action and user id that a broadcast is resolved for. */
+    private static final class ReceiverKey {
+
+        private final String mPackageName;
+        private final String mAction;
+        @UserIdInt private final int mUserId;
+
+        private ReceiverKey(String packageName, String action, @UserIdInt int userId) {
+            mPackageName = packageName;
+            mAction = action;
+            mUserId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ReceiverKey)) return false;
+            ReceiverKey that = (ReceiverKey) o;
+            return mUserId == that.mUserId
+                    && mPackageName.equals(that.mPackageName)
+                    && mAction.equals(that.mAction);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mPackageName, mAction, mUserId);
+        }
+
+        @Override
+        public String toString() {
+            return "ReceiverKey{"
+                    + "mPackageName='"
+                    + mPackageName
+                    + "', mAction='"
+                    + mAction
+                    + "', mUserId="
+                    + mUserId
+                    + '}';
+        }
+    }
 }
@@ -22,19 +22,32 @@ import static java.util.Collections.unmodifiableList;
 import static java.util.Objects.requireNonNull;
 
 import android.annotation.Nullable;
+import android.content.ApexEnvironment;
+import android.content.pm.PackageManager;
 import android.content.res.Resources;
+import android.os.Build;
+import android.os.SystemClock;
 import android.safetycenter.config.SafetyCenterConfig;
 import android.safetycenter.config.SafetySource;
 import android.safetycenter.config.SafetySourcesGroup;
 import android.util.ArrayMap;
+import android.util.AtomicFile;
 import android.util.Log;
 
 import androidx.annotation.RequiresApi;
 
+import com.android.modules.utils.BackgroundThread;
 import com.android.safetycenter.config.ParseException;
 import com.android.safetycenter.config.SafetyCenterConfigParser;
+import com.android.safetycenter.config.SafetyCenterConfigSnapshot;
 import com.android.safetycenter.resources.SafetyCenterResourcesContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -46,6 +59,11 @@ import javax.annotation.concurrent.NotThreadSafe;
 /**
  * A class that reads the {@link SafetyCenterConfig} and allows overriding it for tests.
  *
+ * <p>Once parsed and validated, the {@link SafetyCenterConfig} is written to a {@link
+ * SafetyCenterConfigSnapshot} in the data directory of the module. Subsequent loads read it back
+ * instead of parsing the XML file, as long as the XML file, the version of the module and the build
+ * fingerprint (which covers static overlays of the XML file) are the same.
+ *
  * <p>This class isn't thread safe. Thread safety must be handled by the caller.
  *
  * @hide
@@ -56,12 +74,20 @@ public final class SafetyCenterConfigReader {
 
     private static final String TAG = "SafetyCenterConfigReade";
 
+    private static final String APEX_MODULE_NAME = "com.android.permission";
+
+    private static final String CONFIG_SNAPSHOT_FILE_NAME = "safety_center_config_snapshot";
+
     private final SafetyCenterResourcesContext mSafetyCenterResourcesContext;
 
     @Nullable private SafetyCenterConfigInternal mConfigInternalFromXml;
 
     @Nullable private SafetyCenterConfigInternal mConfigInternalOverrideForTests;
 
+    private boolean mConfigLoadedFromSnapshot = false;
+
+    private long mConfigLoadDurationMillis = 0;
+
     /** Creates a {@link SafetyCenterConfigReader} from a {@link SafetyCenterResourcesContext}. */
     SafetyCenterConfigReader(SafetyCenterResourcesContext safetyCenterResourcesContext) {
         mSafetyCenterResourcesContext = safetyCenterResourcesContext;
@@ -238,10 +264,43 @@ public final class SafetyCenterConfigReader {
             return null;
         }
 
+        long startMillis = SystemClock.elapsedRealtime();
+        byte[] xmlResource;
+        try (InputStream xmlIn = in) {
+            xmlResource = readFully(xmlIn);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read safety center config file, safety center will be disabled.", e);
+            return null;
+        }
+        long checksum = SafetyCenterConfigSnapshot.checksum(xmlResource);
+        String snapshotVersionKey = getSnapshotVersionKey();
+
+        if (snapshotVersionKey != null) {
+            SafetyCenterConfig safetyCenterConfig = readSnapshot(checksum, snapshotVersionKey);
+            if (safetyCenterConfig != null) {
+                mConfigLoadedFromSnapshot = true;
+                mConfigLoadDurationMillis = SystemClock.elapsedRealtime() - startMillis;
+                Log.i(
+                        TAG,
+                        "SafetyCenterConfig read successfully from snapshot in "
+                                + mConfigLoadDurationMillis
+                                + "ms");
+                return safetyCenterConfig;
+            }
+        }
+
         try {
             SafetyCenterConfig safetyCenterConfig =
-                    SafetyCenterConfigParser.parseXmlResource(in, resources);
-            Log.i(TAG, "SafetyCenterConfig read successfully");
+                    SafetyCenterConfigParser.parseXmlResource(
+                            new ByteArrayInputStream(xmlResource), resources);
+            mConfigLoadedFromSnapshot = false;
+            mConfigLoadDurationMillis = SystemClock.elapsedRealtime() - startMillis;
+            Log.i(
+                    TAG,
+                    "SafetyCenterConfig read successfully in " + mConfigLoadDurationMillis + "ms");
+            if (snapshotVersionKey != null) {
+                writeSnapshot(safetyCenterConfig, checksum, snapshotVersionKey);
+            }
             return safetyCenterConfig;
         } catch (ParseException e) {
             Log.e(TAG, "Cannot read SafetyCenterConfig, safety center will be disabled.", e);
@@ -249,9 +308,92 @@ public final class SafetyCenterConfigReader {
         }
     }
 
+    /**
+     * Returns the version key of the {@link SafetyCenterConfigSnapshot}, or {@code null} if it
+     * can't be determined in which case snapshots aren't used.
+     */
+    @Nullable
+    private String getSnapshotVersionKey() {
+        try {
+            long moduleVersion =
+                    mSafetyCenterResourcesContext
+                            .getPackageManager()
+                            .getPackageInfo(APEX_MODULE_NAME, PackageManager.MATCH_APEX)
+                            .getLongVersionCode();
+            return moduleVersion + "/" + Build.FINGERPRINT;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Cannot get version of " + APEX_MODULE_NAME + ", not using snapshots", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static SafetyCenterConfig readSnapshot(long checksum, String snapshotVersionKey) {
+        byte[] snapshot;
+        try {
+            snapshot = new AtomicFile(getSnapshotFile()).readFully();
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No SafetyCenterConfig snapshot");
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read SafetyCenterConfig snapshot", e);
+            return null;
+        }
+
+        SafetyCenterConfig safetyCenterConfig =
+                SafetyCenterConfigSnapshot.read(snapshot, checksum, snapshotVersionKey);
+        if (safetyCenterConfig == null) {
+            Log.i(TAG, "SafetyCenterConfig snapshot is stale or corrupted");
+        }
+        return safetyCenterConfig;
+    }
+
+    private static void writeSnapshot(
+            SafetyCenterConfig safetyCenterConfig, long checksum, String snapshotVersionKey) {
+        byte[] snapshot =
+                SafetyCenterConfigSnapshot.write(safetyCenterConfig, checksum, snapshotVersionKey);
+        BackgroundThread.getExecutor().execute(() -> writeSnapshotFile(snapshot));
+    }
+
+    private static void writeSnapshotFile(byte[] snapshot) {
+        AtomicFile atomicFile = new AtomicFile(getSnapshotFile());
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            out.write(snapshot);
+            atomicFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write SafetyCenterConfig snapshot", e);
+            atomicFile.failWrite(out);
+        }
+    }
+
+    private static File getSnapshotFile() {
+        ApexEnvironment apexEnvironment = ApexEnvironment.getApexEnvironment(APEX_MODULE_NAME);
+        File dataDirectory = apexEnvironment.getDeviceProtectedDataDir();
+        // It should resolve to
+        // /data/misc/apexdata/com.android.permission/safety_center_config_snapshot
+        return new File(dataDirectory, CONFIG_SNAPSHOT_FILE_NAME);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
     /** Dumps state for debugging purposes. */
     void dump(PrintWriter fout) {
-        fout.println("XML CONFIG");
+        fout.println(
+                "XML CONFIG (loadedFromSnapshot="
+                        + mConfigLoadedFromSnapshot
+                        + ", loadDurationMillis="
+                        + mConfigLoadDurationMillis
+                        + ")");
         fout.println("\t" + mConfigInternalFromXml);
         fout.println();
         fout.println("OVERRIDE CONFIG");
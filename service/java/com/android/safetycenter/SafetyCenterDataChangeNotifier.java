@@ -22,6 +22,7 @@ import android.annotation.UserIdInt;
 
 import androidx.annotation.RequiresApi;
 
+import com.android.safetycenter.logging.SafetyCenterPullAtomCallback;
 import com.android.safetycenter.notifications.SafetyCenterNotificationSender;
 
 import java.util.List;
@@ -40,25 +41,30 @@ public final class SafetyCenterDataChangeNotifier {
 
     private final SafetyCenterNotificationSender mSafetyCenterNotificationSender;
     private final SafetyCenterListeners mSafetyCenterListeners;
+    private final SafetyCenterPullAtomCallback mSafetyCenterPullAtomCallback;
 
     /** Initializes a new instance of {@link SafetyCenterDataChangeNotifier}. */
     SafetyCenterDataChangeNotifier(
             SafetyCenterNotificationSender safetyCenterNotificationSender,
-            SafetyCenterListeners safetyCenterListeners) {
+            SafetyCenterListeners safetyCenterListeners,
+            SafetyCenterPullAtomCallback safetyCenterPullAtomCallback) {
         mSafetyCenterNotificationSender = safetyCenterNotificationSender;
         mSafetyCenterListeners = safetyCenterListeners;
+        mSafetyCenterPullAtomCallback = safetyCenterPullAtomCallback;
     }
 
     /** Updates classes that depend on data changes (changes of state in the data subpackage). */
     public void updateDataConsumers(UserProfileGroup userProfileGroup, @UserIdInt int userId) {
         mSafetyCenterNotificationSender.updateNotifications(userId);
         mSafetyCenterListeners.deliverDataForUserProfileGroup(userProfileGroup);
+        mSafetyCenterPullAtomCallback.onDataChanged(userProfileGroup);
     }
 
     /** Updates classes that depend on data changes (changes of state in the data subpackage). */
     void updateDataConsumers(UserProfileGroup userProfileGroup) {
         mSafetyCenterNotificationSender.updateNotifications(userProfileGroup);
         mSafetyCenterListeners.deliverDataForUserProfileGroup(userProfileGroup);
+        mSafetyCenterPullAtomCallback.onDataChanged(userProfileGroup);
     }
 
     /** Updates classes that depend on data changes (changes of state in the data subpackage). */
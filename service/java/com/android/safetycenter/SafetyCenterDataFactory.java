@@ -53,6 +53,8 @@ import android.util.Log;
 import androidx.annotation.RequiresApi;
 
 import com.android.modules.utils.build.SdkLevel;
+import com.android.permission.latency.LatencyStats;
+import com.android.permission.latency.LatencyStats.HotPath;
 import com.android.permission.util.UserUtils;
 import com.android.safetycenter.data.SafetyCenterDataManager;
 import com.android.safetycenter.internaldata.SafetyCenterBundles;
@@ -149,6 +151,18 @@ public final class SafetyCenterDataFactory {
             String packageName,
             UserProfileGroup userProfileGroup,
             List<SafetySourcesGroup> safetySourcesGroups) {
+        long startNanos = LatencyStats.start();
+        try {
+            return buildSafetyCenterData(packageName, userProfileGroup, safetySourcesGroups);
+        } finally {
+            LatencyStats.record(HotPath.SAFETY_CENTER_ASSEMBLE_DATA, startNanos);
+        }
+    }
+
+    private SafetyCenterData buildSafetyCenterData(
+            String packageName,
+            UserProfileGroup userProfileGroup,
+            List<SafetySourcesGroup> safetySourcesGroups) {
         List<SafetyCenterEntryOrGroup> safetyCenterEntryOrGroups = new ArrayList<>();
         List<SafetyCenterStaticEntryGroup> safetyCenterStaticEntryGroups = new ArrayList<>();
         SafetyCenterOverallState safetyCenterOverallState = new SafetyCenterOverallState();
@@ -229,7 +243,7 @@ public final class SafetyCenterDataFactory {
             }
         }
 
-        int refreshStatus = mSafetyCenterRefreshTracker.getRefreshStatus();
+        int refreshStatus = mSafetyCenterRefreshTracker.getRefreshStatus(userProfileGroup);
         SafetyCenterStatus safetyCenterStatus =
                 new SafetyCenterStatus.Builder(
                                 getSafetyCenterStatusTitle(
@@ -34,6 +34,7 @@ import com.android.safetycenter.resources.SafetyCenterResourcesContext;
 
 import java.io.PrintWriter;
 import java.time.Duration;
+import java.util.Set;
 
 /**
  * A class to access the Safety Center {@link DeviceConfig} flags.
@@ -89,6 +90,9 @@ public final class SafetyCenterFlags {
     private static final String PROPERTY_REFRESH_SOURCES_TIMEOUTS_MILLIS =
             "safety_center_refresh_sources_timeouts_millis";
 
+    private static final String PROPERTY_REFRESH_COALESCING_WINDOW_MILLIS =
+            "safety_center_refresh_coalescing_window_millis";
+
     private static final String PROPERTY_ISSUE_CATEGORY_ALLOWLISTS =
             "safety_center_issue_category_allowlists";
 
@@ -103,6 +107,11 @@ public final class SafetyCenterFlags {
     private static final String PROPERTY_ADDITIONAL_ALLOW_PACKAGE_CERTS =
             "safety_center_additional_allow_package_certs";
 
+    private static final String PROPERTY_SAFETY_SOURCE_DATA_MAX_BYTES =
+            "safety_center_safety_source_data_max_bytes";
+
+    private static final long SAFETY_SOURCE_DATA_MAX_BYTES_DEFAULT = 256 * 1024;
+
     private static final Duration FGS_ALLOWLIST_DEFAULT_DURATION = Duration.ofSeconds(20);
 
     private static final String PROPERTY_TEMP_HIDDEN_ISSUE_RESURFACE_DELAY_MILLIS =
@@ -117,6 +126,9 @@ public final class SafetyCenterFlags {
             "100:15000,200:60000,300:30000,400:30000,500:30000,600:3600000";
     private static final Duration REFRESH_SOURCES_TIMEOUT_DEFAULT_DURATION = Duration.ofSeconds(15);
 
+    private static final Duration REFRESH_COALESCING_WINDOW_DEFAULT_DURATION =
+            Duration.ofSeconds(2);
+
     private static final String RESURFACE_ISSUE_MAX_COUNT_DEFAULT = "200:0,300:1,400:1";
     private static final long RESURFACE_ISSUE_MAX_COUNT_DEFAULT_COUNT = 0;
 
@@ -186,6 +198,7 @@ public final class SafetyCenterFlags {
                 getBackgroundRefreshDeniedSourceIds());
         printFlag(
                 fout, PROPERTY_REFRESH_SOURCES_TIMEOUTS_MILLIS, getRefreshSourcesTimeoutsMillis());
+        printFlag(fout, PROPERTY_REFRESH_COALESCING_WINDOW_MILLIS, getRefreshCoalescingWindow());
         printFlag(fout, PROPERTY_ISSUE_CATEGORY_ALLOWLISTS, getIssueCategoryAllowlists());
         printFlag(fout, PROPERTY_ALLOW_STATSD_LOGGING, getAllowStatsdLogging());
         printFlag(fout, PROPERTY_SHOW_SUBPAGES, getShowSubpages());
@@ -197,6 +210,7 @@ public final class SafetyCenterFlags {
                 fout,
                 PROPERTY_ADDITIONAL_ALLOW_PACKAGE_CERTS,
                 getAdditionalAllowedPackageCertsString());
+        printFlag(fout, PROPERTY_SAFETY_SOURCE_DATA_MAX_BYTES, getSafetySourceDataMaxBytes());
         fout.println();
     }
 
@@ -212,6 +226,16 @@ public final class SafetyCenterFlags {
         pw.println("\t" + key + "=" + value);
     }
 
+    /**
+     * Returns whether the given changed property names contain a flag that affects which issues
+     * are dismissed or resurfaced.
+     */
+    static boolean containsIssueResurfacingProperty(Set<String> changedPropertyNames) {
+        return changedPropertyNames.contains(PROPERTY_RESURFACE_ISSUE_MAX_COUNTS)
+                || changedPropertyNames.contains(PROPERTY_RESURFACE_ISSUE_DELAYS_MILLIS)
+                || changedPropertyNames.contains(PROPERTY_TEMP_HIDDEN_ISSUE_RESURFACE_DELAY_MILLIS);
+    }
+
     /** Returns whether Safety Center is enabled. */
     public static boolean getSafetyCenterEnabled() {
         return getBoolean(PROPERTY_SAFETY_CENTER_ENABLED, SdkLevel.isAtLeastU());
@@ -357,6 +381,21 @@ public final class SafetyCenterFlags {
         return getString(PROPERTY_REFRESH_SOURCES_TIMEOUTS_MILLIS, REFRESH_SOURCES_TIMEOUT_DEFAULT);
     }
 
+    /**
+     * Returns the time since the start of a refresh during which a new refresh request for the
+     * same {@link UserProfileGroup} is merged into it, rather than broadcasting again to the
+     * sources that the refresh is already waiting for.
+     *
+     * <p>This defaults to a couple of seconds, so that bursts of requests (e.g. the Safety Center
+     * page being opened repeatedly) are merged. A zero {@link Duration} disables merging refresh
+     * requests.
+     */
+    static Duration getRefreshCoalescingWindow() {
+        return getDuration(
+                PROPERTY_REFRESH_COALESCING_WINDOW_MILLIS,
+                REFRESH_COALESCING_WINDOW_DEFAULT_DURATION);
+    }
+
     /**
      * Returns the number of times an issue of the given {@link SafetySourceData.SeverityLevel}
      * should be resurfaced.
@@ -458,6 +497,14 @@ public final class SafetyCenterFlags {
         return getString(PROPERTY_ADDITIONAL_ALLOW_PACKAGE_CERTS, "");
     }
 
+    /**
+     * Returns the maximum size in bytes of the {@link SafetySourceData} that a safety source can
+     * set, as estimated from its text and extras.
+     */
+    public static long getSafetySourceDataMaxBytes() {
+        return getLong(PROPERTY_SAFETY_SOURCE_DATA_MAX_BYTES, SAFETY_SOURCE_DATA_MAX_BYTES_DEFAULT);
+    }
+
     /** Returns whether we allow statsd logging. */
     public static boolean getAllowStatsdLogging() {
         return getBoolean(PROPERTY_ALLOW_STATSD_LOGGING, true);
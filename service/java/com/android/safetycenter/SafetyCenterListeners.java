@@ -32,6 +32,9 @@ import android.util.SparseArray;
 
 import androidx.annotation.RequiresApi;
 
+import com.android.permission.latency.LatencyStats;
+import com.android.permission.latency.LatencyStats.HotPath;
+
 import java.io.PrintWriter;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -90,12 +93,14 @@ final class SafetyCenterListeners {
      * UserProfileGroup}.
      */
     void deliverDataForUserProfileGroup(UserProfileGroup userProfileGroup) {
+        long startNanos = LatencyStats.start();
         ArrayMap<String, SafetyCenterData> safetyCenterDataCache = new ArrayMap<>();
         int[] relevantUserIds = userProfileGroup.getProfileParentAndManagedRunningProfilesUserIds();
         for (int i = 0; i < relevantUserIds.length; i++) {
             deliverUpdateForUser(
                     relevantUserIds[i], userProfileGroup, safetyCenterDataCache, true, null);
         }
+        LatencyStats.record(HotPath.SAFETY_CENTER_DELIVER_TO_LISTENERS, startNanos);
     }
 
     /**
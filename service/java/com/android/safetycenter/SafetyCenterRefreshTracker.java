@@ -33,6 +33,7 @@ import android.safetycenter.SafetyCenterStatus.RefreshStatus;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.SparseArray;
 
 import androidx.annotation.RequiresApi;
 
@@ -41,13 +42,24 @@ import com.android.safetycenter.logging.SafetyCenterStatsdLogger;
 
 import java.io.PrintWriter;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
- * A class to store the state of a refresh of safety sources, if any is ongoing.
+ * A class to store the state of the refreshes of safety sources, if any are ongoing.
+ *
+ * <p>There is at most one refresh in progress per {@link UserProfileGroup}, so that refreshes of
+ * different {@link UserProfileGroup}s don't interfere with each other. A new refresh request can
+ * be merged into the refresh in progress for its {@link UserProfileGroup}, so that sources that are
+ * already being refreshed don't receive another broadcast, see {@link
+ * SafetyCenterFlags#getRefreshCoalescingWindow()}.
+ *
+ * <p>Each source refresh has its own deadline, after which it is considered timed out. The
+ * deadline of a source depends on the {@link RefreshReason} of the request that sent it a
+ * broadcast and on the time at which it was sent.
  *
  * <p>This class isn't thread safe. Thread safety must be handled by the caller.
  *
@@ -60,25 +72,33 @@ public final class SafetyCenterRefreshTracker {
 
     private final Context mContext;
 
-    @Nullable
-    // TODO(b/229060064): Should we allow one refresh at a time per UserProfileGroup rather than
-    //  one global refresh?
-    private RefreshInProgress mRefreshInProgress = null;
+    /** Profile parent user id -> the refresh in progress for its {@link UserProfileGroup}. */
+    private final SparseArray<RefreshInProgress> mRefreshesInProgress = new SparseArray<>();
+
+    /** Source id -> the response latencies of the source to refresh requests. */
+    private final ArrayMap<String, SourceLatencyHistogram> mSourceLatencyHistograms =
+            new ArrayMap<>();
 
     private int mRefreshCounter = 0;
+    private long mMergedRefreshCount = 0;
+    private long mSavedBroadcastCount = 0;
+    private long mSavedSourceRefreshCount = 0;
 
     SafetyCenterRefreshTracker(Context context) {
         mContext = context;
     }
 
     /**
-     * Reports that a new refresh is in progress and returns the broadcast id associated with this
-     * refresh.
+     * Reports that a new refresh is in progress for the given {@link UserProfileGroup} and returns
+     * the broadcast id associated with this refresh.
+     *
+     * <p>This replaces any refresh in progress for the same {@link UserProfileGroup}.
      */
     String reportRefreshInProgress(
             @RefreshReason int refreshReason, UserProfileGroup userProfileGroup) {
-        if (mRefreshInProgress != null) {
-            Log.w(TAG, "Replacing an ongoing refresh");
+        int profileParentUserId = userProfileGroup.getProfileParentUserId();
+        if (mRefreshesInProgress.get(profileParentUserId) != null) {
+            Log.w(TAG, "Replacing an ongoing refresh for user:" + profileParentUserId);
         }
 
         String refreshBroadcastId = UUID.randomUUID() + "_" + mRefreshCounter++;
@@ -89,38 +109,125 @@ public final class SafetyCenterRefreshTracker {
                         + " refreshBroadcastId:"
                         + refreshBroadcastId);
 
-        mRefreshInProgress =
+        mRefreshesInProgress.put(
+                profileParentUserId,
                 new RefreshInProgress(
                         refreshBroadcastId,
                         refreshReason,
                         userProfileGroup,
-                        SafetyCenterFlags.getUntrackedSourceIds());
+                        SafetyCenterFlags.getUntrackedSourceIds()));
 
         return refreshBroadcastId;
     }
 
-    /** Returns the current refresh status. */
+    /**
+     * Returns the broadcast id of the refresh in progress for the given {@link UserProfileGroup}
+     * that a new refresh request could be merged into, if any.
+     *
+     * <p>A request can only be merged if it has the same {@link
+     * android.safetycenter.SafetyCenterManager.RefreshRequestType} and is as much of a background
+     * refresh as the refresh in progress, and if that refresh started within the {@link
+     * SafetyCenterFlags#getRefreshCoalescingWindow()}. Returns {@code null} otherwise, in which
+     * case a new refresh should be started.
+     *
+     * <p>Sources for which {@link #isSourceRefreshRequested} returns {@code true} should not be
+     * sent another broadcast. The request should only be merged using {@link
+     * #mergeIntoRefreshInProgress} once a broadcast is known to be sent.
+     */
+    @Nullable
+    String getMergeableRefreshId(
+            @RefreshReason int refreshReason, UserProfileGroup userProfileGroup) {
+        RefreshInProgress refreshInProgress =
+                mRefreshesInProgress.get(userProfileGroup.getProfileParentUserId());
+        if (refreshInProgress == null || refreshInProgress.isComplete()) {
+            return null;
+        }
+        Duration coalescingWindow = SafetyCenterFlags.getRefreshCoalescingWindow();
+        if (refreshInProgress.getDurationSinceStart().compareTo(coalescingWindow) >= 0) {
+            return null;
+        }
+        int refreshReasonInProgress = refreshInProgress.getReason();
+        if (RefreshReasons.toRefreshRequestType(refreshReason)
+                        != RefreshReasons.toRefreshRequestType(refreshReasonInProgress)
+                || RefreshReasons.isBackgroundRefresh(refreshReason)
+                        != RefreshReasons.isBackgroundRefresh(refreshReasonInProgress)) {
+            return null;
+        }
+        return refreshInProgress.getId();
+    }
+
+    /**
+     * Merges a new refresh request into the refresh in progress with the given id, as returned by
+     * {@link #getMergeableRefreshId}.
+     *
+     * <p>The sources sent a broadcast for this request should be reported with {@link
+     * #reportSourceRefreshesInFlight} as usual.
+     */
+    void mergeIntoRefreshInProgress(String refreshBroadcastId, @RefreshReason int refreshReason) {
+        RefreshInProgress refreshInProgress =
+                getRefreshInProgressWithId("mergeIntoRefreshInProgress", refreshBroadcastId);
+        if (refreshInProgress == null) {
+            return;
+        }
+
+        Log.v(
+                TAG,
+                "Merging refreshReason:"
+                        + refreshReason
+                        + " into refresh with refreshBroadcastId:"
+                        + refreshBroadcastId);
+        mMergedRefreshCount++;
+        refreshInProgress.startDispatch(refreshReason);
+    }
+
+    /**
+     * Returns {@code true} if the refresh with the given id already sent a broadcast to the given
+     * source, whether it responded since or not.
+     */
+    boolean isSourceRefreshRequested(String refreshBroadcastId, SafetySourceKey safetySourceKey) {
+        RefreshInProgress refreshInProgress =
+                getRefreshInProgressWithId("isSourceRefreshRequested", refreshBroadcastId);
+        return refreshInProgress != null
+                && refreshInProgress.isSourceRefreshRequested(safetySourceKey);
+    }
+
+    /**
+     * Reports that broadcasts and source refreshes were not sent because they were merged into a
+     * refresh in progress.
+     */
+    void reportRefreshesSaved(int savedBroadcastCount, int savedSourceRefreshCount) {
+        mSavedBroadcastCount += savedBroadcastCount;
+        mSavedSourceRefreshCount += savedSourceRefreshCount;
+    }
+
+    /** Returns the current refresh status for the given {@link UserProfileGroup}. */
     @RefreshStatus
-    int getRefreshStatus() {
-        if (mRefreshInProgress == null || mRefreshInProgress.isComplete()) {
+    int getRefreshStatus(UserProfileGroup userProfileGroup) {
+        RefreshInProgress refreshInProgress =
+                mRefreshesInProgress.get(userProfileGroup.getProfileParentUserId());
+        if (refreshInProgress == null || refreshInProgress.isComplete()) {
             return SafetyCenterStatus.REFRESH_STATUS_NONE;
         }
 
-        if (mRefreshInProgress.getReason() == REFRESH_REASON_RESCAN_BUTTON_CLICK) {
+        if (refreshInProgress.getReason() == REFRESH_REASON_RESCAN_BUTTON_CLICK) {
             return SafetyCenterStatus.REFRESH_STATUS_FULL_RESCAN_IN_PROGRESS;
         }
         return SafetyCenterStatus.REFRESH_STATUS_DATA_FETCH_IN_PROGRESS;
     }
 
     /**
-     * Returns the {@link RefreshReason} for the current refresh, or {@code null} if none is in
-     * progress.
+     * Returns the {@link RefreshReason} for the refresh with the given id, or {@code null} if no
+     * such refresh is in progress.
      */
     @RefreshReason
     @Nullable
-    public Integer getRefreshReason() {
-        if (mRefreshInProgress != null) {
-            return mRefreshInProgress.getReason();
+    public Integer getRefreshReason(@Nullable String refreshBroadcastId) {
+        if (refreshBroadcastId == null) {
+            return null;
+        }
+        RefreshInProgress refreshInProgress = findRefreshInProgressWithId(refreshBroadcastId);
+        if (refreshInProgress != null) {
+            return refreshInProgress.getReason();
         } else {
             return null;
         }
@@ -147,7 +254,7 @@ public final class SafetyCenterRefreshTracker {
 
     /**
      * Reports that a source has completed its refresh, and returns {@code true} if the whole
-     * current refresh is now complete.
+     * refresh with the given id is now complete.
      *
      * <p>If a source calls {@code reportSafetySourceError}, then this method is also used to mark
      * the refresh as completed. The {@code successful} parameter indicates whether the refresh
@@ -175,6 +282,7 @@ public final class SafetyCenterRefreshTracker {
         int requestType = RefreshReasons.toRefreshRequestType(refreshReason);
 
         if (duration != null) {
+            getSourceLatencyHistogram(sourceId).recordResponse(duration);
             int sourceResult = toSystemEventResult(successful);
             SafetyCenterStatsdLogger.writeSourceRefreshSystemEvent(
                     requestType,
@@ -191,139 +299,195 @@ public final class SafetyCenterRefreshTracker {
         }
 
         Log.v(TAG, "Refresh with id: " + refreshInProgress.getId() + " completed");
-        int wholeResult =
-                toSystemEventResult(/* success= */ !refreshInProgress.hasAnyTrackedSourceErrors());
-        SafetyCenterStatsdLogger.writeWholeRefreshSystemEvent(
-                requestType,
-                refreshInProgress.getDurationSinceStart(),
-                wholeResult,
-                refreshReason,
-                refreshInProgress.hasAnyTrackedSourceDataChanged());
-        mRefreshInProgress = null;
+        writeWholeRefreshSystemEvent(refreshInProgress);
+        removeRefreshInProgress(refreshInProgress);
         return true;
     }
 
     /**
-     * Clears any ongoing refresh in progress, if any.
+     * Returns the time until the earliest deadline of all the source refreshes in flight, or
+     * {@code null} if there are none.
      *
-     * <p>Note that this method simply clears the tracking of a refresh, and does not prevent
-     * scheduled broadcasts being sent by {@link
+     * <p>{@link #timeoutSourceRefreshes()} should be called after that time.
+     */
+    @Nullable
+    Duration getTimeUntilNextSourceDeadline() {
+        long nextDeadlineElapsedMillis = Long.MAX_VALUE;
+        for (int i = 0; i < mRefreshesInProgress.size(); i++) {
+            nextDeadlineElapsedMillis =
+                    Math.min(
+                            nextDeadlineElapsedMillis,
+                            mRefreshesInProgress.valueAt(i).getNextDeadlineElapsedMillis());
+        }
+        if (nextDeadlineElapsedMillis == Long.MAX_VALUE) {
+            return null;
+        }
+        return Duration.ofMillis(
+                Math.max(0, nextDeadlineElapsedMillis - SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Stops tracking the source refreshes that are past their deadline, and returns them grouped
+     * by the refresh they were part of.
+     *
+     * <p>Refreshes that are complete after that are cleared. Timed out source refreshes and
+     * refreshes are logged to statsd.
+     *
+     * <p>Note that this method simply clears the tracking of source refreshes, and does not
+     * prevent scheduled broadcasts being sent by {@link
      * android.safetycenter.SafetyCenterManager#refreshSafetySources}.
      */
-    void clearRefresh() {
-        clearRefreshInternal();
+    List<TimedOutRefresh> timeoutSourceRefreshes() {
+        long currentElapsedMillis = SystemClock.elapsedRealtime();
+        List<TimedOutRefresh> timedOutRefreshes = new ArrayList<>();
+
+        // Loop in reverse index order to be able to remove entries while iterating.
+        for (int i = mRefreshesInProgress.size() - 1; i >= 0; i--) {
+            RefreshInProgress refreshInProgress = mRefreshesInProgress.valueAt(i);
+            ArraySet<SafetySourceKey> timedOutSources =
+                    refreshInProgress.getSourceRefreshesPastDeadline(currentElapsedMillis);
+            if (timedOutSources.isEmpty()) {
+                continue;
+            }
+
+            int refreshReason = refreshInProgress.getReason();
+            int requestType = RefreshReasons.toRefreshRequestType(refreshReason);
+            for (int j = 0; j < timedOutSources.size(); j++) {
+                SafetySourceKey sourceKey = timedOutSources.valueAt(j);
+                Duration duration = refreshInProgress.markSourceRefreshTimedOut(sourceKey);
+                if (duration != null) {
+                    getSourceLatencyHistogram(sourceKey.getSourceId()).recordTimeout();
+                    SafetyCenterStatsdLogger.writeSourceRefreshSystemEvent(
+                            requestType,
+                            sourceKey.getSourceId(),
+                            UserUtils.isManagedProfile(sourceKey.getUserId(), mContext),
+                            duration,
+                            SAFETY_CENTER_SYSTEM_EVENT_REPORTED__RESULT__TIMEOUT,
+                            refreshReason,
+                            false);
+                }
+            }
+
+            if (refreshInProgress.isComplete()) {
+                Log.v(TAG, "Refresh with id: " + refreshInProgress.getId() + " timed out");
+                writeWholeRefreshSystemEvent(refreshInProgress);
+                mRefreshesInProgress.removeAt(i);
+            }
+
+            timedOutRefreshes.add(
+                    new TimedOutRefresh(
+                            refreshInProgress.getId(),
+                            refreshReason,
+                            refreshInProgress.getUserProfileGroup(),
+                            timedOutSources));
+        }
+
+        return timedOutRefreshes;
     }
 
     /**
-     * Clears the refresh in progress, if there is any with the given id.
+     * Clears all ongoing refreshes in progress, if any.
      *
-     * <p>Note that this method simply clears the tracking of a refresh, and does not prevent
+     * <p>Note that this method simply clears the tracking of refreshes, and does not prevent
      * scheduled broadcasts being sent by {@link
      * android.safetycenter.SafetyCenterManager#refreshSafetySources}.
      */
-    void clearRefresh(String refreshBroadcastId) {
-        if (!checkRefreshInProgress("clearRefresh", refreshBroadcastId)) {
-            return;
-        }
-        clearRefreshInternal();
+    void clearRefresh() {
+        Log.v(TAG, "Clearing " + mRefreshesInProgress.size() + " refreshes in progress");
+        mRefreshesInProgress.clear();
     }
 
     /**
-     * Clears any ongoing refresh in progress for the given user.
+     * Clears the refresh in progress, if there is any with the given id.
      *
      * <p>Note that this method simply clears the tracking of a refresh, and does not prevent
      * scheduled broadcasts being sent by {@link
      * android.safetycenter.SafetyCenterManager#refreshSafetySources}.
      */
-    void clearRefreshForUser(@UserIdInt int userId) {
-        if (mRefreshInProgress == null) {
-            Log.v(TAG, "Clear refresh for user called but no refresh in progress");
+    void clearRefresh(String refreshBroadcastId) {
+        RefreshInProgress refreshInProgress =
+                getRefreshInProgressWithId("clearRefresh", refreshBroadcastId);
+        if (refreshInProgress == null) {
             return;
         }
-        if (mRefreshInProgress.clearForUser(userId)) {
-            clearRefreshInternal();
-        }
+        Log.v(TAG, "Clearing refresh with refreshBroadcastId:" + refreshBroadcastId);
+        removeRefreshInProgress(refreshInProgress);
     }
 
     /**
-     * Clears the refresh in progress with the given id, and returns the {@link SafetySourceKey}s
-     * that were still in-flight prior to doing that, if any.
-     *
-     * <p>Returns {@code null} if there was no refresh in progress with the given {@code
-     * refreshBroadcastId}, or if it was already complete.
+     * Clears any ongoing refresh in progress for the given user.
      *
      * <p>Note that this method simply clears the tracking of a refresh, and does not prevent
      * scheduled broadcasts being sent by {@link
      * android.safetycenter.SafetyCenterManager#refreshSafetySources}.
      */
-    @Nullable
-    ArraySet<SafetySourceKey> timeoutRefresh(String refreshBroadcastId) {
-        if (!checkRefreshInProgress("timeoutRefresh", refreshBroadcastId)) {
-            return null;
-        }
-
-        RefreshInProgress clearedRefresh = clearRefreshInternal();
-
-        if (clearedRefresh == null || clearedRefresh.isComplete()) {
-            return null;
-        }
-
-        ArraySet<SafetySourceKey> timedOutSources = clearedRefresh.getSourceRefreshesInFlight();
-        int refreshReason = clearedRefresh.getReason();
-        int requestType = RefreshReasons.toRefreshRequestType(refreshReason);
-
-        for (int i = 0; i < timedOutSources.size(); i++) {
-            SafetySourceKey sourceKey = timedOutSources.valueAt(i);
-            Duration duration = clearedRefresh.getDurationSinceSourceStart(sourceKey);
-            if (duration != null) {
-                SafetyCenterStatsdLogger.writeSourceRefreshSystemEvent(
-                        requestType,
-                        sourceKey.getSourceId(),
-                        UserUtils.isManagedProfile(sourceKey.getUserId(), mContext),
-                        duration,
-                        SAFETY_CENTER_SYSTEM_EVENT_REPORTED__RESULT__TIMEOUT,
-                        refreshReason,
-                        false);
+    void clearRefreshForUser(@UserIdInt int userId) {
+        // Loop in reverse index order to be able to remove entries while iterating.
+        for (int i = mRefreshesInProgress.size() - 1; i >= 0; i--) {
+            RefreshInProgress refreshInProgress = mRefreshesInProgress.valueAt(i);
+            if (refreshInProgress.clearForUser(userId)) {
+                Log.v(
+                        TAG,
+                        "Clearing refresh with refreshBroadcastId:"
+                                + refreshInProgress.getId()
+                                + " for user:"
+                                + userId);
+                mRefreshesInProgress.removeAt(i);
             }
         }
+    }
 
+    private void writeWholeRefreshSystemEvent(RefreshInProgress refreshInProgress) {
+        int refreshReason = refreshInProgress.getReason();
+        int wholeResult =
+                refreshInProgress.hasAnyTrackedSourceTimedOut()
+                        ? SAFETY_CENTER_SYSTEM_EVENT_REPORTED__RESULT__TIMEOUT
+                        : toSystemEventResult(
+                                /* success= */ !refreshInProgress.hasAnyTrackedSourceErrors());
         SafetyCenterStatsdLogger.writeWholeRefreshSystemEvent(
-                requestType,
-                clearedRefresh.getDurationSinceStart(),
-                SAFETY_CENTER_SYSTEM_EVENT_REPORTED__RESULT__TIMEOUT,
+                RefreshReasons.toRefreshRequestType(refreshReason),
+                refreshInProgress.getDurationSinceStart(),
+                wholeResult,
                 refreshReason,
-                clearedRefresh.hasAnyTrackedSourceDataChanged());
+                refreshInProgress.hasAnyTrackedSourceDataChanged());
+    }
 
-        return timedOutSources;
+    private void removeRefreshInProgress(RefreshInProgress refreshInProgress) {
+        int profileParentUserId = refreshInProgress.getUserProfileGroup().getProfileParentUserId();
+        if (mRefreshesInProgress.get(profileParentUserId) == refreshInProgress) {
+            mRefreshesInProgress.remove(profileParentUserId);
+        }
     }
 
-    /**
-     * Clears the any refresh in progress and returns it for the caller to do what it needs to.
-     *
-     * <p>If there was no refresh in progress then {@code null} is returned.
-     */
-    @Nullable
-    private RefreshInProgress clearRefreshInternal() {
-        RefreshInProgress refreshToClear = mRefreshInProgress;
-        if (refreshToClear == null) {
-            Log.v(TAG, "Clear refresh called but no refresh in progress");
-            return null;
+    private SourceLatencyHistogram getSourceLatencyHistogram(String sourceId) {
+        SourceLatencyHistogram sourceLatencyHistogram = mSourceLatencyHistograms.get(sourceId);
+        if (sourceLatencyHistogram == null) {
+            sourceLatencyHistogram = new SourceLatencyHistogram();
+            mSourceLatencyHistograms.put(sourceId, sourceLatencyHistogram);
         }
+        return sourceLatencyHistogram;
+    }
 
-        Log.v(TAG, "Clearing refresh with refreshBroadcastId:" + refreshToClear.getId());
-        mRefreshInProgress = null;
-        return refreshToClear;
+    @Nullable
+    private RefreshInProgress findRefreshInProgressWithId(String refreshBroadcastId) {
+        for (int i = 0; i < mRefreshesInProgress.size(); i++) {
+            RefreshInProgress refreshInProgress = mRefreshesInProgress.valueAt(i);
+            if (refreshInProgress.getId().equals(refreshBroadcastId)) {
+                return refreshInProgress;
+            }
+        }
+        return null;
     }
 
     /**
-     * Returns the current {@link RefreshInProgress} if it has the given ID, or logs and returns
-     * {@code null} if not.
+     * Returns the {@link RefreshInProgress} with the given ID, or logs and returns {@code null} if
+     * there is none.
      */
     @Nullable
     private RefreshInProgress getRefreshInProgressWithId(
             String methodName, String refreshBroadcastId) {
-        RefreshInProgress refreshInProgress = mRefreshInProgress;
-        if (refreshInProgress == null || !refreshInProgress.getId().equals(refreshBroadcastId)) {
+        RefreshInProgress refreshInProgress = findRefreshInProgressWithId(refreshBroadcastId);
+        if (refreshInProgress == null) {
             Log.i(
                     TAG,
                     methodName
@@ -331,29 +495,89 @@ public final class SafetyCenterRefreshTracker {
                             + refreshBroadcastId
                             + "; no such refresh in"
                             + " progress");
-            return null;
         }
         return refreshInProgress;
     }
 
-    private boolean checkRefreshInProgress(String methodName, String refreshBroadcastId) {
-        return getRefreshInProgressWithId(methodName, refreshBroadcastId) != null;
-    }
-
     /** Dumps state for debugging purposes. */
     void dump(PrintWriter fout) {
+        int count = mRefreshesInProgress.size();
         fout.println(
-                "REFRESH IN PROGRESS ("
-                        + (mRefreshInProgress != null)
+                "REFRESHES IN PROGRESS ("
+                        + count
                         + ", counter="
                         + mRefreshCounter
+                        + ", merged="
+                        + mMergedRefreshCount
+                        + ", savedBroadcasts="
+                        + mSavedBroadcastCount
+                        + ", savedSourceRefreshes="
+                        + mSavedSourceRefreshCount
                         + ")");
-        if (mRefreshInProgress != null) {
-            fout.println("\t" + mRefreshInProgress);
+        for (int i = 0; i < count; i++) {
+            fout.println(
+                    "\t["
+                            + mRefreshesInProgress.keyAt(i)
+                            + "] "
+                            + mRefreshesInProgress.valueAt(i));
+        }
+        fout.println();
+
+        int histogramCount = mSourceLatencyHistograms.size();
+        fout.println("SOURCE REFRESH LATENCIES (" + histogramCount + ")");
+        for (int i = 0; i < histogramCount; i++) {
+            fout.println(
+                    "\t["
+                            + i
+                            + "] "
+                            + mSourceLatencyHistograms.keyAt(i)
+                            + " -> "
+                            + mSourceLatencyHistograms.valueAt(i));
         }
         fout.println();
     }
 
+    /** The source refreshes of a refresh that timed out, see {@link #timeoutSourceRefreshes}. */
+    static final class TimedOutRefresh {
+
+        private final String mRefreshBroadcastId;
+        @RefreshReason private final int mRefreshReason;
+        private final UserProfileGroup mUserProfileGroup;
+        private final ArraySet<SafetySourceKey> mTimedOutSources;
+
+        private TimedOutRefresh(
+                String refreshBroadcastId,
+                @RefreshReason int refreshReason,
+                UserProfileGroup userProfileGroup,
+                ArraySet<SafetySourceKey> timedOutSources) {
+            mRefreshBroadcastId = refreshBroadcastId;
+            mRefreshReason = refreshReason;
+            mUserProfileGroup = userProfileGroup;
+            mTimedOutSources = timedOutSources;
+        }
+
+        /** Returns the id of the refresh that timed out. */
+        String getRefreshBroadcastId() {
+            return mRefreshBroadcastId;
+        }
+
+        /** Returns the {@link RefreshReason} of the refresh that timed out. */
+        @RefreshReason
+        int getRefreshReason() {
+            return mRefreshReason;
+        }
+
+        /** Returns the {@link UserProfileGroup} of the refresh that timed out. */
+        UserProfileGroup getUserProfileGroup() {
+            return mUserProfileGroup;
+        }
+
+        /** Returns the {@link SafetySourceKey} of the source refreshes that timed out. */
+        ArraySet<SafetySourceKey> getTimedOutSources() {
+            return mTimedOutSources;
+        }
+    }
+
     /** Class representing the state of a refresh in progress. */
     private static final class RefreshInProgress {
 
@@ -368,8 +592,19 @@ public final class SafetyCenterRefreshTracker {
         // approach is less sensitive to delays/implementation changes in broadcast dispatch.
         private final ArrayMap<SafetySourceKey, Long> mSourceRefreshesInFlight = new ArrayMap<>();
 
+        // The values in this map are the deadlines of each source refresh. All the sources sent a
+        // broadcast for the same request share the same deadline, so that they time out together.
+        private final ArrayMap<SafetySourceKey, Long> mSourceRefreshDeadlines = new ArrayMap<>();
+
+        // All the sources sent a broadcast as part of this refresh, whether they are tracked and
+        // whether they responded or not.
+        private final ArraySet<SafetySourceKey> mSourceRefreshesRequested = new ArraySet<>();
+
+        @ElapsedRealtimeLong private long mDispatchDeadlineElapsedMillis;
+
         private boolean mAnyTrackedSourceErrors = false;
         private boolean mAnyTrackedSourceDataChanged = false;
+        private boolean mAnyTrackedSourceTimedOut = false;
 
         RefreshInProgress(
                 String id,
@@ -381,6 +616,7 @@ public final class SafetyCenterRefreshTracker {
             mUserProfileGroup = userProfileGroup;
             mUntrackedSourcesIds = untrackedSourceIds;
             mStartElapsedMillis = SystemClock.elapsedRealtime();
+            startDispatch(reason);
         }
 
         /**
@@ -398,23 +634,29 @@ public final class SafetyCenterRefreshTracker {
             return mReason;
         }
 
+        /** Returns the {@link UserProfileGroup} that this {@link RefreshInProgress} is for. */
+        private UserProfileGroup getUserProfileGroup() {
+            return mUserProfileGroup;
+        }
+
         /** Returns the {@link Duration} since this refresh started. */
         private Duration getDurationSinceStart() {
             return Duration.ofMillis(SystemClock.elapsedRealtime() - mStartElapsedMillis);
         }
 
-        @Nullable
-        private Duration getDurationSinceSourceStart(SafetySourceKey safetySourceKey) {
-            Long startElapsedMillis = mSourceRefreshesInFlight.get(safetySourceKey);
-            if (startElapsedMillis == null) {
-                return null;
-            }
-            return Duration.ofMillis(SystemClock.elapsedRealtime() - startElapsedMillis);
+        /**
+         * Sets the deadline of the source refreshes that are marked in flight from now on, based
+         * on the timeout of the given {@link RefreshReason}.
+         */
+        private void startDispatch(@RefreshReason int refreshReason) {
+            mDispatchDeadlineElapsedMillis =
+                    SystemClock.elapsedRealtime()
+                            + SafetyCenterFlags.getRefreshSourcesTimeout(refreshReason).toMillis();
         }
 
-        /** Returns the {@link SafetySourceKey} of all in-flight source refreshes. */
-        private ArraySet<SafetySourceKey> getSourceRefreshesInFlight() {
-            return new ArraySet<>(mSourceRefreshesInFlight.keySet());
+        /** Returns {@code true} if this refresh sent a broadcast to the given source. */
+        private boolean isSourceRefreshRequested(SafetySourceKey safetySourceKey) {
+            return mSourceRefreshesRequested.contains(safetySourceKey);
         }
 
         /** Returns {@code true} if any refresh of a tracked source completed with an error. */
@@ -427,11 +669,44 @@ public final class SafetyCenterRefreshTracker {
             return mAnyTrackedSourceDataChanged;
         }
 
+        /** Returns {@code true} if any refresh of a tracked source timed out. */
+        private boolean hasAnyTrackedSourceTimedOut() {
+            return mAnyTrackedSourceTimedOut;
+        }
+
+        /**
+         * Returns the earliest deadline of the source refreshes in flight, or {@link
+         * Long#MAX_VALUE} if there are none.
+         */
+        @ElapsedRealtimeLong
+        private long getNextDeadlineElapsedMillis() {
+            long nextDeadlineElapsedMillis = Long.MAX_VALUE;
+            for (int i = 0; i < mSourceRefreshDeadlines.size(); i++) {
+                nextDeadlineElapsedMillis =
+                        Math.min(nextDeadlineElapsedMillis, mSourceRefreshDeadlines.valueAt(i));
+            }
+            return nextDeadlineElapsedMillis;
+        }
+
+        /** Returns the {@link SafetySourceKey} of the in-flight source refreshes past deadline. */
+        private ArraySet<SafetySourceKey> getSourceRefreshesPastDeadline(
+                @ElapsedRealtimeLong long currentElapsedMillis) {
+            ArraySet<SafetySourceKey> sourceRefreshesPastDeadline = new ArraySet<>();
+            for (int i = 0; i < mSourceRefreshDeadlines.size(); i++) {
+                if (mSourceRefreshDeadlines.valueAt(i) <= currentElapsedMillis) {
+                    sourceRefreshesPastDeadline.add(mSourceRefreshDeadlines.keyAt(i));
+                }
+            }
+            return sourceRefreshesPastDeadline;
+        }
+
         private void markSourceRefreshInFlight(SafetySourceKey safetySourceKey) {
             boolean tracked = isTracked(safetySourceKey);
             long currentElapsedMillis = SystemClock.elapsedRealtime();
+            mSourceRefreshesRequested.add(safetySourceKey);
             if (tracked) {
                 mSourceRefreshesInFlight.put(safetySourceKey, currentElapsedMillis);
+                mSourceRefreshDeadlines.put(safetySourceKey, mDispatchDeadlineElapsedMillis);
             }
             Log.v(
                     TAG,
@@ -454,6 +729,7 @@ public final class SafetyCenterRefreshTracker {
         private Duration markSourceRefreshComplete(
                 SafetySourceKey safetySourceKey, boolean successful, boolean dataChanged) {
             Long startElapsedMillis = mSourceRefreshesInFlight.remove(safetySourceKey);
+            mSourceRefreshDeadlines.remove(safetySourceKey);
 
             boolean tracked = isTracked(safetySourceKey);
             mAnyTrackedSourceErrors |= (tracked && !successful);
@@ -484,6 +760,32 @@ public final class SafetyCenterRefreshTracker {
             return duration;
         }
 
+        /**
+         * Stops tracking the given source refresh as it timed out, and returns the {@link
+         * Duration} since it started, or {@code null} if it wasn't in flight.
+         */
+        @Nullable
+        private Duration markSourceRefreshTimedOut(SafetySourceKey safetySourceKey) {
+            Long startElapsedMillis = mSourceRefreshesInFlight.remove(safetySourceKey);
+            mSourceRefreshDeadlines.remove(safetySourceKey);
+            if (startElapsedMillis == null) {
+                return null;
+            }
+            mAnyTrackedSourceTimedOut = true;
+            Log.v(
+                    TAG,
+                    "Refresh timed out for sourceId:"
+                            + safetySourceKey.getSourceId()
+                            + " userId:"
+                            + safetySourceKey.getUserId()
+                            + " with refreshBroadcastId:"
+                            + mId
+                            + ", "
+                            + mSourceRefreshesInFlight.size()
+                            + " tracked sources still in flight.");
+            return Duration.ofMillis(SystemClock.elapsedRealtime() - startElapsedMillis);
+        }
+
         private boolean isTracked(SafetySourceKey safetySourceKey) {
             return !mUntrackedSourcesIds.contains(safetySourceKey.getSourceId());
         }
@@ -501,6 +803,13 @@ public final class SafetyCenterRefreshTracker {
                 SafetySourceKey sourceKey = mSourceRefreshesInFlight.keyAt(i);
                 if (sourceKey.getUserId() == userId) {
                     mSourceRefreshesInFlight.removeAt(i);
+                    mSourceRefreshDeadlines.remove(sourceKey);
+                }
+            }
+            // Loop in reverse index order to be able to remove entries while iterating.
+            for (int i = mSourceRefreshesRequested.size() - 1; i >= 0; i--) {
+                if (mSourceRefreshesRequested.valueAt(i).getUserId() == userId) {
+                    mSourceRefreshesRequested.removeAt(i);
                 }
             }
             return isComplete();
@@ -524,13 +833,59 @@ public final class SafetyCenterRefreshTracker {
                     + mUntrackedSourcesIds
                     + ", mSourceRefreshesInFlight="
                     + mSourceRefreshesInFlight
+                    + ", mSourceRefreshDeadlines="
+                    + mSourceRefreshDeadlines
+                    + ", mSourceRefreshesRequested="
+                    + mSourceRefreshesRequested
                     + ", mStartElapsedMillis="
                     + mStartElapsedMillis
                     + ", mAnyTrackedSourceErrors="
                     + mAnyTrackedSourceErrors
                     + ", mAnyTrackedSourceDataChanged="
                     + mAnyTrackedSourceDataChanged
+                    + ", mAnyTrackedSourceTimedOut="
+                    + mAnyTrackedSourceTimedOut
                     + '}';
         }
     }
+
+    /** A histogram of the response latencies of a source to refresh requests. */
+    private static final class SourceLatencyHistogram {
+
+        /** The upper bounds of the buckets of the histogram, the last bucket being unbounded. */
+        private static final long[] BUCKET_UPPER_BOUNDS_MILLIS = {
+            100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000
+        };
+
+        private final long[] mBucketCounts = new long[BUCKET_UPPER_BOUNDS_MILLIS.length + 1];
+        private long mTimeoutCount = 0;
+
+        private void recordResponse(Duration duration) {
+            long durationMillis = duration.toMillis();
+            int bucket = 0;
+            while (bucket < BUCKET_UPPER_BOUNDS_MILLIS.length
+                    && durationMillis > BUCKET_UPPER_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+            mBucketCounts[bucket]++;
+        }
+
+        private void recordTimeout() {
+            mTimeoutCount++;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("SourceLatencyHistogram{");
+            for (int i = 0; i < BUCKET_UPPER_BOUNDS_MILLIS.length; i++) {
+                sb.append("<=").append(BUCKET_UPPER_BOUNDS_MILLIS[i]).append("ms=");
+                sb.append(mBucketCounts[i]).append(", ");
+            }
+            int lastBucket = BUCKET_UPPER_BOUNDS_MILLIS.length;
+            sb.append('>').append(BUCKET_UPPER_BOUNDS_MILLIS[lastBucket - 1]).append("ms=");
+            sb.append(mBucketCounts[lastBucket]);
+            sb.append(", timeouts=").append(mTimeoutCount).append('}');
+            return sb.toString();
+        }
+    }
 }
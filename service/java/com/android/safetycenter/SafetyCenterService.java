@@ -39,7 +39,6 @@ import android.annotation.Nullable;
 import android.annotation.UserIdInt;
 import android.app.PendingIntent;
 import android.app.StatsManager;
-import android.app.StatsManager.StatsPullAtomCallback;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -48,6 +47,7 @@ import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.PackageManager.PackageInfoFlags;
 import android.content.res.Resources;
+import android.net.Uri;
 import android.os.Binder;
 import android.os.ParcelFileDescriptor;
 import android.os.Process;
@@ -73,6 +73,7 @@ import androidx.annotation.RequiresApi;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.modules.utils.BackgroundThread;
+import com.android.permission.latency.LatencyStats;
 import com.android.permission.util.ForegroundThread;
 import com.android.permission.util.UserUtils;
 import com.android.safetycenter.data.SafetyCenterDataManager;
@@ -90,6 +91,7 @@ import com.android.server.SystemService;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -112,8 +114,12 @@ public final class SafetyCenterService extends SystemService {
     @GuardedBy("mApiLock")
     private final SafetyCenterTimeouts mSafetyCenterTimeouts = new SafetyCenterTimeouts();
 
+    private final RefreshTimeout mRefreshTimeout = new RefreshTimeout();
+
     private final SafetyCenterResourcesContext mSafetyCenterResourcesContext;
 
+    private final UserProfileGroupCache mUserProfileGroupCache;
+
     private final SafetyCenterNotificationChannels mNotificationChannels;
 
     @GuardedBy("mApiLock")
@@ -140,7 +146,7 @@ public final class SafetyCenterService extends SystemService {
     @GuardedBy("mApiLock")
     private final SafetyCenterDataChangeNotifier mSafetyCenterDataChangeNotifier;
 
-    private final StatsPullAtomCallback mPullAtomCallback;
+    private final SafetyCenterPullAtomCallback mPullAtomCallback;
     private final boolean mDeviceSupportsSafetyCenter;
 
     /** Whether the {@link SafetyCenterConfig} was successfully loaded. */
@@ -149,6 +155,7 @@ public final class SafetyCenterService extends SystemService {
     public SafetyCenterService(Context context) {
         super(context);
         mSafetyCenterResourcesContext = new SafetyCenterResourcesContext(context);
+        mUserProfileGroupCache = new UserProfileGroupCache(context);
         mSafetyCenterConfigReader = new SafetyCenterConfigReader(mSafetyCenterResourcesContext);
         mSafetyCenterRefreshTracker = new SafetyCenterRefreshTracker(context);
         mSafetyCenterDataManager =
@@ -169,22 +176,25 @@ public final class SafetyCenterService extends SystemService {
                         context,
                         mSafetyCenterResourcesContext,
                         mNotificationChannels,
-                        mSafetyCenterDataManager);
+                        mSafetyCenterDataManager,
+                        mApiLock);
         mSafetyCenterBroadcastDispatcher =
                 new SafetyCenterBroadcastDispatcher(
                         context,
                         mSafetyCenterConfigReader,
                         mSafetyCenterRefreshTracker,
-                        mSafetyCenterDataManager);
+                        mSafetyCenterDataManager,
+                        mUserProfileGroupCache);
         mPullAtomCallback =
                 new SafetyCenterPullAtomCallback(
-                        context,
                         mApiLock,
+                        mUserProfileGroupCache,
                         mSafetyCenterConfigReader,
                         mSafetyCenterDataFactory,
                         mSafetyCenterDataManager);
         mSafetyCenterDataChangeNotifier =
-                new SafetyCenterDataChangeNotifier(mNotificationSender, mSafetyCenterListeners);
+                new SafetyCenterDataChangeNotifier(
+                        mNotificationSender, mSafetyCenterListeners, mPullAtomCallback);
         mDeviceSupportsSafetyCenter =
                 context.getResources()
                         .getBoolean(
@@ -204,6 +214,7 @@ public final class SafetyCenterService extends SystemService {
                 mSafetyCenterResourcesContext.init();
                 SafetyCenterFlags.init(mSafetyCenterResourcesContext);
                 mConfigAvailable = mSafetyCenterConfigReader.loadConfig();
+                SafetyCenterManager.invalidateSafetyCenterConfigCache();
                 if (mConfigAvailable) {
                     mSafetyCenterDataManager.loadPersistableDataStateFromFile();
                     new UserBroadcastReceiver().register(getContext());
@@ -211,9 +222,11 @@ public final class SafetyCenterService extends SystemService {
                                     this,
                                     mSafetyCenterDataManager,
                                     mSafetyCenterDataChangeNotifier,
+                                    mUserProfileGroupCache,
                                     mApiLock)
                             .register(getContext());
                     new LocaleBroadcastReceiver().register(getContext());
+                    new PackageBroadcastReceiver().register(getContext());
                 }
             }
         }
@@ -273,7 +286,7 @@ public final class SafetyCenterService extends SystemService {
                 return;
             }
 
-            UserProfileGroup userProfileGroup = UserProfileGroup.fromUser(getContext(), userId);
+            UserProfileGroup userProfileGroup = mUserProfileGroupCache.fromUser(userId);
             synchronized (mApiLock) {
                 boolean hasUpdate =
                         mSafetyCenterDataManager.setSafetySourceData(
@@ -331,7 +344,7 @@ public final class SafetyCenterService extends SystemService {
                 return;
             }
 
-            UserProfileGroup userProfileGroup = UserProfileGroup.fromUser(getContext(), userId);
+            UserProfileGroup userProfileGroup = mUserProfileGroupCache.fromUser(userId);
             synchronized (mApiLock) {
                 boolean hasUpdate =
                         mSafetyCenterDataManager.reportSafetySourceError(
@@ -412,7 +425,7 @@ public final class SafetyCenterService extends SystemService {
                 return SafetyCenterDataFactory.getDefaultSafetyCenterData();
             }
 
-            UserProfileGroup userProfileGroup = UserProfileGroup.fromUser(getContext(), userId);
+            UserProfileGroup userProfileGroup = mUserProfileGroupCache.fromUser(userId);
             synchronized (mApiLock) {
                 return mSafetyCenterDataFactory.assembleSafetyCenterData(
                         packageName, userProfileGroup);
@@ -435,7 +448,7 @@ public final class SafetyCenterService extends SystemService {
                 return;
             }
 
-            UserProfileGroup userProfileGroup = UserProfileGroup.fromUser(getContext(), userId);
+            UserProfileGroup userProfileGroup = mUserProfileGroupCache.fromUser(userId);
             synchronized (mApiLock) {
                 IOnSafetyCenterDataChangedListener registeredListener =
                         mSafetyCenterListeners.addListener(listener, packageName, userId);
@@ -480,7 +493,7 @@ public final class SafetyCenterService extends SystemService {
             SafetyCenterIssueId safetyCenterIssueId = SafetyCenterIds.issueIdFromString(issueId);
             SafetyCenterIssueKey safetyCenterIssueKey =
                     safetyCenterIssueId.getSafetyCenterIssueKey();
-            UserProfileGroup userProfileGroup = UserProfileGroup.fromUser(getContext(), userId);
+            UserProfileGroup userProfileGroup = mUserProfileGroupCache.fromUser(userId);
             enforceSameUserProfileGroup(
                     "dismissSafetyCenterIssue", userProfileGroup, safetyCenterIssueKey.getUserId());
             synchronized (mApiLock) {
@@ -544,7 +557,7 @@ public final class SafetyCenterService extends SystemService {
                                 + toUserFriendlyString(safetyCenterIssueActionId)
                                 + " do not match");
             }
-            UserProfileGroup userProfileGroup = UserProfileGroup.fromUser(getContext(), userId);
+            UserProfileGroup userProfileGroup = mUserProfileGroupCache.fromUser(userId);
             enforceSameUserProfileGroup(
                     "executeSafetyCenterIssueAction",
                     userProfileGroup,
@@ -563,8 +576,10 @@ public final class SafetyCenterService extends SystemService {
                 return;
             }
 
+            // Tests may have added or removed users without waiting for the broadcasts.
+            mUserProfileGroupCache.invalidate();
             List<UserProfileGroup> userProfileGroups =
-                    UserProfileGroup.getAllUserProfileGroups(getContext());
+                    mUserProfileGroupCache.getAllUserProfileGroups();
             synchronized (mApiLock) {
                 // TODO(b/236693607): Should tests leave real data untouched?
                 clearDataLocked();
@@ -582,10 +597,13 @@ public final class SafetyCenterService extends SystemService {
                 return;
             }
 
+            // Tests may have added or removed users without waiting for the broadcasts.
+            mUserProfileGroupCache.invalidate();
             List<UserProfileGroup> userProfileGroups =
-                    UserProfileGroup.getAllUserProfileGroups(getContext());
+                    mUserProfileGroupCache.getAllUserProfileGroups();
             synchronized (mApiLock) {
                 mSafetyCenterConfigReader.setConfigOverrideForTests(safetyCenterConfig);
+                SafetyCenterManager.invalidateSafetyCenterConfigCache();
                 // TODO(b/236693607): Should tests leave real data untouched?
                 clearDataLocked();
                 mSafetyCenterDataChangeNotifier.updateDataConsumers(userProfileGroups);
@@ -601,10 +619,13 @@ public final class SafetyCenterService extends SystemService {
                 return;
             }
 
+            // Tests may have added or removed users without waiting for the broadcasts.
+            mUserProfileGroupCache.invalidate();
             List<UserProfileGroup> userProfileGroups =
-                    UserProfileGroup.getAllUserProfileGroups(getContext());
+                    mUserProfileGroupCache.getAllUserProfileGroups();
             synchronized (mApiLock) {
                 mSafetyCenterConfigReader.clearConfigOverrideForTests();
+                SafetyCenterManager.invalidateSafetyCenterConfigCache();
                 // TODO(b/236693607): Should tests leave real data untouched?
                 clearDataLocked();
                 mSafetyCenterDataChangeNotifier.updateDataConsumers(userProfileGroups);
@@ -749,8 +770,12 @@ public final class SafetyCenterService extends SystemService {
                 if (all || subjects.contains("data")) {
                     mSafetyCenterDataManager.dump(fd, fout);
                 }
+                if (all || subjects.contains("users")) {
+                    mUserProfileGroupCache.dump(fout);
+                }
                 if (all || subjects.contains("refresh")) {
                     mSafetyCenterRefreshTracker.dump(fout);
+                    mSafetyCenterBroadcastDispatcher.dump(fout);
                 }
                 if (all || subjects.contains("timeouts")) {
                     mSafetyCenterTimeouts.dump(fout);
@@ -761,6 +786,12 @@ public final class SafetyCenterService extends SystemService {
                 if (all || subjects.contains("notifications")) {
                     mNotificationSender.dump(fout);
                 }
+                if (all || subjects.contains("logging")) {
+                    mPullAtomCallback.dump(fout);
+                }
+                if (all || subjects.contains("latencies")) {
+                    LatencyStats.dump(fout, LatencyStats.Dump.SAFETY_CENTER);
+                }
             }
         }
 
@@ -803,6 +834,15 @@ public final class SafetyCenterService extends SystemService {
 
         @Override
         public void onPropertiesChanged(DeviceConfig.Properties properties) {
+            // Flags can change how the data is assembled, e.g. which issues are resurfaced or
+            // notified. The snapshots only need to be dropped for flags that affect them, as this
+            // listener is called for every flag of the namespace.
+            synchronized (mApiLock) {
+                if (SafetyCenterFlags.containsIssueResurfacingProperty(properties.getKeyset())) {
+                    mPullAtomCallback.clearSnapshots();
+                }
+                mNotificationSender.onFlagsChanged();
+            }
             if (!properties.getKeyset().contains(PROPERTY_SAFETY_CENTER_ENABLED)) {
                 return;
             }
@@ -845,64 +885,63 @@ public final class SafetyCenterService extends SystemService {
         }
     }
 
-    /** A {@link Runnable} that is called to signal a refresh timeout. */
+    /**
+     * A {@link Runnable} that is called to signal refresh timeouts.
+     *
+     * <p>There is a single instance of it, scheduled for the earliest deadline of all the source
+     * refreshes in flight, see {@link #scheduleRefreshTimeoutLocked()}.
+     */
     private final class RefreshTimeout implements Runnable {
 
-        private final String mRefreshBroadcastId;
-        @RefreshReason private final int mRefreshReason;
-        private final UserProfileGroup mUserProfileGroup;
-
-        RefreshTimeout(
-                String refreshBroadcastId,
-                @RefreshReason int refreshReason,
-                UserProfileGroup userProfileGroup) {
-            mRefreshBroadcastId = refreshBroadcastId;
-            mRefreshReason = refreshReason;
-            mUserProfileGroup = userProfileGroup;
-        }
-
         @Override
         public void run() {
             synchronized (mApiLock) {
                 mSafetyCenterTimeouts.remove(this);
-                ArraySet<SafetySourceKey> stillInFlight =
-                        mSafetyCenterRefreshTracker.timeoutRefresh(mRefreshBroadcastId);
-                if (stillInFlight == null) {
-                    return;
-                }
+                List<SafetyCenterRefreshTracker.TimedOutRefresh> timedOutRefreshes =
+                        mSafetyCenterRefreshTracker.timeoutSourceRefreshes();
+                scheduleRefreshTimeoutLocked();
                 boolean showErrorEntriesOnTimeout =
                         SafetyCenterFlags.getShowErrorEntriesOnTimeout();
-                boolean setError =
-                        showErrorEntriesOnTimeout
-                                && !RefreshReasons.isBackgroundRefresh(mRefreshReason);
-                for (int i = 0; i < stillInFlight.size(); i++) {
-                    mSafetyCenterDataManager.markSafetySourceRefreshTimedOut(
-                            stillInFlight.valueAt(i), setError);
-                }
-                mSafetyCenterDataChangeNotifier.updateDataConsumers(mUserProfileGroup);
-                if (!showErrorEntriesOnTimeout) {
-                    mSafetyCenterListeners.deliverErrorForUserProfileGroup(
-                            mUserProfileGroup,
-                            new SafetyCenterErrorDetails(
-                                    mSafetyCenterResourcesContext.getStringByName(
-                                            "refresh_timeout")));
+                for (int i = 0; i < timedOutRefreshes.size(); i++) {
+                    onRefreshTimedOutLocked(timedOutRefreshes.get(i), showErrorEntriesOnTimeout);
                 }
             }
+        }
+
+        @GuardedBy("mApiLock")
+        private void onRefreshTimedOutLocked(
+                SafetyCenterRefreshTracker.TimedOutRefresh timedOutRefresh,
+                boolean showErrorEntriesOnTimeout) {
+            ArraySet<SafetySourceKey> timedOutSources = timedOutRefresh.getTimedOutSources();
+            UserProfileGroup userProfileGroup = timedOutRefresh.getUserProfileGroup();
+            boolean setError =
+                    showErrorEntriesOnTimeout
+                            && !RefreshReasons.isBackgroundRefresh(
+                                    timedOutRefresh.getRefreshReason());
+            for (int i = 0; i < timedOutSources.size(); i++) {
+                mSafetyCenterDataManager.markSafetySourceRefreshTimedOut(
+                        timedOutSources.valueAt(i), setError);
+            }
+            mSafetyCenterDataChangeNotifier.updateDataConsumers(userProfileGroup);
+            if (!showErrorEntriesOnTimeout) {
+                mSafetyCenterListeners.deliverErrorForUserProfileGroup(
+                        userProfileGroup,
+                        new SafetyCenterErrorDetails(
+                                mSafetyCenterResourcesContext.getStringByName(
+                                        "refresh_timeout")));
+            }
 
             Log.v(
                     TAG,
-                    "Cleared refresh with broadcastId:" + mRefreshBroadcastId + " after a timeout");
+                    "Timed out "
+                            + timedOutSources.size()
+                            + " sources of refresh with broadcastId:"
+                            + timedOutRefresh.getRefreshBroadcastId());
         }
 
         @Override
         public String toString() {
-            return "RefreshTimeout{"
-                    + "mRefreshBroadcastId='"
-                    + mRefreshBroadcastId
-                    + '\''
-                    + ", mUserProfileGroup="
-                    + mUserProfileGroup
-                    + '}';
+            return "RefreshTimeout{}";
         }
     }
 
@@ -976,9 +1015,45 @@ public final class SafetyCenterService extends SystemService {
         }
     }
 
+    /**
+     * {@link BroadcastReceiver} which handles packages being added, changed, replaced or removed,
+     * as what is cached about their data and receivers no longer holds.
+     */
+    private final class PackageBroadcastReceiver extends BroadcastReceiver {
+
+        private static final String TAG = "PackageBroadcastReceiver";
+
+        void register(Context context) {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addDataScheme("package");
+            context.registerReceiverForAllUsers(this, filter, null, null);
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            if (data == null) {
+                Log.w(TAG, "Received " + intent.getAction() + " broadcast missing data!");
+                return;
+            }
+            String packageName = data.getSchemeSpecificPart();
+            synchronized (mApiLock) {
+                mSafetyCenterDataManager.onPackageChanged(packageName);
+                mSafetyCenterBroadcastDispatcher.onPackageChanged(packageName);
+            }
+        }
+    }
+
     /**
      * {@link BroadcastReceiver} which handles user and work profile related broadcasts that Safety
      * Center is interested including quiet mode turning on/off and accounts being added/removed.
+     *
+     * <p>All of these broadcasts invalidate the {@link UserProfileGroupCache}, but a user starting,
+     * stopping or being unlocked only invalidates the group of that user.
      */
     private final class UserBroadcastReceiver extends BroadcastReceiver {
 
@@ -992,6 +1067,10 @@ public final class SafetyCenterService extends SystemService {
             filter.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
             filter.addAction(Intent.ACTION_MANAGED_PROFILE_AVAILABLE);
             filter.addAction(Intent.ACTION_MANAGED_PROFILE_UNAVAILABLE);
+            filter.addAction(Intent.ACTION_MANAGED_PROFILE_UNLOCKED);
+            filter.addAction(Intent.ACTION_USER_STARTED);
+            filter.addAction(Intent.ACTION_USER_STOPPED);
+            filter.addAction(Intent.ACTION_USER_UNLOCKED);
             context.registerReceiverForAllUsers(this, filter, null, null);
         }
 
@@ -1002,6 +1081,22 @@ public final class SafetyCenterService extends SystemService {
                 Log.w(TAG, "Received broadcast with null action!");
                 return;
             }
+            switch (action) {
+                case Intent.ACTION_MANAGED_PROFILE_UNLOCKED:
+                case Intent.ACTION_USER_STARTED:
+                case Intent.ACTION_USER_STOPPED:
+                case Intent.ACTION_USER_UNLOCKED:
+                    // These only change whether a user is running, so only its group is affected.
+                    invalidateUserProfileGroupOf(intent);
+                    synchronized (mApiLock) {
+                        mSafetyCenterBroadcastDispatcher.clearReceiverResolutions();
+                    }
+                    return;
+            }
+            mUserProfileGroupCache.invalidate();
+            synchronized (mApiLock) {
+                mSafetyCenterBroadcastDispatcher.clearReceiverResolutions();
+            }
 
             UserHandle userHandle = intent.getParcelableExtra(Intent.EXTRA_USER, UserHandle.class);
             if (userHandle == null) {
@@ -1036,10 +1131,24 @@ public final class SafetyCenterService extends SystemService {
                     break;
             }
         }
+
+        private void invalidateUserProfileGroupOf(Intent intent) {
+            // ACTION_MANAGED_PROFILE_UNLOCKED has EXTRA_USER, the others have EXTRA_USER_HANDLE.
+            UserHandle userHandle = intent.getParcelableExtra(Intent.EXTRA_USER, UserHandle.class);
+            int userId =
+                    userHandle != null
+                            ? userHandle.getIdentifier()
+                            : intent.getIntExtra(Intent.EXTRA_USER_HANDLE, UserHandle.USER_NULL);
+            if (userId == UserHandle.USER_NULL) {
+                mUserProfileGroupCache.invalidate();
+                return;
+            }
+            mUserProfileGroupCache.invalidateUser(userId);
+        }
     }
 
     private void removeUser(@UserIdInt int userId, boolean clearDataPermanently) {
-        UserProfileGroup userProfileGroup = UserProfileGroup.fromUser(getContext(), userId);
+        UserProfileGroup userProfileGroup = mUserProfileGroupCache.fromUser(userId);
         synchronized (mApiLock) {
             mSafetyCenterListeners.clearForUser(userId);
             mSafetyCenterRefreshTracker.clearRefreshForUser(userId);
@@ -1047,6 +1156,7 @@ public final class SafetyCenterService extends SystemService {
             if (clearDataPermanently) {
                 mSafetyCenterDataManager.clearForUser(userId);
                 mSafetyCenterDataChangeNotifier.updateDataConsumers(userProfileGroup, userId);
+                mNotificationSender.clearForUser(userId);
             } else {
                 mSafetyCenterListeners.deliverDataForUserProfileGroup(userProfileGroup);
             }
@@ -1062,7 +1172,7 @@ public final class SafetyCenterService extends SystemService {
             @RefreshReason int refreshReason,
             @UserIdInt int userId,
             @Nullable List<String> selectedSafetySourceIds) {
-        UserProfileGroup userProfileGroup = UserProfileGroup.fromUser(getContext(), userId);
+        UserProfileGroup userProfileGroup = mUserProfileGroupCache.fromUser(userId);
         synchronized (mApiLock) {
             String refreshBroadcastId =
                     mSafetyCenterBroadcastDispatcher.sendRefreshSafetySources(
@@ -1071,15 +1181,26 @@ public final class SafetyCenterService extends SystemService {
                 return;
             }
 
-            RefreshTimeout refreshTimeout =
-                    new RefreshTimeout(refreshBroadcastId, refreshReason, userProfileGroup);
-            mSafetyCenterTimeouts.add(
-                    refreshTimeout, SafetyCenterFlags.getRefreshSourcesTimeout(refreshReason));
+            scheduleRefreshTimeoutLocked();
 
             mSafetyCenterDataChangeNotifier.updateDataConsumers(userProfileGroup);
         }
     }
 
+    /**
+     * Schedules the {@link RefreshTimeout} for the earliest deadline of all the source refreshes
+     * in flight, if any.
+     */
+    @GuardedBy("mApiLock")
+    private void scheduleRefreshTimeoutLocked() {
+        mSafetyCenterTimeouts.remove(mRefreshTimeout);
+        Duration timeUntilNextSourceDeadline =
+                mSafetyCenterRefreshTracker.getTimeUntilNextSourceDeadline();
+        if (timeUntilNextSourceDeadline != null) {
+            mSafetyCenterTimeouts.add(mRefreshTimeout, timeUntilNextSourceDeadline);
+        }
+    }
+
     /**
      * Executes the {@link SafetySourceIssue.Action} specified by the given {@link
      * SafetyCenterIssueActionId}.
@@ -1090,7 +1211,7 @@ public final class SafetyCenterService extends SystemService {
         SafetyCenterIssueKey safetyCenterIssueKey =
                 safetyCenterIssueActionId.getSafetyCenterIssueKey();
         UserProfileGroup userProfileGroup =
-                UserProfileGroup.fromUser(getContext(), safetyCenterIssueKey.getUserId());
+                mUserProfileGroupCache.fromUser(safetyCenterIssueKey.getUserId());
         executeIssueActionInternal(safetyCenterIssueActionId, userProfileGroup, null);
     }
 
@@ -1157,6 +1278,7 @@ public final class SafetyCenterService extends SystemService {
         mSafetyCenterTimeouts.clear();
         mSafetyCenterRefreshTracker.clearRefresh();
         mNotificationSender.cancelAllNotifications();
+        mPullAtomCallback.clearSnapshots();
     }
 
     /** Dumps state for debugging purposes. */
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter;
+
+import static android.os.Build.VERSION_CODES.TIRAMISU;
+
+import static java.util.Collections.unmodifiableList;
+
+import android.annotation.Nullable;
+import android.annotation.UserIdInt;
+import android.content.Context;
+import android.util.ArraySet;
+import android.util.SparseArray;
+
+import androidx.annotation.RequiresApi;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A cache of the {@link UserProfileGroup}s of the device.
+ *
+ * <p>Computing a {@link UserProfileGroup} takes several calls to the {@link
+ * android.os.UserManager}, so they are computed once and kept until {@link #invalidate()} is called
+ * because users or profiles were added, removed or changed availability. When a user is only
+ * started, stopped or unlocked, {@link #invalidateUser(int)} recomputes the group of that user
+ * only.
+ *
+ * <p>{@link UserProfileGroup}s are immutable, so they can be shared by all callers.
+ *
+ * @hide
+ */
+@RequiresApi(TIRAMISU)
+@ThreadSafe
+public final class UserProfileGroupCache {
+
+    private final Context mContext;
+
+    private final Object mLock = new Object();
+
+    /** User id -> the {@link UserProfileGroup} returned for it. */
+    @GuardedBy("mLock")
+    private final SparseArray<UserProfileGroup> mUserProfileGroups = new SparseArray<>();
+
+    @GuardedBy("mLock")
+    @Nullable
+    private List<UserProfileGroup> mAllUserProfileGroups;
+
+    /**
+     * The profile parent user ids of the groups of {@link #mAllUserProfileGroups} that must be
+     * recomputed before it is returned again.
+     */
+    @GuardedBy("mLock")
+    private final ArraySet<Integer> mStaleProfileParentUserIds = new ArraySet<>();
+
+    /** Incremented on every invalidation, so that in-flight loads don't add stale entries. */
+    @GuardedBy("mLock")
+    private long mGeneration = 0;
+
+    @GuardedBy("mLock")
+    private long mHitCount = 0;
+
+    @GuardedBy("mLock")
+    private long mMissCount = 0;
+
+    UserProfileGroupCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns the {@link UserProfileGroup} associated with the given {@code userId}.
+     *
+     * @see UserProfileGroup#fromUser(Context, int)
+     */
+    public UserProfileGroup fromUser(@UserIdInt int userId) {
+        long loadGeneration;
+        synchronized (mLock) {
+            UserProfileGroup userProfileGroup = mUserProfileGroups.get(userId);
+            if (userProfileGroup != null) {
+                mHitCount++;
+                return userProfileGroup;
+            }
+            mMissCount++;
+            loadGeneration = mGeneration;
+        }
+
+        UserProfileGroup userProfileGroup = UserProfileGroup.fromUser(mContext, userId);
+        synchronized (mLock) {
+            if (mGeneration == loadGeneration) {
+                mUserProfileGroups.put(userId, userProfileGroup);
+            }
+        }
+        return userProfileGroup;
+    }
+
+    /**
+     * Returns all the alive {@link UserProfileGroup}s, in an unmodifiable list.
+     *
+     * @see UserProfileGroup#getAllUserProfileGroups(Context)
+     */
+    public List<UserProfileGroup> getAllUserProfileGroups() {
+        long loadGeneration;
+        List<UserProfileGroup> cachedUserProfileGroups;
+        ArraySet<Integer> staleProfileParentUserIds;
+        synchronized (mLock) {
+            if (mAllUserProfileGroups != null && mStaleProfileParentUserIds.isEmpty()) {
+                mHitCount++;
+                return mAllUserProfileGroups;
+            }
+            mMissCount++;
+            loadGeneration = mGeneration;
+            cachedUserProfileGroups = mAllUserProfileGroups;
+            staleProfileParentUserIds = new ArraySet<>(mStaleProfileParentUserIds);
+        }
+
+        List<UserProfileGroup> allUserProfileGroups =
+                cachedUserProfileGroups == null
+                        ? UserProfileGroup.getAllUserProfileGroups(mContext)
+                        : recompute(cachedUserProfileGroups, staleProfileParentUserIds);
+        allUserProfileGroups = unmodifiableList(allUserProfileGroups);
+        synchronized (mLock) {
+            if (mGeneration == loadGeneration) {
+                mAllUserProfileGroups = allUserProfileGroups;
+                mStaleProfileParentUserIds.removeAll(staleProfileParentUserIds);
+            }
+        }
+        return allUserProfileGroups;
+    }
+
+    /**
+     * Returns a copy of the given {@link UserProfileGroup}s, with the groups of the given profile
+     * parent user ids recomputed.
+     */
+    private List<UserProfileGroup> recompute(
+            List<UserProfileGroup> userProfileGroups, ArraySet<Integer> profileParentUserIds) {
+        List<UserProfileGroup> recomputedUserProfileGroups =
+                new ArrayList<>(userProfileGroups.size());
+        for (int i = 0; i < userProfileGroups.size(); i++) {
+            UserProfileGroup userProfileGroup = userProfileGroups.get(i);
+            int profileParentUserId = userProfileGroup.getProfileParentUserId();
+            if (profileParentUserIds.contains(profileParentUserId)) {
+                userProfileGroup = fromUser(profileParentUserId);
+            }
+            recomputedUserProfileGroups.add(userProfileGroup);
+        }
+        return recomputedUserProfileGroups;
+    }
+
+    /** Drops all cached {@link UserProfileGroup}s, as the users of the device changed. */
+    public void invalidate() {
+        synchronized (mLock) {
+            mGeneration++;
+            mUserProfileGroups.clear();
+            mAllUserProfileGroups = null;
+            mStaleProfileParentUserIds.clear();
+        }
+    }
+
+    /**
+     * Drops the cached {@link UserProfileGroup} containing the given {@code userId}, as whether it
+     * is running changed.
+     *
+     * <p>The users and profiles of the device must be unchanged, otherwise {@link #invalidate()}
+     * must be called instead.
+     */
+    public void invalidateUser(@UserIdInt int userId) {
+        synchronized (mLock) {
+            mGeneration++;
+            // Loop in reverse index order to be able to remove entries while iterating.
+            for (int i = mUserProfileGroups.size() - 1; i >= 0; i--) {
+                UserProfileGroup userProfileGroup = mUserProfileGroups.valueAt(i);
+                if (mUserProfileGroups.keyAt(i) == userId || userProfileGroup.contains(userId)) {
+                    mUserProfileGroups.removeAt(i);
+                }
+            }
+            if (mAllUserProfileGroups == null) {
+                return;
+            }
+            for (int i = 0; i < mAllUserProfileGroups.size(); i++) {
+                UserProfileGroup userProfileGroup = mAllUserProfileGroups.get(i);
+                if (userProfileGroup.contains(userId)) {
+                    mStaleProfileParentUserIds.add(userProfileGroup.getProfileParentUserId());
+                }
+            }
+        }
+    }
+
+    /** Dumps state for debugging purposes. */
+    void dump(PrintWriter fout) {
+        synchronized (mLock) {
+            int count = mUserProfileGroups.size();
+            fout.println(
+                    "USER PROFILE GROUPS ("
+                            + count
+                            + ", hits="
+                            + mHitCount
+                            + ", misses="
+                            + mMissCount
+                            + ")");
+            for (int i = 0; i < count; i++) {
+                fout.println(
+                        "\t["
+                                + mUserProfileGroups.keyAt(i)
+                                + "] "
+                                + mUserProfileGroups.valueAt(i));
+            }
+            fout.println();
+        }
+    }
+}
@@ -73,6 +73,7 @@ public final class SafetyCenterDataManager {
     private final SafetyCenterInFlightIssueActionRepository
             mSafetyCenterInFlightIssueActionRepository;
     private final SafetySourceDataValidator mSafetySourceDataValidator;
+    private final SafetySourceDataIngestion mSafetySourceDataIngestion;
     private final SafetySourceStateCollectedLogger mSafetySourceStateCollectedLogger;
 
     /** Creates an instance of {@link SafetyCenterDataManager}. */
@@ -100,6 +101,7 @@ public final class SafetyCenterDataManager {
                         new SafetyCenterIssueDeduplicator(mSafetyCenterIssueDismissalRepository));
         mSafetySourceDataValidator =
                 new SafetySourceDataValidator(context, safetyCenterConfigReader);
+        mSafetySourceDataIngestion = new SafetySourceDataIngestion(safetyCenterConfigReader);
         mSafetySourceStateCollectedLogger =
                 new SafetySourceStateCollectedLogger(
                         context,
@@ -125,6 +127,10 @@ public final class SafetyCenterDataManager {
      * SafetySourceData} entry and clears the {@link SafetyCenterIssueDismissalRepository} for the
      * source.
      *
+     * <p>Setting the same {@link SafetySourceData} as the last accepted one for the source is
+     * still validated, but skips its processing, as long as the config of the source did not
+     * change.
+     *
      * <p>This method may modify the {@link SafetyCenterIssueDismissalRepository}.
      */
     public boolean setSafetySourceData(
@@ -133,23 +139,37 @@ public final class SafetyCenterDataManager {
             SafetyEvent safetyEvent,
             String packageName,
             @UserIdInt int userId) {
-        if (!mSafetySourceDataValidator.validateRequest(
-                safetySourceData, safetySourceId, packageName, userId)) {
+        if (!validateSafetySourceData(safetySourceData, safetySourceId, packageName, userId)) {
             return false;
         }
+        boolean isDuplicate =
+                mSafetySourceDataIngestion.isDuplicate(
+                        safetySourceData, safetySourceId, packageName, userId);
+        if (!isDuplicate) {
+            enforceMemoryBudget(safetySourceData, safetySourceId);
+        }
         SafetySourceKey key = SafetySourceKey.of(safetySourceId, userId);
 
         // Must fetch refresh reason before calling processSafetyEvent because the latter may
-        // complete and clear the current refresh.
+        // complete and clear the refresh.
         // TODO(b/277174417): Restructure this code to avoid this error-prone sequencing concern
         Integer refreshReason = null;
         if (safetyEvent.getType() == SafetyEvent.SAFETY_EVENT_TYPE_REFRESH_REQUESTED) {
-            refreshReason = mSafetyCenterRefreshTracker.getRefreshReason();
+            refreshReason =
+                    mSafetyCenterRefreshTracker.getRefreshReason(
+                            safetyEvent.getRefreshBroadcastId());
         }
 
-        boolean sourceDataDiffers =
-                mSafetySourceDataRepository.setSafetySourceData(
-                        safetySourceData, safetySourceId, userId);
+        boolean sourceDataDiffers = false;
+        if (isDuplicate) {
+            mSafetySourceDataRepository.markSafetySourceDataUnchanged(key);
+        } else {
+            sourceDataDiffers =
+                    mSafetySourceDataRepository.setSafetySourceData(
+                            safetySourceData, safetySourceId, userId);
+            mSafetySourceDataIngestion.onAccepted(
+                    safetySourceData, safetySourceId, packageName, userId);
+        }
         boolean eventCausedChange =
                 processSafetyEvent(safetySourceId, safetyEvent, userId, false, sourceDataDiffers);
         boolean safetyCenterDataChanged = sourceDataDiffers || eventCausedChange;
@@ -164,6 +184,36 @@ public final class SafetyCenterDataManager {
         return safetyCenterDataChanged;
     }
 
+    private boolean validateSafetySourceData(
+            @Nullable SafetySourceData safetySourceData,
+            String safetySourceId,
+            String packageName,
+            @UserIdInt int userId) {
+        boolean isValid;
+        try {
+            isValid =
+                    mSafetySourceDataValidator.validateRequest(
+                            safetySourceData, safetySourceId, packageName, userId);
+        } catch (RuntimeException e) {
+            mSafetySourceDataIngestion.onRejected();
+            throw e;
+        }
+        if (!isValid) {
+            mSafetySourceDataIngestion.onRejected();
+        }
+        return isValid;
+    }
+
+    private void enforceMemoryBudget(
+            @Nullable SafetySourceData safetySourceData, String safetySourceId) {
+        try {
+            mSafetySourceDataIngestion.enforceMemoryBudget(safetySourceData, safetySourceId);
+        } catch (RuntimeException e) {
+            mSafetySourceDataIngestion.onRejected();
+            throw e;
+        }
+    }
+
     /**
      * Marks the issue with the given key as dismissed.
      *
@@ -206,13 +256,16 @@ public final class SafetyCenterDataManager {
         SafetySourceKey key = SafetySourceKey.of(safetySourceId, userId);
 
         // Must fetch refresh reason before calling processSafetyEvent because the latter may
-        // complete and clear the current refresh.
+        // complete and clear the refresh.
         // TODO(b/277174417): Restructure this code to avoid this error-prone sequencing concern
         Integer refreshReason = null;
         if (safetyEvent.getType() == SafetyEvent.SAFETY_EVENT_TYPE_REFRESH_REQUESTED) {
-            refreshReason = mSafetyCenterRefreshTracker.getRefreshReason();
+            refreshReason =
+                    mSafetyCenterRefreshTracker.getRefreshReason(
+                            safetyEvent.getRefreshBroadcastId());
         }
 
+        mSafetySourceDataIngestion.forget(key);
         boolean sourceDataDiffers =
                 mSafetySourceDataRepository.reportSafetySourceError(
                         safetySourceErrorDetails, safetySourceId, userId);
@@ -236,6 +289,9 @@ public final class SafetyCenterDataManager {
      * @param setError whether we should clear the data associated with the source and set an error
      */
     public void markSafetySourceRefreshTimedOut(SafetySourceKey safetySourceKey, boolean setError) {
+        if (setError) {
+            mSafetySourceDataIngestion.forget(safetySourceKey);
+        }
         boolean dataUpdated =
                 mSafetySourceDataRepository.markSafetySourceRefreshTimedOut(
                         safetySourceKey, setError);
@@ -275,14 +331,26 @@ public final class SafetyCenterDataManager {
 
     /** Clears all data related to the given {@code userId}. */
     public void clearForUser(@UserIdInt int userId) {
+        mSafetySourceDataIngestion.clearForUser(userId);
         mSafetySourceDataRepository.clearForUser(userId);
         mSafetyCenterInFlightIssueActionRepository.clearForUser(userId);
         mSafetyCenterIssueDismissalRepository.clearForUser(userId);
         mSafetyCenterIssueRepository.clearForUser(userId);
     }
 
+    /**
+     * Drops what is cached about the given {@code packageName}, as it may have been removed or
+     * reinstalled.
+     */
+    public void onPackageChanged(String packageName) {
+        mSafetySourceDataIngestion.onPackageChanged(packageName);
+        mSafetySourceDataValidator.onPackageChanged(packageName);
+    }
+
     /** Clears all stored data. */
     public void clear() {
+        mSafetySourceDataIngestion.clear();
+        mSafetySourceDataValidator.clear();
         mSafetySourceDataRepository.clear();
         mSafetyCenterIssueDismissalRepository.clear();
         mSafetyCenterInFlightIssueActionRepository.clear();
@@ -364,6 +432,29 @@ public final class SafetyCenterDataManager {
         return mSafetyCenterIssueRepository.countLoggableIssuesFor(userProfileGroup);
     }
 
+    /**
+     * Returns the earliest time at which a currently dismissed issue of the given {@link
+     * UserProfileGroup} will resurface, or {@code null} if there is no such issue.
+     */
+    @Nullable
+    public Instant getNextIssueResurfaceTime(UserProfileGroup userProfileGroup) {
+        List<SafetySourceIssueInfo> issues =
+                mSafetyCenterIssueRepository.getIssuesDedupedSortedDescFor(userProfileGroup);
+        Instant nextResurfaceTime = null;
+        for (int i = 0; i < issues.size(); i++) {
+            SafetySourceIssueInfo issueInfo = issues.get(i);
+            Instant resurfaceTime =
+                    mSafetyCenterIssueDismissalRepository.getIssueResurfaceTime(
+                            issueInfo.getSafetyCenterIssueKey(),
+                            issueInfo.getSafetySourceIssue().getSeverityLevel());
+            if (resurfaceTime != null
+                    && (nextResurfaceTime == null || resurfaceTime.isBefore(nextResurfaceTime))) {
+                nextResurfaceTime = resurfaceTime;
+            }
+        }
+        return nextResurfaceTime;
+    }
+
     /** Gets an unmodifiable list of all issues for the given {@code userId}. */
     public List<SafetySourceIssueInfo> getIssuesForUser(@UserIdInt int userId) {
         return mSafetyCenterIssueRepository.getIssuesForUser(userId);
@@ -466,6 +557,7 @@ public final class SafetyCenterDataManager {
     /** Dumps state for debugging purposes. */
     public void dump(FileDescriptor fd, PrintWriter fout) {
         mSafetySourceDataRepository.dump(fout);
+        mSafetySourceDataIngestion.dump(fout);
         mSafetyCenterIssueDismissalRepository.dump(fd, fout);
         mSafetyCenterInFlightIssueActionRepository.dump(fout);
         mSafetyCenterIssueRepository.dump(fout);
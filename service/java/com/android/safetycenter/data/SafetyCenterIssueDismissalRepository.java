@@ -137,6 +137,36 @@ final class SafetyCenterIssueDismissalRepository {
         return true;
     }
 
+    /**
+     * Returns the time at which the issue with the given key will stop being dismissed, or {@code
+     * null} if it isn't currently dismissed or if it will never resurface.
+     *
+     * @see #isIssueDismissed(SafetyCenterIssueKey, int)
+     */
+    @Nullable
+    Instant getIssueResurfaceTime(
+            SafetyCenterIssueKey safetyCenterIssueKey,
+            @SafetySourceData.SeverityLevel int safetySourceIssueSeverityLevel) {
+        IssueData issueData = mIssues.get(safetyCenterIssueKey);
+        if (issueData == null) {
+            return null;
+        }
+
+        Instant dismissedAt = issueData.getDismissedAt();
+        if (dismissedAt == null) {
+            return null;
+        }
+
+        long maxCount = SafetyCenterFlags.getResurfaceIssueMaxCount(safetySourceIssueSeverityLevel);
+        if (issueData.getDismissCount() > maxCount) {
+            return null;
+        }
+
+        Duration delay = SafetyCenterFlags.getResurfaceIssueDelay(safetySourceIssueSeverityLevel);
+        Instant resurfaceAt = dismissedAt.plus(delay);
+        return Instant.now().isBefore(resurfaceAt) ? resurfaceAt : null;
+    }
+
     /**
      * Marks the issue with the given key as dismissed.
      *
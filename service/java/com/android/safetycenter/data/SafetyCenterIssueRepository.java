@@ -45,7 +45,6 @@ import com.android.safetycenter.internaldata.SafetyCenterIssueKey;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 
@@ -60,10 +59,6 @@ import javax.annotation.concurrent.NotThreadSafe;
 @NotThreadSafe
 final class SafetyCenterIssueRepository {
 
-    private static final SafetySourceIssuesInfoBySeverityDescending
-            SAFETY_SOURCE_ISSUES_INFO_BY_SEVERITY_DESCENDING =
-                    new SafetySourceIssuesInfoBySeverityDescending();
-
     private static final DeduplicationInfo EMPTY_DEDUP_INFO =
             new DeduplicationInfo(emptyList(), emptyList(), emptyMap());
 
@@ -113,7 +108,7 @@ final class SafetyCenterIssueRepository {
         List<SafetySourceIssueInfo> issues =
                 getAllStoredIssuesFromRawSourceData(userId, isManagedProfile);
 
-        issues.sort(SAFETY_SOURCE_ISSUES_INFO_BY_SEVERITY_DESCENDING);
+        issues.sort(SafetySourceIssuesInfoBySeverityDescending.INSTANCE);
 
         mUserIdToDedupInfo.put(userId, produceDedupInfo(issues));
     }
@@ -136,7 +131,7 @@ final class SafetyCenterIssueRepository {
      */
     List<SafetySourceIssueInfo> getIssuesDedupedSortedDescFor(UserProfileGroup userProfileGroup) {
         List<SafetySourceIssueInfo> issuesInfo = getIssuesFor(userProfileGroup);
-        issuesInfo.sort(SAFETY_SOURCE_ISSUES_INFO_BY_SEVERITY_DESCENDING);
+        issuesInfo.sort(SafetySourceIssuesInfoBySeverityDescending.INSTANCE);
         return issuesInfo;
     }
 
@@ -273,20 +268,6 @@ final class SafetyCenterIssueRepository {
         return issues;
     }
 
-    /** A comparator to order {@link SafetySourceIssueInfo} by severity level descending. */
-    private static final class SafetySourceIssuesInfoBySeverityDescending
-            implements Comparator<SafetySourceIssueInfo> {
-
-        private SafetySourceIssuesInfoBySeverityDescending() {}
-
-        @Override
-        public int compare(SafetySourceIssueInfo left, SafetySourceIssueInfo right) {
-            return Integer.compare(
-                    right.getSafetySourceIssue().getSeverityLevel(),
-                    left.getSafetySourceIssue().getSeverityLevel());
-        }
-    }
-
     /** Dumps state for debugging purposes. */
     void dump(PrintWriter fout) {
         fout.println("ISSUE REPOSITORY");
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.data;
+
+import static android.os.Build.VERSION_CODES.TIRAMISU;
+
+import static android.os.Build.VERSION_CODES.UPSIDE_DOWN_CAKE;
+
+import android.annotation.Nullable;
+import android.annotation.UserIdInt;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.safetycenter.SafetySourceData;
+import android.safetycenter.SafetySourceIssue;
+import android.safetycenter.SafetySourceStatus;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.modules.utils.build.SdkLevel;
+import com.android.safetycenter.SafetyCenterConfigReader;
+import com.android.safetycenter.SafetyCenterFlags;
+import com.android.safetycenter.SafetySourceKey;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Tracks the last {@link SafetySourceData} accepted from each safety source, so that a source
+ * setting the same data again can skip the processing of its update. Updates must still be
+ * validated before they are checked here.
+ *
+ * <p>Updates must also fit within the per-source memory budget defined by {@link
+ * SafetyCenterFlags#getSafetySourceDataMaxBytes()}, which is checked against an estimate of
+ * their size rather than by parcelling them.
+ *
+ * <p>An entry must be {@link #forget forgotten} whenever the data stored for its source changes
+ * without going through {@link #onAccepted}, e.g. when an error is reported.
+ *
+ * <p>This class isn't thread safe. Thread safety must be handled by the caller.
+ */
+@RequiresApi(TIRAMISU)
+@NotThreadSafe
+final class SafetySourceDataIngestion {
+
+    private static final String TAG = "SafetySourceDataIngest";
+
+    /** The size in bytes counted for every object of a {@link SafetySourceData}, besides text. */
+    private static final long OBJECT_SIZE_BYTES = 64;
+
+    private final ArrayMap<SafetySourceKey, AcceptedUpdate> mAcceptedUpdates = new ArrayMap<>();
+    private final SafetyCenterConfigReader mSafetyCenterConfigReader;
+
+    private long mAcceptedCount = 0;
+    private long mDuplicateCount = 0;
+    private long mRejectedCount = 0;
+
+    SafetySourceDataIngestion(SafetyCenterConfigReader safetyCenterConfigReader) {
+        mSafetyCenterConfigReader = safetyCenterConfigReader;
+    }
+
+    /**
+     * Returns {@code true} if the given update is the same as the last update accepted for its
+     * source, in which case it does not need to be processed again.
+     *
+     * <p>This is only the case if the {@link SafetyCenterConfigReader.ExternalSafetySource} of the
+     * source did not change since, so that a new config is always validated against.
+     */
+    boolean isDuplicate(
+            @Nullable SafetySourceData safetySourceData,
+            String safetySourceId,
+            String packageName,
+            @UserIdInt int userId) {
+        AcceptedUpdate acceptedUpdate =
+                mAcceptedUpdates.get(SafetySourceKey.of(safetySourceId, userId));
+        if (acceptedUpdate == null
+                || !acceptedUpdate.mPackageName.equals(packageName)
+                || acceptedUpdate.mExternalSafetySource
+                        != mSafetyCenterConfigReader.getExternalSafetySource(
+                                safetySourceId, packageName)
+                || !mSafetyCenterConfigReader.isExternalSafetySourceActive(
+                        safetySourceId, packageName)
+                || !Objects.equals(acceptedUpdate.mSafetySourceData, safetySourceData)) {
+            return false;
+        }
+        mDuplicateCount++;
+        return true;
+    }
+
+    /**
+     * Throws an {@link IllegalArgumentException} if the given {@link SafetySourceData} does not
+     * fit within the memory budget of a source.
+     */
+    void enforceMemoryBudget(@Nullable SafetySourceData safetySourceData, String safetySourceId) {
+        if (safetySourceData == null) {
+            return;
+        }
+        long maxBytes = SafetyCenterFlags.getSafetySourceDataMaxBytes();
+        long sizeBytes = estimateSizeBytes(safetySourceData);
+        if (sizeBytes > maxBytes) {
+            Log.w(
+                    TAG,
+                    "Data of size: "
+                            + sizeBytes
+                            + " exceeds the budget: "
+                            + maxBytes
+                            + ", for safety source: "
+                            + safetySourceId);
+            throw new IllegalArgumentException(
+                    "Data too large for safety source: " + safetySourceId);
+        }
+    }
+
+    /**
+     * Records the given update as the last one accepted for its source.
+     *
+     * <p>The given {@link SafetySourceData} should be the one received from the source, before any
+     * rewrite, as incoming updates are compared against it.
+     */
+    void onAccepted(
+            @Nullable SafetySourceData safetySourceData,
+            String safetySourceId,
+            String packageName,
+            @UserIdInt int userId) {
+        mAcceptedCount++;
+        SafetyCenterConfigReader.ExternalSafetySource externalSafetySource =
+                mSafetyCenterConfigReader.getExternalSafetySource(safetySourceId, packageName);
+        if (externalSafetySource == null) {
+            return;
+        }
+        mAcceptedUpdates.put(
+                SafetySourceKey.of(safetySourceId, userId),
+                new AcceptedUpdate(safetySourceData, packageName, externalSafetySource));
+    }
+
+    /** Records that an update was rejected, either because it's invalid or ignored. */
+    void onRejected() {
+        mRejectedCount++;
+    }
+
+    /** Forgets the last update accepted for the given {@link SafetySourceKey}. */
+    void forget(SafetySourceKey safetySourceKey) {
+        mAcceptedUpdates.remove(safetySourceKey);
+    }
+
+    /**
+     * Forgets the last updates accepted from the given {@code packageName}, as it may have been
+     * removed or reinstalled.
+     */
+    void onPackageChanged(String packageName) {
+        // Loop in reverse index order to be able to remove entries while iterating.
+        for (int i = mAcceptedUpdates.size() - 1; i >= 0; i--) {
+            if (mAcceptedUpdates.valueAt(i).mPackageName.equals(packageName)) {
+                mAcceptedUpdates.removeAt(i);
+            }
+        }
+    }
+
+    /** Clears all accepted updates for all users. */
+    void clear() {
+        mAcceptedUpdates.clear();
+    }
+
+    /** Clears all accepted updates for the given user. */
+    void clearForUser(@UserIdInt int userId) {
+        // Loop in reverse index order to be able to remove entries while iterating.
+        for (int i = mAcceptedUpdates.size() - 1; i >= 0; i--) {
+            if (mAcceptedUpdates.keyAt(i).getUserId() == userId) {
+                mAcceptedUpdates.removeAt(i);
+            }
+        }
+    }
+
+    /** Dumps state for debugging purposes. */
+    void dump(PrintWriter fout) {
+        fout.println(
+                "SOURCE DATA INGESTION (accepted="
+                        + mAcceptedCount
+                        + ", duplicate="
+                        + mDuplicateCount
+                        + ", rejected="
+                        + mRejectedCount
+                        + ")");
+        int count = mAcceptedUpdates.size();
+        for (int i = 0; i < count; i++) {
+            fout.println(
+                    "\t["
+                            + i
+                            + "] "
+                            + mAcceptedUpdates.keyAt(i)
+                            + " -> "
+                            + mAcceptedUpdates.valueAt(i).mPackageName);
+        }
+        fout.println();
+    }
+
+    /**
+     * Returns an estimate of the size in bytes of the given {@link SafetySourceData}.
+     *
+     * <p>The estimate counts two bytes per character of text and a fixed size per object, as the
+     * text is what can make the data large. Only the extras, if any, are parcelled to be measured.
+     */
+    @VisibleForTesting
+    static long estimateSizeBytes(SafetySourceData safetySourceData) {
+        long sizeBytes = OBJECT_SIZE_BYTES;
+        SafetySourceStatus safetySourceStatus = safetySourceData.getStatus();
+        if (safetySourceStatus != null) {
+            sizeBytes +=
+                    OBJECT_SIZE_BYTES
+                            + textSizeBytes(safetySourceStatus.getTitle())
+                            + textSizeBytes(safetySourceStatus.getSummary());
+        }
+        List<SafetySourceIssue> safetySourceIssues = safetySourceData.getIssues();
+        for (int i = 0; i < safetySourceIssues.size(); i++) {
+            sizeBytes += estimateSizeBytes(safetySourceIssues.get(i));
+        }
+        if (SdkLevel.isAtLeastU()) {
+            sizeBytes += getExtrasSizeBytes(safetySourceData);
+        }
+        return sizeBytes;
+    }
+
+    private static long estimateSizeBytes(SafetySourceIssue safetySourceIssue) {
+        long sizeBytes =
+                OBJECT_SIZE_BYTES
+                        + textSizeBytes(safetySourceIssue.getId())
+                        + textSizeBytes(safetySourceIssue.getTitle())
+                        + textSizeBytes(safetySourceIssue.getSubtitle())
+                        + textSizeBytes(safetySourceIssue.getSummary())
+                        + textSizeBytes(safetySourceIssue.getIssueTypeId())
+                        + estimateSizeBytes(safetySourceIssue.getActions());
+        if (SdkLevel.isAtLeastU()) {
+            sizeBytes += estimateSizeBytesU(safetySourceIssue);
+        }
+        return sizeBytes;
+    }
+
+    @RequiresApi(UPSIDE_DOWN_CAKE)
+    private static long estimateSizeBytesU(SafetySourceIssue safetySourceIssue) {
+        long sizeBytes =
+                textSizeBytes(safetySourceIssue.getAttributionTitle())
+                        + textSizeBytes(safetySourceIssue.getDeduplicationId());
+        SafetySourceIssue.Notification customNotification =
+                safetySourceIssue.getCustomNotification();
+        if (customNotification != null) {
+            sizeBytes +=
+                    OBJECT_SIZE_BYTES
+                            + textSizeBytes(customNotification.getTitle())
+                            + textSizeBytes(customNotification.getText())
+                            + estimateSizeBytes(customNotification.getActions());
+        }
+        return sizeBytes;
+    }
+
+    private static long estimateSizeBytes(List<SafetySourceIssue.Action> actions) {
+        long sizeBytes = 0;
+        for (int i = 0; i < actions.size(); i++) {
+            SafetySourceIssue.Action action = actions.get(i);
+            sizeBytes +=
+                    OBJECT_SIZE_BYTES
+                            + textSizeBytes(action.getId())
+                            + textSizeBytes(action.getLabel())
+                            + textSizeBytes(action.getSuccessMessage());
+            if (SdkLevel.isAtLeastU()) {
+                sizeBytes += estimateConfirmationDialogSizeBytes(action);
+            }
+        }
+        return sizeBytes;
+    }
+
+    @RequiresApi(UPSIDE_DOWN_CAKE)
+    private static long estimateConfirmationDialogSizeBytes(SafetySourceIssue.Action action) {
+        SafetySourceIssue.Action.ConfirmationDialogDetails confirmationDialogDetails =
+                action.getConfirmationDialogDetails();
+        if (confirmationDialogDetails == null) {
+            return 0;
+        }
+        return OBJECT_SIZE_BYTES
+                + textSizeBytes(confirmationDialogDetails.getTitle())
+                + textSizeBytes(confirmationDialogDetails.getText())
+                + textSizeBytes(confirmationDialogDetails.getAcceptButtonText())
+                + textSizeBytes(confirmationDialogDetails.getDenyButtonText());
+    }
+
+    @RequiresApi(UPSIDE_DOWN_CAKE)
+    private static long getExtrasSizeBytes(SafetySourceData safetySourceData) {
+        Bundle extras = safetySourceData.getExtras();
+        Parcel parcel = Parcel.obtain();
+        try {
+            // The extras are still parcelled as received, so this only copies their bytes.
+            extras.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static long textSizeBytes(@Nullable CharSequence text) {
+        return text == null ? 0 : 2L * text.length();
+    }
+
+    /**
+     * The last update accepted for a source.
+     *
+     * <p>For most sources the {@link SafetySourceData} is the same instance as the one stored in
+     * the {@link SafetySourceDataRepository}, so keeping it here doesn't use more memory.
+     */
+    private static final class AcceptedUpdate {
+
+        @Nullable private final SafetySourceData mSafetySourceData;
+        private final String mPackageName;
+        private final SafetyCenterConfigReader.ExternalSafetySource mExternalSafetySource;
+
+        private AcceptedUpdate(
+                @Nullable SafetySourceData safetySourceData,
+                String packageName,
+                SafetyCenterConfigReader.ExternalSafetySource externalSafetySource) {
+            mSafetySourceData = safetySourceData;
+            mPackageName = packageName;
+            mExternalSafetySource = externalSafetySource;
+        }
+    }
+}
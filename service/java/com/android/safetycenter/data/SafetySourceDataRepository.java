@@ -117,6 +117,14 @@ final class SafetySourceDataRepository {
         return sourceDataDiffers || removedSourceError;
     }
 
+    /**
+     * Records that the given {@link SafetySourceKey} set the same {@link SafetySourceData} as it
+     * did last, without comparing it again.
+     */
+    void markSafetySourceDataUnchanged(SafetySourceKey key) {
+        setLastUpdatedNow(key);
+    }
+
     private void setSafetySourceDataInternal(SafetySourceKey key, @Nullable SafetySourceData data) {
         ArraySet<String> issueIds = new ArraySet<>();
         if (data == null) {
@@ -27,6 +27,8 @@ import android.safetycenter.SafetySourceData;
 import android.safetycenter.SafetySourceIssue;
 import android.safetycenter.SafetySourceStatus;
 import android.safetycenter.config.SafetySource;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 
 import androidx.annotation.RequiresApi;
@@ -58,6 +60,13 @@ final class SafetySourceDataValidator {
     private final SafetyCenterConfigReader mSafetyCenterConfigReader;
     private final PackageManager mPackageManager;
 
+    /**
+     * Package name -> the certificate hashes that the package was last verified against, if it was
+     * signed with one of them. The entry of a package is dropped when it changes, see {@link
+     * #onPackageChanged}.
+     */
+    private final ArrayMap<String, ArraySet<String>> mVerifiedCertificateHashes = new ArrayMap<>();
+
     SafetySourceDataValidator(Context context, SafetyCenterConfigReader safetyCenterConfigReader) {
         mContext = context;
         mSafetyCenterConfigReader = safetyCenterConfigReader;
@@ -188,6 +197,14 @@ final class SafetySourceDataValidator {
             return;
         }
 
+        ArraySet<String> allowedCertificateHashes =
+                SafetyCenterFlags.getAdditionalAllowedPackageCerts(packageName);
+        allowedCertificateHashes.addAll(certificateHashes);
+        if (allowedCertificateHashes.equals(mVerifiedCertificateHashes.get(packageName))) {
+            // The package cannot have changed its signature without a package change.
+            return;
+        }
+
         if (!checkCerts(packageName, certificateHashes)
                 && !checkCerts(
                         packageName,
@@ -201,6 +218,20 @@ final class SafetySourceDataValidator {
                             + " signed with invalid signature");
             throw new IllegalArgumentException("Invalid signature for package " + packageName);
         }
+        mVerifiedCertificateHashes.put(packageName, allowedCertificateHashes);
+    }
+
+    /**
+     * Drops the cached signature verification of the given {@code packageName}, as it may have
+     * been added, replaced or removed.
+     */
+    void onPackageChanged(String packageName) {
+        mVerifiedCertificateHashes.remove(packageName);
+    }
+
+    /** Clears all cached signature verifications. */
+    void clear() {
+        mVerifiedCertificateHashes.clear();
     }
 
     private boolean checkCerts(String packageName, Set<String> certificateHashes) {
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.data;
+
+import static android.os.Build.VERSION_CODES.TIRAMISU;
+
+import androidx.annotation.RequiresApi;
+
+import com.android.safetycenter.SafetySourceIssueInfo;
+
+import java.util.Comparator;
+
+/** A comparator to order {@link SafetySourceIssueInfo} by severity level descending. */
+@RequiresApi(TIRAMISU)
+final class SafetySourceIssuesInfoBySeverityDescending
+        implements Comparator<SafetySourceIssueInfo> {
+
+    /** The single instance of this comparator. */
+    static final SafetySourceIssuesInfoBySeverityDescending INSTANCE =
+            new SafetySourceIssuesInfoBySeverityDescending();
+
+    private SafetySourceIssuesInfoBySeverityDescending() {}
+
+    @Override
+    public int compare(SafetySourceIssueInfo left, SafetySourceIssueInfo right) {
+        return Integer.compare(
+                right.getSafetySourceIssue().getSeverityLevel(),
+                left.getSafetySourceIssue().getSeverityLevel());
+    }
+}
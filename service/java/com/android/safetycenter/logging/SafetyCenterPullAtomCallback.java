@@ -20,14 +20,16 @@ import static android.os.Build.VERSION_CODES.TIRAMISU;
 
 import static com.android.permission.PermissionStatsLog.SAFETY_STATE;
 
+import android.annotation.Nullable;
 import android.annotation.UserIdInt;
 import android.app.StatsManager;
 import android.app.StatsManager.StatsPullAtomCallback;
-import android.content.Context;
 import android.safetycenter.SafetyCenterData;
+import android.safetycenter.SafetyCenterStatus.OverallSeverityLevel;
 import android.safetycenter.config.SafetySource;
 import android.safetycenter.config.SafetySourcesGroup;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.StatsEvent;
 
 import androidx.annotation.RequiresApi;
@@ -42,8 +44,11 @@ import com.android.safetycenter.SafetyCenterFlags;
 import com.android.safetycenter.SafetySourceKey;
 import com.android.safetycenter.SafetySources;
 import com.android.safetycenter.UserProfileGroup;
+import com.android.safetycenter.UserProfileGroupCache;
 import com.android.safetycenter.data.SafetyCenterDataManager;
 
+import java.io.PrintWriter;
+import java.time.Instant;
 import java.util.List;
 
 /**
@@ -54,6 +59,11 @@ import java.util.List;
  * separately writes one {@code SAFETY_SOURCE_STATE_COLLECTED} atom for each active source (per
  * profile).
  *
+ * <p>The values of the {@link PermissionStatsLog#SAFETY_STATE} atom are kept in an immutable
+ * snapshot per {@link UserProfileGroup}, which is computed lazily when the atom is pulled and
+ * dropped whenever the data of that {@link UserProfileGroup} changes. This way data changes stay
+ * cheap, and pulls only assemble the data of the {@link UserProfileGroup}s that changed since.
+ *
  * @hide
  */
 @RequiresApi(TIRAMISU)
@@ -61,8 +71,8 @@ public final class SafetyCenterPullAtomCallback implements StatsPullAtomCallback
 
     private static final String TAG = "SafetyCenterPullAtom";
 
-    private final Context mContext;
     private final ApiLock mApiLock;
+    private final UserProfileGroupCache mUserProfileGroupCache;
 
     @GuardedBy("mApiLock")
     private final SafetyCenterConfigReader mSafetyCenterConfigReader;
@@ -73,14 +83,27 @@ public final class SafetyCenterPullAtomCallback implements StatsPullAtomCallback
     @GuardedBy("mApiLock")
     private final SafetyCenterDataManager mDataManager;
 
+    /**
+     * Profile parent user id -> the {@link SafetyStateSnapshot} of its {@link UserProfileGroup},
+     * for the groups whose data didn't change since they were last pulled.
+     */
+    @GuardedBy("mApiLock")
+    private final SparseArray<SafetyStateSnapshot> mSafetyStateSnapshots = new SparseArray<>();
+
+    @GuardedBy("mApiLock")
+    private long mSnapshotHitCount = 0;
+
+    @GuardedBy("mApiLock")
+    private long mSnapshotMissCount = 0;
+
     public SafetyCenterPullAtomCallback(
-            Context context,
             ApiLock apiLock,
+            UserProfileGroupCache userProfileGroupCache,
             SafetyCenterConfigReader safetyCenterConfigReader,
             SafetyCenterDataFactory dataFactory,
             SafetyCenterDataManager dataManager) {
-        mContext = context;
         mApiLock = apiLock;
+        mUserProfileGroupCache = userProfileGroupCache;
         mSafetyCenterConfigReader = safetyCenterConfigReader;
         mDataFactory = dataFactory;
         mDataManager = dataManager;
@@ -96,20 +119,20 @@ public final class SafetyCenterPullAtomCallback implements StatsPullAtomCallback
             Log.w(TAG, "Attempt to pull SAFETY_STATE, but Safety Center is disabled");
             return StatsManager.PULL_SKIP;
         }
-        List<UserProfileGroup> userProfileGroups =
-                UserProfileGroup.getAllUserProfileGroups(mContext);
+        if (!SafetyCenterFlags.getAllowStatsdLogging()) {
+            Log.w(TAG, "Skipping pulling and writing atoms due to logging being disabled");
+            return StatsManager.PULL_SKIP;
+        }
+        List<UserProfileGroup> userProfileGroups = mUserProfileGroupCache.getAllUserProfileGroups();
+        Log.i(TAG, "Pulling and writing atoms…");
         synchronized (mApiLock) {
-            if (!SafetyCenterFlags.getAllowStatsdLogging()) {
-                Log.w(TAG, "Skipping pulling and writing atoms due to logging being disabled");
-                return StatsManager.PULL_SKIP;
-            }
-            Log.i(TAG, "Pulling and writing atoms…");
+            List<SafetySourcesGroup> loggableGroups =
+                    mSafetyCenterConfigReader.getLoggableSafetySourcesGroups();
             for (int i = 0; i < userProfileGroups.size(); i++) {
                 UserProfileGroup userProfileGroup = userProfileGroups.get(i);
-                List<SafetySourcesGroup> loggableGroups =
-                        mSafetyCenterConfigReader.getLoggableSafetySourcesGroups();
                 statsEvents.add(
-                        createOverallSafetyStateAtomLocked(userProfileGroup, loggableGroups));
+                        getSafetyStateSnapshotLocked(userProfileGroup, loggableGroups)
+                                .toStatsEvent());
                 // The SAFETY_SOURCE_STATE_COLLECTED atoms are written instead of being pulled,
                 // they do not support pull but we want to collect them at the same time as
                 // the above pulled atom.
@@ -119,16 +142,84 @@ public final class SafetyCenterPullAtomCallback implements StatsPullAtomCallback
         return StatsManager.PULL_SUCCESS;
     }
 
+    /**
+     * Drops the {@link SafetyStateSnapshot} of the given {@link UserProfileGroup} as its data
+     * changed.
+     *
+     * <p>This is called with the {@link ApiLock} held from {@link
+     * com.android.safetycenter.SafetyCenterDataChangeNotifier} on every data change, so it only
+     * drops the snapshot: it is computed again the next time the atom is pulled.
+     */
+    @GuardedBy("mApiLock")
+    public void onDataChanged(UserProfileGroup userProfileGroup) {
+        mSafetyStateSnapshots.remove(userProfileGroup.getProfileParentUserId());
+    }
+
+    /**
+     * Drops all {@link SafetyStateSnapshot}s, as the data was cleared or as flags that can affect
+     * it changed.
+     */
+    @GuardedBy("mApiLock")
+    public void clearSnapshots() {
+        mSafetyStateSnapshots.clear();
+    }
+
+    /** Dumps state for debugging purposes. */
+    @GuardedBy("mApiLock")
+    public void dump(PrintWriter fout) {
+        int count = mSafetyStateSnapshots.size();
+        fout.println(
+                "SAFETY STATE SNAPSHOTS ("
+                        + count
+                        + ", hits="
+                        + mSnapshotHitCount
+                        + ", misses="
+                        + mSnapshotMissCount
+                        + ")");
+        for (int i = 0; i < count; i++) {
+            fout.println(
+                    "\t["
+                            + mSafetyStateSnapshots.keyAt(i)
+                            + "] "
+                            + mSafetyStateSnapshots.valueAt(i));
+        }
+        fout.println();
+    }
+
+    /**
+     * Returns the current {@link SafetyStateSnapshot} of the given {@link UserProfileGroup},
+     * computing it if its data changed since it was last pulled.
+     */
+    @GuardedBy("mApiLock")
+    private SafetyStateSnapshot getSafetyStateSnapshotLocked(
+            UserProfileGroup userProfileGroup, List<SafetySourcesGroup> loggableGroups) {
+        int profileParentUserId = userProfileGroup.getProfileParentUserId();
+        SafetyStateSnapshot safetyStateSnapshot = mSafetyStateSnapshots.get(profileParentUserId);
+        if (safetyStateSnapshot != null && safetyStateSnapshot.isValidFor(userProfileGroup)) {
+            mSnapshotHitCount++;
+            return safetyStateSnapshot;
+        }
+
+        mSnapshotMissCount++;
+        safetyStateSnapshot = createSafetyStateSnapshotLocked(userProfileGroup, loggableGroups);
+        mSafetyStateSnapshots.put(profileParentUserId, safetyStateSnapshot);
+        return safetyStateSnapshot;
+    }
+
     @GuardedBy("mApiLock")
-    private StatsEvent createOverallSafetyStateAtomLocked(
+    private SafetyStateSnapshot createSafetyStateSnapshotLocked(
             UserProfileGroup userProfileGroup, List<SafetySourcesGroup> loggableGroups) {
         SafetyCenterData loggableData =
                 mDataFactory.assembleSafetyCenterData("android", userProfileGroup, loggableGroups);
         long openIssuesCount = loggableData.getIssues().size();
         long dismissedIssuesCount = getDismissedIssuesCountLocked(loggableData, userProfileGroup);
 
-        return SafetyCenterStatsdLogger.createSafetyStateEvent(
-                loggableData.getStatus().getSeverityLevel(), openIssuesCount, dismissedIssuesCount);
+        return new SafetyStateSnapshot(
+                userProfileGroup,
+                loggableData.getStatus().getSeverityLevel(),
+                openIssuesCount,
+                dismissedIssuesCount,
+                mDataManager.getNextIssueResurfaceTime(userProfileGroup));
     }
 
     @GuardedBy("mApiLock")
@@ -177,4 +268,59 @@ public final class SafetyCenterPullAtomCallback implements StatsPullAtomCallback
         SafetySourceKey sourceKey = SafetySourceKey.of(safetySource.getId(), userId);
         mDataManager.logSafetySourceStateCollectedAutomatic(sourceKey, isUserManaged);
     }
+
+    /** The values of the {@code SAFETY_STATE} atom for a {@link UserProfileGroup}. */
+    private static final class SafetyStateSnapshot {
+
+        private final UserProfileGroup mUserProfileGroup;
+        @OverallSeverityLevel private final int mSeverityLevel;
+        private final long mOpenIssuesCount;
+        private final long mDismissedIssuesCount;
+
+        /** When a dismissed issue resurfaces, which changes the values of the snapshot. */
+        @Nullable private final Instant mExpiresAt;
+
+        private SafetyStateSnapshot(
+                UserProfileGroup userProfileGroup,
+                @OverallSeverityLevel int severityLevel,
+                long openIssuesCount,
+                long dismissedIssuesCount,
+                @Nullable Instant expiresAt) {
+            mUserProfileGroup = userProfileGroup;
+            mSeverityLevel = severityLevel;
+            mOpenIssuesCount = openIssuesCount;
+            mDismissedIssuesCount = dismissedIssuesCount;
+            mExpiresAt = expiresAt;
+        }
+
+        /**
+         * Returns {@code true} if this snapshot can still be used for the given {@link
+         * UserProfileGroup}, whose profiles may have changed since.
+         */
+        private boolean isValidFor(UserProfileGroup userProfileGroup) {
+            return mUserProfileGroup.equals(userProfileGroup)
+                    && (mExpiresAt == null || Instant.now().isBefore(mExpiresAt));
+        }
+
+        private StatsEvent toStatsEvent() {
+            return SafetyCenterStatsdLogger.createSafetyStateEvent(
+                    mSeverityLevel, mOpenIssuesCount, mDismissedIssuesCount);
+        }
+
+        @Override
+        public String toString() {
+            return "SafetyStateSnapshot{"
+                    + "mUserProfileGroup="
+                    + mUserProfileGroup
+                    + ", mSeverityLevel="
+                    + mSeverityLevel
+                    + ", mOpenIssuesCount="
+                    + mOpenIssuesCount
+                    + ", mDismissedIssuesCount="
+                    + mDismissedIssuesCount
+                    + ", mExpiresAt="
+                    + mExpiresAt
+                    + '}';
+        }
+    }
 }
@@ -37,6 +37,7 @@ import com.android.safetycenter.SafetyCenterDataChangeNotifier;
 import com.android.safetycenter.SafetyCenterFlags;
 import com.android.safetycenter.SafetyCenterService;
 import com.android.safetycenter.UserProfileGroup;
+import com.android.safetycenter.UserProfileGroupCache;
 import com.android.safetycenter.data.SafetyCenterDataManager;
 import com.android.safetycenter.internaldata.SafetyCenterIds;
 import com.android.safetycenter.internaldata.SafetyCenterIssueActionId;
@@ -139,16 +140,20 @@ public final class SafetyCenterNotificationReceiver extends BroadcastReceiver {
     @GuardedBy("mApiLock")
     private final SafetyCenterDataChangeNotifier mSafetyCenterDataChangeNotifier;
 
+    private final UserProfileGroupCache mUserProfileGroupCache;
+
     private final ApiLock mApiLock;
 
     public SafetyCenterNotificationReceiver(
             SafetyCenterService service,
             SafetyCenterDataManager safetyCenterDataManager,
             SafetyCenterDataChangeNotifier safetyCenterDataChangeNotifier,
+            UserProfileGroupCache userProfileGroupCache,
             ApiLock apiLock) {
         mService = service;
         mSafetyCenterDataManager = safetyCenterDataManager;
         mSafetyCenterDataChangeNotifier = safetyCenterDataChangeNotifier;
+        mUserProfileGroupCache = userProfileGroupCache;
         mApiLock = apiLock;
     }
 
@@ -199,7 +204,7 @@ public final class SafetyCenterNotificationReceiver extends BroadcastReceiver {
         }
 
         int userId = issueKey.getUserId();
-        UserProfileGroup userProfileGroup = UserProfileGroup.fromUser(context, userId);
+        UserProfileGroup userProfileGroup = mUserProfileGroupCache.fromUser(userId);
 
         SafetySourceIssue dismissedIssue;
         synchronized (mApiLock) {
@@ -28,6 +28,7 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.content.Context;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.UserHandle;
 import android.safetycenter.SafetyEvent;
 import android.safetycenter.SafetySourceIssue;
@@ -35,11 +36,15 @@ import android.safetycenter.config.SafetySource;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.SparseArray;
 
 import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.modules.utils.build.SdkLevel;
+import com.android.permission.util.ForegroundThread;
 import com.android.permission.util.UserUtils;
+import com.android.safetycenter.ApiLock;
 import com.android.safetycenter.SafetyCenterFlags;
 import com.android.safetycenter.SafetySourceIssueInfo;
 import com.android.safetycenter.UserProfileGroup;
@@ -52,9 +57,14 @@ import com.android.safetycenter.resources.SafetyCenterResourcesContext;
 import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
@@ -62,7 +72,14 @@ import javax.annotation.concurrent.NotThreadSafe;
  * Class responsible for posting, updating and dismissing Safety Center notifications each time
  * Safety Center's issues change.
  *
- * <p>This class isn't thread safe. Thread safety must be handled by the caller.
+ * <p>The notification behavior of each issue is only computed again when the issue changes, and a
+ * notification is only posted for an issue that changed since it was last notified. Issues with a
+ * delayed behavior are kept in a queue ordered by the time they can be notified at, and a single
+ * timer is scheduled for the earliest of them so that they are notified on time even if no other
+ * update happens.
+ *
+ * <p>This class isn't thread safe. Thread safety must be handled by the caller, except for the
+ * delayed notifications timer which holds the {@link ApiLock} when it runs.
  *
  * @hide
  */
@@ -106,28 +123,61 @@ public final class SafetyCenterNotificationSender {
 
     private final SafetyCenterDataManager mSafetyCenterDataManager;
 
+    private final ApiLock mApiLock;
+
+    private final Clock mClock;
+
+    private final Handler mHandler;
+
+    private final DelayedNotificationsTimer mDelayedNotificationsTimer =
+            new DelayedNotificationsTimer();
+
     private final ArrayMap<SafetyCenterIssueKey, SafetySourceIssue> mNotifiedIssues =
             new ArrayMap<>();
 
-    private SafetyCenterNotificationSender(
+    /** Issue key -> the last issue seen for that key and its notification behavior. */
+    private final ArrayMap<SafetyCenterIssueKey, EvaluatedIssue> mEvaluatedIssues =
+            new ArrayMap<>();
+
+    /** Issues with a delayed behavior that can't be notified yet, earliest first. */
+    private final PriorityQueue<PendingNotification> mPendingNotifications =
+            new PriorityQueue<>();
+
+    /** User id -> the {@link NotificationManager} used to notify that user. */
+    private final SparseArray<NotificationManager> mNotificationManagers = new SparseArray<>();
+
+    @Nullable private Instant mDelayedNotificationsTimerScheduledAt;
+
+    @VisibleForTesting
+    SafetyCenterNotificationSender(
             Context context,
             SafetyCenterNotificationFactory notificationFactory,
-            SafetyCenterDataManager safetyCenterDataManager) {
+            SafetyCenterDataManager safetyCenterDataManager,
+            ApiLock apiLock,
+            Clock clock,
+            Handler handler) {
         mContext = context;
         mNotificationFactory = notificationFactory;
         mSafetyCenterDataManager = safetyCenterDataManager;
+        mApiLock = apiLock;
+        mClock = clock;
+        mHandler = handler;
     }
 
     public static SafetyCenterNotificationSender newInstance(
             Context context,
             SafetyCenterResourcesContext resourcesContext,
             SafetyCenterNotificationChannels notificationChannels,
-            SafetyCenterDataManager dataManager) {
+            SafetyCenterDataManager dataManager,
+            ApiLock apiLock) {
         return new SafetyCenterNotificationSender(
                 context,
                 new SafetyCenterNotificationFactory(
                         context, notificationChannels, resourcesContext),
-                dataManager);
+                dataManager,
+                apiLock,
+                Clock.systemUTC(),
+                ForegroundThread.getHandler());
     }
 
     /**
@@ -257,10 +307,41 @@ public final class SafetyCenterNotificationSender {
         }
 
         cancelStaleNotifications(notificationManager, userId, freshIssueKeys);
+        scheduleDelayedNotificationsTimer();
+    }
+
+    /**
+     * Forgets the notification behaviors computed so far, as they depend on {@link
+     * SafetyCenterFlags} which may have changed.
+     */
+    public void onFlagsChanged() {
+        mEvaluatedIssues.clear();
+    }
+
+    /**
+     * Clears the state kept for the given user, which was removed.
+     *
+     * <p>This does not cancel notifications, which should be done by calling {@link
+     * #updateNotifications(int)} once the data of the user has been cleared.
+     */
+    public void clearForUser(@UserIdInt int userId) {
+        // Loop in reverse index order to be able to remove entries while iterating
+        for (int i = mEvaluatedIssues.size() - 1; i >= 0; i--) {
+            if (mEvaluatedIssues.keyAt(i).getUserId() == userId) {
+                mEvaluatedIssues.removeAt(i);
+            }
+        }
+        removePendingNotificationsForUser(userId);
+        scheduleDelayedNotificationsTimer();
+        mNotificationManagers.remove(userId);
     }
 
     /** Cancels all notifications previously posted by this class */
     public void cancelAllNotifications() {
+        mEvaluatedIssues.clear();
+        mPendingNotifications.clear();
+        scheduleDelayedNotificationsTimer();
+
         // Loop in reverse index order to be able to remove entries while iterating
         for (int i = mNotifiedIssues.size() - 1; i >= 0; i--) {
             SafetyCenterIssueKey issueKey = mNotifiedIssues.keyAt(i);
@@ -284,6 +365,30 @@ public final class SafetyCenterNotificationSender {
             fout.println("\t[" + i + "] " + toUserFriendlyString(key) + " -> " + issue);
         }
         fout.println();
+
+        int pendingNotificationsCount = mPendingNotifications.size();
+        fout.println(
+                "PENDING NOTIFICATIONS ("
+                        + pendingNotificationsCount
+                        + ", evaluatedIssues="
+                        + mEvaluatedIssues.size()
+                        + ", timerScheduledAt="
+                        + mDelayedNotificationsTimerScheduledAt
+                        + ")");
+        PendingNotification[] pendingNotifications =
+                mPendingNotifications.toArray(new PendingNotification[0]);
+        Arrays.sort(pendingNotifications);
+        for (int i = 0; i < pendingNotifications.length; i++) {
+            PendingNotification pendingNotification = pendingNotifications[i];
+            fout.println(
+                    "\t["
+                            + i
+                            + "] "
+                            + toUserFriendlyString(pendingNotification.mIssueKey)
+                            + " -> "
+                            + pendingNotification.mNotifyAt);
+        }
+        fout.println();
     }
 
     /** Get all of the key-issue pairs for which notifications should be posted or updated now. */
@@ -292,13 +397,22 @@ public final class SafetyCenterNotificationSender {
         ArrayMap<SafetyCenterIssueKey, SafetySourceIssue> result = new ArrayMap<>();
         List<SafetySourceIssueInfo> allIssuesInfo =
                 mSafetyCenterDataManager.getIssuesForUser(userId);
+        ArraySet<SafetyCenterIssueKey> currentIssueKeys = new ArraySet<>(allIssuesInfo.size());
+        Instant now = mClock.instant();
+
+        // The pending notifications of the user are computed again below
+        removePendingNotificationsForUser(userId);
 
         for (int i = 0; i < allIssuesInfo.size(); i++) {
             SafetySourceIssueInfo issueInfo = allIssuesInfo.get(i);
             SafetyCenterIssueKey issueKey = issueInfo.getSafetyCenterIssueKey();
             SafetySourceIssue issue = issueInfo.getSafetySourceIssue();
+            currentIssueKeys.add(issueKey);
 
-            if (!areNotificationsAllowedForSource(issueInfo.getSafetySource())) {
+            // Get the notification behavior for this issue which determines whether we should
+            // send a notification about it now
+            int behavior = getEvaluatedBehavior(issueInfo);
+            if (behavior == NOTIFICATION_BEHAVIOR_INTERNAL_NEVER) {
                 continue;
             }
 
@@ -307,21 +421,54 @@ public final class SafetyCenterNotificationSender {
                 continue;
             }
 
-            // Get the notification behavior for this issue which determines whether we should
-            // send a notification about it now
-            int behavior = getBehavior(issue, issueKey);
             if (behavior == NOTIFICATION_BEHAVIOR_INTERNAL_IMMEDIATELY) {
                 result.put(issueKey, issue);
             } else if (behavior == NOTIFICATION_BEHAVIOR_INTERNAL_DELAYED) {
-                if (canNotifyDelayedIssueNow(issueKey)) {
+                Instant notifyAt = getDelayedNotificationTime(issueKey);
+                if (notifyAt == null) {
+                    continue;
+                }
+                if (notifyAt.isAfter(now)) {
+                    mPendingNotifications.add(new PendingNotification(issueKey, notifyAt));
+                } else {
                     result.put(issueKey, issue);
                 }
-                // TODO(b/259094736): else handle delayed notifications using a scheduled job
+            }
+        }
+
+        // Loop in reverse index order to be able to remove entries while iterating
+        for (int i = mEvaluatedIssues.size() - 1; i >= 0; i--) {
+            SafetyCenterIssueKey issueKey = mEvaluatedIssues.keyAt(i);
+            if (issueKey.getUserId() == userId && !currentIssueKeys.contains(issueKey)) {
+                mEvaluatedIssues.removeAt(i);
             }
         }
         return result;
     }
 
+    /**
+     * Returns the notification behavior of the given issue, which is only computed again if the
+     * issue changed since it was last seen.
+     */
+    @NotificationBehaviorInternal
+    private int getEvaluatedBehavior(SafetySourceIssueInfo issueInfo) {
+        SafetyCenterIssueKey issueKey = issueInfo.getSafetyCenterIssueKey();
+        SafetySourceIssue issue = issueInfo.getSafetySourceIssue();
+        SafetySource safetySource = issueInfo.getSafetySource();
+
+        EvaluatedIssue evaluatedIssue = mEvaluatedIssues.get(issueKey);
+        if (evaluatedIssue != null && evaluatedIssue.isSameAs(issue, safetySource)) {
+            return evaluatedIssue.mBehavior;
+        }
+
+        int behavior =
+                areNotificationsAllowedForSource(safetySource)
+                        ? getBehavior(issue, issueKey)
+                        : NOTIFICATION_BEHAVIOR_INTERNAL_NEVER;
+        mEvaluatedIssues.put(issueKey, new EvaluatedIssue(issue, safetySource, behavior));
+        return behavior;
+    }
+
     @NotificationBehaviorInternal
     private int getBehavior(SafetySourceIssue issue, SafetyCenterIssueKey issueKey) {
         if (SdkLevel.isAtLeastU()) {
@@ -358,11 +505,65 @@ public final class SafetyCenterNotificationSender {
         return SafetyCenterFlags.getNotificationsAllowedSourceIds().contains(safetySource.getId());
     }
 
-    private boolean canNotifyDelayedIssueNow(SafetyCenterIssueKey issueKey) {
-        Duration minNotificationsDelay = SafetyCenterFlags.getNotificationsMinDelay();
-        Instant threshold = Instant.now().minus(minNotificationsDelay);
+    /**
+     * Returns the {@link Instant} from which an issue with a delayed behavior can be notified, or
+     * {@code null} if it is unknown.
+     */
+    @Nullable
+    private Instant getDelayedNotificationTime(SafetyCenterIssueKey issueKey) {
         Instant seenAt = mSafetyCenterDataManager.getIssueFirstSeenAt(issueKey);
-        return seenAt != null && seenAt.isBefore(threshold);
+        if (seenAt == null) {
+            return null;
+        }
+        Duration minNotificationsDelay = SafetyCenterFlags.getNotificationsMinDelay();
+        return seenAt.plus(minNotificationsDelay);
+    }
+
+    private void removePendingNotificationsForUser(@UserIdInt int userId) {
+        Iterator<PendingNotification> it = mPendingNotifications.iterator();
+        while (it.hasNext()) {
+            if (it.next().mIssueKey.getUserId() == userId) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Schedules the {@link DelayedNotificationsTimer} for the earliest pending notification, or
+     * unschedules it if there is none.
+     */
+    private void scheduleDelayedNotificationsTimer() {
+        PendingNotification nextPendingNotification = mPendingNotifications.peek();
+        Instant notifyAt =
+                nextPendingNotification != null ? nextPendingNotification.mNotifyAt : null;
+        if (Objects.equals(notifyAt, mDelayedNotificationsTimerScheduledAt)) {
+            return;
+        }
+
+        mHandler.removeCallbacks(mDelayedNotificationsTimer);
+        mDelayedNotificationsTimerScheduledAt = notifyAt;
+        if (notifyAt == null) {
+            return;
+        }
+        long delayMillis = Math.max(0, Duration.between(mClock.instant(), notifyAt).toMillis());
+        mHandler.postDelayed(mDelayedNotificationsTimer, delayMillis);
+    }
+
+    /** Notifies the pending notifications that are due, for every user they belong to. */
+    private void onDelayedNotificationsTimer() {
+        mDelayedNotificationsTimerScheduledAt = null;
+
+        Instant now = mClock.instant();
+        ArraySet<Integer> userIdsToUpdate = new ArraySet<>();
+        while (!mPendingNotifications.isEmpty()
+                && !mPendingNotifications.peek().mNotifyAt.isAfter(now)) {
+            userIdsToUpdate.add(mPendingNotifications.poll().mIssueKey.getUserId());
+        }
+
+        for (int i = 0; i < userIdsToUpdate.size(); i++) {
+            updateNotifications(userIdsToUpdate.valueAt(i));
+        }
+        scheduleDelayedNotificationsTimer();
     }
 
     private boolean postNotificationForIssue(
@@ -410,8 +611,17 @@ public final class SafetyCenterNotificationSender {
     /** Returns a {@link NotificationManager} which will send notifications to the given user. */
     @Nullable
     private NotificationManager getNotificationManagerForUser(@UserIdInt int userId) {
-        return SafetyCenterNotificationChannels.getNotificationManagerForUser(
-                mContext, UserHandle.of(userId));
+        NotificationManager notificationManager = mNotificationManagers.get(userId);
+        if (notificationManager != null) {
+            return notificationManager;
+        }
+        notificationManager =
+                SafetyCenterNotificationChannels.getNotificationManagerForUser(
+                        mContext, UserHandle.of(userId));
+        if (notificationManager != null) {
+            mNotificationManagers.put(userId, notificationManager);
+        }
+        return notificationManager;
     }
 
     /**
@@ -460,4 +670,60 @@ public final class SafetyCenterNotificationSender {
             Binder.restoreCallingIdentity(callingId);
         }
     }
+
+    /** An issue as it was last seen, with the notification behavior computed for it. */
+    private static final class EvaluatedIssue {
+
+        private final SafetySourceIssue mIssue;
+        private final SafetySource mSafetySource;
+        @NotificationBehaviorInternal private final int mBehavior;
+
+        private EvaluatedIssue(
+                SafetySourceIssue issue,
+                SafetySource safetySource,
+                @NotificationBehaviorInternal int behavior) {
+            mIssue = issue;
+            mSafetySource = safetySource;
+            mBehavior = behavior;
+        }
+
+        private boolean isSameAs(SafetySourceIssue issue, SafetySource safetySource) {
+            return mSafetySource == safetySource && (mIssue == issue || mIssue.equals(issue));
+        }
+    }
+
+    /** An issue with a delayed behavior, and the {@link Instant} it can be notified at. */
+    private static final class PendingNotification implements Comparable<PendingNotification> {
+
+        private final SafetyCenterIssueKey mIssueKey;
+        private final Instant mNotifyAt;
+
+        private PendingNotification(SafetyCenterIssueKey issueKey, Instant notifyAt) {
+            mIssueKey = issueKey;
+            mNotifyAt = notifyAt;
+        }
+
+        @Override
+        public int compareTo(PendingNotification other) {
+            return mNotifyAt.compareTo(other.mNotifyAt);
+        }
+    }
+
+    /** A {@link Runnable} to notify the pending notifications once they are due. */
+    private final class DelayedNotificationsTimer implements Runnable {
+
+        private DelayedNotificationsTimer() {}
+
+        @Override
+        public void run() {
+            synchronized (mApiLock) {
+                onDelayedNotificationsTimer();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "DelayedNotificationsTimer{}";
+        }
+    }
 }
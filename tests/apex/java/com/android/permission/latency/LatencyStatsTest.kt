@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.latency
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.permission.latency.LatencyStats.BUCKET_COUNT
+import com.android.permission.latency.LatencyStats.HotPath
+import com.android.permission.latency.LatencyStats.RECENT_COUNT
+import com.google.common.truth.Truth.assertThat
+import java.io.PrintWriter
+import java.io.StringWriter
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class LatencyStatsTest {
+
+    @Before
+    @After
+    fun resetLatencyStats() {
+        LatencyStats.reset()
+    }
+
+    @Test
+    fun getBucket_underOneMicro_isFirstBucket() {
+        assertThat(LatencyStats.getBucket(0)).isEqualTo(0)
+        assertThat(LatencyStats.getBucket(999)).isEqualTo(0)
+    }
+
+    @Test
+    fun getBucket_powersOfTwoMicros_startNewBuckets() {
+        for (bucket in 1 until BUCKET_COUNT - 1) {
+            val lowerBoundNanos = (1L shl (bucket - 1)) * NANOS_PER_MICRO
+
+            assertThat(LatencyStats.getBucket(lowerBoundNanos)).isEqualTo(bucket)
+            assertThat(LatencyStats.getBucket(lowerBoundNanos - 1)).isEqualTo(bucket - 1)
+        }
+    }
+
+    @Test
+    fun getBucket_veryLongLatency_isLastBucket() {
+        assertThat(LatencyStats.getBucket(Long.MAX_VALUE)).isEqualTo(BUCKET_COUNT - 1)
+    }
+
+    @Test
+    fun getBucketUpperBoundMicros_containsBucketLatencies() {
+        for (bucket in 0 until BUCKET_COUNT - 1) {
+            val upperBoundMicros = LatencyStats.getBucketUpperBoundMicros(bucket)
+
+            assertThat(LatencyStats.getBucket(upperBoundMicros * NANOS_PER_MICRO - 1))
+                .isEqualTo(bucket)
+        }
+        assertThat(LatencyStats.getBucketUpperBoundMicros(BUCKET_COUNT - 1))
+            .isEqualTo(Long.MAX_VALUE)
+    }
+
+    @Test
+    fun getPercentileUpperBoundMicros_emptyHistogram_returnsZero() {
+        assertThat(LatencyStats.getPercentileUpperBoundMicros(LongArray(BUCKET_COUNT), 50))
+            .isEqualTo(0)
+    }
+
+    @Test
+    fun getPercentileUpperBoundMicros_returnsBucketOfRank() {
+        val bucketCounts = LongArray(BUCKET_COUNT)
+        bucketCounts[2] = 50
+        bucketCounts[4] = 40
+        bucketCounts[10] = 10
+
+        assertThat(LatencyStats.getPercentileUpperBoundMicros(bucketCounts, 1)).isEqualTo(4)
+        assertThat(LatencyStats.getPercentileUpperBoundMicros(bucketCounts, 50)).isEqualTo(4)
+        assertThat(LatencyStats.getPercentileUpperBoundMicros(bucketCounts, 51)).isEqualTo(16)
+        assertThat(LatencyStats.getPercentileUpperBoundMicros(bucketCounts, 90)).isEqualTo(16)
+        assertThat(LatencyStats.getPercentileUpperBoundMicros(bucketCounts, 91)).isEqualTo(1024)
+        assertThat(LatencyStats.getPercentileUpperBoundMicros(bucketCounts, 100)).isEqualTo(1024)
+    }
+
+    @Test
+    fun recordNanos_addsToHistogram() {
+        LatencyStats.recordNanos(HotPath.SAFETY_CENTER_ASSEMBLE_DATA, 3 * NANOS_PER_MICRO)
+        LatencyStats.recordNanos(HotPath.SAFETY_CENTER_ASSEMBLE_DATA, 3 * NANOS_PER_MICRO)
+        LatencyStats.recordNanos(HotPath.SAFETY_CENTER_ASSEMBLE_DATA, 500)
+
+        val bucketCounts = LatencyStats.getBucketCounts(HotPath.SAFETY_CENTER_ASSEMBLE_DATA)
+        assertThat(bucketCounts[0]).isEqualTo(1)
+        assertThat(bucketCounts[2]).isEqualTo(2)
+        assertThat(bucketCounts.sum()).isEqualTo(3)
+        assertThat(LatencyStats.getCount(HotPath.SAFETY_CENTER_ASSEMBLE_DATA)).isEqualTo(3)
+        assertThat(LatencyStats.getCount(HotPath.RUNTIME_PERMISSIONS_READ)).isEqualTo(0)
+    }
+
+    @Test
+    fun recordNanos_negativeLatency_isRecordedAsZero() {
+        LatencyStats.recordNanos(HotPath.RUNTIME_PERMISSIONS_READ, -1)
+
+        assertThat(LatencyStats.getBucketCounts(HotPath.RUNTIME_PERMISSIONS_READ)[0])
+            .isEqualTo(1)
+        assertThat(LatencyStats.getRecentNanos(HotPath.RUNTIME_PERMISSIONS_READ))
+            .isEqualTo(longArrayOf(0))
+    }
+
+    @Test
+    fun getRecentNanos_moreThanRecentCount_keepsMostRecentFirst() {
+        val total = RECENT_COUNT + 5
+        for (i in 1..total) {
+            LatencyStats.recordNanos(HotPath.RUNTIME_PERMISSIONS_WRITE, i.toLong())
+        }
+
+        val recentNanos = LatencyStats.getRecentNanos(HotPath.RUNTIME_PERMISSIONS_WRITE)
+
+        assertThat(recentNanos.toList())
+            .isEqualTo((total downTo total - RECENT_COUNT + 1).map { it.toLong() })
+    }
+
+    @Test
+    fun dump_printsOnlyHotPathsOfDump() {
+        LatencyStats.recordNanos(HotPath.RUNTIME_PERMISSIONS_READ, 2_000 * NANOS_PER_MICRO)
+        val stringWriter = StringWriter()
+
+        PrintWriter(stringWriter).use { LatencyStats.dump(it, LatencyStats.Dump.ROLE) }
+
+        val dump = stringWriter.toString()
+        assertThat(dump).contains("LATENCIES (3)")
+        assertThat(dump).contains("[RUNTIME_PERMISSIONS_READ] Latencies{count=1, meanUs=2000")
+        assertThat(dump).contains("p99Us<2048")
+        assertThat(dump).contains("[ROLE_GRANT_DEFAULT_ROLES] Latencies{count=0}")
+        assertThat(dump).doesNotContain("SAFETY_CENTER")
+    }
+
+    companion object {
+        private const val NANOS_PER_MICRO = 1_000L
+    }
+}
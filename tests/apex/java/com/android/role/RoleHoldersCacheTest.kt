@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.role
+
+import android.Manifest
+import android.app.role.RoleManager
+import android.os.Build
+import android.os.Process
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import org.junit.After
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Tests that the role holders cached by [RoleManager] are invalidated when the holders of a role
+ * change.
+ */
+@RunWith(AndroidJUnit4::class)
+class RoleHoldersCacheTest {
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+    private val context = instrumentation.context
+    private val roleManager = context.getSystemService(RoleManager::class.java)!!
+    private val packageName = context.packageName
+    private val user = Process.myUserHandle()
+
+    private lateinit var originalRoleHolders: List<String>
+
+    @Before
+    fun setUp() {
+        // The role holders are only cached on T and later.
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU)
+        instrumentation.uiAutomation.adoptShellPermissionIdentity(
+            Manifest.permission.MANAGE_ROLE_HOLDERS,
+            Manifest.permission.BYPASS_ROLE_QUALIFICATION
+        )
+        roleManager.setBypassingRoleQualification(true)
+        originalRoleHolders = roleManager.getRoleHolders(ROLE_NAME)
+    }
+
+    @After
+    fun tearDown() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+            return
+        }
+        try {
+            if (packageName !in originalRoleHolders) {
+                removeRoleHolder(packageName)
+            }
+            originalRoleHolders.forEach { addRoleHolder(it) }
+            roleManager.setBypassingRoleQualification(false)
+        } finally {
+            instrumentation.uiAutomation.dropShellPermissionIdentity()
+        }
+    }
+
+    @Test
+    fun addRoleHolder_cachedQueries_returnNewHolder() {
+        removeRoleHolder(packageName)
+        assertThat(roleManager.isRoleHeld(ROLE_NAME)).isFalse()
+        assertThat(roleManager.getRoleHolders(ROLE_NAME)).doesNotContain(packageName)
+        assertThat(roleManager.getRoleHoldersAsUser(ROLE_NAME, user)).doesNotContain(packageName)
+
+        addRoleHolder(packageName)
+
+        assertThat(roleManager.isRoleHeld(ROLE_NAME)).isTrue()
+        assertThat(roleManager.getRoleHolders(ROLE_NAME)).containsExactly(packageName)
+        assertThat(roleManager.getRoleHoldersAsUser(ROLE_NAME, user)).containsExactly(packageName)
+    }
+
+    @Test
+    fun removeRoleHolder_cachedQueries_dropRemovedHolder() {
+        addRoleHolder(packageName)
+        assertThat(roleManager.isRoleHeld(ROLE_NAME)).isTrue()
+        assertThat(roleManager.getRoleHolders(ROLE_NAME)).containsExactly(packageName)
+
+        removeRoleHolder(packageName)
+
+        assertThat(roleManager.isRoleHeld(ROLE_NAME)).isFalse()
+        assertThat(roleManager.getRoleHolders(ROLE_NAME)).doesNotContain(packageName)
+        assertThat(roleManager.getRoleHoldersAsUser(ROLE_NAME, user)).doesNotContain(packageName)
+    }
+
+    @Test
+    fun getRoleHolders_returnedList_doesNotAffectCachedHolders() {
+        addRoleHolder(packageName)
+
+        roleManager.getRoleHolders(ROLE_NAME).clear()
+
+        assertThat(roleManager.getRoleHolders(ROLE_NAME)).containsExactly(packageName)
+    }
+
+    private fun addRoleHolder(packageName: String) {
+        val future = CompletableFuture<Boolean>()
+        roleManager.addRoleHolderAsUser(
+            ROLE_NAME,
+            packageName,
+            RoleManager.MANAGE_HOLDERS_FLAG_DONT_KILL_APP,
+            user,
+            context.mainExecutor,
+            future::complete
+        )
+        assertThat(future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isTrue()
+    }
+
+    private fun removeRoleHolder(packageName: String) {
+        val future = CompletableFuture<Boolean>()
+        roleManager.removeRoleHolderAsUser(
+            ROLE_NAME,
+            packageName,
+            RoleManager.MANAGE_HOLDERS_FLAG_DONT_KILL_APP,
+            user,
+            context.mainExecutor,
+            future::complete
+        )
+        assertThat(future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isTrue()
+    }
+
+    companion object {
+        private const val ROLE_NAME = RoleManager.ROLE_BROWSER
+        private const val TIMEOUT_MILLIS = 15_000L
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter
+
+import android.content.Context
+import android.content.Intent
+import android.content.pm.ResolveInfo
+import android.os.Build
+import android.os.Bundle
+import android.os.UserHandle
+import android.safetycenter.SafetyCenterManager.REFRESH_REASON_PAGE_OPEN
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito
+import com.android.permission.util.PackageUtils
+import com.android.safetycenter.SafetyCenterConfigReader.Broadcast
+import com.android.safetycenter.data.SafetyCenterDataManager
+import com.google.common.truth.Truth.assertThat
+import java.time.Duration
+import org.junit.After
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.`when` as whenever
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness
+
+/**
+ * Unit tests for [SafetyCenterBroadcastDispatcher], which count how often broadcast receivers are
+ * resolved.
+ */
+@RunWith(AndroidJUnit4::class)
+class SafetyCenterBroadcastDispatcherTest {
+
+    private val context = mock(Context::class.java)
+    private val safetyCenterConfigReader = mock(SafetyCenterConfigReader::class.java)
+    private val safetyCenterRefreshTracker = mock(SafetyCenterRefreshTracker::class.java)
+    private val safetyCenterDataManager = mock(SafetyCenterDataManager::class.java)
+    private val userProfileGroupCache = mock(UserProfileGroupCache::class.java)
+    private val broadcast = mock(Broadcast::class.java)
+    private val userProfileGroup = mock(UserProfileGroup::class.java)
+
+    private lateinit var mockitoSession: MockitoSession
+    private lateinit var dispatcher: SafetyCenterBroadcastDispatcher
+
+    @Before
+    fun setUp() {
+        // Safety Center is only available on T and later.
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU)
+        mockitoSession =
+            ExtendedMockito.mockitoSession()
+                .mockStatic(SafetyCenterFlags::class.java)
+                .mockStatic(PackageUtils::class.java)
+                .strictness(Strictness.LENIENT)
+                .startMocking()
+        whenever(SafetyCenterFlags.getFgsAllowlistDuration()).thenReturn(Duration.ofSeconds(20))
+        whenever(SafetyCenterFlags.getBackgroundRefreshDeniedSourceIds()).thenReturn(emptySet())
+        whenever(SafetyCenterFlags.getOverrideRefreshOnPageOpenSourceIds())
+            .thenReturn(emptySet())
+        setReceiverResolves(true)
+
+        whenever(broadcast.packageName).thenReturn(PACKAGE_NAME)
+        whenever(broadcast.sourceIdsForProfileParent).thenReturn(listOf(SOURCE_ID))
+        whenever(broadcast.sourceIdsForProfileParentOnPageOpen).thenReturn(emptyList())
+        whenever(broadcast.sourceIdsForManagedProfiles).thenReturn(listOf(SOURCE_ID))
+        whenever(broadcast.sourceIdsForManagedProfilesOnPageOpen).thenReturn(emptyList())
+        whenever(safetyCenterConfigReader.broadcasts).thenReturn(listOf(broadcast))
+        whenever(userProfileGroup.profileParentUserId).thenReturn(USER_ID)
+        whenever(userProfileGroup.managedRunningProfilesUserIds).thenReturn(IntArray(0))
+        whenever(safetyCenterRefreshTracker.reportRefreshInProgress(anyInt(), any()))
+            .thenReturn(BROADCAST_ID)
+
+        dispatcher =
+            SafetyCenterBroadcastDispatcher(
+                context,
+                safetyCenterConfigReader,
+                safetyCenterRefreshTracker,
+                safetyCenterDataManager,
+                userProfileGroupCache
+            )
+    }
+
+    @After
+    fun tearDown() {
+        if (this::mockitoSession.isInitialized) {
+            mockitoSession.finishMocking()
+        }
+    }
+
+    @Test
+    fun sendRefreshSafetySources_consecutivePageOpens_resolvesReceiverOnce() {
+        repeat(PAGE_OPEN_COUNT) {
+            assertThat(
+                    dispatcher.sendRefreshSafetySources(
+                        REFRESH_REASON_PAGE_OPEN,
+                        userProfileGroup,
+                        null
+                    )
+                )
+                .isEqualTo(BROADCAST_ID)
+        }
+
+        verifyResolveCount(1)
+        verify(context, times(PAGE_OPEN_COUNT))
+            .sendBroadcastAsUser(any(), eq(UserHandle.of(USER_ID)), anyString(), any<Bundle>())
+    }
+
+    @Test
+    fun sendRefreshSafetySources_noReceiver_resolvesReceiverEachTime() {
+        setReceiverResolves(false)
+
+        repeat(PAGE_OPEN_COUNT) {
+            assertThat(
+                    dispatcher.sendRefreshSafetySources(
+                        REFRESH_REASON_PAGE_OPEN,
+                        userProfileGroup,
+                        null
+                    )
+                )
+                .isNull()
+        }
+
+        verifyResolveCount(PAGE_OPEN_COUNT)
+        verify(safetyCenterRefreshTracker, times(0)).reportRefreshInProgress(anyInt(), any())
+    }
+
+    @Test
+    fun sendRefreshSafetySources_receiverAddedLater_sendsBroadcast() {
+        setReceiverResolves(false)
+        dispatcher.sendRefreshSafetySources(REFRESH_REASON_PAGE_OPEN, userProfileGroup, null)
+        setReceiverResolves(true)
+
+        val broadcastId =
+            dispatcher.sendRefreshSafetySources(REFRESH_REASON_PAGE_OPEN, userProfileGroup, null)
+
+        assertThat(broadcastId).isEqualTo(BROADCAST_ID)
+    }
+
+    @Test
+    fun sendRefreshSafetySources_packageChanged_resolvesReceiverAgain() {
+        dispatcher.sendRefreshSafetySources(REFRESH_REASON_PAGE_OPEN, userProfileGroup, null)
+
+        dispatcher.onPackageChanged(PACKAGE_NAME)
+        dispatcher.sendRefreshSafetySources(REFRESH_REASON_PAGE_OPEN, userProfileGroup, null)
+
+        verifyResolveCount(2)
+    }
+
+    @Test
+    fun sendRefreshSafetySources_withManagedProfile_sendsToAllUsersWithOneRefresh() {
+        whenever(userProfileGroup.managedRunningProfilesUserIds)
+            .thenReturn(intArrayOf(MANAGED_PROFILE_ID))
+
+        val broadcastId =
+            dispatcher.sendRefreshSafetySources(REFRESH_REASON_PAGE_OPEN, userProfileGroup, null)
+
+        assertThat(broadcastId).isEqualTo(BROADCAST_ID)
+        verify(safetyCenterRefreshTracker, times(1)).reportRefreshInProgress(anyInt(), any())
+        verify(context, times(1))
+            .sendBroadcastAsUser(any(), eq(UserHandle.of(USER_ID)), anyString(), any<Bundle>())
+        verify(context, times(1))
+            .sendBroadcastAsUser(
+                any(),
+                eq(UserHandle.of(MANAGED_PROFILE_ID)),
+                anyString(),
+                any<Bundle>()
+            )
+    }
+
+    @Test
+    fun sendRefreshSafetySources_merged_doesNotResolveRequestedSources() {
+        dispatcher.sendRefreshSafetySources(REFRESH_REASON_PAGE_OPEN, userProfileGroup, null)
+        dispatcher.onPackageChanged(PACKAGE_NAME)
+        whenever(safetyCenterRefreshTracker.getMergeableRefreshId(anyInt(), any()))
+            .thenReturn(BROADCAST_ID)
+        whenever(safetyCenterRefreshTracker.isSourceRefreshRequested(eq(BROADCAST_ID), any()))
+            .thenReturn(true)
+
+        val broadcastId =
+            dispatcher.sendRefreshSafetySources(REFRESH_REASON_PAGE_OPEN, userProfileGroup, null)
+
+        assertThat(broadcastId).isNull()
+        verifyResolveCount(1)
+        verify(safetyCenterRefreshTracker).reportRefreshesSaved(1, 1)
+    }
+
+    private fun setReceiverResolves(resolves: Boolean) {
+        val resolveInfos = if (resolves) listOf(ResolveInfo()) else emptyList()
+        whenever(
+                PackageUtils.queryUnfilteredBroadcastReceiversAsUser(
+                    any(Intent::class.java),
+                    anyInt(),
+                    anyInt(),
+                    any(Context::class.java)
+                )
+            )
+            .thenReturn(resolveInfos)
+    }
+
+    private fun verifyResolveCount(count: Int) {
+        ExtendedMockito.verify(
+            {
+                PackageUtils.queryUnfilteredBroadcastReceiversAsUser(
+                    any(Intent::class.java),
+                    anyInt(),
+                    anyInt(),
+                    any(Context::class.java)
+                )
+            },
+            times(count)
+        )
+    }
+
+    companion object {
+        private const val PACKAGE_NAME = "test.package"
+        private const val SOURCE_ID = "test_source_id"
+        private const val BROADCAST_ID = "test_broadcast_id"
+        private const val USER_ID = 0
+        private const val MANAGED_PROFILE_ID = 10
+        private const val PAGE_OPEN_COUNT = 100
+    }
+}
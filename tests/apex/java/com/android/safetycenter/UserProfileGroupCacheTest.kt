@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter
+
+import android.content.Context
+import android.os.Build
+import android.os.Process
+import android.os.UserHandle
+import android.os.UserManager
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyBoolean
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.`when` as whenever
+
+/**
+ * Unit tests for [UserProfileGroupCache], using a fake [UserManager].
+ *
+ * The device has a primary user with a managed profile, and an additional user.
+ */
+@RunWith(AndroidJUnit4::class)
+class UserProfileGroupCacheTest {
+
+    private val primaryUserId = Process.myUserHandle().identifier
+    private val context = mock(Context::class.java)
+    private val userManager = mock(UserManager::class.java)
+    private val additionalUserContext = mock(Context::class.java)
+    private val additionalUserManager = mock(UserManager::class.java)
+    private val managedProfileContext = mock(Context::class.java)
+
+    private lateinit var cache: UserProfileGroupCache
+
+    @Before
+    fun setUp() {
+        // Safety Center is only available on T and later.
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU)
+        whenever(context.packageName).thenReturn(PACKAGE_NAME)
+        whenever(context.getSystemService(UserManager::class.java)).thenReturn(userManager)
+        whenever(
+                context.createPackageContextAsUser(
+                    anyString(),
+                    anyInt(),
+                    eq(UserHandle.of(ADDITIONAL_USER_ID))
+                )
+            )
+            .thenReturn(additionalUserContext)
+        whenever(
+                context.createPackageContextAsUser(
+                    anyString(),
+                    anyInt(),
+                    eq(UserHandle.of(MANAGED_PROFILE_ID))
+                )
+            )
+            .thenReturn(managedProfileContext)
+        whenever(additionalUserContext.getSystemService(UserManager::class.java))
+            .thenReturn(additionalUserManager)
+        whenever(managedProfileContext.getSystemService(UserManager::class.java))
+            .thenReturn(userManager)
+
+        whenever(userManager.getUserHandles(anyBoolean()))
+            .thenReturn(
+                listOf(
+                    UserHandle.of(primaryUserId),
+                    UserHandle.of(MANAGED_PROFILE_ID),
+                    UserHandle.of(ADDITIONAL_USER_ID)
+                )
+            )
+        whenever(userManager.userProfiles)
+            .thenReturn(listOf(UserHandle.of(primaryUserId), UserHandle.of(MANAGED_PROFILE_ID)))
+        whenever(userManager.getProfileParent(UserHandle.of(MANAGED_PROFILE_ID)))
+            .thenReturn(UserHandle.of(primaryUserId))
+        whenever(userManager.isManagedProfile(MANAGED_PROFILE_ID)).thenReturn(true)
+        setManagedProfileRunning(true)
+        whenever(additionalUserManager.userProfiles)
+            .thenReturn(listOf(UserHandle.of(ADDITIONAL_USER_ID)))
+
+        cache = UserProfileGroupCache(context)
+    }
+
+    @Test
+    fun fromUser_calledTwice_queriesUserManagerOnce() {
+        val userProfileGroup = cache.fromUser(primaryUserId)
+
+        assertThat(cache.fromUser(primaryUserId)).isSameInstanceAs(userProfileGroup)
+        verify(userManager, times(1)).userProfiles
+    }
+
+    @Test
+    fun fromUser_managedProfileRunning_containsRunningProfile() {
+        val userProfileGroup = cache.fromUser(primaryUserId)
+
+        assertThat(userProfileGroup.managedRunningProfilesUserIds.toList())
+            .containsExactly(MANAGED_PROFILE_ID)
+    }
+
+    @Test
+    fun invalidateUser_managedProfileStopped_recomputesItsGroup() {
+        cache.fromUser(primaryUserId)
+        cache.fromUser(MANAGED_PROFILE_ID)
+        setManagedProfileRunning(false)
+
+        cache.invalidateUser(MANAGED_PROFILE_ID)
+
+        assertThat(cache.fromUser(primaryUserId).managedRunningProfilesUserIds).isEmpty()
+        assertThat(cache.fromUser(MANAGED_PROFILE_ID).managedRunningProfilesUserIds).isEmpty()
+    }
+
+    @Test
+    fun invalidateUser_managedProfileStopped_keepsOtherGroups() {
+        val additionalUserGroup = cache.fromUser(ADDITIONAL_USER_ID)
+        cache.fromUser(primaryUserId)
+
+        cache.invalidateUser(MANAGED_PROFILE_ID)
+
+        assertThat(cache.fromUser(ADDITIONAL_USER_ID)).isSameInstanceAs(additionalUserGroup)
+        verify(additionalUserManager, times(1)).userProfiles
+    }
+
+    @Test
+    fun invalidateUser_allGroupsCached_recomputesOnlyAffectedGroup() {
+        cache.getAllUserProfileGroups()
+        setManagedProfileRunning(false)
+
+        cache.invalidateUser(MANAGED_PROFILE_ID)
+        val allUserProfileGroups = cache.getAllUserProfileGroups()
+
+        assertThat(allUserProfileGroups.map { it.profileParentUserId })
+            .containsExactly(primaryUserId, ADDITIONAL_USER_ID)
+            .inOrder()
+        assertThat(allUserProfileGroups[0].managedRunningProfilesUserIds).isEmpty()
+        verify(userManager, times(1)).getUserHandles(anyBoolean())
+        verify(additionalUserManager, times(1)).userProfiles
+    }
+
+    @Test
+    fun invalidateUser_unknownUser_keepsAllGroups() {
+        val allUserProfileGroups = cache.getAllUserProfileGroups()
+
+        cache.invalidateUser(UNKNOWN_USER_ID)
+
+        assertThat(cache.getAllUserProfileGroups()).isSameInstanceAs(allUserProfileGroups)
+    }
+
+    @Test
+    fun invalidate_allGroupsCached_queriesAllUsersAgain() {
+        cache.getAllUserProfileGroups()
+
+        cache.invalidate()
+        cache.getAllUserProfileGroups()
+
+        verify(userManager, times(2)).getUserHandles(anyBoolean())
+        verify(additionalUserManager, times(2)).userProfiles
+    }
+
+    private fun setManagedProfileRunning(running: Boolean) {
+        whenever(userManager.isUserRunning(UserHandle.of(MANAGED_PROFILE_ID))).thenReturn(running)
+        whenever(userManager.isQuietModeEnabled(any())).thenReturn(false)
+    }
+
+    companion object {
+        private const val PACKAGE_NAME = "android"
+        private const val MANAGED_PROFILE_ID = 10
+        private const val ADDITIONAL_USER_ID = 11
+        private const val UNKNOWN_USER_ID = 12
+    }
+}
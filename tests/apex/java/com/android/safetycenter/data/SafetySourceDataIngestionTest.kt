@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.data
+
+import android.os.Build
+import android.safetycenter.SafetySourceData
+import android.safetycenter.SafetySourceData.SEVERITY_LEVEL_INFORMATION
+import android.safetycenter.SafetySourceStatus
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito
+import com.android.safetycenter.SafetyCenterConfigReader
+import com.android.safetycenter.SafetyCenterConfigReader.ExternalSafetySource
+import com.android.safetycenter.SafetyCenterFlags
+import com.android.safetycenter.SafetySourceKey
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Assert.assertThrows
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.`when` as whenever
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness
+
+/** Unit tests for [SafetySourceDataIngestion]. */
+@RunWith(AndroidJUnit4::class)
+class SafetySourceDataIngestionTest {
+
+    private val safetyCenterConfigReader = mock(SafetyCenterConfigReader::class.java)
+    private val externalSafetySource = mock(ExternalSafetySource::class.java)
+
+    private lateinit var mockitoSession: MockitoSession
+    private lateinit var ingestion: SafetySourceDataIngestion
+
+    @Before
+    fun setUp() {
+        // Safety Center is only available on T and later.
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU)
+        mockitoSession =
+            ExtendedMockito.mockitoSession()
+                .mockStatic(SafetyCenterFlags::class.java)
+                .strictness(Strictness.LENIENT)
+                .startMocking()
+        whenever(SafetyCenterFlags.getSafetySourceDataMaxBytes()).thenReturn(MAX_BYTES)
+        whenever(safetyCenterConfigReader.getExternalSafetySource(SOURCE_ID, PACKAGE_NAME))
+            .thenReturn(externalSafetySource)
+        whenever(safetyCenterConfigReader.isExternalSafetySourceActive(SOURCE_ID, PACKAGE_NAME))
+            .thenReturn(true)
+        ingestion = SafetySourceDataIngestion(safetyCenterConfigReader)
+    }
+
+    @After
+    fun tearDown() {
+        if (this::mockitoSession.isInitialized) {
+            mockitoSession.finishMocking()
+        }
+    }
+
+    @Test
+    fun isDuplicate_nothingAccepted_returnsFalse() {
+        assertThat(ingestion.isDuplicate(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID))
+            .isFalse()
+    }
+
+    @Test
+    fun isDuplicate_equalDataAccepted_returnsTrue() {
+        ingestion.onAccepted(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID)
+
+        assertThat(ingestion.isDuplicate(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID))
+            .isTrue()
+    }
+
+    @Test
+    fun isDuplicate_differentDataAccepted_returnsFalse() {
+        ingestion.onAccepted(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID)
+
+        assertThat(ingestion.isDuplicate(data("Other title"), SOURCE_ID, PACKAGE_NAME, USER_ID))
+            .isFalse()
+    }
+
+    @Test
+    fun isDuplicate_otherUser_returnsFalse() {
+        ingestion.onAccepted(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID)
+
+        assertThat(ingestion.isDuplicate(data("Title"), SOURCE_ID, PACKAGE_NAME, OTHER_USER_ID))
+            .isFalse()
+    }
+
+    @Test
+    fun isDuplicate_configChanged_returnsFalse() {
+        ingestion.onAccepted(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID)
+        whenever(safetyCenterConfigReader.getExternalSafetySource(SOURCE_ID, PACKAGE_NAME))
+            .thenReturn(mock(ExternalSafetySource::class.java))
+
+        assertThat(ingestion.isDuplicate(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID))
+            .isFalse()
+    }
+
+    @Test
+    fun isDuplicate_sourceInactive_returnsFalse() {
+        ingestion.onAccepted(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID)
+        whenever(safetyCenterConfigReader.isExternalSafetySourceActive(SOURCE_ID, PACKAGE_NAME))
+            .thenReturn(false)
+
+        assertThat(ingestion.isDuplicate(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID))
+            .isFalse()
+    }
+
+    @Test
+    fun isDuplicate_forgotten_returnsFalse() {
+        ingestion.onAccepted(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID)
+
+        ingestion.forget(SafetySourceKey.of(SOURCE_ID, USER_ID))
+
+        assertThat(ingestion.isDuplicate(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID))
+            .isFalse()
+    }
+
+    @Test
+    fun isDuplicate_packageChanged_returnsFalse() {
+        ingestion.onAccepted(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID)
+
+        ingestion.onPackageChanged(PACKAGE_NAME)
+
+        assertThat(ingestion.isDuplicate(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID))
+            .isFalse()
+    }
+
+    @Test
+    fun isDuplicate_userCleared_returnsFalse() {
+        ingestion.onAccepted(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID)
+
+        ingestion.clearForUser(USER_ID)
+
+        assertThat(ingestion.isDuplicate(data("Title"), SOURCE_ID, PACKAGE_NAME, USER_ID))
+            .isFalse()
+    }
+
+    @Test
+    fun estimateSizeBytes_longerText_isLarger() {
+        val shortSize = SafetySourceDataIngestion.estimateSizeBytes(data("Title"))
+        val longSize = SafetySourceDataIngestion.estimateSizeBytes(data("Title".repeat(100)))
+
+        assertThat(longSize - shortSize).isEqualTo(2L * "Title".length * 99)
+    }
+
+    @Test
+    fun enforceMemoryBudget_withinBudget_doesNotThrow() {
+        ingestion.enforceMemoryBudget(data("Title"), SOURCE_ID)
+    }
+
+    @Test
+    fun enforceMemoryBudget_nullData_doesNotThrow() {
+        ingestion.enforceMemoryBudget(null, SOURCE_ID)
+    }
+
+    @Test
+    fun enforceMemoryBudget_overBudget_throws() {
+        val data = data("a".repeat(MAX_BYTES.toInt() / 2))
+
+        assertThrows(IllegalArgumentException::class.java) {
+            ingestion.enforceMemoryBudget(data, SOURCE_ID)
+        }
+    }
+
+    private fun data(title: String): SafetySourceData {
+        val status =
+            SafetySourceStatus.Builder(title, "Summary", SEVERITY_LEVEL_INFORMATION).build()
+        return SafetySourceData.Builder().setStatus(status).build()
+    }
+
+    companion object {
+        private const val SOURCE_ID = "test_source_id"
+        private const val PACKAGE_NAME = "test.package"
+        private const val USER_ID = 0
+        private const val OTHER_USER_ID = 10
+        private const val MAX_BYTES = 4096L
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.logging
+
+import android.app.StatsManager
+import android.os.Build
+import android.safetycenter.SafetyCenterData
+import android.safetycenter.SafetyCenterStatus
+import android.safetycenter.SafetyCenterStatus.OVERALL_SEVERITY_LEVEL_OK
+import android.util.StatsEvent
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito
+import com.android.permission.PermissionStatsLog.SAFETY_STATE
+import com.android.safetycenter.ApiLock
+import com.android.safetycenter.SafetyCenterConfigReader
+import com.android.safetycenter.SafetyCenterDataFactory
+import com.android.safetycenter.SafetyCenterFlags
+import com.android.safetycenter.UserProfileGroup
+import com.android.safetycenter.UserProfileGroupCache
+import com.android.safetycenter.data.SafetyCenterDataManager
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyList
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.`when` as whenever
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness
+
+/** Unit tests for [SafetyCenterPullAtomCallback]. */
+@RunWith(AndroidJUnit4::class)
+class SafetyCenterPullAtomCallbackTest {
+
+    private val apiLock = mock(ApiLock::class.java)
+    private val userProfileGroupCache = mock(UserProfileGroupCache::class.java)
+    private val safetyCenterConfigReader = mock(SafetyCenterConfigReader::class.java)
+    private val dataFactory = mock(SafetyCenterDataFactory::class.java)
+    private val dataManager = mock(SafetyCenterDataManager::class.java)
+    private val userProfileGroup = mock(UserProfileGroup::class.java)
+
+    private lateinit var mockitoSession: MockitoSession
+    private lateinit var pullAtomCallback: SafetyCenterPullAtomCallback
+
+    @Before
+    fun setUp() {
+        // Safety Center is only available on T and later.
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU)
+        mockitoSession =
+            ExtendedMockito.mockitoSession()
+                .mockStatic(SafetyCenterFlags::class.java)
+                .strictness(Strictness.LENIENT)
+                .startMocking()
+        whenever(SafetyCenterFlags.getSafetyCenterEnabled()).thenReturn(true)
+        whenever(SafetyCenterFlags.getAllowStatsdLogging()).thenReturn(true)
+        whenever(userProfileGroup.profileParentUserId).thenReturn(USER_ID)
+        whenever(userProfileGroupCache.allUserProfileGroups).thenReturn(listOf(userProfileGroup))
+        whenever(safetyCenterConfigReader.loggableSafetySourcesGroups).thenReturn(emptyList())
+        whenever(dataFactory.assembleSafetyCenterData(anyString(), any(), anyList()))
+            .thenReturn(safetyCenterData())
+
+        pullAtomCallback =
+            SafetyCenterPullAtomCallback(
+                apiLock,
+                userProfileGroupCache,
+                safetyCenterConfigReader,
+                dataFactory,
+                dataManager
+            )
+    }
+
+    @After
+    fun tearDown() {
+        if (this::mockitoSession.isInitialized) {
+            mockitoSession.finishMocking()
+        }
+    }
+
+    @Test
+    fun onPullAtom_pulledTwice_assemblesDataOnce() {
+        pull()
+        pull()
+
+        verifyAssembleCount(1)
+    }
+
+    @Test
+    fun onDataChanged_neverPulled_doesNotAssembleData() {
+        synchronized(apiLock) { pullAtomCallback.onDataChanged(userProfileGroup) }
+
+        verifyAssembleCount(0)
+    }
+
+    @Test
+    fun onDataChanged_afterPull_assemblesDataOnNextPull() {
+        pull()
+
+        synchronized(apiLock) { pullAtomCallback.onDataChanged(userProfileGroup) }
+
+        verifyAssembleCount(1)
+        pull()
+        verifyAssembleCount(2)
+    }
+
+    @Test
+    fun clearSnapshots_afterPull_assemblesDataOnNextPull() {
+        pull()
+
+        synchronized(apiLock) { pullAtomCallback.clearSnapshots() }
+        pull()
+
+        verifyAssembleCount(2)
+    }
+
+    @Test
+    fun onDataChanged_manyChangesBetweenPulls_assemblesDataOncePerPull() {
+        pull()
+
+        repeat(ITERATION_COUNT) {
+            synchronized(apiLock) { pullAtomCallback.onDataChanged(userProfileGroup) }
+        }
+        pull()
+
+        verifyAssembleCount(2)
+    }
+
+    private fun pull() {
+        val statsEvents = mutableListOf<StatsEvent>()
+
+        val result = pullAtomCallback.onPullAtom(SAFETY_STATE, statsEvents)
+
+        assertThat(result).isEqualTo(StatsManager.PULL_SUCCESS)
+        assertThat(statsEvents).hasSize(1)
+    }
+
+    private fun safetyCenterData() =
+        SafetyCenterData(
+            SafetyCenterStatus.Builder("Title", "Summary")
+                .setSeverityLevel(OVERALL_SEVERITY_LEVEL_OK)
+                .build(),
+            emptyList(),
+            emptyList(),
+            emptyList()
+        )
+
+    private fun verifyAssembleCount(count: Int) {
+        verify(dataFactory, times(count)).assembleSafetyCenterData(anyString(), any(), anyList())
+    }
+
+    companion object {
+        private const val USER_ID = 0
+        private const val ITERATION_COUNT = 1000
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.notifications
+
+import android.app.Notification
+import android.app.NotificationManager
+import android.app.PendingIntent
+import android.content.Context
+import android.os.Build
+import android.os.Handler
+import android.safetycenter.SafetySourceData.SEVERITY_LEVEL_RECOMMENDATION
+import android.safetycenter.SafetySourceIssue
+import android.safetycenter.config.SafetySource
+import android.safetycenter.config.SafetySourcesGroup
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito
+import com.android.permission.util.UserUtils
+import com.android.safetycenter.ApiLock
+import com.android.safetycenter.SafetyCenterFlags
+import com.android.safetycenter.SafetySourceIssueInfo
+import com.android.safetycenter.data.SafetyCenterDataManager
+import com.android.safetycenter.logging.SafetyCenterStatsdLogger
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+import java.time.ZoneOffset
+import org.junit.After
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyLong
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.clearInvocations
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.`when` as whenever
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness
+
+/**
+ * Unit tests for [SafetyCenterNotificationSender], using a fake [Clock] and a [Handler] whose
+ * delayed callbacks are run manually.
+ */
+@RunWith(AndroidJUnit4::class)
+class SafetyCenterNotificationSenderTest {
+
+    private val context = mock(Context::class.java)
+    private val notificationFactory = mock(SafetyCenterNotificationFactory::class.java)
+    private val dataManager = mock(SafetyCenterDataManager::class.java)
+    private val apiLock = mock(ApiLock::class.java)
+    private val handler = mock(Handler::class.java)
+    private val notificationManager = mock(NotificationManager::class.java)
+    private val safetySource = mock(SafetySource::class.java)
+    private val safetySourcesGroup = mock(SafetySourcesGroup::class.java)
+    private val clock = FakeClock(START_TIME)
+
+    private lateinit var mockitoSession: MockitoSession
+    private lateinit var notificationSender: SafetyCenterNotificationSender
+
+    @Before
+    fun setUp() {
+        // Safety Center is only available on T and later.
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU)
+        mockitoSession =
+            ExtendedMockito.mockitoSession()
+                .mockStatic(SafetyCenterFlags::class.java)
+                .mockStatic(SafetyCenterNotificationChannels::class.java)
+                .mockStatic(SafetyCenterStatsdLogger::class.java)
+                .mockStatic(UserUtils::class.java)
+                .strictness(Strictness.LENIENT)
+                .startMocking()
+        whenever(SafetyCenterFlags.getNotificationsEnabled()).thenReturn(true)
+        whenever(SafetyCenterFlags.getNotificationsAllowedSourceIds()).thenReturn(setOf(SOURCE_ID))
+        whenever(SafetyCenterFlags.getImmediateNotificationBehaviorIssues())
+            .thenReturn(setOf("$SOURCE_ID/$ISSUE_TYPE_ID"))
+        whenever(SafetyCenterFlags.getNotificationsMinDelay()).thenReturn(MIN_DELAY)
+        whenever(SafetyCenterNotificationChannels.getNotificationManagerForUser(any(), any()))
+            .thenReturn(notificationManager)
+        whenever(UserUtils.isManagedProfile(anyInt(), any())).thenReturn(false)
+        whenever(notificationFactory.newNotificationForIssue(any(), any(), any()))
+            .thenReturn(mock(Notification::class.java))
+        whenever(dataManager.getIssueFirstSeenAt(any())).thenReturn(START_TIME)
+        whenever(safetySource.id).thenReturn(SOURCE_ID)
+
+        notificationSender =
+            SafetyCenterNotificationSender(
+                context,
+                notificationFactory,
+                dataManager,
+                apiLock,
+                clock,
+                handler
+            )
+    }
+
+    @After
+    fun tearDown() {
+        if (this::mockitoSession.isInitialized) {
+            mockitoSession.finishMocking()
+        }
+    }
+
+    @Test
+    fun updateNotifications_delayedIssue_postsOnTimeWithoutOtherUpdates() {
+        // Delayed notification behaviors are only available on U and later.
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+        setIssues(
+            listOf(
+                issueBuilder(ISSUE_ID)
+                    .setNotificationBehavior(SafetySourceIssue.NOTIFICATION_BEHAVIOR_DELAYED)
+                    .build()
+            )
+        )
+
+        notificationSender.updateNotifications(USER_ID)
+
+        val timerCaptor = ArgumentCaptor.forClass(Runnable::class.java)
+        verify(handler).postDelayed(timerCaptor.capture(), eq(MIN_DELAY.toMillis()))
+        verifyNotifyCount(0)
+
+        clock.now = START_TIME.plus(MIN_DELAY)
+        timerCaptor.value.run()
+
+        verifyNotifyCount(1)
+        verify(handler, times(1)).postDelayed(any(), anyLong())
+    }
+
+    @Test
+    fun updateNotifications_delayedIssueNotDueYet_doesNotPost() {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+        setIssues(
+            listOf(
+                issueBuilder(ISSUE_ID)
+                    .setNotificationBehavior(SafetySourceIssue.NOTIFICATION_BEHAVIOR_DELAYED)
+                    .build()
+            )
+        )
+        notificationSender.updateNotifications(USER_ID)
+        val timerCaptor = ArgumentCaptor.forClass(Runnable::class.java)
+        verify(handler).postDelayed(timerCaptor.capture(), anyLong())
+
+        clock.now = START_TIME.plus(MIN_DELAY).minusMillis(1)
+        timerCaptor.value.run()
+
+        verifyNotifyCount(0)
+        verify(handler).postDelayed(timerCaptor.value, 1)
+    }
+
+    @Test
+    fun updateNotifications_manyIssuesWithOneChanged_notifiesOnce() {
+        val issues = (0 until ISSUE_COUNT).map { issueBuilder("issue_$it").build() }
+        setIssues(issues)
+        notificationSender.updateNotifications(USER_ID)
+        verifyNotifyCount(ISSUE_COUNT)
+        clearInvocations(notificationManager, notificationFactory)
+
+        val changedIssues = issues.toMutableList()
+        changedIssues[CHANGED_ISSUE_INDEX] =
+            issueBuilder("issue_$CHANGED_ISSUE_INDEX", title = "Changed title").build()
+        setIssues(changedIssues)
+        notificationSender.updateNotifications(USER_ID)
+
+        verifyNotifyCount(1)
+        verify(notificationFactory, times(1)).newNotificationForIssue(any(), any(), any())
+        verify(notificationManager, never()).cancel(anyString(), anyInt())
+    }
+
+    private fun setIssues(issues: List<SafetySourceIssue>) {
+        whenever(dataManager.getIssuesForUser(USER_ID))
+            .thenReturn(
+                issues.map { SafetySourceIssueInfo(it, safetySource, safetySourcesGroup, USER_ID) }
+            )
+    }
+
+    private fun issueBuilder(id: String, title: String = "Issue title") =
+        SafetySourceIssue.Builder(
+                id,
+                title,
+                "Issue summary",
+                SEVERITY_LEVEL_RECOMMENDATION,
+                ISSUE_TYPE_ID
+            )
+            .addAction(
+                SafetySourceIssue.Action.Builder(
+                        ACTION_ID,
+                        "Action",
+                        mock(PendingIntent::class.java)
+                    )
+                    .build()
+            )
+
+    private fun verifyNotifyCount(count: Int) {
+        verify(notificationManager, times(count)).notify(anyString(), anyInt(), any())
+    }
+
+    /** A [Clock] whose current [Instant] is set manually. */
+    private class FakeClock(var now: Instant) : Clock() {
+
+        override fun getZone(): ZoneId = ZoneOffset.UTC
+
+        override fun withZone(zone: ZoneId): Clock = this
+
+        override fun instant(): Instant = now
+    }
+
+    companion object {
+        private const val SOURCE_ID = "test_source_id"
+        private const val ISSUE_ID = "test_issue_id"
+        private const val ISSUE_TYPE_ID = "test_issue_type_id"
+        private const val ACTION_ID = "test_action_id"
+        private const val USER_ID = 0
+        private const val ISSUE_COUNT = 1000
+        private const val CHANGED_ISSUE_INDEX = 500
+        private val START_TIME = Instant.ofEpochMilli(1_000_000L)
+        private val MIN_DELAY = Duration.ofHours(2)
+    }
+}
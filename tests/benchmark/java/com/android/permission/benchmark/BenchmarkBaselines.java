@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.benchmark;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * The baseline time per operation of each {@link HostBenchmarks} benchmark, against which
+ * regressions are detected.
+ *
+ * <p>Baselines are read from {@link #RESOURCE_NAME}, or from the file set in the {@link
+ * #BASELINES_PROPERTY} system property, which is useful to compare against baselines measured on
+ * the same machine. Each line maps the name of a benchmark to its average time per
+ * operation in nanoseconds, as printed by {@link HostBenchmarks#main}.
+ */
+public final class BenchmarkBaselines {
+
+    /** The name of the resource holding the checked in baselines. */
+    public static final String RESOURCE_NAME = "/host_benchmark_baselines.properties";
+
+    /** The system property holding the path of a file that overrides the checked in baselines. */
+    public static final String BASELINES_PROPERTY = "permission.benchmark.baselines";
+
+    /**
+     * The system property holding the maximum allowed regression, as a fraction of the baseline.
+     *
+     * <p>For example, {@code 0.25} fails benchmarks that are more than 25% slower than their
+     * baseline.
+     */
+    public static final String MAX_REGRESSION_PROPERTY = "permission.benchmark.maxRegression";
+
+    /**
+     * The default maximum allowed regression.
+     *
+     * <p>It is large because the checked in baselines may have been measured on a different
+     * machine, so only order of magnitude regressions are caught by default.
+     */
+    public static final double DEFAULT_MAX_REGRESSION = 1.0;
+
+    @NonNull
+    private final Properties mBaselines;
+
+    private BenchmarkBaselines(@NonNull Properties baselines) {
+        mBaselines = baselines;
+    }
+
+    /** Loads the baselines. */
+    @NonNull
+    public static BenchmarkBaselines load() throws IOException {
+        Properties baselines = new Properties();
+        String path = System.getProperty(BASELINES_PROPERTY);
+        try (InputStream inputStream = path != null ? new FileInputStream(path)
+                : BenchmarkBaselines.class.getResourceAsStream(RESOURCE_NAME)) {
+            if (inputStream == null) {
+                throw new IOException("Missing resource " + RESOURCE_NAME);
+            }
+            baselines.load(inputStream);
+        }
+        return new BenchmarkBaselines(baselines);
+    }
+
+    /** Returns the maximum allowed regression, as a fraction of the baseline. */
+    public static double getMaxRegression() {
+        String maxRegression = System.getProperty(MAX_REGRESSION_PROPERTY);
+        return maxRegression != null ? Double.parseDouble(maxRegression) : DEFAULT_MAX_REGRESSION;
+    }
+
+    /**
+     * Returns the baseline time per operation of the benchmark with the given name, or {@code
+     * null} if it has none.
+     */
+    @Nullable
+    public Double getBaselineNanos(@NonNull String name) {
+        String baselineNanos = mBaselines.getProperty(name);
+        return baselineNanos != null ? Double.parseDouble(baselineNanos.trim()) : null;
+    }
+
+    /**
+     * Returns whether the given measured time per operation is more than the given maximum
+     * regression slower than the given baseline.
+     */
+    public static boolean isRegression(double baselineNanos, double measuredNanos,
+            double maxRegression) {
+        return measuredNanos > baselineNanos * (1 + maxRegression);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.benchmark;
+
+import android.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** Temporary files used by the host benchmarks that read and write persistence files. */
+public final class BenchmarkFiles {
+
+    private BenchmarkFiles() {}
+
+    /** Creates a new empty temporary directory. */
+    @NonNull
+    public static File createTempDirectory() throws IOException {
+        return Files.createTempDirectory("permission-benchmark").toFile();
+    }
+
+    /** Deletes the given file, or directory and everything it contains. */
+    public static void deleteRecursively(@NonNull File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.benchmark;
+
+import android.annotation.NonNull;
+
+import com.android.permission.latency.LatencyStatsBenchmarks;
+import com.android.permission.persistence.RuntimePermissionsPersistenceBenchmarks;
+import com.android.role.persistence.RolesPersistenceBenchmarks;
+import com.android.safetycenter.config.SafetyCenterConfigParserBenchmarks;
+import com.android.safetycenter.data.SafetyCenterIssueDeduplicatorBenchmarks;
+import com.android.safetycenter.persistence.SafetyCenterIssuesPersistenceBenchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * All the host JMH benchmarks.
+ *
+ * <p>Running this class runs the benchmarks whose name matches one of the regular expressions
+ * given as arguments, or all benchmarks without arguments. After the JMH output, it prints their
+ * scores in the format of the baselines read by {@link BenchmarkBaselines}:
+ *
+ * <pre>
+ * java -cp PermissionHostBenchmarks.jar com.android.permission.benchmark.HostBenchmarks [regex...]
+ * </pre>
+ */
+public final class HostBenchmarks {
+
+    /** The classes holding the host benchmarks. */
+    @NonNull
+    public static final List<Class<?>> BENCHMARK_CLASSES =
+            List.of(
+                    RuntimePermissionsPersistenceBenchmarks.class,
+                    RolesPersistenceBenchmarks.class,
+                    SafetyCenterIssuesPersistenceBenchmarks.class,
+                    SafetyCenterConfigParserBenchmarks.class,
+                    SafetyCenterIssueDeduplicatorBenchmarks.class,
+                    LatencyStatsBenchmarks.class);
+
+    private HostBenchmarks() {}
+
+    /**
+     * Runs the benchmarks of the given class, and returns their average time per operation in
+     * nanoseconds, keyed by {@link #getName}.
+     */
+    @NonNull
+    public static Map<String, Double> run(@NonNull Class<?> benchmarkClass)
+            throws RunnerException {
+        return run(Pattern.quote(benchmarkClass.getName()) + "\\.");
+    }
+
+    /**
+     * Runs the benchmarks whose name matches one of the given regular expressions, and returns
+     * their average time per operation in nanoseconds, keyed by {@link #getName}.
+     */
+    @NonNull
+    public static Map<String, Double> run(@NonNull String... includes) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder();
+        for (String include : includes) {
+            options.include(include);
+        }
+        Map<String, Double> scores = new TreeMap<>();
+        for (RunResult result : new Runner(options.build()).run()) {
+            scores.put(getName(result.getParams()), result.getPrimaryResult().getScore());
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the name of a benchmark in the baselines, made of its simple class name, its method
+     * name and its parameter values, e.g. {@code RolesPersistenceBenchmarks.read.100}.
+     */
+    @NonNull
+    public static String getName(@NonNull BenchmarkParams params) {
+        String benchmark = params.getBenchmark();
+        int classNameStart = benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1;
+        StringBuilder name = new StringBuilder(benchmark.substring(classNameStart));
+        for (String key : params.getParamsKeys()) {
+            name.append('.').append(params.getParam(key));
+        }
+        return name.toString();
+    }
+
+    /** Runs the host benchmarks matching the given arguments, and prints their scores. */
+    public static void main(@NonNull String[] args) throws RunnerException {
+        Map<String, Double> scores = args.length > 0 ? run(args) : run(".*");
+        for (Map.Entry<String, Double> score : scores.entrySet()) {
+            System.out.println(score.getKey() + "=" + Math.round(score.getValue()));
+        }
+    }
+}
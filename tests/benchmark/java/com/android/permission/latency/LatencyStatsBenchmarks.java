@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.latency;
+
+import com.android.permission.latency.LatencyStats.HotPath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the overhead of {@link LatencyStats} on the hot paths it measures.
+ *
+ * <p>{@link #record} only measures recording a latency, while {@link #startAndRecord} measures the
+ * full pair of calls made by each hot path, including both clock reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyStatsBenchmarks {
+
+    private static final HotPath HOT_PATH = HotPath.DATA_REPOSITORY_HIT;
+
+    private long mStartNanos;
+
+    @Setup
+    public void setUp() {
+        LatencyStats.reset();
+        mStartNanos = LatencyStats.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (LatencyStats.getCount(HOT_PATH) == 0) {
+            throw new IllegalStateException("No latency was recorded");
+        }
+        LatencyStats.reset();
+    }
+
+    @Benchmark
+    public void record() {
+        LatencyStats.record(HOT_PATH, mStartNanos);
+    }
+
+    @Benchmark
+    public void startAndRecord() {
+        LatencyStats.record(HOT_PATH, LatencyStats.start());
+    }
+}
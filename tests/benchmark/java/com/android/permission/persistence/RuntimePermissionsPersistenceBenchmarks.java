@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.persistence;
+
+import android.annotation.NonNull;
+import android.content.ApexEnvironment;
+import android.os.UserHandle;
+
+import com.android.permission.benchmark.BenchmarkFiles;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link RuntimePermissionsPersistenceImpl}, for users with 1k to 50k permission
+ * states.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuntimePermissionsPersistenceBenchmarks {
+
+    private static final int PERMISSIONS_PER_PACKAGE = 20;
+
+    /** Every this many groups of permissions belongs to a shared user instead of a package. */
+    private static final int SHARED_USER_INTERVAL = 10;
+
+    private static final UserHandle USER = UserHandle.of(0);
+
+    @Param({"1000", "10000", "50000"})
+    public int permissionStateCount;
+
+    private File mDirectory;
+
+    private RuntimePermissionsPersistenceImpl mPersistence;
+
+    private RuntimePermissionsState mRuntimePermissions;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = BenchmarkFiles.createTempDirectory();
+        ApexEnvironment.setDataDirectory(mDirectory);
+        mPersistence = new RuntimePermissionsPersistenceImpl(file -> {});
+        mRuntimePermissions = createRuntimePermissions(permissionStateCount);
+        mPersistence.writeForUser(mRuntimePermissions, USER);
+        if (!mRuntimePermissions.equals(mPersistence.readForUser(USER))) {
+            throw new IllegalStateException("Runtime permissions didn't read back the same");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteRecursively(mDirectory);
+    }
+
+    @Benchmark
+    public RuntimePermissionsState read() {
+        return mPersistence.readForUser(USER);
+    }
+
+    @Benchmark
+    public void write() {
+        mPersistence.writeForUser(mRuntimePermissions, USER);
+    }
+
+    @NonNull
+    private static RuntimePermissionsState createRuntimePermissions(int permissionStateCount) {
+        Map<String, List<RuntimePermissionsState.PermissionState>> packagePermissions =
+                new LinkedHashMap<>();
+        Map<String, List<RuntimePermissionsState.PermissionState>> sharedUserPermissions =
+                new LinkedHashMap<>();
+        int groupCount = permissionStateCount / PERMISSIONS_PER_PACKAGE;
+        for (int i = 0; i < groupCount; i++) {
+            List<RuntimePermissionsState.PermissionState> permissions = new ArrayList<>();
+            for (int j = 0; j < PERMISSIONS_PER_PACKAGE; j++) {
+                // Flags 0x2, 0x4 and 0x8, but never FLAG_PERMISSION_ONE_TIME, which isn't
+                // persisted as granted and wouldn't read back the same.
+                int flags = (i + j) % 4 == 0 ? 0 : 1 << ((i + j) % 4);
+                permissions.add(new RuntimePermissionsState.PermissionState(
+                        "android.permission.BENCHMARK_" + j, (i + j) % 3 != 0, flags));
+            }
+            if (i % SHARED_USER_INTERVAL == 0) {
+                sharedUserPermissions.put("android.uid.benchmark" + i, permissions);
+            } else {
+                packagePermissions.put("com.android.benchmark.app" + i, permissions);
+            }
+        }
+        return new RuntimePermissionsState(1, "benchmark/fingerprint", packagePermissions,
+                sharedUserPermissions);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.role.persistence;
+
+import android.annotation.NonNull;
+import android.content.ApexEnvironment;
+import android.os.UserHandle;
+
+import com.android.permission.benchmark.BenchmarkFiles;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks of {@link RolesPersistenceImpl}, for a user with 100 roles. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RolesPersistenceBenchmarks {
+
+    private static final int HOLDERS_PER_ROLE = 3;
+
+    private static final UserHandle USER = UserHandle.of(0);
+
+    @Param({"100"})
+    public int roleCount;
+
+    private File mDirectory;
+
+    private RolesPersistenceImpl mPersistence;
+
+    private RolesState mRoles;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = BenchmarkFiles.createTempDirectory();
+        ApexEnvironment.setDataDirectory(mDirectory);
+        mPersistence = new RolesPersistenceImpl(file -> {});
+        mRoles = createRoles(roleCount);
+        mPersistence.writeForUser(mRoles, USER);
+        if (!mRoles.equals(mPersistence.readForUser(USER))) {
+            throw new IllegalStateException("Roles didn't read back the same");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteRecursively(mDirectory);
+    }
+
+    @Benchmark
+    public RolesState read() {
+        return mPersistence.readForUser(USER);
+    }
+
+    @Benchmark
+    public void write() {
+        mPersistence.writeForUser(mRoles, USER);
+    }
+
+    @NonNull
+    private static RolesState createRoles(int roleCount) {
+        Map<String, Set<String>> roles = new LinkedHashMap<>();
+        for (int i = 0; i < roleCount; i++) {
+            Set<String> roleHolders = new LinkedHashSet<>();
+            for (int j = 0; j < HOLDERS_PER_ROLE; j++) {
+                roleHolders.add("com.android.benchmark.app" + (i + j));
+            }
+            roles.put("android.app.role.BENCHMARK_" + i, roleHolders);
+        }
+        return new RolesState(1, "benchmark-packages-hash", roles);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.config;
+
+import static android.os.Build.VERSION_CODES.TIRAMISU;
+
+import android.content.res.Resources;
+import android.safetycenter.config.SafetyCenterConfig;
+
+import androidx.annotation.RequiresApi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link SafetyCenterConfigParser}, for configs with 100 and 1k safety sources.
+ *
+ * <p>Real configs have a few dozen sources, so these measure how parsing scales rather than its
+ * typical cost.
+ */
+@RequiresApi(TIRAMISU)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SafetyCenterConfigParserBenchmarks {
+
+    private static final int SOURCES_PER_GROUP = 20;
+
+    private static final String PACKAGE_NAME = "android.benchmark";
+
+    private static final String TITLE = "@" + PACKAGE_NAME + ":string/title";
+
+    private static final String SUMMARY = "@" + PACKAGE_NAME + ":string/summary";
+
+    private static final Resources RESOURCES =
+            new Resources(
+                    PACKAGE_NAME,
+                    Map.of("title", 1, "summary", 2),
+                    Map.of(1, "Title", 2, "Summary"));
+
+    @Param({"100", "1000"})
+    public int sourceCount;
+
+    private byte[] mConfigXml;
+
+    @Setup
+    public void setUp() throws ParseException {
+        mConfigXml = createConfigXml(sourceCount);
+        SafetyCenterConfig safetyCenterConfig = parse();
+        int groupCount = (sourceCount + SOURCES_PER_GROUP - 1) / SOURCES_PER_GROUP;
+        if (safetyCenterConfig.getSafetySourcesGroups().size() != groupCount) {
+            throw new IllegalStateException("Unexpected config: " + safetyCenterConfig);
+        }
+    }
+
+    @Benchmark
+    public SafetyCenterConfig parse() throws ParseException {
+        return SafetyCenterConfigParser.parseXmlResource(
+                new ByteArrayInputStream(mConfigXml), RESOURCES);
+    }
+
+    private static byte[] createConfigXml(int sourceCount) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<safety-center-config>\n");
+        sb.append("    <safety-sources-config>\n");
+        for (int i = 0; i < sourceCount; i++) {
+            int group = i / SOURCES_PER_GROUP;
+            if (i % SOURCES_PER_GROUP == 0) {
+                sb.append("        <safety-sources-group")
+                        .append(" id=\"group_").append(group).append('"')
+                        .append(" title=\"").append(TITLE).append('"')
+                        .append(" summary=\"").append(SUMMARY).append("\">\n");
+            }
+            sb.append("            <dynamic-safety-source")
+                    .append(" id=\"source_").append(i).append('"')
+                    .append(" packageName=\"com.android.benchmark.app").append(i).append('"')
+                    .append(" title=\"").append(TITLE).append('"')
+                    .append(" titleForWork=\"").append(TITLE).append('"')
+                    .append(" summary=\"").append(SUMMARY).append('"')
+                    .append(" intentAction=\"android.benchmark.action.SOURCE_").append(i)
+                    .append('"')
+                    .append(" profile=\"all_profiles\"")
+                    .append(" searchTerms=\"").append(TITLE).append("\"/>\n");
+            if (i % SOURCES_PER_GROUP == SOURCES_PER_GROUP - 1 || i == sourceCount - 1) {
+                sb.append("        </safety-sources-group>\n");
+            }
+        }
+        sb.append("    </safety-sources-config>\n");
+        sb.append("</safety-center-config>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
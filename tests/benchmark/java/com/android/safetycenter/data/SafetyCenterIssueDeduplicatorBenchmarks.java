@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.data;
+
+import static android.os.Build.VERSION_CODES.UPSIDE_DOWN_CAKE;
+
+import android.app.PendingIntent;
+import android.safetycenter.SafetySourceData;
+import android.safetycenter.SafetySourceIssue;
+import android.safetycenter.config.SafetySource;
+import android.safetycenter.config.SafetySourcesGroup;
+
+import androidx.annotation.RequiresApi;
+
+import com.android.modules.utils.build.SdkLevel;
+import com.android.safetycenter.SafetySourceIssueInfo;
+import com.android.safetycenter.data.SafetyCenterIssueDeduplicator.DeduplicationInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the sorting and deduplication of issues done by {@link
+ * SafetyCenterIssueRepository}, for 10k issues.
+ *
+ * <p>Issues are spread across {@link #SOURCE_COUNT} issue-only sources, which share {@link
+ * #DEDUPLICATION_GROUP_COUNT} deduplication groups, and come in buckets of {@link
+ * #ISSUES_PER_DEDUPLICATION_ID} duplicates.
+ */
+@RequiresApi(UPSIDE_DOWN_CAKE)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SafetyCenterIssueDeduplicatorBenchmarks {
+
+    private static final int SOURCE_COUNT = 100;
+
+    private static final int SOURCES_PER_GROUP = 10;
+
+    private static final int DEDUPLICATION_GROUP_COUNT = 10;
+
+    private static final int ISSUES_PER_DEDUPLICATION_ID = 4;
+
+    private static final int USER_ID = 0;
+
+    private static final int[] SEVERITY_LEVELS = {
+        SafetySourceData.SEVERITY_LEVEL_INFORMATION,
+        SafetySourceData.SEVERITY_LEVEL_RECOMMENDATION,
+        SafetySourceData.SEVERITY_LEVEL_CRITICAL_WARNING
+    };
+
+    @Param({"10000"})
+    public int issueCount;
+
+    private final SafetyCenterIssueDeduplicator mDeduplicator =
+            new SafetyCenterIssueDeduplicator(new SafetyCenterIssueDismissalRepository());
+
+    private List<SafetySourceIssueInfo> mIssues;
+
+    @Setup
+    public void setUp() {
+        // Deduplication is only available on U and later.
+        synchronized (SdkLevel.class) {
+            SdkLevel.setSdkInt(UPSIDE_DOWN_CAKE);
+        }
+        mIssues = createIssues(issueCount);
+        DeduplicationInfo deduplicationInfo = sortAndDeduplicate();
+        if (deduplicationInfo.getFilteredOutDuplicateIssues().isEmpty()) {
+            throw new IllegalStateException("No issue was deduplicated");
+        }
+    }
+
+    @Benchmark
+    public List<SafetySourceIssueInfo> sort() {
+        List<SafetySourceIssueInfo> issues = new ArrayList<>(mIssues);
+        issues.sort(SafetySourceIssuesInfoBySeverityDescending.INSTANCE);
+        return issues;
+    }
+
+    @Benchmark
+    public DeduplicationInfo sortAndDeduplicate() {
+        return mDeduplicator.deduplicateIssues(sort());
+    }
+
+    private static List<SafetySourceIssueInfo> createIssues(int issueCount) {
+        List<SafetySource> safetySources = new ArrayList<>(SOURCE_COUNT);
+        List<SafetySourcesGroup> safetySourcesGroups = new ArrayList<>(SOURCE_COUNT);
+        for (int i = 0; i < SOURCE_COUNT / SOURCES_PER_GROUP; i++) {
+            SafetySourcesGroup.Builder safetySourcesGroupBuilder =
+                    new SafetySourcesGroup.Builder().setId("group_" + i);
+            for (int j = 0; j < SOURCES_PER_GROUP; j++) {
+                int sourceIndex = safetySources.size();
+                SafetySource safetySource =
+                        new SafetySource.Builder(SafetySource.SAFETY_SOURCE_TYPE_ISSUE_ONLY)
+                                .setId("source_" + sourceIndex)
+                                .setPackageName("android.benchmark")
+                                .setProfile(SafetySource.PROFILE_PRIMARY)
+                                .setDeduplicationGroup(
+                                        "deduplication_group_"
+                                                + sourceIndex % DEDUPLICATION_GROUP_COUNT)
+                                .build();
+                safetySourcesGroupBuilder.addSafetySource(safetySource);
+                safetySources.add(safetySource);
+            }
+            SafetySourcesGroup safetySourcesGroup = safetySourcesGroupBuilder.build();
+            for (int j = 0; j < SOURCES_PER_GROUP; j++) {
+                safetySourcesGroups.add(safetySourcesGroup);
+            }
+        }
+
+        PendingIntent pendingIntent = new PendingIntent();
+        Random random = new Random(issueCount);
+        List<SafetySourceIssueInfo> issues = new ArrayList<>(issueCount);
+        for (int i = 0; i < issueCount; i++) {
+            int sourceIndex = i % SOURCE_COUNT;
+            SafetySourceIssue safetySourceIssue =
+                    new SafetySourceIssue.Builder(
+                                    "issue_" + i,
+                                    "Title",
+                                    "Summary",
+                                    SEVERITY_LEVELS[random.nextInt(SEVERITY_LEVELS.length)],
+                                    "issue_type")
+                            .addAction(
+                                    new SafetySourceIssue.Action.Builder(
+                                                    "action", "Action", pendingIntent)
+                                            .build())
+                            .setDeduplicationId(
+                                    "deduplication_id_"
+                                            + i
+                                                    / (DEDUPLICATION_GROUP_COUNT
+                                                            * ISSUES_PER_DEDUPLICATION_ID))
+                            .build();
+            issues.add(
+                    new SafetySourceIssueInfo(
+                            safetySourceIssue,
+                            safetySources.get(sourceIndex),
+                            safetySourcesGroups.get(sourceIndex),
+                            USER_ID));
+        }
+        // Sources send their issues in no particular order.
+        Collections.shuffle(issues, random);
+        return issues;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.persistence;
+
+import static android.os.Build.VERSION_CODES.TIRAMISU;
+
+import androidx.annotation.RequiresApi;
+
+import com.android.permission.benchmark.BenchmarkFiles;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks of {@link SafetyCenterIssuesPersistence}, for 1k and 10k issues. */
+@RequiresApi(TIRAMISU)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SafetyCenterIssuesPersistenceBenchmarks {
+
+    private static final int SOURCE_COUNT = 50;
+
+    private static final long FIRST_SEEN_AT_EPOCH_MILLIS = 1_672_531_200_000L;
+
+    private static final String FILE_NAME = "safety_center_issues.xml";
+
+    @Param({"1000", "10000"})
+    public int issueCount;
+
+    private File mDirectory;
+
+    private File mFile;
+
+    private List<PersistedSafetyCenterIssue> mIssues;
+
+    @Setup
+    public void setUp() throws IOException, PersistenceException {
+        mDirectory = BenchmarkFiles.createTempDirectory();
+        mFile = new File(mDirectory, FILE_NAME);
+        mIssues = createIssues(issueCount);
+        SafetyCenterIssuesPersistence.write(mIssues, mFile);
+        if (!mIssues.equals(SafetyCenterIssuesPersistence.read(mFile))) {
+            throw new IllegalStateException("Issues didn't read back the same");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteRecursively(mDirectory);
+    }
+
+    @Benchmark
+    public List<PersistedSafetyCenterIssue> read() throws PersistenceException {
+        return SafetyCenterIssuesPersistence.read(mFile);
+    }
+
+    @Benchmark
+    public void write() {
+        SafetyCenterIssuesPersistence.write(mIssues, mFile);
+    }
+
+    private static List<PersistedSafetyCenterIssue> createIssues(int issueCount) {
+        List<PersistedSafetyCenterIssue> issues = new ArrayList<>(issueCount);
+        for (int i = 0; i < issueCount; i++) {
+            String key = "benchmark_source_" + (i % SOURCE_COUNT) + "/issue_" + i;
+            Instant firstSeenAt = Instant.ofEpochMilli(FIRST_SEEN_AT_EPOCH_MILLIS + i);
+            PersistedSafetyCenterIssue.Builder builder =
+                    new PersistedSafetyCenterIssue.Builder()
+                            .setKey(
+                                    Base64.getEncoder()
+                                            .encodeToString(key.getBytes(StandardCharsets.UTF_8)))
+                            .setFirstSeenAt(firstSeenAt);
+            if (i % 5 == 0) {
+                builder.setDismissedAt(firstSeenAt.plusSeconds(60)).setDismissCount(1 + i % 3);
+            }
+            if (i % 7 == 0) {
+                builder.setNotificationDismissedAt(firstSeenAt.plusSeconds(30));
+            }
+            issues.add(builder.build());
+        }
+        return issues;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * A simple PendingIntent implementation for the host benchmarks.
+ *
+ * <p>It doesn't hold an intent, and never starts an activity.
+ */
+public final class PendingIntent implements Parcelable {
+
+    public static final Creator<PendingIntent> CREATOR =
+            new Creator<PendingIntent>() {
+                @Override
+                public PendingIntent createFromParcel(Parcel source) {
+                    return new PendingIntent();
+                }
+
+                @Override
+                public PendingIntent[] newArray(int size) {
+                    return new PendingIntent[size];
+                }
+            };
+
+    public boolean isActivity() {
+        return false;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {}
+}
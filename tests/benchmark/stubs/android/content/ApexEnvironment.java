@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.os.UserHandle;
+
+import java.io.File;
+
+/**
+ * A simple ApexEnvironment implementation for the host benchmarks.
+ *
+ * <p>The data directories are created under a host directory set with {@link #setDataDirectory}.
+ */
+public final class ApexEnvironment {
+
+    private static volatile File sDataDirectory =
+            new File(System.getProperty("java.io.tmpdir"), "apexdata");
+
+    private final String mApexModuleName;
+
+    private ApexEnvironment(String apexModuleName) {
+        mApexModuleName = apexModuleName;
+    }
+
+    /** Sets the host directory under which the data directories of all APEXes are created. */
+    public static void setDataDirectory(File dataDirectory) {
+        sDataDirectory = dataDirectory;
+    }
+
+    public static ApexEnvironment getApexEnvironment(String apexModuleName) {
+        return new ApexEnvironment(apexModuleName);
+    }
+
+    public File getDeviceProtectedDataDirForUser(UserHandle user) {
+        return new File(
+                sDataDirectory,
+                "misc_de/" + user.getIdentifier() + "/apexdata/" + mApexModuleName);
+    }
+}
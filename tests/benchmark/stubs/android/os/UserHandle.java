@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/** A simple UserHandle implementation for the host benchmarks. */
+public final class UserHandle {
+    public static final UserHandle SYSTEM = new UserHandle(0);
+
+    private final int mHandle;
+
+    private UserHandle(int handle) {
+        mHandle = handle;
+    }
+
+    public static UserHandle of(int userId) {
+        return userId == 0 ? SYSTEM : new UserHandle(userId);
+    }
+
+    public int getIdentifier() {
+        return mHandle;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof UserHandle && mHandle == ((UserHandle) o).mHandle;
+    }
+
+    @Override
+    public int hashCode() {
+        return mHandle;
+    }
+
+    @Override
+    public String toString() {
+        return "UserHandle{" + mHandle + "}";
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.safetycenter;
+
+import android.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * A SafetySourceData stub for the host benchmarks.
+ *
+ * <p>It only holds the severity levels used by {@link SafetySourceIssue}.
+ */
+public final class SafetySourceData {
+    private SafetySourceData() {}
+
+    public static final int SEVERITY_LEVEL_UNSPECIFIED = 100;
+
+    public static final int SEVERITY_LEVEL_INFORMATION = 200;
+
+    public static final int SEVERITY_LEVEL_RECOMMENDATION = 300;
+
+    public static final int SEVERITY_LEVEL_CRITICAL_WARNING = 400;
+
+    @IntDef(
+            prefix = {"SEVERITY_LEVEL_"},
+            value = {
+                SEVERITY_LEVEL_UNSPECIFIED,
+                SEVERITY_LEVEL_INFORMATION,
+                SEVERITY_LEVEL_RECOMMENDATION,
+                SEVERITY_LEVEL_CRITICAL_WARNING
+            })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface SeverityLevel {}
+}
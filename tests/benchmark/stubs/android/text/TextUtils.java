@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Objects;
+
+/** A simple TextUtils implementation for the host benchmarks. */
+public final class TextUtils {
+    private TextUtils() {}
+
+    public static final Parcelable.Creator<CharSequence> CHAR_SEQUENCE_CREATOR =
+            new Parcelable.Creator<CharSequence>() {
+                @Override
+                public CharSequence createFromParcel(Parcel source) {
+                    return source.readString();
+                }
+
+                @Override
+                public CharSequence[] newArray(int size) {
+                    return new CharSequence[size];
+                }
+            };
+
+    public static void writeToParcel(CharSequence text, Parcel dest, int flags) {
+        dest.writeString(text != null ? text.toString() : null);
+    }
+
+    public static boolean equals(CharSequence a, CharSequence b) {
+        return Objects.equals(
+                a != null ? a.toString() : null, b != null ? b.toString() : null);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A simple ArrayMap implementation for the host benchmarks.
+ *
+ * <p>Entries are kept in insertion order in array lists, so that {@link #keyAt} and {@link
+ * #valueAt} are as cheap as on device. Lookups go through a hash index rather than a binary search
+ * of the hashes, so the benchmarks using it slightly underestimate the cost of lookups.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public final class ArrayMap<K, V> extends AbstractMap<K, V> {
+
+    private final ArrayList<K> mKeys;
+    private final ArrayList<V> mValues;
+    private final HashMap<Object, Integer> mIndices;
+
+    public ArrayMap() {
+        this(0);
+    }
+
+    public ArrayMap(int capacity) {
+        mKeys = new ArrayList<>(capacity);
+        mValues = new ArrayList<>(capacity);
+        mIndices = new HashMap<>(capacity);
+    }
+
+    public ArrayMap(Map<? extends K, ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    /** Returns the index of the given key, or a negative number if it isn't in the map. */
+    public int indexOfKey(Object key) {
+        Integer index = mIndices.get(key);
+        return index != null ? index : -1;
+    }
+
+    /** Returns the key at the given index. */
+    public K keyAt(int index) {
+        return mKeys.get(index);
+    }
+
+    /** Returns the value at the given index. */
+    public V valueAt(int index) {
+        return mValues.get(index);
+    }
+
+    /** Sets the value at the given index, and returns the previous one. */
+    public V setValueAt(int index, V value) {
+        return mValues.set(index, value);
+    }
+
+    /** Removes the entry at the given index, and returns its value. */
+    public V removeAt(int index) {
+        mIndices.remove(mKeys.remove(index));
+        V value = mValues.remove(index);
+        for (int i = index; i < mKeys.size(); i++) {
+            mIndices.put(mKeys.get(i), i);
+        }
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return mKeys.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return mIndices.containsKey(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        int index = indexOfKey(key);
+        return index >= 0 ? mValues.get(index) : null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int index = indexOfKey(key);
+        if (index >= 0) {
+            return mValues.set(index, value);
+        }
+        mIndices.put(key, mKeys.size());
+        mKeys.add(key);
+        mValues.add(value);
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int index = indexOfKey(key);
+        return index >= 0 ? removeAt(index) : null;
+    }
+
+    @Override
+    public void clear() {
+        mKeys.clear();
+        mValues.clear();
+        mIndices.clear();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public int size() {
+                return ArrayMap.this.size();
+            }
+
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+
+        private int mIndex = 0;
+        private boolean mCanRemove = false;
+
+        @Override
+        public boolean hasNext() {
+            return mIndex < size();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int index = mIndex++;
+            mCanRemove = true;
+            return new SimpleEntry<K, V>(keyAt(index), valueAt(index)) {
+                @Override
+                public V setValue(V value) {
+                    super.setValue(value);
+                    return setValueAt(index, value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (!mCanRemove) {
+                throw new IllegalStateException();
+            }
+            mCanRemove = false;
+            removeAt(--mIndex);
+        }
+    }
+}
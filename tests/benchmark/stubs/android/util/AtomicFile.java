@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A simple AtomicFile implementation for the host benchmarks.
+ *
+ * <p>Like the real one, it writes to a new file that is synced and renamed over the base file, so
+ * the benchmarks include the cost of the sync.
+ */
+public final class AtomicFile {
+    private final File mBaseName;
+    private final File mNewName;
+
+    public AtomicFile(File baseName) {
+        mBaseName = baseName;
+        mNewName = new File(baseName.getPath() + ".new");
+    }
+
+    public File getBaseFile() {
+        return mBaseName;
+    }
+
+    public void delete() {
+        mBaseName.delete();
+        mNewName.delete();
+    }
+
+    public FileOutputStream startWrite() throws IOException {
+        try {
+            return new FileOutputStream(mNewName);
+        } catch (FileNotFoundException e) {
+            File parent = mNewName.getParentFile();
+            if (!parent.mkdirs()) {
+                throw new IOException("Failed to create directory for " + mNewName);
+            }
+            return new FileOutputStream(mNewName);
+        }
+    }
+
+    public void finishWrite(FileOutputStream str) {
+        if (str == null) {
+            return;
+        }
+        try {
+            str.getFD().sync();
+            str.close();
+        } catch (IOException e) {
+            Log.e("AtomicFile", "Failed to close file output stream", e);
+        }
+        if (!mNewName.renameTo(mBaseName)) {
+            Log.e("AtomicFile", "Failed to rename " + mNewName + " to " + mBaseName);
+        }
+    }
+
+    public void failWrite(FileOutputStream str) {
+        if (str == null) {
+            return;
+        }
+        try {
+            str.close();
+        } catch (IOException e) {
+            Log.e("AtomicFile", "Failed to close file output stream", e);
+        }
+        mNewName.delete();
+    }
+
+    public FileInputStream openRead() throws FileNotFoundException {
+        return new FileInputStream(mBaseName);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.safetycenter.data;
+
+import com.android.safetycenter.internaldata.SafetyCenterIssueKey;
+
+/**
+ * A SafetyCenterIssueDismissalRepository implementation for the host benchmarks.
+ *
+ * <p>No issue is ever dismissed or hidden, so the benchmarks using it measure the cost of going
+ * through the issues rather than that of the dismissal bookkeeping.
+ */
+final class SafetyCenterIssueDismissalRepository {
+
+    boolean isIssueDismissed(
+            SafetyCenterIssueKey safetyCenterIssueKey, int safetySourceIssueSeverityLevel) {
+        return false;
+    }
+
+    void copyDismissalData(SafetyCenterIssueKey keyFrom, SafetyCenterIssueKey keyTo) {}
+
+    void copyNotificationDismissalData(SafetyCenterIssueKey keyFrom, SafetyCenterIssueKey keyTo) {}
+
+    boolean isNotificationDismissedNow(
+            SafetyCenterIssueKey safetyCenterIssueKey, int safetySourceIssueSeverityLevel) {
+        return false;
+    }
+
+    boolean isIssueHidden(SafetyCenterIssueKey safetyCenterIssueKey) {
+        return false;
+    }
+
+    void hideIssue(SafetyCenterIssueKey safetyCenterIssueKey) {}
+
+    void resurfaceHiddenIssueAfterPeriod(SafetyCenterIssueKey safetyCenterIssueKey) {}
+}
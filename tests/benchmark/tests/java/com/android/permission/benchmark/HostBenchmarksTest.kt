@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permission.benchmark
+
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+
+/**
+ * Runs the JMH benchmarks of each of the [HostBenchmarks.BENCHMARK_CLASSES] and fails if any of
+ * them regressed from its [BenchmarkBaselines] by more than [BenchmarkBaselines.getMaxRegression].
+ *
+ * This isn't a unit test: it takes minutes, and its result depends on the machine it runs on.
+ */
+@RunWith(Parameterized::class)
+class HostBenchmarksTest(private val benchmarkClass: Class<*>) {
+
+    @Test
+    fun run_notSlowerThanBaselines() {
+        val scores = HostBenchmarks.run(benchmarkClass)
+
+        val maxRegression = BenchmarkBaselines.getMaxRegression()
+        val failures =
+            scores.mapNotNull { (name, nanos) ->
+                val baselineNanos = baselines.getBaselineNanos(name)
+                when {
+                    baselineNanos == null ->
+                        "Missing baseline for $name, add the line printed by HostBenchmarks to " +
+                            BenchmarkBaselines.RESOURCE_NAME
+                    BenchmarkBaselines.isRegression(baselineNanos, nanos, maxRegression) ->
+                        "$name took ${nanos.toLong()}ns/op, more than ${maxRegression * 100}% " +
+                            "slower than its baseline of ${baselineNanos.toLong()}ns/op"
+                    else -> null
+                }
+            }
+        assertTrue("No benchmark ran", scores.isNotEmpty())
+        assertTrue(failures.joinToString("\n"), failures.isEmpty())
+    }
+
+    companion object {
+        private val baselines = BenchmarkBaselines.load()
+
+        @JvmStatic
+        @Parameterized.Parameters(name = "{0}")
+        fun benchmarkClasses(): List<Class<*>> = HostBenchmarks.BENCHMARK_CLASSES
+    }
+}
@@ -31,9 +31,13 @@ import android.safetycenter.SafetyCenterEntry.SEVERITY_UNSPECIFIED_ICON_TYPE_PRI
 import android.safetycenter.SafetyCenterEntryGroup
 import android.safetycenter.SafetyCenterEntryOrGroup
 import android.safetycenter.SafetyCenterManager
+import android.safetycenter.SafetyCenterManager.REFRESH_REASON_PAGE_OPEN
 import android.safetycenter.SafetyCenterStaticEntry
 import android.safetycenter.SafetyCenterStaticEntryGroup
+import android.safetycenter.SafetyCenterStatus.REFRESH_STATUS_DATA_FETCH_IN_PROGRESS
+import android.safetycenter.SafetyCenterStatus.REFRESH_STATUS_NONE
 import android.safetycenter.SafetyEvent
+import android.safetycenter.SafetyEvent.SAFETY_EVENT_TYPE_REFRESH_REQUESTED
 import android.safetycenter.SafetySourceData
 import androidx.test.core.app.ApplicationProvider
 import com.android.bedstead.harrier.BedsteadJUnit4
@@ -48,11 +52,15 @@ import com.android.bedstead.nene.TestApis
 import com.android.bedstead.nene.types.OptionalBoolean.TRUE
 import com.android.compatibility.common.util.DisableAnimationRule
 import com.android.compatibility.common.util.FreezeRotationRule
+import com.android.compatibility.common.util.SystemUtil
 import com.android.safetycenter.resources.SafetyCenterResourcesContext
+import com.android.safetycenter.testing.Coroutines.TIMEOUT_LONG
 import com.android.safetycenter.testing.SafetyCenterActivityLauncher.launchSafetyCenterActivity
 import com.android.safetycenter.testing.SafetyCenterApisWithShellPermissions.getSafetyCenterDataWithPermission
 import com.android.safetycenter.testing.SafetyCenterApisWithShellPermissions.getSafetySourceDataWithPermission
+import com.android.safetycenter.testing.SafetyCenterApisWithShellPermissions.refreshSafetySourcesWithPermission
 import com.android.safetycenter.testing.SafetyCenterApisWithShellPermissions.setSafetySourceDataWithPermission
+import com.android.safetycenter.testing.SafetyCenterFlags
 import com.android.safetycenter.testing.SafetyCenterFlags.deviceSupportsSafetyCenter
 import com.android.safetycenter.testing.SafetyCenterTestConfigs
 import com.android.safetycenter.testing.SafetyCenterTestConfigs.Companion.ACTION_TEST_ACTIVITY
@@ -76,6 +84,7 @@ import com.android.safetycenter.testing.SafetyCenterTestConfigs.Companion.STATIC
 import com.android.safetycenter.testing.SafetyCenterTestData
 import com.android.safetycenter.testing.SafetyCenterTestData.Companion.withoutExtras
 import com.android.safetycenter.testing.SafetyCenterTestHelper
+import com.android.safetycenter.testing.SafetySourceReceiver.Companion.refreshSafetySourcesWithReceiverPermissionAndWait
 import com.android.safetycenter.testing.SafetySourceTestData
 import com.android.safetycenter.testing.SafetySourceTestData.Companion.EVENT_SOURCE_STATE_CHANGED
 import com.android.safetycenter.testing.ShellPermissions.callWithShellPermissionIdentity
@@ -925,6 +934,24 @@ class SafetyCenterMultiUsersTest {
             .isEqualTo(SafetyCenterTestData.DEFAULT)
     }
 
+    @Test
+    @EnsureHasWorkProfile(installInstrumentedApp = TRUE)
+    @Postsubmit(reason = "Test takes too much time to setup")
+    fun getSafetyCenterData_afterManagedProfileStoppedAndStarted_updatesWorkEntry() {
+        safetyCenterTestHelper.setConfig(safetyCenterTestConfigs.singleSourceAllProfileConfig)
+        val dataWithProfileRunning = safetyCenterManager.getSafetyCenterDataWithPermission()
+
+        deviceState.workProfile().stop()
+        SystemUtil.waitForBroadcasts()
+        val dataWithProfileStopped = safetyCenterManager.getSafetyCenterDataWithPermission()
+        deviceState.workProfile().start()
+        SystemUtil.waitForBroadcasts()
+        val dataWithProfileRestarted = safetyCenterManager.getSafetyCenterDataWithPermission()
+
+        assertThat(dataWithProfileStopped).isNotEqualTo(dataWithProfileRunning)
+        assertThat(dataWithProfileRestarted).isEqualTo(dataWithProfileRunning)
+    }
+
     @Test
     @Postsubmit(reason = "Test takes too much time to setup")
     @EnsureHasWorkProfile(installInstrumentedApp = TRUE)
@@ -1188,6 +1215,40 @@ class SafetyCenterMultiUsersTest {
         assertThat(apiSafetySourceDataForPrimaryUser).isEqualTo(null)
     }
 
+    @Test
+    @Postsubmit(reason = "Test takes too much time to setup")
+    @EnsureHasAdditionalUser(installInstrumentedApp = TRUE)
+    fun refreshSafetySources_forPrimaryAndAdditionalUserConcurrently_completesPrimaryRefresh() {
+        SafetyCenterFlags.refreshCoalescingWindow = TIMEOUT_LONG
+        safetyCenterTestHelper.setConfig(safetyCenterTestConfigs.singleSourceConfig)
+        val listener = safetyCenterTestHelper.addListener()
+        val primaryBroadcastId =
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_PAGE_OPEN
+            )
+        checkState(
+            listener.receiveSafetyCenterData().status.refreshStatus ==
+                REFRESH_STATUS_DATA_FETCH_IN_PROGRESS
+        )
+        val additionalUserSafetyCenterManager =
+            getSafetyCenterManagerForUser(deviceState.additionalUser().userHandle())
+        additionalUserSafetyCenterManager.refreshSafetySourcesWithInteractAcrossUsersPermission(
+            REFRESH_REASON_PAGE_OPEN
+        )
+        SystemUtil.waitForBroadcasts()
+
+        safetyCenterTestHelper.setData(
+            SINGLE_SOURCE_ID,
+            safetySourceTestData.information,
+            SafetyEvent.Builder(SAFETY_EVENT_TYPE_REFRESH_REQUESTED)
+                .setRefreshBroadcastId(primaryBroadcastId)
+                .build()
+        )
+
+        val safetyCenterData = listener.receiveSafetyCenterData()
+        assertThat(safetyCenterData.status.refreshStatus).isEqualTo(REFRESH_STATUS_NONE)
+    }
+
     private fun findWorkPolicyInfo() {
         context.launchSafetyCenterActivity {
             // TODO(b/233188021): This needs to use the Enterprise API to override the "work"
@@ -1232,6 +1293,13 @@ class SafetyCenterMultiUsersTest {
             setSafetySourceDataWithPermission(id, dataToSet, safetyEvent)
         }
 
+    private fun SafetyCenterManager.refreshSafetySourcesWithInteractAcrossUsersPermission(
+        refreshReason: Int
+    ) =
+        callWithShellPermissionIdentity(INTERACT_ACROSS_USERS_FULL) {
+            refreshSafetySourcesWithPermission(refreshReason)
+        }
+
     private fun SafetyCenterManager.getSafetyCenterDataWithInteractAcrossUsersPermission():
         SafetyCenterData =
         callWithShellPermissionIdentity(INTERACT_ACROSS_USERS_FULL) {
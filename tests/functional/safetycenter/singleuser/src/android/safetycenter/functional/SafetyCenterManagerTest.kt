@@ -38,6 +38,7 @@ import android.safetycenter.SafetyCenterEntryGroup
 import android.safetycenter.SafetyCenterEntryOrGroup
 import android.safetycenter.SafetyCenterErrorDetails
 import android.safetycenter.SafetyCenterManager
+import android.safetycenter.SafetyCenterManager.REFRESH_REASON_DEVICE_LOCALE_CHANGE
 import android.safetycenter.SafetyCenterManager.REFRESH_REASON_OTHER
 import android.safetycenter.SafetyCenterManager.REFRESH_REASON_PAGE_OPEN
 import android.safetycenter.SafetyCenterManager.REFRESH_REASON_RESCAN_BUTTON_CLICK
@@ -77,6 +78,7 @@ import com.android.safetycenter.testing.Coroutines.waitForWithTimeout
 import com.android.safetycenter.testing.SafetyCenterApisWithShellPermissions.dismissSafetyCenterIssueWithPermission
 import com.android.safetycenter.testing.SafetyCenterApisWithShellPermissions.getSafetyCenterConfigWithPermission
 import com.android.safetycenter.testing.SafetyCenterApisWithShellPermissions.getSafetyCenterDataWithPermission
+import com.android.safetycenter.testing.SafetyCenterApisWithShellPermissions.getSafetySourceDataWithPermission
 import com.android.safetycenter.testing.SafetyCenterApisWithShellPermissions.refreshSafetySourcesWithPermission
 import com.android.safetycenter.testing.SafetyCenterApisWithShellPermissions.reportSafetySourceErrorWithPermission
 import com.android.safetycenter.testing.SafetyCenterFlags
@@ -869,6 +871,116 @@ class SafetyCenterManagerTest {
         assertThat(status2).isEqualTo(safetyCenterStatusOk)
     }
 
+    @Test
+    fun refreshSafetySources_samePageOpenRefreshInProgress_noBroadcastSent() {
+        SafetyCenterFlags.refreshCoalescingWindow = TIMEOUT_LONG
+        safetyCenterTestHelper.setConfig(safetyCenterTestConfigs.singleSourceConfig)
+        safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+            REFRESH_REASON_PAGE_OPEN
+        )
+
+        assertFailsWith(TimeoutCancellationException::class) {
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_PAGE_OPEN,
+                TIMEOUT_SHORT
+            )
+        }
+    }
+
+    @Test
+    fun refreshSafetySources_rescanWhilePageOpenRefreshInProgress_broadcastSentWithNewId() {
+        SafetyCenterFlags.refreshCoalescingWindow = TIMEOUT_LONG
+        safetyCenterTestHelper.setConfig(safetyCenterTestConfigs.singleSourceConfig)
+        val pageOpenBroadcastId =
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_PAGE_OPEN
+            )
+
+        val rescanBroadcastId =
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_RESCAN_BUTTON_CLICK
+            )
+
+        assertThat(rescanBroadcastId).isNotEqualTo(pageOpenBroadcastId)
+    }
+
+    @Test
+    fun refreshSafetySources_pageOpenWhileBackgroundRefreshInProgress_broadcastSentWithNewId() {
+        SafetyCenterFlags.refreshCoalescingWindow = TIMEOUT_LONG
+        safetyCenterTestHelper.setConfig(safetyCenterTestConfigs.singleSourceConfig)
+        val backgroundBroadcastId =
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_OTHER
+            )
+
+        val pageOpenBroadcastId =
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_PAGE_OPEN
+            )
+
+        assertThat(pageOpenBroadcastId).isNotEqualTo(backgroundBroadcastId)
+    }
+
+    @Test
+    fun refreshSafetySources_otherBackgroundRefreshInProgress_noBroadcastSent() {
+        SafetyCenterFlags.refreshCoalescingWindow = TIMEOUT_LONG
+        safetyCenterTestHelper.setConfig(safetyCenterTestConfigs.singleSourceConfig)
+        safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(REFRESH_REASON_OTHER)
+
+        assertFailsWith(TimeoutCancellationException::class) {
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_DEVICE_LOCALE_CHANGE,
+                TIMEOUT_SHORT
+            )
+        }
+    }
+
+    @Test
+    fun refreshSafetySources_coalescingDisabled_broadcastSentWithNewId() {
+        SafetyCenterFlags.refreshCoalescingWindow = Duration.ZERO
+        safetyCenterTestHelper.setConfig(safetyCenterTestConfigs.singleSourceConfig)
+        val firstBroadcastId =
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_PAGE_OPEN
+            )
+
+        val secondBroadcastId =
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_PAGE_OPEN
+            )
+
+        assertThat(secondBroadcastId).isNotEqualTo(firstBroadcastId)
+    }
+
+    @Test
+    fun refreshSafetySources_mergedIntoRefreshInProgress_onlySendsBroadcastToSourcesNotRequested() {
+        SafetyCenterFlags.refreshCoalescingWindow = TIMEOUT_LONG
+        safetyCenterTestHelper.setConfig(safetyCenterTestConfigs.multipleSourcesInSingleGroupConfig)
+        val firstBroadcastId =
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_PAGE_OPEN,
+                safetySourceIds = listOf(SOURCE_ID_1)
+            )
+        SafetySourceReceiver.setResponse(
+            Request.Refresh(SOURCE_ID_1),
+            Response.SetData(safetySourceTestData.information)
+        )
+        SafetySourceReceiver.setResponse(
+            Request.Refresh(SOURCE_ID_2),
+            Response.SetData(safetySourceTestData.information)
+        )
+
+        val secondBroadcastId =
+            safetyCenterManager.refreshSafetySourcesWithReceiverPermissionAndWait(
+                REFRESH_REASON_PAGE_OPEN
+            )
+
+        assertThat(secondBroadcastId).isEqualTo(firstBroadcastId)
+        assertThat(safetyCenterManager.getSafetySourceDataWithPermission(SOURCE_ID_1)).isNull()
+        assertThat(safetyCenterManager.getSafetySourceDataWithPermission(SOURCE_ID_2))
+            .isEqualTo(safetySourceTestData.information)
+    }
+
     @Test
     fun getSafetyCenterData_withoutDataProvided_returnsDataFromConfig() {
         safetyCenterTestHelper.setConfig(safetyCenterTestConfigs.singleSourceConfig)
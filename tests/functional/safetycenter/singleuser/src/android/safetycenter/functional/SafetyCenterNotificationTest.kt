@@ -236,6 +236,32 @@ class SafetyCenterNotificationTest {
         )
     }
 
+    @Test
+    @SdkSuppress(minSdkVersion = UPSIDE_DOWN_CAKE, codeName = "UpsideDownCake")
+    fun setSafetySourceData_withNotificationBehaviorDelay_sendsNotificationWithoutOtherUpdate() {
+        SafetyCenterFlags.notificationsMinDelay = TIMEOUT_SHORT
+        val data =
+            safetySourceTestData
+                .defaultRecommendationDataBuilder()
+                .addIssue(
+                    safetySourceTestData
+                        .defaultRecommendationIssueBuilder("Notify later", "This is not urgent.")
+                        .setNotificationBehavior(SafetySourceIssue.NOTIFICATION_BEHAVIOR_DELAYED)
+                        .build()
+                )
+                .build()
+
+        safetyCenterTestHelper.setData(SINGLE_SOURCE_ID, data)
+
+        TestNotificationListener.waitForSingleNotificationMatching(
+            NotificationCharacteristics(
+                title = "Notify later",
+                text = "This is not urgent.",
+                actions = listOf("See issue")
+            )
+        )
+    }
+
     @Test
     @SdkSuppress(minSdkVersion = UPSIDE_DOWN_CAKE, codeName = "UpsideDownCake")
     fun setSafetySourceData_withNotificationBehaviorDelayOfZero_sendsNotificationImmediately() {
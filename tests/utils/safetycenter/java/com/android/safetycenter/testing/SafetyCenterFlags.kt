@@ -124,6 +124,19 @@ object SafetyCenterFlags {
             MapParser(IntParser(), DurationParser())
         )
 
+    /**
+     * Flag that determines the time since the start of a refresh during which a new refresh request
+     * is merged into it, rather than broadcasting again to the sources it is waiting for.
+     *
+     * Merging is disabled by default, so that tests can expect a broadcast for each refresh request.
+     */
+    private val refreshCoalescingWindowFlag =
+        Flag(
+            "safety_center_refresh_coalescing_window_millis",
+            defaultValue = Duration.ZERO,
+            DurationParser()
+        )
+
     /**
      * Flag that determines the time for which Safety Center will wait for a source to respond to a
      * resolving action before timing out.
@@ -306,6 +319,7 @@ object SafetyCenterFlags {
             showErrorEntriesOnTimeoutFlag,
             replaceLockScreenIconActionFlag,
             refreshSourceTimeoutsFlag,
+            refreshCoalescingWindowFlag,
             resolveActionTimeoutFlag,
             tempHiddenIssueResurfaceDelayFlag,
             hideResolveUiTransitionDelayFlag,
@@ -357,6 +371,9 @@ object SafetyCenterFlags {
     /** A property that allows getting and setting the [refreshSourceTimeoutsFlag]. */
     var refreshTimeouts: Map<Int, Duration> by refreshSourceTimeoutsFlag
 
+    /** A property that allows getting and setting the [refreshCoalescingWindowFlag]. */
+    var refreshCoalescingWindow: Duration by refreshCoalescingWindowFlag
+
     /** A property that allows getting and setting the [resolveActionTimeoutFlag]. */
     var resolveActionTimeout: Duration by resolveActionTimeoutFlag
 